@@ -0,0 +1,108 @@
+package io.github.waileong.fcm.benchmark;
+
+import io.github.waileong.fcm.aop.FcmNotificationAuditor;
+import io.github.waileong.fcm.aop.FcmNotificationMetrics;
+import io.github.waileong.fcm.aop.FcmNotificationServiceAdvice;
+import io.github.waileong.fcm.aop.FcmNotificationServiceDecorator;
+import io.github.waileong.fcm.aop.FcmNotificationServiceMetricsAdvice;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the cost of the aspects around the notification service. The same synchronous send against
+ * a stubbed FCM is measured without aspects, with the audit aspect, and with the audit and metrics aspects;
+ * the differences are the cost of the aspects. The same interceptors are also measured applied by the
+ * {@link FcmNotificationServiceDecorator} of the lean build instead of a proxy. The audit logger is enabled with
+ * no appender, see {@code logback.xml}, so the audit writer thread drains the buffer without doing I/O.
+ *
+ * @author Wai Leong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdviceBenchmark {
+    private FcmDispatcher dispatcher;
+    private FcmNotificationAuditor auditor;
+    private FcmNotificationService plain;
+    private FcmNotificationService audited;
+    private FcmNotificationService auditedAndMetered;
+    private FcmNotificationService decoratedAudited;
+    private FcmNotificationService decoratedAuditedAndMetered;
+    private FcmSendRequest request;
+
+    @Setup
+    public void setUp() {
+        dispatcher = Fixtures.dispatcher();
+        FcmNotificationService target = Fixtures.notificationService(new StubFcmService(0), dispatcher);
+        auditor = new FcmNotificationAuditor(8192);
+        FcmNotificationMetrics metrics = new FcmNotificationMetrics(new SimpleMeterRegistry());
+        plain = target;
+        audited = proxy(target, new FcmNotificationServiceAdvice(auditor));
+        auditedAndMetered = proxy(target, new FcmNotificationServiceAdvice(auditor),
+                new FcmNotificationServiceMetricsAdvice(metrics));
+        decoratedAudited = new FcmNotificationServiceDecorator(target, List.of(auditor));
+        decoratedAuditedAndMetered = new FcmNotificationServiceDecorator(target, List.of(auditor, metrics));
+        request = Fixtures.request();
+    }
+
+    @TearDown
+    public void tearDown() {
+        auditor.close();
+        dispatcher.close();
+    }
+
+    @Benchmark
+    public FcmSendResponse noAspect() {
+        return plain.sendSynchronousComplex(request);
+    }
+
+    @Benchmark
+    public FcmSendResponse auditAspect() {
+        return audited.sendSynchronousComplex(request);
+    }
+
+    @Benchmark
+    public FcmSendResponse auditAndMetricsAspects() {
+        return auditedAndMetered.sendSynchronousComplex(request);
+    }
+
+    @Benchmark
+    public FcmSendResponse auditDecorator() {
+        return decoratedAudited.sendSynchronousComplex(request);
+    }
+
+    @Benchmark
+    public FcmSendResponse auditAndMetricsDecorator() {
+        return decoratedAuditedAndMetered.sendSynchronousComplex(request);
+    }
+
+    private static FcmNotificationService proxy(FcmNotificationService target, Object... aspects) {
+        AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addInterface(FcmNotificationService.class);
+        for (Object aspect : aspects) {
+            factory.addAspect(aspect);
+        }
+        return factory.getProxy();
+    }
+}
@@ -0,0 +1,61 @@
+package io.github.waileong.fcm.benchmark;
+
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.impl.FcmNotificationServiceImpl;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks an asynchronous send end to end: building the message, queueing it in the dispatcher lane,
+ * running it on a virtual thread and calling a stubbed FCM, until the returned future completes.
+ * The stub either answers immediately, measuring the pipeline overhead, or after a simulated round trip,
+ * measuring how well the pipeline overlaps calls.
+ *
+ * @author Wai Leong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class DispatchBenchmark {
+
+    @Param({"0", "1000"})
+    public long fcmLatencyMicros;
+
+    private FcmDispatcher dispatcher;
+    private FcmNotificationServiceImpl service;
+
+    @Setup
+    public void setUp() {
+        dispatcher = Fixtures.dispatcher();
+        service = Fixtures.notificationService(new StubFcmService(fcmLatencyMicros), dispatcher);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.close();
+    }
+
+    @Benchmark
+    public FcmSendResponse sendSimpleNotificationWithData() {
+        return service.sendSimpleNotificationWithData(Fixtures.TOKEN, Fixtures.TITLE, Fixtures.MESSAGE,
+                Fixtures.DATA, "order-12345").join();
+    }
+}
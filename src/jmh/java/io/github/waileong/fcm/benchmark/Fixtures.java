@@ -0,0 +1,76 @@
+package io.github.waileong.fcm.benchmark;
+
+import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.dispatch.FcmOutboundSender;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmNotification;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.impl.FcmNotificationServiceImpl;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.tenant.FcmTenantRegistry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Builds the objects shared by the benchmarks the way the auto-configuration does, minus Spring.
+ *
+ * @author Wai Leong
+ */
+final class Fixtures {
+    static final String TOKEN = "dQw4w9WgXcQ:APA91bHun4MxP5egoKMwt2KZFBaFUH-1RYqx";
+    static final String TITLE = "Your order has shipped";
+    static final String MESSAGE = "Order #12345 is on its way and should arrive on Thursday.";
+    static final Map<String, String> DATA = Map.of("orderId", "12345", "deepLink", "app://orders/12345");
+
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a dispatcher running on virtual threads with the default lane settings.
+     *
+     * @return a new dispatcher, to be closed by the caller
+     */
+    static FcmDispatcher dispatcher() {
+        return new FcmDispatcher(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("bench-dispatch-", 0).factory()),
+                1024,
+                Map.of(FcmPriority.HIGH, new FcmDispatcher.LaneSettings(1000, 4, Duration.ofSeconds(1)),
+                        FcmPriority.NORMAL, new FcmDispatcher.LaneSettings(10000, 1, Duration.ofSeconds(5))));
+    }
+
+    /**
+     * Creates a notification service sending through the given FCM service, without limiter, retries,
+     * token cache or metrics.
+     *
+     * @param fcmService the FCM service to send through
+     * @param dispatcher the dispatcher running asynchronous sends
+     * @return a new notification service
+     */
+    static FcmNotificationServiceImpl notificationService(FcmService fcmService, FcmDispatcher dispatcher) {
+        FcmOutboundSender sender = new FcmOutboundSender(fcmService, null, null, null, null, null, null);
+        return new FcmNotificationServiceImpl(sender, dispatcher, null, null, null, null, null,
+                new FcmTenantRegistry(List.of()), null, null, 64, 256);
+    }
+
+    /**
+     * Creates a send request of a notification with data and a collapse key, as sent by {@code /simpleWithData}.
+     *
+     * @return a new send request
+     */
+    static FcmSendRequest request() {
+        return FcmSendRequest.Builder.aFcmSendRequest()
+                .message(FcmMessage.Builder.aFcmMessage()
+                        .token(TOKEN)
+                        .notification(FcmNotification.Builder.aFcmNotification()
+                                .title(TITLE)
+                                .body(MESSAGE)
+                                .build())
+                        .data(DATA)
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,36 @@
+package io.github.waileong.fcm.benchmark;
+
+import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link FcmService} that answers every send locally, optionally after a fixed delay standing in for
+ * the round trip to FCM, so that benchmarks measure this application rather than the network.
+ *
+ * @author Wai Leong
+ */
+public class StubFcmService implements FcmService {
+    private static final FcmMessage RESPONSE = FcmMessage.Builder.aFcmMessage().build();
+    private final long latencyNanos;
+
+    /**
+     * Constructs a StubFcmService.
+     *
+     * @param latencyMicros the simulated round trip time, in microseconds; 0 to answer immediately
+     */
+    public StubFcmService(long latencyMicros) {
+        this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+    }
+
+    @Override
+    public FcmMessage send(FcmSendRequest fcmSendRequest) {
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        return RESPONSE;
+    }
+}
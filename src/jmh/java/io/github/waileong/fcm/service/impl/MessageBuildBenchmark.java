@@ -0,0 +1,66 @@
+package io.github.waileong.fcm.service.impl;
+
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.template.FcmNotificationTemplate;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link FcmNotificationServiceImpl#getFcmMessageBuilder}, with and without a collapse key.
+ * The collapse key branch allocates the APNs and Android overrides on top of the notification.
+ * The same message rendered from a {@link FcmNotificationTemplate} is benchmarked alongside, with the order id
+ * as its only variable, so the cost of rendering can be compared with building the message from scratch.
+ * Lives in the implementation package because the method is package-private.
+ *
+ * @author Wai Leong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageBuildBenchmark {
+    private static final String TOKEN = "dQw4w9WgXcQ:APA91bHun4MxP5egoKMwt2KZFBaFUH-1RYqx";
+    private static final Map<String, String> VARIABLES = Map.of("orderId", "12345");
+
+    @Param({"", "order-12345"})
+    public String collapseKey;
+
+    private FcmNotificationServiceImpl service;
+    private FcmNotificationTemplate template;
+
+    @Setup
+    public void setUp() {
+        service = new FcmNotificationServiceImpl(null, null, null, null, null, null, null, null, null, null, 64,
+                256);
+        template = FcmNotificationTemplate.Builder.aFcmNotificationTemplate()
+                .title("Your order has shipped")
+                .body("Order #{orderId} is on its way and should arrive on Thursday.")
+                .collapseKey(collapseKey.isEmpty() ? null : "order-{orderId}")
+                .build();
+    }
+
+    @Benchmark
+    public FcmMessage buildMessage() {
+        return service.getFcmMessageBuilder(TOKEN, "Your order has shipped",
+                "Order #12345 is on its way and should arrive on Thursday.", collapseKey).build();
+    }
+
+    @Benchmark
+    public FcmMessage buildTemplateMessage() {
+        return template.builder(VARIABLES).token(TOKEN).build();
+    }
+}
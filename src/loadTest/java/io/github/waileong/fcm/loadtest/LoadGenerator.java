@@ -0,0 +1,323 @@
+package io.github.waileong.fcm.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drives the FCM endpoint over HTTP and reports throughput, latency percentiles, heap and resident set size.
+ * Meant to be run against the application started with the FCM stand-in enabled, either on the JVM or as a
+ * native image, so the numbers reflect this application rather than Google.
+ * <p>
+ * With {@code --rate} the load is open: requests are started on a fixed schedule and latency is measured from
+ * the scheduled start, so a stall of the server shows up in the percentiles instead of silently lowering the
+ * offered load. Without it, every worker sends its next request as soon as the previous one is answered.
+ * <p>
+ * Options, all given as {@code --name=value}:
+ * <ul>
+ *     <li>{@code url}: the base URL of the application, default {@code http://localhost:8080}</li>
+ *     <li>{@code endpoint}: {@code simple}, {@code simpleWithData}, {@code data} or {@code multicast}, default {@code simple}</li>
+ *     <li>{@code concurrency}: the number of concurrent requests, default 256</li>
+ *     <li>{@code rate}: the requests started per second, default 0 for a closed loop</li>
+ *     <li>{@code warmup}: the time run before measuring, default {@code 10s}</li>
+ *     <li>{@code duration}: the time measured, default {@code 60s}</li>
+ *     <li>{@code tokens}: the number of distinct tokens sent to, default 10000</li>
+ *     <li>{@code batch}: the tokens per {@code multicast} request, default 100</li>
+ *     <li>{@code priority}: the {@code X-FCM-Priority} header, none by default</li>
+ *     <li>{@code pid}: the process id of the application, to sample its resident set size from {@code /proc}</li>
+ * </ul>
+ *
+ * @author Wai Leong
+ */
+public final class LoadGenerator {
+    private static final Pattern METRIC_VALUE = Pattern.compile("\"statistic\"\\s*:\\s*\"VALUE\"\\s*,\\s*\"value\"\\s*:\\s*([0-9.Ee+-]+)");
+    private static final Pattern VM_RSS = Pattern.compile("VmRSS:\\s+(\\d+)\\s+kB");
+    private final Map<String, String> options;
+    private final HttpClient client;
+    private final URI target;
+    private final String priority;
+    private final int tokens;
+    private final int batch;
+    private final String endpoint;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder failures = new LongAdder();
+    private volatile boolean measuring;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.endpoint = option("endpoint", "simple");
+        this.target = URI.create(option("url", "http://localhost:8080") + "/" + endpoint);
+        this.priority = options.get("priority");
+        this.tokens = Integer.parseInt(option("tokens", "10000"));
+        this.batch = Integer.parseInt(option("batch", "100"));
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    /**
+     * Runs the load test and prints the report to standard output.
+     *
+     * @param args the options, as {@code --name=value}
+     * @throws Exception if the load test cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be given as --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        new LoadGenerator(options).run();
+    }
+
+    private void run() throws Exception {
+        int concurrency = Integer.parseInt(option("concurrency", "256"));
+        double rate = Double.parseDouble(option("rate", "0"));
+        Duration warmup = Duration.parse("PT" + option("warmup", "10s"));
+        Duration duration = Duration.parse("PT" + option("duration", "60s"));
+        long intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+
+        Sampler sampler = new Sampler(option("url", "http://localhost:8080"), options.get("pid"));
+        long begin = System.nanoTime();
+        long measureFrom = begin + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+        List<Recorder> recorders = new ArrayList<>(concurrency);
+        try (ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                Recorder recorder = new Recorder();
+                recorders.add(recorder);
+                workers.submit(() -> work(recorder, begin, measureFrom, end, intervalNanos));
+            }
+            Thread.sleep(Math.max(0, TimeUnit.NANOSECONDS.toMillis(measureFrom - System.nanoTime())));
+            measuring = true;
+            sampler.start();
+        }
+        sampler.stop();
+
+        long[] latencies = Recorder.merge(recorders);
+        Arrays.sort(latencies);
+        double seconds = duration.toNanos() / 1e9;
+        System.out.printf("Endpoint    POST %s, %d workers, %s%n", target, concurrency,
+                rate > 0 ? "open loop at " + rate + " req/s" : "closed loop");
+        System.out.printf("Requests    %d in %.0f s (%.1f req/s)%n", latencies.length, seconds, latencies.length / seconds);
+        System.out.printf("Status      %s%n", new TreeMap<>(statuses));
+        System.out.printf("Failures    %d (no HTTP response)%n", failures.sum());
+        System.out.printf("Latency ms  p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1.0));
+        System.out.printf("Heap MB     %s%n", sampler.heap.describe());
+        System.out.printf("RSS MB      %s%n", options.containsKey("pid") ? sampler.rss.describe() : "not sampled, pass --pid");
+    }
+
+    private void work(Recorder recorder, long begin, long measureFrom, long end, long intervalNanos) {
+        while (true) {
+            long scheduled;
+            if (intervalNanos > 0) {
+                scheduled = begin + sequence.getAndIncrement() * intervalNanos;
+                long wait = scheduled - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            } else {
+                scheduled = System.nanoTime();
+            }
+            if (scheduled - end >= 0) {
+                return;
+            }
+            int status = send();
+            if (measuring && scheduled - measureFrom >= 0) {
+                recorder.record(System.nanoTime() - scheduled);
+                if (status < 0) {
+                    failures.increment();
+                } else {
+                    statuses.computeIfAbsent(status, code -> new LongAdder()).increment();
+                }
+            }
+        }
+    }
+
+    private int send() {
+        HttpRequest.Builder request = HttpRequest.newBuilder(target)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body()));
+        if (priority != null) {
+            request.header("X-FCM-Priority", priority);
+        }
+        try {
+            return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException ex) {
+            return -1;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private String body() {
+        long n = sequence.get();
+        String token = token(n);
+        return switch (endpoint) {
+            case "simple" -> "{\"token\":\"" + token + "\",\"title\":\"Load test\",\"message\":\"Message " + n + "\"}";
+            case "simpleWithData" -> "{\"token\":\"" + token + "\",\"title\":\"Load test\",\"message\":\"Message " + n
+                    + "\",\"data\":{\"sequence\":\"" + n + "\"}}";
+            case "data" -> "{\"token\":\"" + token + "\",\"data\":{\"sequence\":\"" + n + "\"}}";
+            case "multicast" -> {
+                StringBuilder body = new StringBuilder("{\"tokens\":[");
+                for (int i = 0; i < batch; i++) {
+                    body.append(i == 0 ? "\"" : ",\"").append(token(n * batch + i)).append('"');
+                }
+                yield body.append("],\"title\":\"Load test\",\"message\":\"Message ").append(n).append("\"}").toString();
+            }
+            default -> throw new IllegalArgumentException("Unknown endpoint " + endpoint);
+        };
+    }
+
+    private String token(long n) {
+        return "loadtest-token-" + Math.floorMod(n * 2654435761L, tokens);
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Collects the latencies measured by one worker, without synchronization.
+     */
+    private static final class Recorder {
+        private long[] latencies = new long[1024];
+        private int size;
+
+        void record(long nanos) {
+            if (size == latencies.length) {
+                latencies = Arrays.copyOf(latencies, size * 2);
+            }
+            latencies[size++] = nanos;
+        }
+
+        static long[] merge(List<Recorder> recorders) {
+            long[] merged = new long[recorders.stream().mapToInt(recorder -> recorder.size).sum()];
+            int offset = 0;
+            for (Recorder recorder : recorders) {
+                System.arraycopy(recorder.latencies, 0, merged, offset, recorder.size);
+                offset += recorder.size;
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Samples the heap used, from the actuator metrics endpoint, and the resident set size, from {@code /proc},
+     * once a second while measuring.
+     */
+    private final class Sampler {
+        private final HttpRequest heapRequest;
+        private final Path status;
+        private final Gauge heap = new Gauge();
+        private final Gauge rss = new Gauge();
+        private Thread thread;
+
+        Sampler(String url, String pid) {
+            this.heapRequest = HttpRequest.newBuilder(URI.create(url + "/actuator/metrics/jvm.memory.used?tag=area:heap"))
+                    .timeout(Duration.ofSeconds(2))
+                    .GET()
+                    .build();
+            this.status = pid == null ? null : Path.of("/proc", pid, "status");
+        }
+
+        void start() {
+            thread = Thread.ofPlatform().daemon(true).name("loadtest-sampler").start(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sample();
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            });
+        }
+
+        void stop() throws InterruptedException {
+            thread.interrupt();
+            thread.join();
+            sample();
+        }
+
+        private void sample() {
+            try {
+                HttpResponse<String> response = client.send(heapRequest, HttpResponse.BodyHandlers.ofString());
+                Matcher matcher = METRIC_VALUE.matcher(response.body());
+                if (response.statusCode() == 200 && matcher.find()) {
+                    heap.add(Double.parseDouble(matcher.group(1)) / (1024 * 1024));
+                }
+            } catch (IOException ex) {
+                // the actuator metrics endpoint is not exposed, heap is reported as not sampled
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            if (status != null) {
+                try {
+                    Matcher matcher = VM_RSS.matcher(Files.readString(status));
+                    if (matcher.find()) {
+                        rss.add(Long.parseLong(matcher.group(1)) / 1024.0);
+                    }
+                } catch (IOException ex) {
+                    // the process has gone away
+                }
+            }
+        }
+    }
+
+    /**
+     * The maximum and last value of a sampled quantity.
+     */
+    private static final class Gauge {
+        private double max;
+        private double last;
+        private int samples;
+
+        synchronized void add(double value) {
+            max = Math.max(max, value);
+            last = value;
+            samples++;
+        }
+
+        synchronized String describe() {
+            return samples == 0 ? "not sampled" : String.format("max %.1f, last %.1f (%d samples)", max, last, samples);
+        }
+    }
+}
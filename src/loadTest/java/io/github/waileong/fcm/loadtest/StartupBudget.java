@@ -0,0 +1,194 @@
+package io.github.waileong.fcm.loadtest;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Starts the application, usually the native image, and checks its startup time and memory footprint against
+ * budgets. The time to first request runs from starting the process until the probe is first answered with
+ * {@code 200 OK}. Then {@code requests} notifications are sent one after the other, which should only be done
+ * with the FCM stand-in enabled, and after {@code settle} the peak resident set size of the process is read from
+ * {@code /proc}. The measurements are printed, and the process exits with status 1 if either exceeds its budget.
+ * <p>
+ * Options, all given as {@code --name=value}, with the arguments of the application following a lone {@code --}:
+ * <ul>
+ *     <li>{@code executable}: the application to start, required</li>
+ *     <li>{@code url}: the base URL of the application, default {@code http://localhost:8080}</li>
+ *     <li>{@code probe}: the path polled until the application answers, default {@code /actuator/health/liveness}</li>
+ *     <li>{@code startup}: the budget of the time to first request, such as {@code 0.5s}, none by default</li>
+ *     <li>{@code rss}: the budget of the peak resident set size in MB, none by default</li>
+ *     <li>{@code requests}: the notifications sent to {@code /simple} before measuring the memory, default 0</li>
+ *     <li>{@code settle}: the time waited before measuring the memory, default {@code 2s}</li>
+ *     <li>{@code timeout}: the time given to the application to answer the probe, default {@code 30s}</li>
+ *     <li>{@code log}: the file the output of the application is written to, discarded by default</li>
+ * </ul>
+ *
+ * @author Wai Leong
+ */
+public final class StartupBudget {
+    private static final Pattern VM_HWM = Pattern.compile("VmHWM:\\s+(\\d+)\\s+kB");
+    private static final long POLL_MILLIS = 5;
+    private final Map<String, String> options;
+    private final List<String> applicationArgs;
+    private final HttpClient client;
+
+    private StartupBudget(Map<String, String> options, List<String> applicationArgs) {
+        this.options = options;
+        this.applicationArgs = applicationArgs;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(500))
+                .build();
+    }
+
+    /**
+     * Runs the check and prints the measurements to standard output.
+     *
+     * @param args the options, as {@code --name=value}, then {@code --} and the arguments of the application
+     * @throws Exception if the application cannot be started or measured
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--")) {
+                applicationArgs.addAll(List.of(args).subList(i + 1, args.length));
+                break;
+            }
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Options must be given as --name=value: " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        if (!options.containsKey("executable")) {
+            throw new IllegalArgumentException("The application to start must be given as --executable=<path>");
+        }
+        System.exit(new StartupBudget(options, applicationArgs).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        String url = option("url", "http://localhost:8080");
+        Duration timeout = Duration.parse("PT" + option("timeout", "30s"));
+        Duration settle = Duration.parse("PT" + option("settle", "2s"));
+        int requests = Integer.parseInt(option("requests", "0"));
+
+        List<String> command = new ArrayList<>();
+        command.add(options.get("executable"));
+        command.addAll(applicationArgs);
+        ProcessBuilder builder = new ProcessBuilder(command).redirectErrorStream(true);
+        if (options.containsKey("log")) {
+            Path log = Path.of(options.get("log"));
+            Files.createDirectories(log.toAbsolutePath().getParent());
+            builder.redirectOutput(log.toFile());
+        } else {
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        }
+
+        long start = System.nanoTime();
+        Process process = builder.start();
+        try {
+            URI probe = URI.create(url + option("probe", "/actuator/health/liveness"));
+            long firstRequestNanos = awaitProbe(process, probe, start, timeout);
+            Map<Integer, Integer> statuses = new TreeMap<>();
+            for (int i = 0; i < requests; i++) {
+                statuses.merge(send(URI.create(url + "/simple"), i), 1, Integer::sum);
+            }
+            Thread.sleep(settle.toMillis());
+            double rssMegabytes = peakRss(process.pid());
+
+            double startupSeconds = firstRequestNanos / 1e9;
+            System.out.printf("Application %s (pid %d)%n", options.get("executable"), process.pid());
+            System.out.printf("Startup s   %.3f to first request%n", startupSeconds);
+            if (requests > 0) {
+                System.out.printf("Requests    %d to /simple, status %s%n", requests, statuses);
+            }
+            System.out.printf("RSS MB      peak %.1f%n", rssMegabytes);
+
+            boolean withinStartup = withinBudget("Time to first request", startupSeconds,
+                    options.containsKey("startup")
+                            ? Duration.parse("PT" + options.get("startup")).toNanos() / 1e9 : Double.NaN, "s");
+            boolean withinRss = withinBudget("Peak RSS", rssMegabytes,
+                    options.containsKey("rss") ? Double.parseDouble(options.get("rss")) : Double.NaN, "MB");
+            return withinStartup && withinRss;
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    private long awaitProbe(Process process, URI probe, long start, Duration timeout) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(probe)
+                .timeout(Duration.ofSeconds(2))
+                .GET()
+                .build();
+        long deadline = start + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The application exited with status " + process.exitValue()
+                        + " before answering " + probe);
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return System.nanoTime() - start;
+                }
+            } catch (IOException ex) {
+                // not listening yet
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        throw new IllegalStateException("The application did not answer " + probe + " within " + timeout);
+    }
+
+    private int send(URI target, int n) throws InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(target)
+                .timeout(Duration.ofSeconds(30))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"token\":\"startup-budget-" + n
+                        + "\",\"title\":\"Startup budget\",\"message\":\"Message " + n + "\"}"))
+                .build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private static double peakRss(long pid) throws IOException {
+        Matcher matcher = VM_HWM.matcher(Files.readString(Path.of("/proc", String.valueOf(pid), "status")));
+        if (!matcher.find()) {
+            throw new IllegalStateException("No VmHWM in /proc/" + pid + "/status");
+        }
+        return Long.parseLong(matcher.group(1)) / 1024.0;
+    }
+
+    private static boolean withinBudget(String name, double value, double budget, String unit) {
+        if (Double.isNaN(budget)) {
+            return true;
+        }
+        boolean within = value <= budget;
+        System.out.printf("%s %.3f %s, budget %.3f %s: %s%n", name, value, unit, budget, unit,
+                within ? "within budget" : "OVER BUDGET");
+        return within;
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.waileong.fcm.actuator;
+
+import io.github.waileong.fcm.service.dispatch.FcmBackpressureMonitor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+import java.time.Duration;
+
+/**
+ * Health indicator reporting {@code OUT_OF_SERVICE} while the {@link FcmBackpressureMonitor} sheds traffic, and
+ * {@code UP} otherwise, with the latest signals as details. As part of the readiness group, it takes a saturated
+ * instance out of the load balancer before its latency collapses, and puts it back once it has recovered.
+ * <p>
+ * It contributes to readiness through the health group rather than by publishing a readiness state, so that it
+ * never overrides the readiness the application lifecycle sets itself, such as during a graceful shutdown.
+ *
+ * @author Wai Leong
+ */
+public class FcmBackpressureHealthIndicator implements HealthIndicator {
+    private final FcmBackpressureMonitor monitor;
+
+    /**
+     * Constructs a FcmBackpressureHealthIndicator.
+     *
+     * @param monitor the monitor deciding whether to shed traffic, or null if it is disabled
+     */
+    public FcmBackpressureHealthIndicator(FcmBackpressureMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public Health health() {
+        if (monitor == null) {
+            return Health.up().withDetail("backpressure", "disabled").build();
+        }
+        FcmBackpressureMonitor.Signals signals = monitor.getSignals();
+        Health.Builder builder = monitor.isShedding()
+                ? Health.outOfService().withDetail("reason", String.valueOf(monitor.getReason()))
+                : Health.up();
+        return builder
+                .withDetail("inFlightRatio", signals.inFlightRatio())
+                .withDetail("queueFill", signals.queueFill())
+                .withDetail("latency", Duration.ofNanos((long) signals.latencyNanos()).toString())
+                .withDetail("errorRatio", signals.errorRatio())
+                .build();
+    }
+}
@@ -0,0 +1,188 @@
+package io.github.waileong.fcm.actuator;
+
+import io.github.waileong.fcm.service.deadletter.FcmDeadLetter;
+import io.github.waileong.fcm.service.deadletter.FcmDeadLetterReplayer;
+import io.github.waileong.fcm.service.deadletter.FcmDeadLetterStore;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint exposing the {@link FcmDeadLetterStore}. It lists the sends that failed, filtered by error
+ * status, tenant and time, reads a single one with its request, replays the matching ones at a given rate through
+ * the {@link FcmDeadLetterReplayer}, and purges them.
+ *
+ * @author Wai Leong
+ */
+@Endpoint(id = "fcmdeadletters")
+@RegisterReflectionForBinding({FcmDeadLetterEndpoint.DeadLetters.class, FcmDeadLetterEndpoint.DeadLetter.class,
+        FcmDeadLetter.class, FcmDeadLetterReplayer.Progress.class})
+public class FcmDeadLetterEndpoint {
+    private static final int DEFAULT_LIMIT = 100;
+    private static final String REPLAY = "replay";
+    private static final String CANCEL = "cancel";
+    private final FcmDeadLetterStore store;
+    private final FcmDeadLetterReplayer replayer;
+    private final double defaultRate;
+
+    /**
+     * Constructs a FcmDeadLetterEndpoint.
+     *
+     * @param store       the store holding the dead letters
+     * @param replayer    the replayer resending them
+     * @param defaultRate the replay rate, per second, used when a replay does not give one
+     */
+    public FcmDeadLetterEndpoint(FcmDeadLetterStore store, FcmDeadLetterReplayer replayer, double defaultRate) {
+        this.store = store;
+        this.replayer = replayer;
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * Lists the dead letters matching the filter, oldest first, with the number held per error status and the
+     * progress of the last replay.
+     *
+     * @param status the error status the dead letters failed with, such as {@code UNAVAILABLE}
+     * @param tenant the tenant the dead letters were sent for
+     * @param from   the earliest time the dead letters failed at
+     * @param to     the latest time the dead letters failed at
+     * @param limit  the maximum number of dead letters listed, 100 if not given
+     * @return the dead letters and their counts
+     */
+    @ReadOperation
+    public DeadLetters deadLetters(@Nullable String status, @Nullable String tenant, @Nullable OffsetDateTime from,
+                                   @Nullable OffsetDateTime to, @Nullable Integer limit) {
+        FcmDeadLetterStore.Filter filter = filter(status, tenant, from, to);
+        List<DeadLetter> letters = store.find(filter, limit == null ? DEFAULT_LIMIT : Math.max(0, limit)).stream()
+                .map(FcmDeadLetterEndpoint::describe)
+                .toList();
+        return new DeadLetters(store.getSize(), store.countByStatus(), store.count(filter), replayer.getProgress(),
+                letters);
+    }
+
+    /**
+     * Reads a single dead letter with the request that failed.
+     *
+     * @param id the id of the dead letter
+     * @return the dead letter, or null if it is unknown
+     */
+    @ReadOperation
+    public FcmDeadLetter deadLetter(@Selector long id) {
+        return store.get(id);
+    }
+
+    /**
+     * Starts replaying the dead letters matching the filter with the {@code replay} action, or stops the running
+     * replay with the {@code cancel} action.
+     *
+     * @param action {@code replay} or {@code cancel}
+     * @param status the error status the replayed dead letters failed with
+     * @param tenant the tenant the replayed dead letters were sent for
+     * @param from   the earliest time the replayed dead letters failed at
+     * @param to     the latest time the replayed dead letters failed at
+     * @param rate   the maximum number of dead letters replayed per second, the configured rate if not given
+     * @return the progress of the replay
+     */
+    @WriteOperation
+    public FcmDeadLetterReplayer.Progress replay(@Selector String action, @Nullable String status,
+                                                 @Nullable String tenant, @Nullable OffsetDateTime from,
+                                                 @Nullable OffsetDateTime to, @Nullable Double rate) {
+        switch (action) {
+            case REPLAY -> {
+                try {
+                    return replayer.replay(filter(status, tenant, from, to), rate == null ? defaultRate : rate);
+                } catch (IllegalArgumentException | IllegalStateException ex) {
+                    throw new InvalidEndpointRequestException(ex.getMessage(), ex.getMessage());
+                }
+            }
+            case CANCEL -> {
+                replayer.cancel();
+                return replayer.getProgress();
+            }
+            default -> throw new InvalidEndpointRequestException("Unknown action " + action,
+                    "Action must be " + REPLAY + " or " + CANCEL);
+        }
+    }
+
+    /**
+     * Removes the dead letters matching the filter, or every dead letter if no filter is given.
+     *
+     * @param status the error status the dead letters failed with
+     * @param tenant the tenant the dead letters were sent for
+     * @param from   the earliest time the dead letters failed at
+     * @param to     the latest time the dead letters failed at
+     * @return the number of dead letters removed
+     */
+    @DeleteOperation
+    public Map<String, Integer> purge(@Nullable String status, @Nullable String tenant,
+                                      @Nullable OffsetDateTime from, @Nullable OffsetDateTime to) {
+        return Map.of("purged", store.remove(filter(status, tenant, from, to)));
+    }
+
+    /**
+     * Removes a single dead letter.
+     *
+     * @param id the id of the dead letter
+     * @return whether the dead letter was held
+     */
+    @DeleteOperation
+    public Map<String, Boolean> remove(@Selector long id) {
+        return Map.of("removed", store.remove(id));
+    }
+
+    private static FcmDeadLetterStore.Filter filter(String status, String tenant, OffsetDateTime from,
+                                                    OffsetDateTime to) {
+        return new FcmDeadLetterStore.Filter(status, tenant, from == null ? null : from.toInstant(),
+                to == null ? null : to.toInstant());
+    }
+
+    private static DeadLetter describe(FcmDeadLetter letter) {
+        FcmMessage message = letter.request().getMessage();
+        String target = message == null ? null
+                : message.getToken() != null ? message.getToken()
+                : message.getTopic() != null ? message.getTopic()
+                : message.getCondition();
+        return new DeadLetter(letter.id(), letter.time(), letter.status(), letter.code(), letter.priority(),
+                letter.tenant(), target);
+    }
+
+    /**
+     * The dead letters listed by the endpoint.
+     *
+     * @param size     the total number of dead letters held
+     * @param byStatus the number of dead letters held per error status
+     * @param matching the number of dead letters matching the filter
+     * @param replay   the progress of the running or last replay, or null if none was started
+     * @param letters  the listed dead letters
+     */
+    public record DeadLetters(int size, Map<String, Integer> byStatus, long matching,
+                              FcmDeadLetterReplayer.Progress replay, List<DeadLetter> letters) {
+    }
+
+    /**
+     * A dead letter, without its request.
+     *
+     * @param id       the id of the dead letter
+     * @param time     when the send failed
+     * @param status   the error status FCM answered with
+     * @param code     the HTTP status code FCM answered with
+     * @param priority the dispatch priority of the send
+     * @param tenant   the tenant of the send, or null for the default project
+     * @param target   the token, topic or condition the send was addressed to
+     */
+    public record DeadLetter(long id, Instant time, String status, int code, FcmPriority priority, String tenant,
+                             String target) {
+    }
+}
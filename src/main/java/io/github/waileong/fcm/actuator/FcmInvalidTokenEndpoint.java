@@ -0,0 +1,145 @@
+package io.github.waileong.fcm.actuator;
+
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.github.waileong.fcm.service.tenant.FcmTenant;
+import io.github.waileong.fcm.service.tenant.FcmTenantRegistry;
+import io.github.waileong.fcm.service.token.FcmInvalidTokenCache;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.boot.actuate.endpoint.InvalidEndpointRequestException;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Actuator endpoint exposing the {@link FcmInvalidTokenCache}. It exports the tokens known to be invalid,
+ * looks up a single token, and purges either one token or the whole cache, for instance after a bulk
+ * re-registration of devices. Every operation works on the cache of the default FCM project, or on that of the
+ * tenant named by the optional {@code tenant} parameter. A tenant that has not been sent to yet has no cached
+ * tokens, and an unknown tenant is answered with {@code 400 Bad Request}.
+ *
+ * @author Wai Leong
+ */
+@Endpoint(id = "fcmtokens")
+@RegisterReflectionForBinding({FcmInvalidTokenEndpoint.InvalidTokens.class, FcmInvalidTokenEndpoint.InvalidToken.class})
+public class FcmInvalidTokenEndpoint {
+    private static final int DEFAULT_LIMIT = 1000;
+    private final FcmInvalidTokenCache cache;
+    private final FcmTenantRegistry tenants;
+
+    /**
+     * Constructs a FcmInvalidTokenEndpoint.
+     *
+     * @param cache   the cache of tokens known to be invalid for the default project
+     * @param tenants the tenants whose caches can be selected
+     */
+    public FcmInvalidTokenEndpoint(FcmInvalidTokenCache cache, FcmTenantRegistry tenants) {
+        this.cache = cache;
+        this.tenants = tenants;
+    }
+
+    /**
+     * Exports the tokens known to be invalid, soonest to expire first.
+     *
+     * @param limit  the maximum number of tokens to export, 1000 if not given
+     * @param tenant the tenant whose cache is exported, the default project if not given
+     * @return the size of the cache and the exported tokens
+     */
+    @ReadOperation
+    public InvalidTokens tokens(@Nullable Integer limit, @Nullable String tenant) {
+        FcmInvalidTokenCache cache = cache(tenant);
+        if (cache == null) {
+            return new InvalidTokens(0, List.of());
+        }
+        Map<String, FcmInvalidTokenCache.Entry> entries = cache.export();
+        List<InvalidToken> tokens = entries.entrySet().stream()
+                .sorted(Comparator.comparingLong(entry -> entry.getValue().expiresAt()))
+                .limit(limit == null ? DEFAULT_LIMIT : Math.max(0, limit))
+                .map(entry -> describe(entry.getKey(), entry.getValue()))
+                .toList();
+        return new InvalidTokens(entries.size(), tokens);
+    }
+
+    /**
+     * Looks up a single token.
+     *
+     * @param token  the registration token
+     * @param tenant the tenant whose cache is searched, the default project if not given
+     * @return the token, or null if it is not known to be invalid
+     */
+    @ReadOperation
+    public InvalidToken token(@Selector String token, @Nullable String tenant) {
+        FcmInvalidTokenCache cache = cache(tenant);
+        FcmInvalidTokenCache.Entry entry = cache == null ? null : cache.entry(token);
+        return entry == null ? null : describe(token, entry);
+    }
+
+    /**
+     * Forgets every token.
+     *
+     * @param tenant the tenant whose cache is purged, the default project if not given
+     * @return the number of tokens forgotten
+     */
+    @DeleteOperation
+    public Map<String, Integer> purge(@Nullable String tenant) {
+        FcmInvalidTokenCache cache = cache(tenant);
+        return Map.of("purged", cache == null ? 0 : cache.purge());
+    }
+
+    /**
+     * Forgets a single token.
+     *
+     * @param token  the registration token
+     * @param tenant the tenant whose cache the token is removed from, the default project if not given
+     * @return whether the token was known to be invalid
+     */
+    @DeleteOperation
+    public Map<String, Boolean> remove(@Selector String token, @Nullable String tenant) {
+        FcmInvalidTokenCache cache = cache(tenant);
+        return Map.of("removed", cache != null && cache.remove(token));
+    }
+
+    /**
+     * Resolves the cache of the tenant, or of the default project if no tenant is given. A tenant that has not
+     * been sent to yet has no cache, and is not initialized just to be looked at.
+     */
+    private FcmInvalidTokenCache cache(String tenant) {
+        if (tenant == null) {
+            return cache;
+        }
+        if (!tenants.contains(tenant)) {
+            throw new InvalidEndpointRequestException("Unknown FCM tenant " + tenant, "Unknown tenant");
+        }
+        FcmTenant selected = tenants.get(tenant);
+        return selected.isInitialized() ? selected.getSender().getInvalidTokenCache() : null;
+    }
+
+    private static InvalidToken describe(String token, FcmInvalidTokenCache.Entry entry) {
+        return new InvalidToken(token, FcmErrors.status(entry.error()), Instant.ofEpochMilli(entry.expiresAt()));
+    }
+
+    /**
+     * The tokens exported by the endpoint.
+     *
+     * @param size   the total number of tokens known to be invalid
+     * @param tokens the exported tokens
+     */
+    public record InvalidTokens(int size, List<InvalidToken> tokens) {
+    }
+
+    /**
+     * A token known to be invalid.
+     *
+     * @param token     the registration token
+     * @param status    the error status FCM reported for the token
+     * @param expiresAt when the token is forgotten
+     */
+    public record InvalidToken(String token, String status, Instant expiresAt) {
+    }
+}
@@ -0,0 +1,47 @@
+package io.github.waileong.fcm.actuator;
+
+import io.github.waileong.fcm.service.warmup.FcmWarmup;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+
+/**
+ * Health indicator holding readiness back until the {@link FcmWarmup} is complete. It reports
+ * {@code OUT_OF_SERVICE} while the warmup runs, and {@code UP} once it has finished or its timeout has elapsed,
+ * with the duration of the warmup and its failure, if any, as details. Include it in the readiness group with
+ * {@code management.endpoint.health.group.readiness.include=readinessState,fcmWarmup}, so that the readiness
+ * probe only goes green once the first sends no longer pay for the warmup.
+ *
+ * @author Wai Leong
+ */
+public class FcmWarmupHealthIndicator implements HealthIndicator {
+    private final FcmWarmup warmup;
+
+    /**
+     * Constructs a FcmWarmupHealthIndicator.
+     *
+     * @param warmup the warmup of the send path, or null if it is disabled
+     */
+    public FcmWarmupHealthIndicator(FcmWarmup warmup) {
+        this.warmup = warmup;
+    }
+
+    @Override
+    public Health health() {
+        if (warmup == null) {
+            return Health.up().withDetail("warmup", "disabled").build();
+        }
+        if (!warmup.isComplete()) {
+            return Health.outOfService().withDetail("warmup", "running").build();
+        }
+        if (!warmup.isFinished()) {
+            return Health.up().withDetail("warmup", "timed out").build();
+        }
+        Health.Builder builder = Health.up()
+                .withDetail("warmup", warmup.getError() == null ? "complete" : "failed")
+                .withDetail("duration", warmup.getDuration().toString());
+        if (warmup.getError() != null) {
+            builder.withDetail("error", warmup.getError());
+        }
+        return builder.build();
+    }
+}
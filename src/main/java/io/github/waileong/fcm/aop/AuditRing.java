@@ -0,0 +1,150 @@
+package io.github.waileong.fcm.aop;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded multi-producer, single-consumer ring of preallocated audit records.
+ * Producers claim a slot with a compare-and-set on the head sequence, fill it in place and publish it by writing
+ * the slot's sequence; the single consumer reads the slots in order. When every slot is taken, {@link #offer}
+ * drops the record and counts it instead of waiting, so a slow log appender never holds up a send.
+ * <p>
+ * An idle consumer parks in {@link #await()} without a timeout. It announces itself before checking the ring one
+ * last time, and a producer unparks it after publishing only if it is announced, so an empty ring costs no wakeups
+ * and a busy one no unpark calls.
+ *
+ * @author Wai Leong
+ */
+final class AuditRing {
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private volatile Thread waiting;
+
+    /**
+     * Constructs an AuditRing.
+     *
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    AuditRing(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new Slot[size];
+        this.mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i - size);
+        }
+    }
+
+    /**
+     * Records an audit entry, or drops it if the ring is full.
+     *
+     * @param startMillis the wall clock time the operation started, in milliseconds since the epoch
+     * @param elapsedNanos the duration of the operation
+     * @param method      the name of the operation
+     * @param target      the first argument of the operation, its recipient
+     * @param title       the second argument of the operation, its title if it has one
+     * @param result      the result of the operation, or the error it failed with
+     * @return {@code true} if the entry was recorded
+     */
+    boolean offer(long startMillis, long elapsedNanos, String method, Object target, Object title, Object result) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail.get() >= slots.length) {
+                dropped.increment();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        Slot slot = slots[(int) sequence & mask];
+        slot.startMillis = startMillis;
+        slot.elapsedNanos = elapsedNanos;
+        slot.method = method;
+        slot.target = target;
+        slot.title = title;
+        slot.result = result;
+        slot.published = sequence;
+        Thread consumer = waiting;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Parks the consumer until an entry is published, unless one already is. The consumer may also return when
+     * unparked for another reason, so it must check the ring again.
+     */
+    void await() {
+        waiting = Thread.currentThread();
+        if (peek() == null) {
+            LockSupport.park(this);
+        }
+        waiting = null;
+    }
+
+    /**
+     * Returns the next published slot to the consumer, without removing it.
+     *
+     * @return the next slot, or null if none has been published yet
+     */
+    Slot peek() {
+        long sequence = tail.get();
+        Slot slot = slots[(int) sequence & mask];
+        return slot.published == sequence ? slot : null;
+    }
+
+    /**
+     * Releases the slot returned by {@link #peek()} to the producers.
+     *
+     * @param slot the slot to release
+     */
+    void release(Slot slot) {
+        slot.method = null;
+        slot.target = null;
+        slot.title = null;
+        slot.result = null;
+        tail.lazySet(tail.get() + 1);
+    }
+
+    /**
+     * Returns the number of entries published and not yet consumed.
+     *
+     * @return the pending count
+     */
+    long pending() {
+        return head.get() - tail.get();
+    }
+
+    /**
+     * Returns the number of entries dropped because the ring was full.
+     *
+     * @return the dropped count
+     */
+    long dropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * One preallocated audit record. The fields are written by a single producer before the slot is published
+     * and read by the consumer after, so the volatile write and read of {@code published} order them.
+     */
+    static final class Slot {
+        long startMillis;
+        long elapsedNanos;
+        String method;
+        Object target;
+        Object title;
+        Object result;
+        volatile long published;
+
+        private Slot(long published) {
+            this.published = published;
+        }
+    }
+}
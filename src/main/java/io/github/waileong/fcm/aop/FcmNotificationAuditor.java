@@ -0,0 +1,208 @@
+package io.github.waileong.fcm.aop;
+
+import io.github.waileong.fcm.exception.FcmRestClientException;
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.model.FcmAudienceResponse;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Interceptor auditing operations of the FcmNotificationService.
+ * It logs the execution time, method name, arguments, and result of each method invoked in the service.
+ * It is applied by the {@link FcmNotificationServiceAdvice} aspect, or by the {@link FcmNotificationServiceDecorator}
+ * when AspectJ is not on the classpath.
+ * <p>
+ * The send path only takes a monotonic timestamp and, once the result is known, copies the raw fields into a
+ * preallocated {@link AuditRing}; it never formats, allocates a log event or hops threads. A single background
+ * writer drains the ring and formats the log lines, parking while the ring is empty. When the ring is full the
+ * entry is dropped and counted in the {@code fcm.audit.dropped} metric rather than blocking the send.
+ *
+ * @author Wai Leong
+ */
+public class FcmNotificationAuditor implements FcmNotificationInterceptor, MeterBinder, AutoCloseable {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.S")
+            .withZone(ZoneId.systemDefault());
+    private final Logger auditLogger = LoggerFactory.getLogger("fcm.notification.audit");
+    private final AuditRing ring;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a FcmNotificationAuditor and starts its writer thread.
+     *
+     * @param bufferSize the number of audit entries that may wait for the writer, rounded up to a power of two
+     */
+    public FcmNotificationAuditor(int bufferSize) {
+        this.ring = new AuditRing(bufferSize);
+        this.writer = Thread.ofPlatform()
+                .name("fcm-audit-writer")
+                .daemon(true)
+                .start(this::drain);
+    }
+
+    /**
+     * Captures and logs execution details of FcmNotificationService methods.
+     * This includes logging the method name, execution time, target recipients, notification title,
+     * and any response message or errors. For asynchronous methods returning CompletableFuture,
+     * the entry is recorded upon future completion, or straight away if the future is already complete. A future
+     * that fails is recorded with its FCM error, or else with the class and message of its exception.
+     *
+     * @param method     the name of the invoked method
+     * @param args       the arguments of the invocation
+     * @param invocation the invocation
+     * @return the result of the invocation
+     * @throws Throwable to rethrow any exceptions thrown by the target method
+     */
+    @Override
+    public Object intercept(String method, Object[] args, Invocation invocation) throws Throwable {
+        if (!auditLogger.isInfoEnabled()) {
+            return invocation.proceed();
+        }
+        final long startMillis = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        try {
+            Object result = invocation.proceed();
+            if (result instanceof CompletableFuture<?> completableFuture && !completableFuture.isDone()) {
+                completableFuture.whenComplete((o, throwable) ->
+                        record(startMillis, startNanos, method, args, throwable == null ? o : failure(throwable)));
+            } else if (result instanceof CompletableFuture<?> completableFuture) {
+                Object outcome;
+                try {
+                    outcome = completableFuture.getNow(null);
+                } catch (CancellationException | CompletionException ex) {
+                    outcome = failure(ex);
+                }
+                record(startMillis, startNanos, method, args, outcome);
+            } else {
+                record(startMillis, startNanos, method, args, result);
+            }
+            return result;
+        } catch (FcmRestClientException ex) {
+            record(startMillis, startNanos, method, args, ex.getError());
+            throw ex;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fcm.audit.dropped", ring, AuditRing::dropped)
+                .description("Audit entries dropped because the audit buffer was full")
+                .register(registry);
+        Gauge.builder("fcm.audit.pending", ring, AuditRing::pending)
+                .description("Audit entries waiting to be written")
+                .register(registry);
+    }
+
+    /**
+     * Stops the writer once the entries already recorded have been written.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record(long startMillis, long startNanos, String method, Object[] args, Object result) {
+        ring.offer(startMillis, System.nanoTime() - startNanos, method,
+                args.length > 0 ? args[0] : null, args.length > 1 ? args[1] : null, result);
+    }
+
+    /**
+     * Returns what a failed future is audited with: the FCM error of an {@link FcmRestClientException}, or else the
+     * exception itself.
+     */
+    private static Object failure(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause() : throwable;
+        return cause instanceof FcmRestClientException ex ? ex.getError() : cause;
+    }
+
+    private void drain() {
+        while (true) {
+            AuditRing.Slot slot = ring.peek();
+            if (slot == null) {
+                if (closed && ring.pending() == 0) {
+                    return;
+                }
+                ring.await();
+                continue;
+            }
+            try {
+                doAuditLog(slot);
+            } catch (RuntimeException ex) {
+                auditLogger.warn("Failed to write audit entry for {}", slot.method, ex);
+            } finally {
+                ring.release(slot);
+            }
+        }
+    }
+
+    /**
+     * Performs the actual logging of the method execution details, on the writer thread.
+     * This method constructs and logs a message containing the start time, execution duration,
+     * method name, recipient token, topic, condition or audience (if applicable), notification title (for notifications),
+     * and any response message or error details.
+     *
+     * @param slot the audit entry to log
+     */
+    private void doAuditLog(AuditRing.Slot slot) {
+        long elapsedTime = TimeUnit.NANOSECONDS.toMillis(slot.elapsedNanos);
+        String respMsg = "";
+        if (slot.result != null) {
+            switch (slot.result) {
+                case FcmSendResponse response when response.getError() != null ->
+                        respMsg = String.valueOf(response.getError());
+                case FcmError error -> respMsg = String.valueOf(error);
+                case Throwable ex -> respMsg = ex.getClass().getName() + ": " + ex.getMessage();
+                case FcmMulticastResponse response ->
+                        respMsg = response.getSuccessCount() + " sent, " + response.getFailureCount() + " failed";
+                case FcmAudienceResponse response ->
+                        respMsg = response.getSuccessCount() + " sent, " + response.getFailureCount() + " failed";
+                default -> respMsg = String.valueOf(slot.result);
+
+            }
+        }
+
+        String sentTo = "";
+        if (slot.target instanceof String str) {
+            sentTo = str;
+        } else if (slot.target instanceof Collection<?> tokens) {
+            sentTo = tokens.size() + " tokens";
+        }
+
+        String title = "";
+        if (slot.method.contains("Notification")) {
+            title = String.valueOf(slot.title);
+        }
+
+        auditLogger.info("{},{},{},{},{},{}",
+                DATE_FORMAT.format(Instant.ofEpochMilli(slot.startMillis)),
+                elapsedTime,
+                slot.method,
+                sentTo,
+                title,
+                respMsg
+        );
+    }
+}
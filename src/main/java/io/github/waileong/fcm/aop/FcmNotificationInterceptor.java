@@ -0,0 +1,37 @@
+package io.github.waileong.fcm.aop;
+
+/**
+ * Intercepts the operations of the FcmNotificationService. An interceptor is applied either by an aspect, when
+ * AspectJ is on the classpath, or by the {@link FcmNotificationServiceDecorator} in the lean build, so the same
+ * auditing and metrics run either way.
+ *
+ * @author Wai Leong
+ */
+public interface FcmNotificationInterceptor {
+
+    /**
+     * Intercepts one invocation of an operation of the FcmNotificationService.
+     *
+     * @param method     the name of the invoked method
+     * @param args       the arguments of the invocation
+     * @param invocation the invocation, proceeding to the next interceptor or to the service
+     * @return the result of the invocation
+     * @throws Throwable to rethrow any exceptions thrown by the invocation
+     */
+    Object intercept(String method, Object[] args, Invocation invocation) throws Throwable;
+
+    /**
+     * The intercepted invocation.
+     */
+    @FunctionalInterface
+    interface Invocation {
+
+        /**
+         * Proceeds with the invocation.
+         *
+         * @return the result of the invocation
+         * @throws Throwable to rethrow any exceptions thrown by the invocation
+         */
+        Object proceed() throws Throwable;
+    }
+}
@@ -0,0 +1,128 @@
+package io.github.waileong.fcm.aop;
+
+import io.github.waileong.fcm.exception.FcmRestClientException;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.model.FcmAudienceResponse;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Interceptor recording Micrometer metrics of the operations of the FcmNotificationService.
+ * Each method is timed from the call until its result is known, which for asynchronous methods is when the
+ * returned future completes, so the timer covers queueing, retries and the calls to FCM. The timer is named
+ * {@code fcm.notification}, publishes a percentile histogram, and is tagged with the {@code method}, the
+ * {@code outcome} ({@code success}, {@code error}, {@code partial}, {@code rejected} or {@code failure}) and the
+ * FCM {@code error} status. The operations not yet completed are published per method as the
+ * {@code fcm.notification.in.flight} gauge. It is applied by the {@link FcmNotificationServiceMetricsAdvice} aspect,
+ * or by the {@link FcmNotificationServiceDecorator} when AspectJ is not on the classpath.
+ *
+ * @author Wai Leong
+ */
+public class FcmNotificationMetrics implements FcmNotificationInterceptor {
+    private static final String NONE = "none";
+    private final MeterRegistry registry;
+    private final Meter.MeterProvider<Timer> timers;
+    private final ConcurrentMap<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a FcmNotificationMetrics.
+     *
+     * @param registry the registry the metrics are registered with
+     */
+    public FcmNotificationMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.timers = Timer.builder("fcm.notification")
+                .description("Operations of the FCM notification service")
+                .publishPercentileHistogram()
+                .withRegistry(registry);
+    }
+
+    /**
+     * Times FcmNotificationService methods and tracks how many are in flight.
+     *
+     * @param method     the name of the invoked method
+     * @param args       the arguments of the invocation
+     * @param invocation the invocation
+     * @return the result of the invocation
+     * @throws Throwable to rethrow any exceptions thrown by the target method
+     */
+    @Override
+    public Object intercept(String method, Object[] args, Invocation invocation) throws Throwable {
+        AtomicInteger counter = inFlight(method);
+        long start = System.nanoTime();
+        counter.incrementAndGet();
+        Object result;
+        try {
+            result = invocation.proceed();
+        } catch (Throwable ex) {
+            counter.decrementAndGet();
+            record(method, start, null, ex);
+            throw ex;
+        }
+        if (result instanceof CompletableFuture<?> completableFuture && !completableFuture.isDone()) {
+            completableFuture.whenComplete((o, throwable) -> {
+                counter.decrementAndGet();
+                record(method, start, o, throwable);
+            });
+        } else {
+            counter.decrementAndGet();
+            record(method, start, result instanceof CompletableFuture<?> done ? done.getNow(null) : result, null);
+        }
+        return result;
+    }
+
+    private void record(String method, long start, Object result, Throwable throwable) {
+        String outcome;
+        String error = NONE;
+        if (throwable instanceof CompletionException && throwable.getCause() != null) {
+            throwable = throwable.getCause();
+        }
+        if (throwable instanceof FcmDispatchRejectedException) {
+            outcome = "rejected";
+        } else if (throwable instanceof FcmRestClientException ex) {
+            outcome = "error";
+            error = FcmErrors.status(ex.getError());
+        } else if (throwable != null) {
+            outcome = "failure";
+        } else if (result instanceof FcmSendResponse response && response.getError() != null) {
+            outcome = "error";
+            error = FcmErrors.status(response.getError());
+        } else if (result instanceof FcmMulticastResponse response && response.getFailureCount() > 0) {
+            outcome = response.getSuccessCount() > 0 ? "partial" : "error";
+        } else if (result instanceof FcmAudienceResponse response && response.getFailureCount() > 0) {
+            outcome = response.getSuccessCount() > 0 ? "partial" : "error";
+        } else {
+            outcome = "success";
+        }
+        timers.withTags(Tags.of("method", method, "outcome", outcome, "error", error))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private AtomicInteger inFlight(String method) {
+        AtomicInteger counter = inFlight.get(method);
+        if (counter != null) {
+            return counter;
+        }
+        return inFlight.computeIfAbsent(method, name -> {
+            AtomicInteger created = new AtomicInteger();
+            Gauge.builder("fcm.notification.in.flight", created, AtomicInteger::get)
+                    .description("Operations of the FCM notification service not yet completed")
+                    .tag("method", name)
+                    .register(registry);
+            return created;
+        });
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.waileong.fcm.aop;
+
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmAudienceResponse;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+/**
+ * Decorates the FcmNotificationService with the {@link FcmNotificationInterceptor}s, in place of the aspects when
+ * AspectJ is not on the classpath, as in the lean native image. Each operation is delegated explicitly, so no proxy
+ * class, pointcut or AspectJ weaver is needed at runtime and the native image carries no reflection metadata for
+ * them. The interceptors run in the given order, the first one outermost, and see the same method names and
+ * arguments as the aspects do.
+ *
+ * @author Wai Leong
+ */
+public class FcmNotificationServiceDecorator implements FcmNotificationService {
+    private final FcmNotificationService delegate;
+    private final FcmNotificationInterceptor[] interceptors;
+
+    /**
+     * Constructs a FcmNotificationServiceDecorator.
+     *
+     * @param delegate     the service the operations are delegated to
+     * @param interceptors the interceptors applied to every operation, the first one outermost
+     */
+    public FcmNotificationServiceDecorator(FcmNotificationService delegate,
+                                           List<? extends FcmNotificationInterceptor> interceptors) {
+        this.delegate = delegate;
+        this.interceptors = interceptors.toArray(FcmNotificationInterceptor[]::new);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FcmSendResponse sendSynchronousComplex(FcmSendRequest request, FcmSendOptions options) {
+        return intercept("sendSynchronousComplex", () -> delegate.sendSynchronousComplex(request, options),
+                request, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendComplex(FcmSendRequest request, FcmSendOptions options) {
+        return intercept("sendComplex", () -> delegate.sendComplex(request, options), request, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendSimpleNotification(String token, String title, String message,
+                                                                     String collapseKey, FcmSendOptions options) {
+        return intercept("sendSimpleNotification",
+                () -> delegate.sendSimpleNotification(token, title, message, collapseKey, options),
+                token, title, message, collapseKey, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendSimpleNotificationWithData(String token, String title,
+                                                                             String message, Map<String, String> data,
+                                                                             String collapseKey,
+                                                                             FcmSendOptions options) {
+        return intercept("sendSimpleNotificationWithData",
+                () -> delegate.sendSimpleNotificationWithData(token, title, message, data, collapseKey, options),
+                token, title, message, data, collapseKey, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendSimpleData(String token, Map<String, String> data,
+                                                             FcmSendOptions options) {
+        return intercept("sendSimpleData", () -> delegate.sendSimpleData(token, data, options),
+                token, data, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmMulticastResponse> sendMulticastNotification(List<String> tokens, String title,
+                                                                             String message,
+                                                                             Map<String, String> data,
+                                                                             String collapseKey,
+                                                                             FcmSendOptions options) {
+        return intercept("sendMulticastNotification",
+                () -> delegate.sendMulticastNotification(tokens, title, message, data, collapseKey, options),
+                tokens, title, message, data, collapseKey, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> fanOutMulticastNotification(List<String> tokens, String title, String message,
+                                                               Map<String, String> data, String collapseKey,
+                                                               FcmSendOptions options,
+                                                               BiConsumer<Integer, FcmSendResponse> onResponse) {
+        return intercept("fanOutMulticastNotification",
+                () -> delegate.fanOutMulticastNotification(tokens, title, message, data, collapseKey, options,
+                        onResponse),
+                tokens, title, message, data, collapseKey, options, onResponse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendTopicNotification(String topic, String title, String message,
+                                                                    Map<String, String> data, String collapseKey,
+                                                                    FcmSendOptions options) {
+        return intercept("sendTopicNotification",
+                () -> delegate.sendTopicNotification(topic, title, message, data, collapseKey, options),
+                topic, title, message, data, collapseKey, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendConditionNotification(String condition, String title,
+                                                                        String message, Map<String, String> data,
+                                                                        String collapseKey, FcmSendOptions options) {
+        return intercept("sendConditionNotification",
+                () -> delegate.sendConditionNotification(condition, title, message, data, collapseKey, options),
+                condition, title, message, data, collapseKey, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmAudienceResponse> sendAudienceNotification(String audience, String title,
+                                                                           String message, Map<String, String> data,
+                                                                           String collapseKey,
+                                                                           FcmSendOptions options) {
+        return intercept("sendAudienceNotification",
+                () -> delegate.sendAudienceNotification(audience, title, message, data, collapseKey, options),
+                audience, title, message, data, collapseKey, options);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendTemplateNotification(String token, String template,
+                                                                       Map<String, String> variables,
+                                                                       FcmSendOptions options) {
+        return intercept("sendTemplateNotification",
+                () -> delegate.sendTemplateNotification(token, template, variables, options),
+                token, template, variables, options);
+    }
+
+    /**
+     * Runs an operation through the interceptors, rethrowing what the operation throws as is.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T intercept(String method, FcmNotificationInterceptor.Invocation operation, Object... args) {
+        try {
+            return (T) proceed(0, method, args, operation);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable ex) {
+            throw new UndeclaredThrowableException(ex);
+        }
+    }
+
+    private Object proceed(int index, String method, Object[] args,
+                           FcmNotificationInterceptor.Invocation operation) throws Throwable {
+        if (index == interceptors.length) {
+            return operation.proceed();
+        }
+        return interceptors[index].intercept(method, args, () -> proceed(index + 1, method, args, operation));
+    }
+}
@@ -0,0 +1,38 @@
+package io.github.waileong.fcm.aop;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Aspect recording Micrometer metrics of the operations of the FcmNotificationService.
+ * Each invocation is handed to the {@link FcmNotificationMetrics}, which times it until its result is known and
+ * tracks the operations in flight.
+ *
+ * @author Wai Leong
+ */
+@Aspect
+public class FcmNotificationServiceMetricsAdvice {
+    private final FcmNotificationMetrics metrics;
+
+    /**
+     * Constructs a FcmNotificationServiceMetricsAdvice.
+     *
+     * @param metrics the metrics recording the operations
+     */
+    public FcmNotificationServiceMetricsAdvice(FcmNotificationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Around advice that times FcmNotificationService methods and tracks how many are in flight.
+     *
+     * @param pjp the proceeding join point representing the intercepted method invocation
+     * @return the result of the method invocation
+     * @throws Throwable to rethrow any exceptions thrown by the target method
+     */
+    @Around("execution(* io.github.waileong.fcm.service.FcmNotificationService.*(..))")
+    public Object aroundSendNotificationService(ProceedingJoinPoint pjp) throws Throwable {
+        return metrics.intercept(pjp.getSignature().getName(), pjp.getArgs(), pjp::proceed);
+    }
+}
@@ -1,17 +1,74 @@
 package io.github.waileong.fcm.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.waileong.fcm.actuator.FcmBackpressureHealthIndicator;
+import io.github.waileong.fcm.actuator.FcmDeadLetterEndpoint;
+import io.github.waileong.fcm.actuator.FcmInvalidTokenEndpoint;
+import io.github.waileong.fcm.actuator.FcmWarmupHealthIndicator;
+import io.github.waileong.fcm.aop.FcmNotificationAuditor;
+import io.github.waileong.fcm.aop.FcmNotificationInterceptor;
+import io.github.waileong.fcm.aop.FcmNotificationMetrics;
 import io.github.waileong.fcm.aop.FcmNotificationServiceAdvice;
+import io.github.waileong.fcm.aop.FcmNotificationServiceDecorator;
+import io.github.waileong.fcm.aop.FcmNotificationServiceMetricsAdvice;
+import io.github.waileong.fcm.controller.FcmAudienceController;
+import io.github.waileong.fcm.controller.FcmBulkController;
 import io.github.waileong.fcm.controller.FcmController;
+import io.github.waileong.fcm.controller.FcmScheduleController;
+import io.github.waileong.fcm.controller.FcmTemplateController;
+import io.github.waileong.fcm.service.FcmNotificationService;
 import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.audience.FcmAudienceRegistry;
+import io.github.waileong.fcm.service.deadletter.FcmDeadLetterReplayer;
+import io.github.waileong.fcm.service.deadletter.FcmDeadLetterStore;
+import io.github.waileong.fcm.service.dispatch.AdaptiveConcurrencyLimiter;
+import io.github.waileong.fcm.service.dispatch.FcmBackpressureMonitor;
+import io.github.waileong.fcm.service.dispatch.FcmCoalescer;
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.dispatch.FcmOrderedDispatcher;
+import io.github.waileong.fcm.service.dispatch.FcmOutboundSender;
+import io.github.waileong.fcm.service.dispatch.FcmRetryPolicy;
+import io.github.waileong.fcm.service.dispatch.FcmRetryScheduler;
+import io.github.waileong.fcm.service.dispatch.FcmSendMetrics;
+import io.github.waileong.fcm.service.idempotency.FcmIdempotencyStore;
 import io.github.waileong.fcm.service.impl.FcmNotificationServiceImpl;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.outbox.FcmOutbox;
+import io.github.waileong.fcm.service.outbox.FcmOutboxReplayer;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.github.waileong.fcm.service.schedule.FcmNotificationScheduler;
+import io.github.waileong.fcm.service.template.FcmNotificationTemplate;
+import io.github.waileong.fcm.service.template.FcmTemplateRegistry;
+import io.github.waileong.fcm.service.tenant.FcmTenant;
+import io.github.waileong.fcm.service.tenant.FcmTenantRegistry;
+import io.github.waileong.fcm.service.token.FcmInvalidTokenCache;
+import io.github.waileong.fcm.service.warmup.FcmWarmup;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.actuate.autoconfigure.endpoint.condition.ConditionalOnAvailableEndpoint;
+import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.AutoConfigureOrder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Primary;
 import org.springframework.core.Ordered;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 import static org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME;
 
@@ -25,40 +82,680 @@ import static org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfi
  * before any other auto-configuration related to FCM, allowing for overriding or customizing
  * the setup as needed by the application.
  *
- * This class explicitly imports {@link FcmController} to ensure it's registered within the application
- * context and declares beans for {@link FcmNotificationServiceImpl} and {@link FcmNotificationServiceAdvice}
- * to provide services and advice for handling FCM notifications.
+ * This class explicitly imports {@link FcmController} and {@link FcmBulkController} to ensure they are registered within the application
+ * context, declares {@link FcmAudienceController} while audiences are enabled, and declares beans for
+ * {@link FcmNotificationServiceImpl} and {@link FcmNotificationServiceAdvice} to provide services and advice for
+ * handling FCM notifications. The controllers apply to a servlet web application only; a reactive one gets the
+ * controller of {@link FcmReactiveEndpointAutoConfiguration} instead. Without AspectJ on the classpath, as in the
+ * lean build, the advice is replaced by the {@link FcmNotificationServiceDecorator}.
  *
  * @author Wai Leong
  */
 @AutoConfiguration(before = FcmAutoConfiguration.class)
 @AutoConfigureOrder(Ordered.HIGHEST_PRECEDENCE)
-@Import({FcmController.class})
+@Import({FcmController.class, FcmBulkController.class})
+@EnableConfigurationProperties(FcmEndpointProperties.class)
 public class FcmEndpointAutoConfiguration {
+    private static final String ASPECTJ_WEAVER = "org.aspectj.weaver.Advice";
+
+    /**
+     * Declares the bean for {@link FcmDispatcher}. The dispatcher queues accepted sends in bounded
+     * priority lanes and runs them on either dedicated virtual threads or the application task executor,
+     * as configured by {@code fcm.endpoint.dispatch.executor}, bounding the number of sends in flight.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @param executor   the application task executor, used when the executor type is {@code APPLICATION}
+     * @return an instance of {@link FcmDispatcher}
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public FcmDispatcher fcmDispatcher(FcmEndpointProperties properties,
+                                       @Qualifier(APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
+        FcmEndpointProperties.Dispatch dispatch = properties.getDispatch();
+        Executor dispatchExecutor = switch (dispatch.getExecutor()) {
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("fcm-dispatch-", 0).factory());
+            case APPLICATION -> executor;
+        };
+        Map<FcmPriority, FcmDispatcher.LaneSettings> lanes = new EnumMap<>(FcmPriority.class);
+        dispatch.getLanes().forEach((priority, lane) -> lanes.put(priority,
+                new FcmDispatcher.LaneSettings(lane.getCapacity(), lane.getWeight(), lane.getRetryAfter())));
+        return new FcmDispatcher(dispatchExecutor, dispatch.getMaxInFlight(), lanes);
+    }
+
+    /**
+     * Declares the bean for {@link AdaptiveConcurrencyLimiter}, which bounds the number of concurrent
+     * outbound sends and adapts the bound to throttling by FCM. The limiter can be turned off with
+     * {@code fcm.endpoint.limiter.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link AdaptiveConcurrencyLimiter}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.limiter", name = "enabled", matchIfMissing = true)
+    public AdaptiveConcurrencyLimiter fcmConcurrencyLimiter(FcmEndpointProperties properties) {
+        FcmEndpointProperties.Limiter limiter = properties.getLimiter();
+        return new AdaptiveConcurrencyLimiter("default", limiter.getInitialLimit(), limiter.getMinLimit(),
+                limiter.getMaxLimit(), limiter.getBackoffRatio(), limiter.getCooldown());
+    }
+
+    /**
+     * Declares the bean for {@link FcmRetryPolicy}, which decides whether failed sends are retried.
+     * Retries can be turned off with {@code fcm.endpoint.retry.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmRetryPolicy}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.retry", name = "enabled", matchIfMissing = true)
+    public FcmRetryPolicy fcmRetryPolicy(FcmEndpointProperties properties) {
+        FcmEndpointProperties.Retry retry = properties.getRetry();
+        Map<String, FcmRetryPolicy.Rule> rules = retry.getCodes().entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> new FcmRetryPolicy.Rule(
+                        entry.getValue().getMaxAttempts(),
+                        entry.getValue().getInitialBackoff(),
+                        entry.getValue().getMaxBackoff())));
+        return new FcmRetryPolicy(rules, retry.getBudgetRatio(), retry.getMaxBudget());
+    }
+
+    /**
+     * Declares the bean for {@link FcmRetryScheduler}, which runs delayed retries on the dispatch executor.
+     *
+     * @param fcmDispatcher the dispatcher whose executor runs the retries
+     * @return an instance of {@link FcmRetryScheduler}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.retry", name = "enabled", matchIfMissing = true)
+    public FcmRetryScheduler fcmRetryScheduler(FcmDispatcher fcmDispatcher) {
+        return new FcmRetryScheduler(fcmDispatcher.getExecutor());
+    }
+
+    /**
+     * Declares the bean for {@link FcmInvalidTokenCache}, which lets sends to tokens FCM has already reported
+     * as invalid skip the call. The cache can be turned off with {@code fcm.endpoint.token-cache.enabled=false}.
+     *
+     * @param properties   the FCM endpoint configuration properties
+     * @param objectMapper the object mapper used to read and write the snapshot
+     * @return an instance of {@link FcmInvalidTokenCache}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.token-cache", name = "enabled", matchIfMissing = true)
+    public FcmInvalidTokenCache fcmInvalidTokenCache(FcmEndpointProperties properties, ObjectMapper objectMapper) {
+        FcmEndpointProperties.TokenCache tokenCache = properties.getTokenCache();
+        return new FcmInvalidTokenCache(tokenCache.getMaxSize(), tokenCache.getTtl(), tokenCache.getSnapshot(),
+                tokenCache.getSnapshotInterval(), objectMapper);
+    }
+
+    /**
+     * Declares the bean for {@link FcmInvalidTokenEndpoint}, the actuator endpoint exporting and purging
+     * the invalid token cache.
+     *
+     * @param fcmInvalidTokenCache the cache of tokens known to be invalid for the default project
+     * @param fcmTenantRegistry    the tenants whose caches can be selected
+     * @return an instance of {@link FcmInvalidTokenEndpoint}
+     */
+    @Bean
+    @ConditionalOnAvailableEndpoint
+    @ConditionalOnProperty(prefix = "fcm.endpoint.token-cache", name = "enabled", matchIfMissing = true)
+    public FcmInvalidTokenEndpoint fcmInvalidTokenEndpoint(FcmInvalidTokenCache fcmInvalidTokenCache,
+                                                           FcmTenantRegistry fcmTenantRegistry) {
+        return new FcmInvalidTokenEndpoint(fcmInvalidTokenCache, fcmTenantRegistry);
+    }
+
+    /**
+     * Declares the bean for {@link FcmWarmup}, which primes the OAuth access token, opens connections to FCM and
+     * exercises serialization once the application has started. The warmup can be turned off with
+     * {@code fcm.endpoint.warmup.enabled=false}.
+     *
+     * @param fcmService   the FcmService to warm up
+     * @param objectMapper the object mapper the requests are serialized with
+     * @param properties   the FCM endpoint configuration properties
+     * @return an instance of {@link FcmWarmup}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.warmup", name = "enabled", matchIfMissing = true)
+    public FcmWarmup fcmWarmup(FcmService fcmService, ObjectMapper objectMapper, FcmEndpointProperties properties) {
+        FcmEndpointProperties.Warmup warmup = properties.getWarmup();
+        return new FcmWarmup(fcmService, objectMapper, warmup.getConnections(), warmup.getSerializationIterations(),
+                warmup.getTimeout());
+    }
+
+    /**
+     * Declares the bean for {@link FcmWarmupHealthIndicator}, which reports {@code OUT_OF_SERVICE} until the warmup
+     * is complete. It is declared even with the warmup turned off, reporting {@code UP}, so that the readiness
+     * group naming it stays valid.
+     *
+     * @param fcmWarmup the warmup of the send path, if enabled
+     * @return an instance of {@link FcmWarmupHealthIndicator}
+     */
+    @Bean
+    @ConditionalOnEnabledHealthIndicator("fcmWarmup")
+    public FcmWarmupHealthIndicator fcmWarmupHealthIndicator(ObjectProvider<FcmWarmup> fcmWarmup) {
+        return new FcmWarmupHealthIndicator(fcmWarmup.getIfAvailable());
+    }
+
+    /**
+     * Declares the bean for {@link FcmBackpressureMonitor}, which watches the dispatch slots in flight, the fill
+     * of the dispatch lanes and the latency and error ratio of the calls to FCM, and decides when the instance
+     * sheds traffic. The monitor can be turned off with {@code fcm.endpoint.backpressure.enabled=false}.
+     *
+     * @param dispatcher the dispatcher whose in-flight count and lane depths are watched
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmBackpressureMonitor}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.backpressure", name = "enabled", matchIfMissing = true)
+    public FcmBackpressureMonitor fcmBackpressureMonitor(FcmDispatcher dispatcher, FcmEndpointProperties properties) {
+        FcmEndpointProperties.Backpressure backpressure = properties.getBackpressure();
+        return new FcmBackpressureMonitor(dispatcher, thresholds(backpressure.getHigh()),
+                thresholds(backpressure.getLow()), backpressure.getSmoothing(), backpressure.getRecoveryIntervals(),
+                backpressure.getInterval());
+    }
+
+    /**
+     * Declares the bean for {@link FcmBackpressureHealthIndicator}, which reports {@code OUT_OF_SERVICE} while the
+     * instance sheds traffic. It is declared even with the monitor turned off, reporting {@code UP}, so that the
+     * readiness group naming it stays valid.
+     *
+     * @param fcmBackpressureMonitor the monitor deciding whether to shed traffic, if enabled
+     * @return an instance of {@link FcmBackpressureHealthIndicator}
+     */
+    @Bean
+    @ConditionalOnEnabledHealthIndicator("fcmBackpressure")
+    public FcmBackpressureHealthIndicator fcmBackpressureHealthIndicator(
+            ObjectProvider<FcmBackpressureMonitor> fcmBackpressureMonitor) {
+        return new FcmBackpressureHealthIndicator(fcmBackpressureMonitor.getIfAvailable());
+    }
+
+    /**
+     * Declares the bean for {@link FcmSendMetrics}, which times each call to FCM and records the payload size.
+     * The metrics can be turned off with {@code fcm.endpoint.metrics.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @param registry   the registry the metrics are registered with
+     * @return an instance of {@link FcmSendMetrics}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.metrics", name = "enabled", matchIfMissing = true)
+    public FcmSendMetrics fcmSendMetrics(FcmEndpointProperties properties, MeterRegistry registry) {
+        return new FcmSendMetrics(registry, properties.getMetrics().isPayloadSize());
+    }
+
+    /**
+     * Declares the bean for {@link FcmOutboundSender}, which performs the outbound call to FCM.
+     *
+     * @param fcmService        the FcmService instance used to send the messages
+     * @param limiter           the concurrency limiter, if enabled
+     * @param retryPolicy       the retry policy, if enabled
+     * @param retryScheduler    the scheduler running delayed retries, if enabled
+     * @param invalidTokenCache the cache of tokens known to be invalid, if enabled
+     * @param metrics           the metrics of the calls to FCM, if enabled
+     * @param monitor           the backpressure monitor, if enabled
+     * @return an instance of {@link FcmOutboundSender}
+     */
+    @Bean
+    public FcmOutboundSender fcmOutboundSender(FcmService fcmService,
+                                               ObjectProvider<AdaptiveConcurrencyLimiter> limiter,
+                                               ObjectProvider<FcmRetryPolicy> retryPolicy,
+                                               ObjectProvider<FcmRetryScheduler> retryScheduler,
+                                               ObjectProvider<FcmInvalidTokenCache> invalidTokenCache,
+                                               ObjectProvider<FcmSendMetrics> metrics,
+                                               ObjectProvider<FcmBackpressureMonitor> monitor) {
+        return new FcmOutboundSender(fcmService, limiter.getIfAvailable(),
+                retryPolicy.getIfAvailable(), retryScheduler.getIfAvailable(), invalidTokenCache.getIfAvailable(),
+                metrics.getIfAvailable(), monitor.getIfAvailable());
+    }
+
+    /**
+     * Declares the bean for {@link FcmTenantRegistry}, which routes the sends naming a tenant to the FCM project of
+     * that tenant. Each tenant of {@code fcm.endpoint.tenants} sends through the FcmService bean it names, with its
+     * own concurrency limiter, metrics and invalid token cache, sharing the retry policy of the default project.
+     * A token FCM reports as invalid for one project is therefore only skipped for that project. The cache of a
+     * tenant takes the size and time to live of {@code fcm.endpoint.token-cache}, but is held in memory only; its
+     * metrics are tagged with the tenant and registered when the sender of the tenant is created.
+     * The FcmService bean and the sender of a tenant are only created once the tenant is first sent to.
+     *
+     * @param properties        the FCM endpoint configuration properties
+     * @param beanFactory       the bean factory the FcmService beans of the tenants are looked up in
+     * @param registry          the registry the metrics of the tenants are registered with
+     * @param objectMapper      the object mapper used to read and write the snapshots of the invalid token caches
+     * @param retryPolicy       the retry policy, if enabled
+     * @param retryScheduler    the scheduler running delayed retries, if enabled
+     * @param invalidTokenCache the cache of tokens known to be invalid for the default project, if enabled, which
+     *                          the caches of the tenants are enabled with
+     * @param metrics           the metrics of the calls to the default FCM project, if enabled
+     * @param monitor           the backpressure monitor, if enabled
+     * @return an instance of {@link FcmTenantRegistry}
+     */
+    @Bean
+    public FcmTenantRegistry fcmTenantRegistry(FcmEndpointProperties properties, BeanFactory beanFactory,
+                                               MeterRegistry registry, ObjectMapper objectMapper,
+                                               ObjectProvider<FcmRetryPolicy> retryPolicy,
+                                               ObjectProvider<FcmRetryScheduler> retryScheduler,
+                                               ObjectProvider<FcmInvalidTokenCache> invalidTokenCache,
+                                               ObjectProvider<FcmSendMetrics> metrics,
+                                               ObjectProvider<FcmBackpressureMonitor> monitor) {
+        List<FcmTenant> tenants = new ArrayList<>();
+        properties.getTenants().forEach((name, tenant) -> {
+            String service = tenant.getService() != null ? tenant.getService() : name;
+            if (!beanFactory.containsBean(service)) {
+                throw new IllegalStateException("No FcmService bean named " + service + " for FCM tenant " + name);
+            }
+            tenants.add(new FcmTenant(name, () -> {
+                FcmEndpointProperties.Limiter limiter = tenant.getLimiter();
+                AdaptiveConcurrencyLimiter tenantLimiter = null;
+                if (limiter.isEnabled()) {
+                    tenantLimiter = new AdaptiveConcurrencyLimiter(name, limiter.getInitialLimit(),
+                            limiter.getMinLimit(), limiter.getMaxLimit(), limiter.getBackoffRatio(),
+                            limiter.getCooldown());
+                    tenantLimiter.bindTo(registry);
+                }
+                FcmSendMetrics tenantMetrics = metrics.getIfAvailable() == null ? null : new FcmSendMetrics(registry,
+                        properties.getMetrics().isPayloadSize(), name);
+                FcmEndpointProperties.TokenCache tokenCache = properties.getTokenCache();
+                FcmInvalidTokenCache tenantTokenCache = null;
+                if (invalidTokenCache.getIfAvailable() != null) {
+                    tenantTokenCache = new FcmInvalidTokenCache(tokenCache.getMaxSize(), tokenCache.getTtl(), null,
+                            tokenCache.getSnapshotInterval(), objectMapper, name);
+                    tenantTokenCache.bindTo(registry);
+                }
+                return new FcmOutboundSender(beanFactory.getBean(service, FcmService.class), tenantLimiter,
+                        retryPolicy.getIfAvailable(), retryScheduler.getIfAvailable(),
+                        tenantTokenCache, tenantMetrics, monitor.getIfAvailable());
+            }, tenant.getMaxPending(), tenant.getRetryAfter()));
+        });
+        return new FcmTenantRegistry(tenants);
+    }
+
+    /**
+     * Declares the bean for {@link FcmCoalescer}, which holds messages with a collapse key for a short window so
+     * that a newer message replaces one still waiting. Coalescing is off by default and is turned on with
+     * {@code fcm.endpoint.coalesce.enabled=true}.
+     *
+     * @param fcmDispatcher     the dispatcher the coalesced sends are queued on
+     * @param fcmOutboundSender the sender performing the outbound calls to FCM
+     * @param properties        the FCM endpoint configuration properties
+     * @return an instance of {@link FcmCoalescer}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.coalesce", name = "enabled")
+    public FcmCoalescer fcmCoalescer(FcmDispatcher fcmDispatcher, FcmOutboundSender fcmOutboundSender,
+                                     FcmEndpointProperties properties) {
+        FcmEndpointProperties.Coalesce coalesce = properties.getCoalesce();
+        return new FcmCoalescer(fcmDispatcher, fcmOutboundSender::sendWithRetry, coalesce.getWindow(),
+                coalesce.getMaxPending());
+    }
+
+    /**
+     * Declares the bean for {@link FcmOrderedDispatcher}, which keeps the sends to the same token in order while
+     * sends to different tokens run in parallel. Ordering is off by default and is turned on with
+     * {@code fcm.endpoint.ordering.enabled=true}.
+     *
+     * @param fcmDispatcher the dispatcher the ordered sends are queued on
+     * @param properties    the FCM endpoint configuration properties
+     * @return an instance of {@link FcmOrderedDispatcher}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.ordering", name = "enabled")
+    public FcmOrderedDispatcher fcmOrderedDispatcher(FcmDispatcher fcmDispatcher, FcmEndpointProperties properties) {
+        FcmEndpointProperties.Ordering ordering = properties.getOrdering();
+        return new FcmOrderedDispatcher(fcmDispatcher, ordering.getShards(), ordering.getMaxQueuedPerToken());
+    }
+
+    /**
+     * Declares the bean for {@link FcmIdempotencyStore}, which remembers the idempotency keys of recent requests so
+     * that a retried request is not sent again. It can be turned off with
+     * {@code fcm.endpoint.idempotency.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmIdempotencyStore}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.idempotency", name = "enabled", matchIfMissing = true)
+    public FcmIdempotencyStore fcmIdempotencyStore(FcmEndpointProperties properties) {
+        FcmEndpointProperties.Idempotency idempotency = properties.getIdempotency();
+        return new FcmIdempotencyStore(idempotency.getWindow(), idempotency.getMaxKeys(),
+                idempotency.getMaxResults());
+    }
+
+    /**
+     * Declares the bean for {@link FcmOutbox}, the durable local log of accepted messages.
+     * The outbox is off by default and is turned on with {@code fcm.endpoint.outbox.enabled=true}.
+     *
+     * @param properties   the FCM endpoint configuration properties
+     * @param objectMapper the object mapper used to serialize the messages
+     * @return an instance of {@link FcmOutbox}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.outbox", name = "enabled")
+    public FcmOutbox fcmOutbox(FcmEndpointProperties properties, ObjectMapper objectMapper) {
+        FcmEndpointProperties.Outbox outbox = properties.getOutbox();
+        return new FcmOutbox(outbox.getDirectory(), outbox.getSegmentSize().toBytes(), outbox.getMaxBatch(),
+                outbox.getCompactInterval(), outbox.getCompactThreshold(), objectMapper);
+    }
+
+    /**
+     * Declares the bean for {@link FcmOutboxReplayer}, which resends the messages left in the outbox
+     * by a previous run once the application is ready.
+     *
+     * @param fcmOutbox              the outbox holding the recovered messages
+     * @param fcmDispatcher          the dispatcher the replayed sends are queued on
+     * @param fcmNotificationService the service the replayed sends are made through, so that they reach the
+     *                               dead-letter store
+     * @param fcmTenantRegistry      the tenants the messages accepted for a tenant are sent through
+     * @param properties             the FCM endpoint configuration properties
+     * @return an instance of {@link FcmOutboxReplayer}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.outbox", name = "enabled")
+    public FcmOutboxReplayer fcmOutboxReplayer(FcmOutbox fcmOutbox, FcmDispatcher fcmDispatcher,
+                                               FcmNotificationServiceImpl fcmNotificationService,
+                                               FcmTenantRegistry fcmTenantRegistry,
+                                               FcmEndpointProperties properties) {
+        return new FcmOutboxReplayer(fcmOutbox, fcmDispatcher, fcmNotificationService, fcmTenantRegistry,
+                properties.getMulticast().getMaxConcurrency());
+    }
+
+    /**
+     * Declares the bean for {@link FcmDeadLetterStore}, the local log of sends FCM still answered with an error after
+     * their retries. The store is off by default and is turned on with {@code fcm.endpoint.dead-letter.enabled=true}.
+     *
+     * @param properties   the FCM endpoint configuration properties
+     * @param objectMapper the object mapper used to serialize the requests
+     * @return an instance of {@link FcmDeadLetterStore}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.dead-letter", name = "enabled")
+    public FcmDeadLetterStore fcmDeadLetterStore(FcmEndpointProperties properties, ObjectMapper objectMapper) {
+        FcmEndpointProperties.DeadLetter deadLetter = properties.getDeadLetter();
+        return new FcmDeadLetterStore(deadLetter.getDirectory(), deadLetter.getSegmentSize().toBytes(),
+                deadLetter.getMaxSize().toBytes(), deadLetter.getRetention(), objectMapper);
+    }
+
+    /**
+     * Declares the bean for {@link FcmDeadLetterReplayer}, which resends the dead letters on demand at a given rate.
+     *
+     * @param fcmDeadLetterStore the store holding the dead letters
+     * @param fcmDispatcher      the dispatcher the replayed sends are queued on
+     * @param fcmOutboundSender  the sender performing the outbound calls to FCM
+     * @param fcmTenantRegistry  the tenants the dead letters of a tenant are sent through
+     * @param properties         the FCM endpoint configuration properties
+     * @return an instance of {@link FcmDeadLetterReplayer}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.dead-letter", name = "enabled")
+    public FcmDeadLetterReplayer fcmDeadLetterReplayer(FcmDeadLetterStore fcmDeadLetterStore,
+                                                       FcmDispatcher fcmDispatcher,
+                                                       FcmOutboundSender fcmOutboundSender,
+                                                       FcmTenantRegistry fcmTenantRegistry,
+                                                       FcmEndpointProperties properties) {
+        return new FcmDeadLetterReplayer(fcmDeadLetterStore, fcmDispatcher, fcmOutboundSender, fcmTenantRegistry,
+                properties.getMulticast().getMaxConcurrency());
+    }
+
+    /**
+     * Declares the bean for {@link FcmDeadLetterEndpoint}, the actuator endpoint listing, replaying and purging the
+     * dead letters.
+     *
+     * @param fcmDeadLetterStore    the store holding the dead letters
+     * @param fcmDeadLetterReplayer the replayer resending them
+     * @param properties            the FCM endpoint configuration properties
+     * @return an instance of {@link FcmDeadLetterEndpoint}
+     */
+    @Bean
+    @ConditionalOnAvailableEndpoint
+    @ConditionalOnProperty(prefix = "fcm.endpoint.dead-letter", name = "enabled")
+    public FcmDeadLetterEndpoint fcmDeadLetterEndpoint(FcmDeadLetterStore fcmDeadLetterStore,
+                                                       FcmDeadLetterReplayer fcmDeadLetterReplayer,
+                                                       FcmEndpointProperties properties) {
+        return new FcmDeadLetterEndpoint(fcmDeadLetterStore, fcmDeadLetterReplayer,
+                properties.getDeadLetter().getReplayRate());
+    }
+
+    /**
+     * Declares the bean for {@link FcmPayloadGuard}, which checks the payload size of notifications at the REST
+     * endpoints before they are sent. The check can be turned off with {@code fcm.endpoint.payload.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmPayloadGuard}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.payload", name = "enabled", matchIfMissing = true)
+    public FcmPayloadGuard fcmPayloadGuard(FcmEndpointProperties properties) {
+        FcmEndpointProperties.Payload payload = properties.getPayload();
+        return new FcmPayloadGuard((int) payload.getMaxSize().toBytes(), payload.getPolicy());
+    }
+
+    /**
+     * Declares the bean for {@link FcmAudienceRegistry}, which holds the named audiences notifications can be
+     * sent to. Audiences can be turned off with {@code fcm.endpoint.audience.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmAudienceRegistry}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.audience", name = "enabled", matchIfMissing = true)
+    public FcmAudienceRegistry fcmAudienceRegistry(FcmEndpointProperties properties) {
+        FcmEndpointProperties.Audience audience = properties.getAudience();
+        return new FcmAudienceRegistry(audience.getSnapshot(), audience.getSnapshotInterval());
+    }
+
+    /**
+     * Declares the bean for {@link FcmAudienceController}, the REST endpoints managing and sending to the named
+     * audiences. It is declared rather than imported so that it goes away with the registry.
+     *
+     * @param fcmAudienceRegistry    the registry holding the named audiences
+     * @param fcmNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard        the guard checking the payload size, if enabled
+     * @return an instance of {@link FcmAudienceController}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.audience", name = "enabled", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public FcmAudienceController fcmAudienceController(FcmAudienceRegistry fcmAudienceRegistry,
+                                                       FcmNotificationService fcmNotificationService,
+                                                       ObjectProvider<FcmPayloadGuard> fcmPayloadGuard) {
+        return new FcmAudienceController(fcmAudienceRegistry, fcmNotificationService,
+                fcmPayloadGuard.getIfAvailable());
+    }
+
+    /**
+     * Declares the bean for {@link FcmNotificationScheduler}, which holds scheduled notifications until they are due
+     * and then sends them through the notification service. Scheduling can be turned off with
+     * {@code fcm.endpoint.schedule.enabled=false}.
+     *
+     * @param fcmNotificationService the service the due notifications are sent with
+     * @param fcmDispatcher          the dispatcher whose executor the due notifications are handed to
+     * @param objectMapper           the object mapper used to serialize the scheduled requests
+     * @param properties             the FCM endpoint configuration properties
+     * @return an instance of {@link FcmNotificationScheduler}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.schedule", name = "enabled", matchIfMissing = true)
+    public FcmNotificationScheduler fcmNotificationScheduler(FcmNotificationService fcmNotificationService,
+                                                             FcmDispatcher fcmDispatcher, ObjectMapper objectMapper,
+                                                             FcmEndpointProperties properties) {
+        FcmEndpointProperties.Schedule schedule = properties.getSchedule();
+        return new FcmNotificationScheduler(fcmNotificationService, fcmDispatcher.getExecutor(), objectMapper,
+                schedule.getTick(), schedule.getMaxPending(), schedule.getSnapshot(), schedule.getSnapshotInterval());
+    }
+
+    /**
+     * Declares the bean for {@link FcmScheduleController}, the REST endpoints scheduling notifications. It is
+     * declared rather than imported so that it goes away with the scheduler.
+     *
+     * @param fcmNotificationScheduler the scheduler holding the notifications until they are due
+     * @param fcmPayloadGuard          the guard checking the payload size, if enabled
+     * @return an instance of {@link FcmScheduleController}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.schedule", name = "enabled", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public FcmScheduleController fcmScheduleController(FcmNotificationScheduler fcmNotificationScheduler,
+                                                       ObjectProvider<FcmPayloadGuard> fcmPayloadGuard) {
+        return new FcmScheduleController(fcmNotificationScheduler, fcmPayloadGuard.getIfAvailable());
+    }
+
+    /**
+     * Declares the bean for {@link FcmTemplateRegistry}, which holds the notification templates sends can be
+     * rendered from, starting with those of {@code fcm.endpoint.template.definitions}. Templates can be turned off
+     * with {@code fcm.endpoint.template.enabled=false}.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmTemplateRegistry}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.template", name = "enabled", matchIfMissing = true)
+    public FcmTemplateRegistry fcmTemplateRegistry(FcmEndpointProperties properties) {
+        FcmTemplateRegistry registry = new FcmTemplateRegistry();
+        properties.getTemplate().getDefinitions().forEach((id, definition) -> registry.register(id,
+                FcmNotificationTemplate.Builder.aFcmNotificationTemplate()
+                        .title(definition.getTitle())
+                        .body(definition.getBody())
+                        .data(definition.getData())
+                        .collapseKey(definition.getCollapseKey())
+                        .build()));
+        return registry;
+    }
+
+    /**
+     * Declares the bean for {@link FcmTemplateController}, the REST endpoints managing and sending from the
+     * notification templates. It is declared rather than imported so that it goes away with the registry.
+     *
+     * @param fcmTemplateRegistry    the registry holding the templates
+     * @param fcmNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard        the guard checking the payload size, if enabled
+     * @return an instance of {@link FcmTemplateController}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.template", name = "enabled", matchIfMissing = true)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public FcmTemplateController fcmTemplateController(FcmTemplateRegistry fcmTemplateRegistry,
+                                                       FcmNotificationService fcmNotificationService,
+                                                       ObjectProvider<FcmPayloadGuard> fcmPayloadGuard) {
+        return new FcmTemplateController(fcmTemplateRegistry, fcmNotificationService,
+                fcmPayloadGuard.getIfAvailable());
+    }
 
     /**
      * Declares the bean for {@link FcmNotificationServiceImpl}. This service implementation
      * is responsible for handling the business logic associated with sending FCM notifications.
      *
-     * @param fcmService the FcmService instance to be used by the FcmNotificationServiceImpl
+     * @param fcmOutboundSender    the sender performing the outbound calls to FCM
+     * @param fcmDispatcher        the dispatcher used to run asynchronous sends
+     * @param fcmOutbox            the durable outbox of accepted messages, if enabled
+     * @param fcmAudienceRegistry  the registry of named audiences, if enabled
+     * @param fcmCoalescer         the coalescer of messages with a collapse key, if enabled
+     * @param fcmOrderedDispatcher the dispatcher keeping the sends to the same token in order, if enabled
+     * @param fcmIdempotencyStore  the store of idempotency keys of recent requests, if enabled
+     * @param fcmTenantRegistry    the tenants sends can be routed to
+     * @param fcmDeadLetterStore   the store of sends still failed after their retries, if enabled
+     * @param fcmTemplateRegistry  the registry of notification templates, if enabled
+     * @param properties           the FCM endpoint configuration properties
      * @return an instance of {@link FcmNotificationServiceImpl}
      */
     @Bean
-    public FcmNotificationServiceImpl fcmNotificationService(FcmService fcmService) {
-        return new FcmNotificationServiceImpl(fcmService);
+    public FcmNotificationServiceImpl fcmNotificationService(FcmOutboundSender fcmOutboundSender,
+                                                             FcmDispatcher fcmDispatcher,
+                                                             ObjectProvider<FcmOutbox> fcmOutbox,
+                                                             ObjectProvider<FcmAudienceRegistry> fcmAudienceRegistry,
+                                                             ObjectProvider<FcmCoalescer> fcmCoalescer,
+                                                             ObjectProvider<FcmOrderedDispatcher> fcmOrderedDispatcher,
+                                                             ObjectProvider<FcmIdempotencyStore> fcmIdempotencyStore,
+                                                             FcmTenantRegistry fcmTenantRegistry,
+                                                             ObjectProvider<FcmDeadLetterStore> fcmDeadLetterStore,
+                                                             ObjectProvider<FcmTemplateRegistry> fcmTemplateRegistry,
+                                                             FcmEndpointProperties properties) {
+        return new FcmNotificationServiceImpl(fcmOutboundSender, fcmDispatcher, fcmOutbox.getIfAvailable(),
+                fcmAudienceRegistry.getIfAvailable(), fcmCoalescer.getIfAvailable(),
+                fcmOrderedDispatcher.getIfAvailable(), fcmIdempotencyStore.getIfAvailable(), fcmTenantRegistry,
+                fcmDeadLetterStore.getIfAvailable(), fcmTemplateRegistry.getIfAvailable(),
+                properties.getMulticast().getMaxConcurrency(),
+                properties.getAudience().getMaxConcurrency());
+    }
+
+    /**
+     * Declares the bean for {@link FcmNotificationAuditor}, which writes every operation of the FCM notification
+     * service to the {@code fcm.notification.audit} logger.
+     *
+     * @param properties the FCM endpoint configuration properties
+     * @return an instance of {@link FcmNotificationAuditor}
+     */
+    @Bean
+    public FcmNotificationAuditor fcmNotificationAuditor(FcmEndpointProperties properties) {
+        return new FcmNotificationAuditor(properties.getAudit().getBufferSize());
+    }
+
+    /**
+     * Declares the bean for {@link FcmNotificationMetrics}, which times the operations of the
+     * FCM notification service. The metrics can be turned off with {@code fcm.endpoint.metrics.enabled=false}.
+     *
+     * @param registry the registry the metrics are registered with
+     * @return an instance of {@link FcmNotificationMetrics}
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "fcm.endpoint.metrics", name = "enabled", matchIfMissing = true)
+    public FcmNotificationMetrics fcmNotificationMetrics(MeterRegistry registry) {
+        return new FcmNotificationMetrics(registry);
     }
 
     /**
      * Declares the bean for {@link FcmNotificationServiceAdvice}. This advice is applied
      * to FCM notification services to provide additional functionalities such as auditing.
+     * It applies when AspectJ is on the classpath, that is unless the endpoint is built with {@code -Plean}.
      *
-     * @param executor the executor to be used for asynchronous operations within the advice,
-     *                 qualified by {@code APPLICATION_TASK_EXECUTOR_BEAN_NAME}
+     * @param fcmNotificationAuditor the auditor recording the operations
      * @return an instance of {@link FcmNotificationServiceAdvice}
      */
     @Bean
-    public FcmNotificationServiceAdvice fcmNotificationServiceAdvice(
-            @Qualifier(APPLICATION_TASK_EXECUTOR_BEAN_NAME) Executor executor) {
-        return new FcmNotificationServiceAdvice(executor);
+    @ConditionalOnClass(name = ASPECTJ_WEAVER)
+    public FcmNotificationServiceAdvice fcmNotificationServiceAdvice(FcmNotificationAuditor fcmNotificationAuditor) {
+        return new FcmNotificationServiceAdvice(fcmNotificationAuditor);
+    }
+
+    /**
+     * Declares the bean for {@link FcmNotificationServiceMetricsAdvice}, which applies the
+     * {@link FcmNotificationMetrics} to the FCM notification service when AspectJ is on the classpath.
+     *
+     * @param fcmNotificationMetrics the metrics recording the operations
+     * @return an instance of {@link FcmNotificationServiceMetricsAdvice}
+     */
+    @Bean
+    @ConditionalOnClass(name = ASPECTJ_WEAVER)
+    @ConditionalOnProperty(prefix = "fcm.endpoint.metrics", name = "enabled", matchIfMissing = true)
+    public FcmNotificationServiceMetricsAdvice fcmNotificationServiceMetricsAdvice(
+            FcmNotificationMetrics fcmNotificationMetrics) {
+        return new FcmNotificationServiceMetricsAdvice(fcmNotificationMetrics);
+    }
+
+    /**
+     * Declares the bean for {@link FcmNotificationServiceDecorator}, which applies the auditor and, if enabled, the
+     * metrics to the FCM notification service in place of the aspects when AspectJ is not on the classpath, as in
+     * the lean build. It is the primary FcmNotificationService, so the controllers and services send through it.
+     *
+     * @param fcmNotificationService the service the operations are delegated to
+     * @param fcmNotificationAuditor the auditor recording the operations
+     * @param fcmNotificationMetrics the metrics recording the operations, if enabled
+     * @return an instance of {@link FcmNotificationServiceDecorator}
+     */
+    @Bean
+    @Primary
+    @ConditionalOnMissingClass(ASPECTJ_WEAVER)
+    public FcmNotificationServiceDecorator fcmNotificationServiceDecorator(
+            FcmNotificationServiceImpl fcmNotificationService, FcmNotificationAuditor fcmNotificationAuditor,
+            ObjectProvider<FcmNotificationMetrics> fcmNotificationMetrics) {
+        List<FcmNotificationInterceptor> interceptors = new ArrayList<>();
+        interceptors.add(fcmNotificationAuditor);
+        FcmNotificationMetrics metrics = fcmNotificationMetrics.getIfAvailable();
+        if (metrics != null) {
+            interceptors.add(metrics);
+        }
+        return new FcmNotificationServiceDecorator(fcmNotificationService, interceptors);
+    }
+
+    private static FcmBackpressureMonitor.Thresholds thresholds(
+            FcmEndpointProperties.BackpressureThresholds thresholds) {
+        return new FcmBackpressureMonitor.Thresholds(thresholds.getInFlightRatio(), thresholds.getQueueFill(),
+                thresholds.getLatency(), thresholds.getErrorRatio());
     }
 }
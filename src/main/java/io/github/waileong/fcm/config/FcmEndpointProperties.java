@@ -0,0 +1,1531 @@
+package io.github.waileong.fcm.config;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration properties for the FCM endpoint, bound from the {@code fcm.endpoint} prefix.
+ * These settings control how notifications accepted by the endpoint are dispatched to FCM.
+ *
+ * @author Wai Leong
+ */
+@ConfigurationProperties(prefix = "fcm.endpoint")
+public class FcmEndpointProperties {
+
+    /**
+     * Settings for the asynchronous dispatch engine.
+     */
+    private final Dispatch dispatch = new Dispatch();
+
+    /**
+     * Settings for sending one notification to many tokens.
+     */
+    private final Multicast multicast = new Multicast();
+
+    /**
+     * Settings for NDJSON bulk uploads.
+     */
+    private final Bulk bulk = new Bulk();
+
+    /**
+     * Settings for the coalescing of messages with the same target and collapse key.
+     */
+    private final Coalesce coalesce = new Coalesce();
+
+    /**
+     * Settings for keeping the sends to the same token in order.
+     */
+    private final Ordering ordering = new Ordering();
+
+    /**
+     * Settings for the deduplication of requests by idempotency key.
+     */
+    private final Idempotency idempotency = new Idempotency();
+
+    /**
+     * Settings for the adaptive concurrency limiter around outbound sends.
+     */
+    private final Limiter limiter = new Limiter();
+
+    /**
+     * Settings for retrying failed sends.
+     */
+    private final Retry retry = new Retry();
+
+    /**
+     * Settings for the durable local outbox.
+     */
+    private final Outbox outbox = new Outbox();
+
+    /**
+     * Settings for the dead-letter store of sends FCM still answered with an error after their retries.
+     */
+    private final DeadLetter deadLetter = new DeadLetter();
+
+    /**
+     * Settings for the cache of invalid registration tokens.
+     */
+    private final TokenCache tokenCache = new TokenCache();
+
+    /**
+     * Settings for the registry of named audiences.
+     */
+    private final Audience audience = new Audience();
+
+    /**
+     * Settings for the scheduler of notifications sent at a later time.
+     */
+    private final Schedule schedule = new Schedule();
+
+    /**
+     * The tenants notifications can be routed to, each an FCM project besides the default one of
+     * {@code fcm.credential}, keyed by tenant name.
+     */
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+
+    /**
+     * Settings for the warmup of the send path at startup.
+     */
+    private final Warmup warmup = new Warmup();
+
+    /**
+     * Settings for shedding traffic when the send path is saturated.
+     */
+    private final Backpressure backpressure = new Backpressure();
+
+    /**
+     * Settings for checking the payload size of notifications before they are sent.
+     */
+    private final Payload payload = new Payload();
+
+    /**
+     * Settings for the notification templates sends can be rendered from.
+     */
+    private final Template template = new Template();
+
+    /**
+     * Settings for the Micrometer metrics of the send pipeline.
+     */
+    private final Metrics metrics = new Metrics();
+
+    /**
+     * Settings for the audit log.
+     */
+    private final Audit audit = new Audit();
+
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    public Multicast getMulticast() {
+        return multicast;
+    }
+
+    public Bulk getBulk() {
+        return bulk;
+    }
+
+    public Coalesce getCoalesce() {
+        return coalesce;
+    }
+
+    public Ordering getOrdering() {
+        return ordering;
+    }
+
+    public Idempotency getIdempotency() {
+        return idempotency;
+    }
+
+    public Limiter getLimiter() {
+        return limiter;
+    }
+
+    public Retry getRetry() {
+        return retry;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    public DeadLetter getDeadLetter() {
+        return deadLetter;
+    }
+
+    public TokenCache getTokenCache() {
+        return tokenCache;
+    }
+
+    public Audience getAudience() {
+        return audience;
+    }
+
+    public Schedule getSchedule() {
+        return schedule;
+    }
+
+    public Map<String, Tenant> getTenants() {
+        return tenants;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    public Payload getPayload() {
+        return payload;
+    }
+
+    public Template getTemplate() {
+        return template;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    public Audit getAudit() {
+        return audit;
+    }
+
+    /**
+     * The kind of executor used to run outbound FCM sends.
+     */
+    public enum ExecutorType {
+        /**
+         * A dedicated virtual thread per send.
+         */
+        VIRTUAL,
+        /**
+         * The application task executor provided by Spring Boot.
+         */
+        APPLICATION
+    }
+
+    /**
+     * Settings for the asynchronous dispatch engine behind the {@code CompletableFuture} returning send methods.
+     */
+    public static class Dispatch {
+
+        /**
+         * The executor used to run outbound FCM sends.
+         */
+        private ExecutorType executor = ExecutorType.VIRTUAL;
+
+        /**
+         * The maximum number of sends that may be in flight at the same time.
+         */
+        private int maxInFlight = 1024;
+
+        /**
+         * The queue settings of each priority lane.
+         */
+        private final Map<FcmPriority, Lane> lanes = new EnumMap<>(Map.of(
+                FcmPriority.HIGH, new Lane(1000, 4, Duration.ofSeconds(1)),
+                FcmPriority.NORMAL, new Lane(10000, 1, Duration.ofSeconds(5))));
+
+        public ExecutorType getExecutor() {
+            return executor;
+        }
+
+        public void setExecutor(ExecutorType executor) {
+            this.executor = executor;
+        }
+
+        public int getMaxInFlight() {
+            return maxInFlight;
+        }
+
+        public void setMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        public Map<FcmPriority, Lane> getLanes() {
+            return lanes;
+        }
+    }
+
+    /**
+     * The queue settings of one priority lane.
+     */
+    public static class Lane {
+
+        /**
+         * The maximum number of sends waiting in the lane. Further sends are rejected with {@code 429}.
+         */
+        private int capacity = 1000;
+
+        /**
+         * The share of dispatch slots the lane gets when other lanes are busy too.
+         */
+        private int weight = 1;
+
+        /**
+         * The {@code Retry-After} suggested to callers rejected because the lane is full.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        public Lane() {
+        }
+
+        public Lane(int capacity, int weight, Duration retryAfter) {
+            this.capacity = capacity;
+            this.weight = weight;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        public void setWeight(int weight) {
+            this.weight = weight;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Settings for sending one notification to many tokens.
+     */
+    public static class Multicast {
+
+        /**
+         * The maximum number of sends of a single multicast in flight at the same time.
+         */
+        private int maxConcurrency = 64;
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+    }
+
+    /**
+     * Settings for NDJSON bulk uploads.
+     */
+    public static class Bulk {
+
+        /**
+         * The maximum number of lines of a single upload dispatched but not yet answered.
+         * Parsing of the upload pauses once this many lines are pending.
+         */
+        private int maxPending = 256;
+
+        public int getMaxPending() {
+            return maxPending;
+        }
+
+        public void setMaxPending(int maxPending) {
+            this.maxPending = maxPending;
+        }
+    }
+
+    /**
+     * Settings for the coalescing window. Within the window, a newer message to the same target with the same
+     * collapse key replaces the one still waiting, so only the newest is sent.
+     */
+    public static class Coalesce {
+
+        /**
+         * Whether messages with a collapse key are coalesced.
+         */
+        private boolean enabled = false;
+
+        /**
+         * How long a message with a collapse key waits for a newer one before it is dispatched.
+         */
+        private Duration window = Duration.ofMillis(500);
+
+        /**
+         * The maximum number of windows open at the same time; further messages are dispatched without waiting.
+         */
+        private int maxPending = 100_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public int getMaxPending() {
+            return maxPending;
+        }
+
+        public void setMaxPending(int maxPending) {
+            this.maxPending = maxPending;
+        }
+    }
+
+    /**
+     * Settings for keeping the sends to the same token in order. A send to a token waits until the previous send to
+     * that token has completed, while sends to different tokens run in parallel.
+     */
+    public static class Ordering {
+
+        /**
+         * Whether the sends to the same token are kept in order.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The number of shards the tokens are spread over, each with its own lock and lag metrics.
+         */
+        private int shards = 16;
+
+        /**
+         * The maximum number of sends waiting behind the send in flight to the same token; further sends to the
+         * token are rejected.
+         */
+        private int maxQueuedPerToken = 1000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getShards() {
+            return shards;
+        }
+
+        public void setShards(int shards) {
+            this.shards = shards;
+        }
+
+        public int getMaxQueuedPerToken() {
+            return maxQueuedPerToken;
+        }
+
+        public void setMaxQueuedPerToken(int maxQueuedPerToken) {
+            this.maxQueuedPerToken = maxQueuedPerToken;
+        }
+    }
+
+    /**
+     * Settings for the deduplication of requests by idempotency key. A request carrying an
+     * {@code Idempotency-Key} already seen within the window is answered without being sent to FCM again.
+     */
+    public static class Idempotency {
+
+        /**
+         * Whether requests with an idempotency key are deduplicated.
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long a key is remembered at least, unless {@code max-keys} keys arrive first.
+         */
+        private Duration window = Duration.ofMinutes(10);
+
+        /**
+         * The number of keys remembered per window. Memory is fixed at 16 bytes times the next power of two of
+         * max-keys / 0.75, which is 16 MiB, about 34 bytes per key, at the default.
+         */
+        private int maxKeys = 500_000;
+
+        /**
+         * The number of most recent results kept to answer duplicates with; older duplicates are answered
+         * with an empty result.
+         */
+        private int maxResults = 10_000;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getWindow() {
+            return window;
+        }
+
+        public void setWindow(Duration window) {
+            this.window = window;
+        }
+
+        public int getMaxKeys() {
+            return maxKeys;
+        }
+
+        public void setMaxKeys(int maxKeys) {
+            this.maxKeys = maxKeys;
+        }
+
+        public int getMaxResults() {
+            return maxResults;
+        }
+
+        public void setMaxResults(int maxResults) {
+            this.maxResults = maxResults;
+        }
+    }
+
+    /**
+     * Settings for the adaptive concurrency limiter around outbound sends. The limiter narrows the number of
+     * concurrent calls to FCM when FCM throttles with {@code 429} or {@code 503}, and widens it again once
+     * the throttling clears.
+     */
+    public static class Limiter {
+
+        /**
+         * Whether outbound sends are bounded by the adaptive concurrency limiter.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The initial concurrency limit.
+         */
+        private int initialLimit = 64;
+
+        /**
+         * The lowest the concurrency limit may be cut to.
+         */
+        private int minLimit = 4;
+
+        /**
+         * The highest the concurrency limit may grow to.
+         */
+        private int maxLimit = 512;
+
+        /**
+         * The factor the concurrency limit is multiplied by when FCM throttles.
+         */
+        private double backoffRatio = 0.7;
+
+        /**
+         * The minimum time between two decreases of the concurrency limit.
+         */
+        private Duration cooldown = Duration.ofMillis(500);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getInitialLimit() {
+            return initialLimit;
+        }
+
+        public void setInitialLimit(int initialLimit) {
+            this.initialLimit = initialLimit;
+        }
+
+        public int getMinLimit() {
+            return minLimit;
+        }
+
+        public void setMinLimit(int minLimit) {
+            this.minLimit = minLimit;
+        }
+
+        public int getMaxLimit() {
+            return maxLimit;
+        }
+
+        public void setMaxLimit(int maxLimit) {
+            this.maxLimit = maxLimit;
+        }
+
+        public double getBackoffRatio() {
+            return backoffRatio;
+        }
+
+        public void setBackoffRatio(double backoffRatio) {
+            this.backoffRatio = backoffRatio;
+        }
+
+        public Duration getCooldown() {
+            return cooldown;
+        }
+
+        public void setCooldown(Duration cooldown) {
+            this.cooldown = cooldown;
+        }
+    }
+
+    /**
+     * Settings for retrying failed sends. Retries are configured per FCM error status and wait on a timer
+     * with exponential backoff and full jitter, within a budget that is a fraction of live traffic.
+     */
+    public static class Retry {
+
+        /**
+         * Whether failed sends are retried.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The fraction of first attempts that may be retried.
+         */
+        private double budgetRatio = 0.1;
+
+        /**
+         * The maximum number of retry tokens that may be saved up while traffic is healthy.
+         */
+        private int maxBudget = 100;
+
+        /**
+         * The retry rules, keyed by FCM error status. Statuses without a rule are not retried.
+         */
+        private final Map<String, Rule> codes = new LinkedHashMap<>(Map.of(
+                "UNAVAILABLE", new Rule(3, Duration.ofMillis(500), Duration.ofSeconds(30)),
+                "INTERNAL", new Rule(3, Duration.ofMillis(500), Duration.ofSeconds(30)),
+                "RESOURCE_EXHAUSTED", new Rule(3, Duration.ofSeconds(1), Duration.ofSeconds(60))));
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public double getBudgetRatio() {
+            return budgetRatio;
+        }
+
+        public void setBudgetRatio(double budgetRatio) {
+            this.budgetRatio = budgetRatio;
+        }
+
+        public int getMaxBudget() {
+            return maxBudget;
+        }
+
+        public void setMaxBudget(int maxBudget) {
+            this.maxBudget = maxBudget;
+        }
+
+        public Map<String, Rule> getCodes() {
+            return codes;
+        }
+    }
+
+    /**
+     * The retry rule for one FCM error status.
+     */
+    public static class Rule {
+
+        /**
+         * The maximum number of attempts, including the first.
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * The backoff before the first retry, doubled for every further retry.
+         */
+        private Duration initialBackoff = Duration.ofMillis(500);
+
+        /**
+         * The upper bound of the backoff.
+         */
+        private Duration maxBackoff = Duration.ofSeconds(30);
+
+        public Rule() {
+        }
+
+        public Rule(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+            this.maxAttempts = maxAttempts;
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+        }
+
+        public int getMaxAttempts() {
+            return maxAttempts;
+        }
+
+        public void setMaxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+        }
+
+        public Duration getInitialBackoff() {
+            return initialBackoff;
+        }
+
+        public void setInitialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+        }
+
+        public Duration getMaxBackoff() {
+            return maxBackoff;
+        }
+
+        public void setMaxBackoff(Duration maxBackoff) {
+            this.maxBackoff = maxBackoff;
+        }
+    }
+
+    /**
+     * Settings for the durable local outbox. When enabled, every message accepted by an asynchronous send is
+     * written to an append-only log on local disk before the caller is released, and replayed on startup
+     * unless its send completed.
+     */
+    public static class Outbox {
+
+        /**
+         * Whether accepted messages are written to the outbox.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The directory holding the outbox segments. It must be on a persistent volume to survive restarts.
+         */
+        private Path directory = Path.of("fcm-outbox");
+
+        /**
+         * The size at which the active segment is sealed and a new one is started.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+
+        /**
+         * The maximum number of records written and forced to disk in one group commit.
+         */
+        private int maxBatch = 512;
+
+        /**
+         * The interval between two compaction runs.
+         */
+        private Duration compactInterval = Duration.ofSeconds(30);
+
+        /**
+         * The ratio of unacknowledged entries below which a sealed segment is compacted by copying its
+         * remaining entries forward.
+         */
+        private double compactThreshold = 0.2;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(DataSize segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public int getMaxBatch() {
+            return maxBatch;
+        }
+
+        public void setMaxBatch(int maxBatch) {
+            this.maxBatch = maxBatch;
+        }
+
+        public Duration getCompactInterval() {
+            return compactInterval;
+        }
+
+        public void setCompactInterval(Duration compactInterval) {
+            this.compactInterval = compactInterval;
+        }
+
+        public double getCompactThreshold() {
+            return compactThreshold;
+        }
+
+        public void setCompactThreshold(double compactThreshold) {
+            this.compactThreshold = compactThreshold;
+        }
+    }
+
+    /**
+     * Settings for the dead-letter store, an append-only log on local disk of the sends FCM still answered with an
+     * error after their retries, which the {@code fcmdeadletters} actuator endpoint lists and replays.
+     */
+    public static class DeadLetter {
+
+        /**
+         * Whether failed sends are stored.
+         */
+        private boolean enabled = false;
+
+        /**
+         * The directory holding the dead-letter segments. It must be on a persistent volume to survive restarts.
+         */
+        private Path directory = Path.of("fcm-dead-letters");
+
+        /**
+         * The size at which the active segment is sealed and a new one is started.
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(16);
+
+        /**
+         * The size on disk above which the oldest segments are deleted.
+         */
+        private DataSize maxSize = DataSize.ofGigabytes(1);
+
+        /**
+         * How long a dead letter is kept.
+         */
+        private Duration retention = Duration.ofDays(7);
+
+        /**
+         * The number of dead letters replayed per second when a replay does not give a rate.
+         */
+        private double replayRate = 100;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Path getDirectory() {
+            return directory;
+        }
+
+        public void setDirectory(Path directory) {
+            this.directory = directory;
+        }
+
+        public DataSize getSegmentSize() {
+            return segmentSize;
+        }
+
+        public void setSegmentSize(DataSize segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getRetention() {
+            return retention;
+        }
+
+        public void setRetention(Duration retention) {
+            this.retention = retention;
+        }
+
+        public double getReplayRate() {
+            return replayRate;
+        }
+
+        public void setReplayRate(double replayRate) {
+            this.replayRate = replayRate;
+        }
+    }
+
+    /**
+     * Settings for the cache of registration tokens FCM has reported as unregistered or invalid.
+     * Sends to a cached token are answered with the cached error instead of calling FCM.
+     */
+    public static class TokenCache {
+
+        /**
+         * Whether sends to tokens known to be invalid are skipped.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The maximum number of tokens held.
+         */
+        private int maxSize = 100_000;
+
+        /**
+         * How long a token is held after FCM reported it as invalid.
+         */
+        private Duration ttl = Duration.ofHours(24);
+
+        /**
+         * The file the cache is saved to and loaded from on startup. The cache is kept in memory only if not set.
+         */
+        private Path snapshot;
+
+        /**
+         * The interval between two saves of the snapshot.
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public Duration getTtl() {
+            return ttl;
+        }
+
+        public void setTtl(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        public Path getSnapshot() {
+            return snapshot;
+        }
+
+        public void setSnapshot(Path snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public Duration getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(Duration snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+    }
+
+    /**
+     * Settings for the registry of named audiences, the segments of registration tokens kept by this
+     * endpoint so that a campaign names its audience instead of shipping every token.
+     */
+    public static class Audience {
+
+        /**
+         * Whether named audiences can be registered and sent to.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The maximum number of sends of a single audience send in flight at the same time.
+         */
+        private int maxConcurrency = 256;
+
+        /**
+         * The file the audiences are saved to and loaded from on startup. The audiences are kept in memory
+         * only if not set.
+         */
+        private Path snapshot;
+
+        /**
+         * The interval between two saves of the snapshot.
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(5);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getMaxConcurrency() {
+            return maxConcurrency;
+        }
+
+        public void setMaxConcurrency(int maxConcurrency) {
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        public Path getSnapshot() {
+            return snapshot;
+        }
+
+        public void setSnapshot(Path snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public Duration getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(Duration snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+    }
+
+    /**
+     * Settings for the scheduler of notifications sent at a given time or after a delay. Pending notifications are
+     * held in memory in a hierarchical timing wheel.
+     */
+    public static class Schedule {
+
+        /**
+         * Whether notifications can be scheduled.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The resolution of the due times; a notification is sent at most one tick after it is due.
+         */
+        private Duration tick = Duration.ofMillis(100);
+
+        /**
+         * The maximum number of notifications pending at the same time; further notifications are rejected.
+         */
+        private int maxPending = 5_000_000;
+
+        /**
+         * The file the pending notifications are saved to and loaded from on startup. They are kept in memory
+         * only if not set.
+         */
+        private Path snapshot;
+
+        /**
+         * The interval between two saves of the snapshot.
+         */
+        private Duration snapshotInterval = Duration.ofMinutes(1);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getTick() {
+            return tick;
+        }
+
+        public void setTick(Duration tick) {
+            this.tick = tick;
+        }
+
+        public int getMaxPending() {
+            return maxPending;
+        }
+
+        public void setMaxPending(int maxPending) {
+            this.maxPending = maxPending;
+        }
+
+        public Path getSnapshot() {
+            return snapshot;
+        }
+
+        public void setSnapshot(Path snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        public Duration getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(Duration snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+    }
+
+    /**
+     * Settings of one tenant: the FCM project it sends through, and the limits isolating it from the other tenants.
+     */
+    public static class Tenant {
+
+        /**
+         * The name of the FcmService bean sending to the FCM project of the tenant. Defaults to the tenant name.
+         */
+        private String service;
+
+        /**
+         * The maximum number of sends of the tenant queued or in flight at the same time. Further sends of the
+         * tenant are rejected with {@code 429}, leaving the dispatch lanes to the other tenants.
+         */
+        private int maxPending = 2000;
+
+        /**
+         * The {@code Retry-After} suggested to callers rejected because the tenant has too many sends pending.
+         */
+        private Duration retryAfter = Duration.ofSeconds(1);
+
+        /**
+         * The adaptive concurrency limiter of the outbound sends of the tenant, separate from the one of the
+         * default FCM project.
+         */
+        private final Limiter limiter = new Limiter();
+
+        public String getService() {
+            return service;
+        }
+
+        public void setService(String service) {
+            this.service = service;
+        }
+
+        public int getMaxPending() {
+            return maxPending;
+        }
+
+        public void setMaxPending(int maxPending) {
+            this.maxPending = maxPending;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+
+        public void setRetryAfter(Duration retryAfter) {
+            this.retryAfter = retryAfter;
+        }
+
+        public Limiter getLimiter() {
+            return limiter;
+        }
+    }
+
+    /**
+     * Settings for the warmup of the send path at startup, which primes the OAuth access token, opens connections
+     * to FCM and exercises serialization before the readiness probe reports the application ready.
+     */
+    public static class Warmup {
+
+        /**
+         * Whether the send path is warmed up at startup.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The number of connections to FCM opened at the same time.
+         */
+        private int connections = 4;
+
+        /**
+         * The number of times a sample request is serialized and read back.
+         */
+        private int serializationIterations = 10000;
+
+        /**
+         * How long the warmup may hold readiness back at most.
+         */
+        private Duration timeout = Duration.ofSeconds(30);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public int getConnections() {
+            return connections;
+        }
+
+        public void setConnections(int connections) {
+            this.connections = connections;
+        }
+
+        public int getSerializationIterations() {
+            return serializationIterations;
+        }
+
+        public void setSerializationIterations(int serializationIterations) {
+            this.serializationIterations = serializationIterations;
+        }
+
+        public Duration getTimeout() {
+            return timeout;
+        }
+
+        public void setTimeout(Duration timeout) {
+            this.timeout = timeout;
+        }
+    }
+
+    /**
+     * Settings for shedding traffic when the send path is saturated: the instance reports itself out of service
+     * once a signal reaches its high threshold, and back in service once every signal has stayed below its low
+     * threshold for {@code recoveryIntervals} evaluations.
+     */
+    public static class Backpressure {
+
+        /**
+         * Whether the backpressure signals are evaluated and reported by the {@code fcmBackpressure} health
+         * indicator.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The interval between two evaluations of the signals.
+         */
+        private Duration interval = Duration.ofSeconds(1);
+
+        /**
+         * The weight of the latest interval in the moving averages of the FCM latency and error ratio.
+         */
+        private double smoothing = 0.3;
+
+        /**
+         * The number of healthy evaluations in a row needed to accept traffic again.
+         */
+        private int recoveryIntervals = 5;
+
+        /**
+         * The thresholds at which the instance starts shedding traffic.
+         */
+        private final BackpressureThresholds high = new BackpressureThresholds(0.95, 0.8, Duration.ofSeconds(2), 0.5);
+
+        /**
+         * The thresholds every signal must stay below for the instance to accept traffic again.
+         */
+        private final BackpressureThresholds low = new BackpressureThresholds(0.8, 0.5, Duration.ofSeconds(1), 0.2);
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Duration getInterval() {
+            return interval;
+        }
+
+        public void setInterval(Duration interval) {
+            this.interval = interval;
+        }
+
+        public double getSmoothing() {
+            return smoothing;
+        }
+
+        public void setSmoothing(double smoothing) {
+            this.smoothing = smoothing;
+        }
+
+        public int getRecoveryIntervals() {
+            return recoveryIntervals;
+        }
+
+        public void setRecoveryIntervals(int recoveryIntervals) {
+            this.recoveryIntervals = recoveryIntervals;
+        }
+
+        public BackpressureThresholds getHigh() {
+            return high;
+        }
+
+        public BackpressureThresholds getLow() {
+            return low;
+        }
+    }
+
+    /**
+     * The thresholds of the backpressure signals.
+     */
+    public static class BackpressureThresholds {
+
+        /**
+         * The share of the dispatch slots in flight, between 0 and 1.
+         */
+        private double inFlightRatio;
+
+        /**
+         * The fill of the fullest dispatch lane, between 0 and 1.
+         */
+        private double queueFill;
+
+        /**
+         * The moving average of the latency of the calls to FCM.
+         */
+        private Duration latency;
+
+        /**
+         * The moving average of the share of calls to FCM that failed, were throttled or were answered with a
+         * server error, between 0 and 1.
+         */
+        private double errorRatio;
+
+        public BackpressureThresholds() {
+        }
+
+        public BackpressureThresholds(double inFlightRatio, double queueFill, Duration latency, double errorRatio) {
+            this.inFlightRatio = inFlightRatio;
+            this.queueFill = queueFill;
+            this.latency = latency;
+            this.errorRatio = errorRatio;
+        }
+
+        public double getInFlightRatio() {
+            return inFlightRatio;
+        }
+
+        public void setInFlightRatio(double inFlightRatio) {
+            this.inFlightRatio = inFlightRatio;
+        }
+
+        public double getQueueFill() {
+            return queueFill;
+        }
+
+        public void setQueueFill(double queueFill) {
+            this.queueFill = queueFill;
+        }
+
+        public Duration getLatency() {
+            return latency;
+        }
+
+        public void setLatency(Duration latency) {
+            this.latency = latency;
+        }
+
+        public double getErrorRatio() {
+            return errorRatio;
+        }
+
+        public void setErrorRatio(double errorRatio) {
+            this.errorRatio = errorRatio;
+        }
+    }
+
+    /**
+     * Settings for the Micrometer metrics of the send pipeline, published through the actuator.
+     */
+    public static class Metrics {
+
+        /**
+         * Whether the operations of the notification service and the calls to FCM are timed.
+         */
+        private boolean enabled = true;
+
+        /**
+         * Whether the estimated payload size of each message is recorded.
+         */
+        private boolean payloadSize = true;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public boolean isPayloadSize() {
+            return payloadSize;
+        }
+
+        public void setPayloadSize(boolean payloadSize) {
+            this.payloadSize = payloadSize;
+        }
+    }
+
+    /**
+     * Settings for the audit log written to the {@code fcm.notification.audit} logger.
+     */
+    public static class Audit {
+
+        /**
+         * The number of audit entries that may wait for the writer thread; further entries are dropped.
+         */
+        private int bufferSize = 8192;
+
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+    }
+
+    /**
+     * Settings for checking the payload size of notifications before they are sent, so that a notification FCM
+     * would reject as too large is answered at once without a call to FCM.
+     */
+    public static class Payload {
+
+        /**
+         * Whether the payload size is checked.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The maximum size of the notification and data payload, 4KB for FCM.
+         */
+        private DataSize maxSize = DataSize.ofKilobytes(4);
+
+        /**
+         * What is done with an oversized notification: {@code REJECT} answers {@code 413 Content Too Large},
+         * {@code TRUNCATE} shortens its body to fit.
+         */
+        private FcmPayloadGuard.Policy policy = FcmPayloadGuard.Policy.REJECT;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public DataSize getMaxSize() {
+            return maxSize;
+        }
+
+        public void setMaxSize(DataSize maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public FcmPayloadGuard.Policy getPolicy() {
+            return policy;
+        }
+
+        public void setPolicy(FcmPayloadGuard.Policy policy) {
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * Settings for the notification templates, registered once and sent many times with a small map of variables.
+     */
+    public static class Template {
+
+        /**
+         * Whether templates can be registered and sent.
+         */
+        private boolean enabled = true;
+
+        /**
+         * The templates registered on startup, keyed by template id. More can be registered through the
+         * {@code /templates} endpoints.
+         */
+        private final Map<String, TemplateDefinition> definitions = new LinkedHashMap<>();
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public Map<String, TemplateDefinition> getDefinitions() {
+            return definitions;
+        }
+    }
+
+    /**
+     * A notification template registered on startup. The title, the body, the data values and the collapse key
+     * may hold {@code {name}} placeholders.
+     */
+    public static class TemplateDefinition {
+
+        /**
+         * The title of the notification.
+         */
+        private String title;
+
+        /**
+         * The message body of the notification.
+         */
+        private String body;
+
+        /**
+         * The data sent with the notification.
+         */
+        private Map<String, String> data;
+
+        /**
+         * The collapse key of the notification.
+         */
+        private String collapseKey;
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public void setBody(String body) {
+            this.body = body;
+        }
+
+        public Map<String, String> getData() {
+            return data;
+        }
+
+        public void setData(Map<String, String> data) {
+            this.data = data;
+        }
+
+        public String getCollapseKey() {
+            return collapseKey;
+        }
+
+        public void setCollapseKey(String collapseKey) {
+            this.collapseKey = collapseKey;
+        }
+    }
+}
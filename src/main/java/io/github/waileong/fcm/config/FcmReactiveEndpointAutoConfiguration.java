@@ -0,0 +1,52 @@
+package io.github.waileong.fcm.config;
+
+import io.github.waileong.fcm.controller.FcmReactiveController;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.FcmReactiveNotificationService;
+import io.github.waileong.fcm.service.impl.FcmReactiveNotificationServiceImpl;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+
+/**
+ * Auto-configuration class for the WebFlux variant of the FCM endpoint. It applies only to a reactive web
+ * application, that is when the endpoint is built with {@code -Preactive} and runs on Netty, and declares the
+ * {@link FcmReactiveController} in place of the servlet controllers, on top of the dispatcher, outbox and sender
+ * declared by {@link FcmEndpointAutoConfiguration}.
+ *
+ * @author Wai Leong
+ */
+@AutoConfiguration(after = FcmEndpointAutoConfiguration.class)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class FcmReactiveEndpointAutoConfiguration {
+
+    /**
+     * Declares the bean for {@link FcmReactiveNotificationServiceImpl}, which exposes the FCM notification service
+     * as lazy {@code Mono} and {@code Flux} publishers.
+     *
+     * @param fcmNotificationService the service the sends are made through
+     * @return an instance of {@link FcmReactiveNotificationServiceImpl}
+     */
+    @Bean
+    @ConditionalOnMissingBean(FcmReactiveNotificationService.class)
+    public FcmReactiveNotificationServiceImpl fcmReactiveNotificationService(
+            FcmNotificationService fcmNotificationService) {
+        return new FcmReactiveNotificationServiceImpl(fcmNotificationService);
+    }
+
+    /**
+     * Declares the bean for {@link FcmReactiveController}, the WebFlux endpoints sending notifications.
+     *
+     * @param fcmReactiveNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard                the guard checking the payload size, if enabled
+     * @return an instance of {@link FcmReactiveController}
+     */
+    @Bean
+    public FcmReactiveController fcmReactiveController(FcmReactiveNotificationService fcmReactiveNotificationService,
+                                                       ObjectProvider<FcmPayloadGuard> fcmPayloadGuard) {
+        return new FcmReactiveController(fcmReactiveNotificationService, fcmPayloadGuard.getIfAvailable());
+    }
+}
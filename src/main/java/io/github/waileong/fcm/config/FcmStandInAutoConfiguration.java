@@ -0,0 +1,42 @@
+package io.github.waileong.fcm.config;
+
+import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.standin.StandInFcmService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+
+/**
+ * Auto-configuration class for the local FCM stand-in. When {@code fcm.standin.enabled=true}, it declares a
+ * primary {@link FcmService} that simulates FCM instead of calling it, for load testing.
+ * <p>
+ * For a native image the condition is evaluated when the image is built, so the stand-in must be enabled at
+ * build time as well, see {@code -PstandIn} in {@code build.gradle}.
+ *
+ * @author Wai Leong
+ */
+@AutoConfiguration(before = {FcmEndpointAutoConfiguration.class, FcmAutoConfiguration.class})
+@ConditionalOnProperty(prefix = "fcm.standin", name = "enabled")
+@EnableConfigurationProperties(FcmStandInProperties.class)
+public class FcmStandInAutoConfiguration {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Declares the bean for {@link StandInFcmService}, which takes precedence over the FcmService calling FCM.
+     *
+     * @param properties the FCM stand-in configuration properties
+     * @return an instance of {@link StandInFcmService}
+     */
+    @Bean
+    @Primary
+    public FcmService standInFcmService(FcmStandInProperties properties) {
+        logger.warn("FCM stand-in is enabled, no message will reach FCM (latency median {}, p99 {}, error rates {})",
+                properties.getLatencyMedian(), properties.getLatencyP99(), properties.getErrorRates());
+        return new StandInFcmService(properties.getLatencyMedian(), properties.getLatencyP99(),
+                properties.getErrorRates(), properties.getRetryAfter());
+    }
+}
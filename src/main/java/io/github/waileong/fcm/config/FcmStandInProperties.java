@@ -0,0 +1,83 @@
+package io.github.waileong.fcm.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Configuration properties for the local FCM stand-in, bound from the {@code fcm.standin} prefix.
+ * The stand-in replaces the calls to FCM with simulated answers so that the endpoint can be load tested
+ * without reaching Google.
+ *
+ * @author Wai Leong
+ */
+@ConfigurationProperties(prefix = "fcm.standin")
+public class FcmStandInProperties {
+
+    /**
+     * Whether the calls to FCM are replaced by the stand-in. Never enable this in production.
+     */
+    private boolean enabled = false;
+
+    /**
+     * The median simulated round trip time of a call.
+     */
+    private Duration latencyMedian = Duration.ofMillis(40);
+
+    /**
+     * The 99th percentile of the simulated round trip time; the latency follows a log-normal distribution.
+     */
+    private Duration latencyP99 = Duration.ofMillis(250);
+
+    /**
+     * The fraction of calls answered with each error, keyed by {@code UNREGISTERED}, {@code QUOTA_EXCEEDED}
+     * or {@code UNAVAILABLE}.
+     */
+    private final Map<String, Double> errorRates = new LinkedHashMap<>(Map.of(
+            "UNREGISTERED", 0.0,
+            "QUOTA_EXCEEDED", 0.0,
+            "UNAVAILABLE", 0.0));
+
+    /**
+     * The {@code Retry-After} sent with {@code QUOTA_EXCEEDED} and {@code UNAVAILABLE} errors, zero for none.
+     */
+    private Duration retryAfter = Duration.ofSeconds(1);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public Duration getLatencyMedian() {
+        return latencyMedian;
+    }
+
+    public void setLatencyMedian(Duration latencyMedian) {
+        this.latencyMedian = latencyMedian;
+    }
+
+    public Duration getLatencyP99() {
+        return latencyP99;
+    }
+
+    public void setLatencyP99(Duration latencyP99) {
+        this.latencyP99 = latencyP99;
+    }
+
+    public Map<String, Double> getErrorRates() {
+        return errorRates;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(Duration retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+}
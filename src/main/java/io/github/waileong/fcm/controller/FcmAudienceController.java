@@ -0,0 +1,243 @@
+package io.github.waileong.fcm.controller;
+
+import io.github.waileong.fcm.controller.model.AudienceNotificationRequest;
+import io.github.waileong.fcm.controller.model.AudienceSummary;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.audience.FcmAudienceNotFoundException;
+import io.github.waileong.fcm.service.audience.FcmAudienceRegistry;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.github.waileong.fcm.service.payload.FcmPayloadTooLargeException;
+import io.github.waileong.fcm.service.tenant.FcmTenantNotFoundException;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.validation.Valid;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * REST controller for the named audiences of the {@link FcmAudienceRegistry} and for sending notifications to them.
+ * Members are uploaded as plain text, one registration token per line, and read as a stream, so an audience of
+ * millions of tokens is uploaded once and then named by every campaign instead of being shipped with it.
+ * <p>
+ * A send to an audience is accepted with {@code 202 Accepted} once it has been queued, as it may take minutes
+ * to complete; its outcome is recorded by the audit log and the {@code fcm.notification} metric.
+ *
+ * @author Wai Leong
+ */
+@Tag(name = "FCM Audience", description = "FCM Audience Api")
+@RestController
+public class FcmAudienceController {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmAudienceRegistry fcmAudienceRegistry;
+    private final FcmNotificationService fcmNotificationService;
+    private final FcmPayloadGuard fcmPayloadGuard;
+
+    /**
+     * Constructs an FcmAudienceController.
+     *
+     * @param fcmAudienceRegistry    the registry holding the named audiences
+     * @param fcmNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard        the guard checking the payload size, may be null
+     */
+    public FcmAudienceController(FcmAudienceRegistry fcmAudienceRegistry,
+                                 FcmNotificationService fcmNotificationService, FcmPayloadGuard fcmPayloadGuard) {
+        this.fcmAudienceRegistry = fcmAudienceRegistry;
+        this.fcmNotificationService = fcmNotificationService;
+        this.fcmPayloadGuard = fcmPayloadGuard;
+    }
+
+    /**
+     * Endpoint to list the named audiences.
+     *
+     * @return the number of members of every audience, keyed by audience name
+     */
+    @Operation(summary = "Endpoint to list the named audiences.")
+    @GetMapping(value = "/audiences", produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Map<String, Integer> listAudiences() {
+        return fcmAudienceRegistry.sizes();
+    }
+
+    /**
+     * Endpoint to describe a named audience.
+     *
+     * @param audience the name of the audience
+     * @return the name and size of the audience
+     */
+    @Operation(summary = "Endpoint to describe a named audience.")
+    @GetMapping(value = "/audiences/{audience}", produces = {MediaType.APPLICATION_JSON_VALUE})
+    public AudienceSummary getAudience(@PathVariable String audience) {
+        return new AudienceSummary(audience, fcmAudienceRegistry.members(audience).size());
+    }
+
+    /**
+     * Endpoint to replace the members of a named audience, creating it if needed.
+     *
+     * @param audience the name of the audience
+     * @param request  the HTTP request whose body holds one registration token per line
+     * @return the name and size of the audience
+     * @throws IOException if reading the upload fails
+     */
+    @Operation(summary = "Endpoint to replace the members of a named audience, one token per line.")
+    @PutMapping(value = "/audiences/{audience}",
+            consumes = {MediaType.TEXT_PLAIN_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public AudienceSummary replaceAudience(@PathVariable String audience, HttpServletRequest request)
+            throws IOException {
+        try (BufferedReader reader = reader(request)) {
+            return new AudienceSummary(audience, fcmAudienceRegistry.replace(audience, reader.lines().iterator()));
+        }
+    }
+
+    /**
+     * Endpoint to add members to a named audience, creating it if needed.
+     *
+     * @param audience the name of the audience
+     * @param request  the HTTP request whose body holds one registration token per line
+     * @return the name and size of the audience
+     * @throws IOException if reading the upload fails
+     */
+    @Operation(summary = "Endpoint to add members to a named audience, one token per line.")
+    @PostMapping(value = "/audiences/{audience}/tokens",
+            consumes = {MediaType.TEXT_PLAIN_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public AudienceSummary addTokens(@PathVariable String audience, HttpServletRequest request) throws IOException {
+        try (BufferedReader reader = reader(request)) {
+            return new AudienceSummary(audience, fcmAudienceRegistry.add(audience, reader.lines().iterator()));
+        }
+    }
+
+    /**
+     * Endpoint to remove members from a named audience.
+     *
+     * @param audience the name of the audience
+     * @param request  the HTTP request whose body holds one registration token per line
+     * @return the name and size of the audience
+     * @throws IOException if reading the upload fails
+     */
+    @Operation(summary = "Endpoint to remove members from a named audience, one token per line.")
+    @DeleteMapping(value = "/audiences/{audience}/tokens",
+            consumes = {MediaType.TEXT_PLAIN_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public AudienceSummary removeTokens(@PathVariable String audience, HttpServletRequest request) throws IOException {
+        try (BufferedReader reader = reader(request)) {
+            return new AudienceSummary(audience, fcmAudienceRegistry.remove(audience, reader.lines().iterator()));
+        }
+    }
+
+    /**
+     * Endpoint to delete a named audience.
+     *
+     * @param audience the name of the audience
+     * @return {@code 204 No Content}, or {@code 404 Not Found} if the audience does not exist
+     */
+    @Operation(summary = "Endpoint to delete a named audience.")
+    @DeleteMapping(value = "/audiences/{audience}")
+    public ResponseEntity<Void> deleteAudience(@PathVariable String audience) {
+        return fcmAudienceRegistry.delete(audience)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Endpoint to send one FCM notification to every member of a named audience.
+     *
+     * @param audience       the name of the audience
+     * @param request        the request containing the title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notifications
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notifications are sent through, may be null
+     * @return {@code 202 Accepted} with the name and size of the audience the notification is sent to
+     */
+    @Operation(summary = "Endpoint to send one FCM notification to every member of a named audience.")
+    @PostMapping(value = "/audiences/{audience}/send",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<AudienceSummary> sendAudienceNotification(
+            @PathVariable String audience, @Valid @RequestBody AudienceNotificationRequest request,
+            @RequestHeader(name = FcmController.PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = FcmController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = FcmController.TENANT_HEADER, required = false) String tenant) {
+        int size = fcmAudienceRegistry.members(audience).size();
+        String message = FcmController.fit(fcmPayloadGuard, request.getTitle(), request.getMessage(),
+                request.getData());
+        fcmNotificationService.sendAudienceNotification(audience, request.getTitle(), message,
+                        request.getData(), request.getCollapseKey(),
+                        FcmController.options(priority, idempotencyKey, tenant))
+                .whenComplete((response, throwable) -> {
+                    if (throwable != null) {
+                        logger.warn("Send to FCM audience {} did not complete", audience, throwable);
+                    }
+                });
+        return ResponseEntity.accepted().body(new AudienceSummary(audience, size));
+    }
+
+    /**
+     * Maps an unknown audience to a {@code 404 Not Found} response.
+     *
+     * @param ex the failure raised by the registry
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmAudienceNotFoundException.class)
+    public ProblemDetail handleAudienceNotFound(FcmAudienceNotFoundException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND, ex.getMessage());
+    }
+
+    /**
+     * Maps a send routed to a tenant that is not configured to a {@code 400 Bad Request} response.
+     *
+     * @param ex the failure raised by the tenant registry
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmTenantNotFoundException.class)
+    public ProblemDetail handleTenantNotFound(FcmTenantNotFoundException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+
+    /**
+     * Maps a notification whose payload is larger than FCM accepts to a {@code 413 Content Too Large} response.
+     *
+     * @param ex the rejection raised by the payload guard
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmPayloadTooLargeException.class)
+    public ProblemDetail handlePayloadTooLarge(FcmPayloadTooLargeException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage());
+    }
+
+    /**
+     * Maps a send rejected by the dispatcher to a {@code 429 Too Many Requests} response.
+     *
+     * @param ex the rejection raised by the dispatcher
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmDispatchRejectedException.class)
+    public ResponseEntity<ProblemDetail> handleDispatchRejected(FcmDispatchRejectedException ex) {
+        return FcmController.rejected(ex);
+    }
+
+    private static BufferedReader reader(HttpServletRequest request) throws IOException {
+        return new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+    }
+}
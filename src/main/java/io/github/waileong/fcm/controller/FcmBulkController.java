@@ -0,0 +1,236 @@
+package io.github.waileong.fcm.controller;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.waileong.fcm.config.FcmEndpointProperties;
+import io.github.waileong.fcm.controller.model.BulkLineResult;
+import io.github.waileong.fcm.controller.model.SimpleNotificationWithDataRequest;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * REST controller for bulk sending of Firebase Cloud Messaging (FCM) notifications from an NDJSON upload.
+ * Each line of the upload is a {@link SimpleNotificationWithDataRequest}. Lines are parsed incrementally with
+ * the Jackson streaming parser and dispatched as soon as they are parsed, and the result of each line is
+ * streamed back as an NDJSON {@link BulkLineResult} while the upload is still in progress.
+ * The number of lines dispatched but not yet answered is bounded, so memory stays flat regardless of
+ * the size of the upload, and a line waits for room in its dispatch lane rather than being rejected when the lane
+ * is full. A line that is valid JSON but does not map to a request is reported as the error of that line and
+ * skipped; only malformed JSON ends the upload. An upload retried with the same {@code Idempotency-Key} header
+ * skips the lines already accepted, as each line is keyed by the header and its line number.
+ *
+ * @author Wai Leong
+ */
+@Tag(name = "FCM", description = "FCM Notification Api")
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RegisterReflectionForBinding({SimpleNotificationWithDataRequest.class, BulkLineResult.class})
+public class FcmBulkController {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmNotificationService fcmNotificationService;
+    private final ObjectReader requestReader;
+    private final ObjectWriter resultWriter;
+    private final Validator validator;
+    private final FcmPayloadGuard fcmPayloadGuard;
+    private final int maxPending;
+
+    /**
+     * Constructs an FcmBulkController.
+     *
+     * @param fcmNotificationService the service used for sending FCM notifications
+     * @param objectMapper           the object mapper used to read requests and write results
+     * @param validator              the validator applied to each request line
+     * @param fcmPayloadGuard        the guard checking the payload size of each line, if enabled
+     * @param properties             the FCM endpoint configuration properties
+     */
+    @Autowired
+    public FcmBulkController(FcmNotificationService fcmNotificationService, ObjectMapper objectMapper,
+                             Validator validator, ObjectProvider<FcmPayloadGuard> fcmPayloadGuard,
+                             FcmEndpointProperties properties) {
+        this.fcmNotificationService = fcmNotificationService;
+        this.requestReader = objectMapper.readerFor(SimpleNotificationWithDataRequest.class);
+        this.resultWriter = objectMapper.writerFor(BulkLineResult.class);
+        this.validator = validator;
+        this.fcmPayloadGuard = fcmPayloadGuard.getIfAvailable();
+        this.maxPending = properties.getBulk().getMaxPending();
+    }
+
+    /**
+     * Endpoint to send FCM notifications with additional data from an NDJSON upload.
+     *
+     * @param request        the HTTP request whose body holds one notification request per line
+     * @param response       the HTTP response to which one result per line is streamed
+     * @param priority       the dispatch priority of the notifications
+     * @param idempotencyKey the key identifying the upload across retries, may be null; each line is keyed by
+     *                       it and its line number
+     * @param tenant         the tenant whose FCM project the notifications are sent through, may be null
+     * @throws IOException if reading the upload or writing the results fails
+     */
+    @Operation(summary = "Endpoint to send FCM notifications with additional data from an NDJSON upload.")
+    @PostMapping(value = "/bulk",
+            consumes = {MediaType.APPLICATION_NDJSON_VALUE},
+            produces = {MediaType.APPLICATION_NDJSON_VALUE})
+    public void sendBulk(HttpServletRequest request, HttpServletResponse response,
+                         @RequestHeader(name = FcmController.PRIORITY_HEADER, required = false) FcmPriority priority,
+                         @RequestHeader(name = FcmController.IDEMPOTENCY_KEY_HEADER, required = false)
+                         String idempotencyKey,
+                         @RequestHeader(name = FcmController.TENANT_HEADER, required = false) String tenant)
+            throws IOException {
+        FcmSendOptions options = options(priority, null, tenant);
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        OutputStream out = response.getOutputStream();
+        Semaphore pending = new Semaphore(maxPending);
+        long line = 0;
+        try (JsonParser parser = requestReader.createParser(request.getInputStream())) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                line = parser.currentTokenLocation().getLineNr();
+                if (token != JsonToken.START_OBJECT) {
+                    writeResult(out, new BulkLineResult(line, null, "Expected a JSON object"));
+                    break;
+                }
+                SimpleNotificationWithDataRequest lineRequest;
+                try {
+                    lineRequest = requestReader.readValue(parser);
+                } catch (JsonMappingException ex) {
+                    writeResult(out, new BulkLineResult(line, null, ex.getOriginalMessage()));
+                    skipLine(parser);
+                    continue;
+                }
+                String violations = validate(lineRequest);
+                if (violations != null) {
+                    writeResult(out, new BulkLineResult(line, null, violations));
+                    continue;
+                }
+                pending.acquireUninterruptibly();
+                dispatch(out, pending, line, lineRequest, idempotencyKey == null
+                        ? options
+                        : options(priority, idempotencyKey + ':' + line, tenant));
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to read NDJSON bulk upload", ex);
+            writeResult(out, new BulkLineResult(line, null, "Unreadable upload: " + ex.getMessage()));
+        } finally {
+            pending.acquireUninterruptibly(maxPending);
+        }
+    }
+
+    /**
+     * Builds the options of a line. Lines wait for room in a full dispatch lane, as a multicast does, since the
+     * pending permits already bound what an upload holds.
+     */
+    private static FcmSendOptions options(FcmPriority priority, String idempotencyKey, String tenant) {
+        return FcmSendOptions.Builder.aFcmSendOptions()
+                .priority(priority)
+                .idempotencyKey(idempotencyKey)
+                .tenant(tenant)
+                .awaitCapacity(true)
+                .build();
+    }
+
+    /**
+     * Skips the rest of a line whose object failed to map, leaving the parser on the end of that object so the
+     * next line is read from there. The line may have failed at any depth, so nested values are skipped whole
+     * until the parser is back at the top level.
+     */
+    private static void skipLine(JsonParser parser) throws IOException {
+        while (!parser.getParsingContext().inRoot()) {
+            if (parser.currentToken() != null && parser.currentToken().isStructStart()) {
+                parser.skipChildren();
+            } else if (parser.nextToken() == null) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends one line. Whatever the send throws synchronously, such as a tenant bulkhead that is full, an unknown
+     * tenant or an oversized payload, is reported as the error of the line, and the pending permit of the line is
+     * released once, either then or when the send completes.
+     */
+    private void dispatch(OutputStream out, Semaphore pending, long line, SimpleNotificationWithDataRequest request,
+                          FcmSendOptions options) {
+        CompletableFuture<FcmSendResponse> sent = null;
+        try {
+            sent = this.fcmNotificationService.sendSimpleNotificationWithData(
+                    request.getToken(), request.getTitle(),
+                    FcmController.fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()),
+                    request.getData(), request.getCollapseKey(), options);
+        } catch (RuntimeException ex) {
+            writeResult(out, new BulkLineResult(line, null, String.valueOf(ex.getMessage())));
+        } finally {
+            if (sent == null) {
+                pending.release();
+            }
+        }
+        if (sent != null) {
+            sent.whenComplete((sendResponse, throwable) -> {
+                try {
+                    writeResult(out, throwable == null
+                            ? new BulkLineResult(line, sendResponse, null)
+                            : new BulkLineResult(line, null, String.valueOf(throwable.getMessage())));
+                } finally {
+                    pending.release();
+                }
+            });
+        }
+    }
+
+    private String validate(SimpleNotificationWithDataRequest request) {
+        Set<ConstraintViolation<SimpleNotificationWithDataRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) {
+            return null;
+        }
+        return violations.stream()
+                .map(violation -> violation.getPropertyPath() + " " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Writes one result line. Results complete on dispatch threads in any order, so writes are serialized
+     * on the output stream, and each line is flushed so the client sees it while the upload is in progress.
+     */
+    private void writeResult(OutputStream out, BulkLineResult result) {
+        try {
+            byte[] bytes = resultWriter.writeValueAsBytes(result);
+            synchronized (out) {
+                out.write(bytes);
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to write NDJSON bulk result for line {}", result.getLine(), ex);
+        }
+    }
+}
@@ -1,111 +1,379 @@
 package io.github.waileong.fcm.controller;
 
+import io.github.waileong.fcm.controller.model.ConditionNotificationRequest;
+import io.github.waileong.fcm.controller.model.MulticastNotificationRequest;
 import io.github.waileong.fcm.controller.model.SimpleDataRequest;
 import io.github.waileong.fcm.controller.model.SimpleNotificationRequest;
 import io.github.waileong.fcm.controller.model.SimpleNotificationWithCollapseRequest;
 import io.github.waileong.fcm.controller.model.SimpleNotificationWithDataRequest;
+import io.github.waileong.fcm.controller.model.TopicNotificationRequest;
 import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
 import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
 import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.github.waileong.fcm.service.outbox.FcmOutboxException;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.github.waileong.fcm.service.payload.FcmPayloadTooLargeException;
+import io.github.waileong.fcm.service.tenant.FcmTenantNotFoundException;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * REST controller for handling Firebase Cloud Messaging (FCM) notification requests.
  * Provides endpoints for sending synchronous complex notifications, simple notifications,
- * simple notifications with additional data, and data-only messages.
+ * simple notifications with additional data, data-only messages, notifications to many tokens, and
+ * notifications to a topic or a condition over topics. If a {@link FcmPayloadGuard} is configured, the payload size
+ * of every notification is checked before it is accepted, so that one FCM would reject as too large is answered
+ * with {@code 413 Content Too Large}, or has its body shortened, without a call to FCM.
  *
  * @author Wai Leong
  */
 @Tag(name = "FCM", description = "FCM Notification Api")
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class FcmController {
+    /**
+     * The request header selecting the dispatch priority of the notification, {@code HIGH} or {@code NORMAL}.
+     */
+    public static final String PRIORITY_HEADER = "X-FCM-Priority";
+
+    /**
+     * The request header identifying the request across retries by its producer, so that a retry already
+     * accepted is answered without being sent to FCM again.
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /**
+     * The request header naming the tenant whose FCM project the notification is sent through, the default
+     * project of {@code fcm.credential} if absent.
+     */
+    public static final String TENANT_HEADER = "X-FCM-Tenant";
+
     private final FcmNotificationService fcmNotificationService;
+    private final FcmPayloadGuard fcmPayloadGuard;
 
     /**
      * Constructs an FcmController with the specified FcmNotificationService.
      *
      * @param fcmNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard        the guard checking the payload size, if enabled
      */
     @Autowired
-    public FcmController(FcmNotificationService fcmNotificationService) {
+    public FcmController(FcmNotificationService fcmNotificationService,
+                         ObjectProvider<FcmPayloadGuard> fcmPayloadGuard) {
         this.fcmNotificationService = fcmNotificationService;
+        this.fcmPayloadGuard = fcmPayloadGuard.getIfAvailable();
     }
 
     /**
      * Endpoint to send a synchronous complex FCM notification.
      *
-     * @param fcmRequest the FCM send request containing all necessary information for the notification
+     * @param fcmRequest     the FCM send request containing all necessary information for the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
      * @return the response from the FCM notification sends operation
      */
     @Operation(summary = "Endpoint to send a synchronous complex FCM notification.")
     @PostMapping(value = "/synchronousComplex",
             consumes = {MediaType.APPLICATION_JSON_VALUE},
             produces = {MediaType.APPLICATION_JSON_VALUE})
-    public FcmSendResponse sendSynchronousComplex(@Valid @RequestBody FcmSendRequest fcmRequest) {
-        return this.fcmNotificationService.sendSynchronousComplex(fcmRequest);
+    public FcmSendResponse sendSynchronousComplex(
+            @Valid @RequestBody FcmSendRequest fcmRequest,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        check(fcmPayloadGuard, fcmRequest);
+        return this.fcmNotificationService.sendSynchronousComplex(fcmRequest, options(null, idempotencyKey, tenant));
     }
 
     /**
      * Endpoint to send a simple FCM notification.
      *
-     * @param request the request containing the token, title, and message for the notification
+     * @param request        the request containing the token, title, and message for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
      */
     @Operation(summary = "Endpoint to send a simple FCM notification.")
     @PostMapping(value = "/simple",
             consumes = {MediaType.APPLICATION_JSON_VALUE},
             produces = {MediaType.APPLICATION_JSON_VALUE})
-    public void sendSimpleNotification(@Valid @RequestBody SimpleNotificationRequest request) {
+    public void sendSimpleNotification(
+            @Valid @RequestBody SimpleNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
         this.fcmNotificationService.sendSimpleNotification(
-                request.getToken(), request.getTitle(), request.getMessage(), null);
+                request.getToken(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), null), null,
+                options(priority, idempotencyKey, tenant));
     }
 
     /**
      * Endpoint to send a simple FCM notification with Collapse Key.
      *
-     * @param request the request containing the token, title, and message for the notification
+     * @param request        the request containing the token, title, and message for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
      */
     @Operation(summary = "Endpoint to send a simple FCM notification with Collapse Key.")
     @PostMapping(value = "/simpleWithCollapse",
             consumes = {MediaType.APPLICATION_JSON_VALUE},
             produces = {MediaType.APPLICATION_JSON_VALUE})
-    public void sendSimpleNotificationWithCollapse(@Valid @RequestBody SimpleNotificationWithCollapseRequest request) {
+    public void sendSimpleNotificationWithCollapse(
+            @Valid @RequestBody SimpleNotificationWithCollapseRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
         this.fcmNotificationService.sendSimpleNotification(
-                request.getToken(), request.getTitle(), request.getMessage(), request.getCollapseKey());
+                request.getToken(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), null), request.getCollapseKey(),
+                options(priority, idempotencyKey, tenant));
     }
 
 
     /**
      * Endpoint to send a simple FCM notification with additional data.
      *
-     * @param request the request containing the token, title, message, and data for the notification
+     * @param request        the request containing the token, title, message, and data for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
      */
     @Operation(summary = "Endpoint to send a simple FCM notification with additional data.")
     @PostMapping(value = "/simpleWithData",
             consumes = {MediaType.APPLICATION_JSON_VALUE},
             produces = {MediaType.APPLICATION_JSON_VALUE})
-    public void sendSimpleNotificationWithData(@Valid @RequestBody SimpleNotificationWithDataRequest request) {
+    public void sendSimpleNotificationWithData(
+            @Valid @RequestBody SimpleNotificationWithDataRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
         this.fcmNotificationService.sendSimpleNotificationWithData(
-                request.getToken(), request.getTitle(), request.getMessage(), request.getData(), request.getCollapseKey());
+                request.getToken(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(),
+                options(priority, idempotencyKey, tenant));
     }
 
     /**
      * Endpoint to send a data-only FCM message.
      *
-     * @param request the request containing the token and data for the message
+     * @param request        the request containing the token and data for the message
+     * @param priority       the dispatch priority of the message
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
      */
     @Operation(summary = "Endpoint to send a data-only FCM message.")
     @PostMapping(value = "/data",
             consumes = {MediaType.APPLICATION_JSON_VALUE},
             produces = {MediaType.APPLICATION_JSON_VALUE})
-    public void sendSimpleData(@Valid @RequestBody SimpleDataRequest request) {
-        this.fcmNotificationService.sendSimpleData(request.getToken(), request.getData());
+    public void sendSimpleData(
+            @Valid @RequestBody SimpleDataRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        fit(fcmPayloadGuard, null, null, request.getData());
+        this.fcmNotificationService.sendSimpleData(request.getToken(), request.getData(),
+                options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send one FCM notification to many tokens.
+     *
+     * @param request        the request containing the tokens, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notifications
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the per-token results of the send operation
+     */
+    @Operation(summary = "Endpoint to send one FCM notification to many tokens.")
+    @PostMapping(value = "/multicast",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public CompletableFuture<FcmMulticastResponse> sendMulticastNotification(
+            @Valid @RequestBody MulticastNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return this.fcmNotificationService.sendMulticastNotification(
+                request.getTokens(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(),
+                options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send an FCM notification to the devices subscribed to a topic.
+     *
+     * @param request        the request containing the topic, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     */
+    @Operation(summary = "Endpoint to send an FCM notification to the devices subscribed to a topic.")
+    @PostMapping(value = "/topic",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public void sendTopicNotification(
+            @Valid @RequestBody TopicNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        this.fcmNotificationService.sendTopicNotification(
+                request.getTopic(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(),
+                options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send an FCM notification to the devices matching a condition over topics.
+     *
+     * @param request        the request containing the condition, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     */
+    @Operation(summary = "Endpoint to send an FCM notification to the devices matching a condition over topics.")
+    @PostMapping(value = "/condition",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public void sendConditionNotification(
+            @Valid @RequestBody ConditionNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        this.fcmNotificationService.sendConditionNotification(
+                request.getCondition(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(), options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Maps a send rejected by the dispatcher to a {@code 429 Too Many Requests} response with a
+     * {@code Retry-After} header, so that callers back off instead of piling up on a saturated instance.
+     *
+     * @param ex the rejection raised by the dispatcher
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmDispatchRejectedException.class)
+    public ResponseEntity<ProblemDetail> handleDispatchRejected(FcmDispatchRejectedException ex) {
+        return rejected(ex);
+    }
+
+    /**
+     * Maps a notification routed to a tenant that is not configured to a {@code 400 Bad Request} response.
+     *
+     * @param ex the failure raised by the tenant registry
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmTenantNotFoundException.class)
+    public ProblemDetail handleTenantNotFound(FcmTenantNotFoundException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+
+    /**
+     * Maps a notification whose payload is larger than FCM accepts to a {@code 413 Content Too Large} response.
+     *
+     * @param ex the rejection raised by the payload guard
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmPayloadTooLargeException.class)
+    public ProblemDetail handlePayloadTooLarge(FcmPayloadTooLargeException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage());
     }
 
+    /**
+     * Maps a message that could not be written to the outbox to a {@code 503 Service Unavailable} response,
+     * as the message was not accepted and must be sent again.
+     *
+     * @param ex the failure raised by the outbox
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmOutboxException.class)
+    public ProblemDetail handleOutboxFailure(FcmOutboxException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+    }
+
+    /**
+     * Builds the {@code 429 Too Many Requests} response for a send rejected by the dispatcher.
+     *
+     * @param ex the rejection raised by the dispatcher
+     * @return the response describing the rejection
+     */
+    static ResponseEntity<ProblemDetail> rejected(FcmDispatchRejectedException ex) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS);
+        long retryAfterSeconds = (ex.getRetryAfter().toMillis() + 999) / 1000;
+        if (retryAfterSeconds > 0) {
+            builder.header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds));
+        }
+        return builder.body(ProblemDetail.forStatusAndDetail(HttpStatus.TOO_MANY_REQUESTS, ex.getMessage()));
+    }
+
+    /**
+     * Checks the payload size of a notification with the guard, if there is one.
+     *
+     * @param guard the payload guard, may be null
+     * @param title the notification title, may be null
+     * @param body  the notification body, may be null
+     * @param data  the data payload, may be null
+     * @return the body to send, shortened if the guard truncated it
+     * @throws FcmPayloadTooLargeException if the payload is too large
+     */
+    static String fit(FcmPayloadGuard guard, String title, String body, Map<String, String> data) {
+        return guard == null ? body : guard.fit(title, body, data);
+    }
+
+    /**
+     * Checks the payload size of a request with the guard, if there is one.
+     *
+     * @param guard   the payload guard, may be null
+     * @param request the request to check
+     * @throws FcmPayloadTooLargeException if the payload is too large
+     */
+    static void check(FcmPayloadGuard guard, FcmSendRequest request) {
+        if (guard != null) {
+            guard.check(request);
+        }
+    }
+
+    /**
+     * Builds the send options from the request headers.
+     *
+     * @param priority       the requested dispatch priority, may be null
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the send options
+     */
+    static FcmSendOptions options(FcmPriority priority, String idempotencyKey, String tenant) {
+        if (priority == null && idempotencyKey == null && tenant == null) {
+            return FcmSendOptions.defaults();
+        }
+        return FcmSendOptions.Builder.aFcmSendOptions()
+                .priority(priority)
+                .idempotencyKey(idempotencyKey)
+                .tenant(tenant)
+                .build();
+    }
 }
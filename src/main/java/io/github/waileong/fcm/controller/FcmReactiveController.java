@@ -0,0 +1,335 @@
+package io.github.waileong.fcm.controller;
+
+import io.github.waileong.fcm.controller.model.ConditionNotificationRequest;
+import io.github.waileong.fcm.controller.model.MulticastNotificationRequest;
+import io.github.waileong.fcm.controller.model.SimpleDataRequest;
+import io.github.waileong.fcm.controller.model.SimpleNotificationRequest;
+import io.github.waileong.fcm.controller.model.SimpleNotificationWithCollapseRequest;
+import io.github.waileong.fcm.controller.model.SimpleNotificationWithDataRequest;
+import io.github.waileong.fcm.controller.model.TopicNotificationRequest;
+import io.github.waileong.fcm.service.FcmReactiveNotificationService;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.github.waileong.fcm.service.outbox.FcmOutboxException;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.github.waileong.fcm.service.payload.FcmPayloadTooLargeException;
+import io.github.waileong.fcm.service.tenant.FcmTenantNotFoundException;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static io.github.waileong.fcm.controller.FcmController.IDEMPOTENCY_KEY_HEADER;
+import static io.github.waileong.fcm.controller.FcmController.PRIORITY_HEADER;
+import static io.github.waileong.fcm.controller.FcmController.TENANT_HEADER;
+import static io.github.waileong.fcm.controller.FcmController.check;
+import static io.github.waileong.fcm.controller.FcmController.fit;
+import static io.github.waileong.fcm.controller.FcmController.options;
+
+/**
+ * WebFlux counterpart of {@link FcmController}, serving the same endpoints with the same request bodies and headers
+ * on a non-blocking stack through the {@link FcmReactiveNotificationService}. Unlike the servlet controller, which
+ * answers once a send has been accepted, every endpoint answers with the result of its send, as waiting for FCM
+ * holds no thread. {@code /multicast} answers with the collected results as JSON, or streams the result of each
+ * token as it is known when {@code application/x-ndjson} is accepted.
+ *
+ * @author Wai Leong
+ */
+@Tag(name = "FCM", description = "FCM Notification Api")
+@RestController
+public class FcmReactiveController {
+    private final FcmReactiveNotificationService fcmReactiveNotificationService;
+    private final FcmPayloadGuard fcmPayloadGuard;
+
+    /**
+     * Constructs an FcmReactiveController.
+     *
+     * @param fcmReactiveNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard                the guard checking the payload size, may be null
+     */
+    public FcmReactiveController(FcmReactiveNotificationService fcmReactiveNotificationService,
+                                 FcmPayloadGuard fcmPayloadGuard) {
+        this.fcmReactiveNotificationService = fcmReactiveNotificationService;
+        this.fcmPayloadGuard = fcmPayloadGuard;
+    }
+
+    /**
+     * Endpoint to send a complex FCM notification.
+     *
+     * @param fcmRequest     the FCM send request containing all necessary information for the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM notification send operation
+     */
+    @Operation(summary = "Endpoint to send a complex FCM notification.")
+    @PostMapping(value = "/synchronousComplex",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendSynchronousComplex(
+            @Valid @RequestBody FcmSendRequest fcmRequest,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        check(fcmPayloadGuard, fcmRequest);
+        return fcmReactiveNotificationService.sendComplex(fcmRequest, options(null, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send a simple FCM notification.
+     *
+     * @param request        the request containing the token, title, and message for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM notification send operation
+     */
+    @Operation(summary = "Endpoint to send a simple FCM notification.")
+    @PostMapping(value = "/simple",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendSimpleNotification(
+            @Valid @RequestBody SimpleNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return fcmReactiveNotificationService.sendSimpleNotification(
+                request.getToken(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), null), null,
+                options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send a simple FCM notification with Collapse Key.
+     *
+     * @param request        the request containing the token, title, and message for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM notification send operation
+     */
+    @Operation(summary = "Endpoint to send a simple FCM notification with Collapse Key.")
+    @PostMapping(value = "/simpleWithCollapse",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendSimpleNotificationWithCollapse(
+            @Valid @RequestBody SimpleNotificationWithCollapseRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return fcmReactiveNotificationService.sendSimpleNotification(
+                request.getToken(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), null), request.getCollapseKey(),
+                options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send a simple FCM notification with additional data.
+     *
+     * @param request        the request containing the token, title, message, and data for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM notification send operation
+     */
+    @Operation(summary = "Endpoint to send a simple FCM notification with additional data.")
+    @PostMapping(value = "/simpleWithData",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendSimpleNotificationWithData(
+            @Valid @RequestBody SimpleNotificationWithDataRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return fcmReactiveNotificationService.sendSimpleNotificationWithData(
+                request.getToken(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(), options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send a data-only FCM message.
+     *
+     * @param request        the request containing the token and data for the message
+     * @param priority       the dispatch priority of the message
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM message send operation
+     */
+    @Operation(summary = "Endpoint to send a data-only FCM message.")
+    @PostMapping(value = "/data",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendSimpleData(
+            @Valid @RequestBody SimpleDataRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        fit(fcmPayloadGuard, null, null, request.getData());
+        return fcmReactiveNotificationService.sendSimpleData(request.getToken(), request.getData(),
+                options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send one FCM notification to many tokens, answering with the collected results.
+     *
+     * @param request        the request containing the tokens, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notifications
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the per-token results of the send operation
+     */
+    @Operation(summary = "Endpoint to send one FCM notification to many tokens.")
+    @PostMapping(value = "/multicast",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmMulticastResponse> sendMulticastNotification(
+            @Valid @RequestBody MulticastNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return streamMulticastNotification(request, priority, idempotencyKey, tenant)
+                .collectList()
+                .map(FcmReactiveController::multicastResponse);
+    }
+
+    /**
+     * Endpoint to send one FCM notification to many tokens, streaming the result of each token in the order of
+     * the tokens.
+     *
+     * @param request        the request containing the tokens, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notifications
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the result of each token, as it is known
+     */
+    @Operation(summary = "Endpoint to send one FCM notification to many tokens, streaming the results.")
+    @PostMapping(value = "/multicast",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_NDJSON_VALUE})
+    public Flux<FcmSendResponse> streamMulticastNotification(
+            @Valid @RequestBody MulticastNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return fcmReactiveNotificationService.sendMulticastNotification(
+                request.getTokens(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(), options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send an FCM notification to the devices subscribed to a topic.
+     *
+     * @param request        the request containing the topic, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM notification send operation
+     */
+    @Operation(summary = "Endpoint to send an FCM notification to the devices subscribed to a topic.")
+    @PostMapping(value = "/topic",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendTopicNotification(
+            @Valid @RequestBody TopicNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return fcmReactiveNotificationService.sendTopicNotification(
+                request.getTopic(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(), options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Endpoint to send an FCM notification to the devices matching a condition over topics.
+     *
+     * @param request        the request containing the condition, title, message, and optional data for the notification
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return the response from the FCM notification send operation
+     */
+    @Operation(summary = "Endpoint to send an FCM notification to the devices matching a condition over topics.")
+    @PostMapping(value = "/condition",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Mono<FcmSendResponse> sendConditionNotification(
+            @Valid @RequestBody ConditionNotificationRequest request,
+            @RequestHeader(name = PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = TENANT_HEADER, required = false) String tenant) {
+        return fcmReactiveNotificationService.sendConditionNotification(
+                request.getCondition(), request.getTitle(),
+                fit(fcmPayloadGuard, request.getTitle(), request.getMessage(), request.getData()), request.getData(),
+                request.getCollapseKey(), options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Maps a send rejected by the dispatcher to a {@code 429 Too Many Requests} response.
+     *
+     * @param ex the rejection raised by the dispatcher
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmDispatchRejectedException.class)
+    public ResponseEntity<ProblemDetail> handleDispatchRejected(FcmDispatchRejectedException ex) {
+        return FcmController.rejected(ex);
+    }
+
+    /**
+     * Maps a notification routed to a tenant that is not configured to a {@code 400 Bad Request} response.
+     *
+     * @param ex the failure raised by the tenant registry
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmTenantNotFoundException.class)
+    public ProblemDetail handleTenantNotFound(FcmTenantNotFoundException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+
+    /**
+     * Maps a notification whose payload is larger than FCM accepts to a {@code 413 Content Too Large} response.
+     *
+     * @param ex the rejection raised by the payload guard
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmPayloadTooLargeException.class)
+    public ProblemDetail handlePayloadTooLarge(FcmPayloadTooLargeException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage());
+    }
+
+    /**
+     * Maps a message that could not be written to the outbox to a {@code 503 Service Unavailable} response,
+     * as the message was not accepted and must be sent again.
+     *
+     * @param ex the failure raised by the outbox
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmOutboxException.class)
+    public ProblemDetail handleOutboxFailure(FcmOutboxException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+    }
+
+    private static FcmMulticastResponse multicastResponse(List<FcmSendResponse> responses) {
+        int successCount = (int) responses.stream().filter(response -> response.getError() == null).count();
+        return FcmMulticastResponse.Builder.aFcmMulticastResponse()
+                .successCount(successCount)
+                .failureCount(responses.size() - successCount)
+                .responses(responses)
+                .build();
+    }
+}
@@ -0,0 +1,147 @@
+package io.github.waileong.fcm.controller;
+
+import io.github.waileong.fcm.controller.model.ScheduledNotification;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.github.waileong.fcm.service.payload.FcmPayloadTooLargeException;
+import io.github.waileong.fcm.service.schedule.FcmNotificationScheduler;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * REST controller for scheduling FCM notifications to be sent at a given time or after a delay, backed by the
+ * {@link FcmNotificationScheduler}. A scheduled notification is accepted with {@code 202 Accepted} and its id,
+ * which cancels it until it is due; once due, it is sent like a notification sent to {@code /synchronousComplex},
+ * without waiting for the result.
+ *
+ * @author Wai Leong
+ */
+@Tag(name = "FCM Schedule", description = "FCM Schedule Api")
+@RestController
+public class FcmScheduleController {
+    private final FcmNotificationScheduler fcmNotificationScheduler;
+    private final FcmPayloadGuard fcmPayloadGuard;
+
+    /**
+     * Constructs an FcmScheduleController.
+     *
+     * @param fcmNotificationScheduler the scheduler holding the notifications until they are due
+     * @param fcmPayloadGuard          the guard checking the payload size, may be null
+     */
+    public FcmScheduleController(FcmNotificationScheduler fcmNotificationScheduler, FcmPayloadGuard fcmPayloadGuard) {
+        this.fcmNotificationScheduler = fcmNotificationScheduler;
+        this.fcmPayloadGuard = fcmPayloadGuard;
+    }
+
+    /**
+     * Endpoint to schedule an FCM notification, at a given time or after a delay.
+     *
+     * @param fcmRequest     the FCM send request containing all necessary information for the notification
+     * @param sendAt         the time the notification is sent at, exclusive with {@code delay}
+     * @param delay          how long from now the notification is sent, exclusive with {@code sendAt}
+     * @param priority       the dispatch priority of the notification once it is due
+     * @param idempotencyKey the key identifying the notification across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     * @return {@code 202 Accepted} with the id of the scheduled notification and the time it is due
+     */
+    @Operation(summary = "Endpoint to schedule an FCM notification, at a given time or after a delay.")
+    @PostMapping(value = "/scheduled",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<ScheduledNotification> scheduleNotification(
+            @Valid @RequestBody FcmSendRequest fcmRequest,
+            @RequestParam(required = false) Instant sendAt,
+            @RequestParam(required = false) Duration delay,
+            @RequestHeader(name = FcmController.PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = FcmController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = FcmController.TENANT_HEADER, required = false) String tenant) {
+        if ((sendAt == null) == (delay == null)) {
+            throw new IllegalArgumentException("Exactly one of sendAt and delay must be given");
+        }
+        FcmController.check(fcmPayloadGuard, fcmRequest);
+        Instant due = sendAt != null ? sendAt : Instant.now().plus(delay);
+        long id = fcmNotificationScheduler.schedule(fcmRequest, due,
+                FcmController.options(priority, idempotencyKey, tenant));
+        return ResponseEntity.accepted().body(new ScheduledNotification(id, due));
+    }
+
+    /**
+     * Endpoint to count the scheduled FCM notifications not yet due.
+     *
+     * @return the number of pending notifications
+     */
+    @Operation(summary = "Endpoint to count the scheduled FCM notifications not yet due.")
+    @GetMapping(value = "/scheduled", produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Map<String, Integer> countScheduled() {
+        return Map.of("pending", fcmNotificationScheduler.getPending());
+    }
+
+    /**
+     * Endpoint to cancel a scheduled FCM notification that is not due yet.
+     *
+     * @param id the id of the scheduled notification
+     * @return {@code 204 No Content} if the notification was cancelled, {@code 404 Not Found} if it is unknown or
+     * has already been sent
+     */
+    @Operation(summary = "Endpoint to cancel a scheduled FCM notification that is not due yet.")
+    @DeleteMapping(value = "/scheduled/{id}")
+    public ResponseEntity<Void> cancelScheduled(@PathVariable long id) {
+        return fcmNotificationScheduler.cancel(id)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Maps a missing, conflicting or out of range due time to a {@code 400 Bad Request} response.
+     *
+     * @param ex the failure raised by the controller or the scheduler
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ProblemDetail handleInvalidSchedule(IllegalArgumentException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+
+    /**
+     * Maps a notification whose payload is larger than FCM accepts to a {@code 413 Content Too Large} response.
+     *
+     * @param ex the rejection raised by the payload guard
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmPayloadTooLargeException.class)
+    public ProblemDetail handlePayloadTooLarge(FcmPayloadTooLargeException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage());
+    }
+
+    /**
+     * Maps a schedule rejected because too many notifications are pending to a {@code 429 Too Many Requests}
+     * response.
+     *
+     * @param ex the rejection raised by the scheduler
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmDispatchRejectedException.class)
+    public ResponseEntity<ProblemDetail> handleDispatchRejected(FcmDispatchRejectedException ex) {
+        return FcmController.rejected(ex);
+    }
+}
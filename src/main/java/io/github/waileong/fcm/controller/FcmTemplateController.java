@@ -0,0 +1,236 @@
+package io.github.waileong.fcm.controller;
+
+import io.github.waileong.fcm.controller.model.NotificationTemplate;
+import io.github.waileong.fcm.controller.model.TemplateNotificationRequest;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.outbox.FcmOutboxException;
+import io.github.waileong.fcm.service.payload.FcmPayloadGuard;
+import io.github.waileong.fcm.service.payload.FcmPayloadTooLargeException;
+import io.github.waileong.fcm.service.template.FcmInvalidTemplateException;
+import io.github.waileong.fcm.service.template.FcmNotificationTemplate;
+import io.github.waileong.fcm.service.template.FcmTemplateNotFoundException;
+import io.github.waileong.fcm.service.template.FcmTemplateRegistry;
+import io.github.waileong.fcm.service.template.FcmTemplateVariableException;
+import io.github.waileong.fcm.service.tenant.FcmTenantNotFoundException;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.validation.Valid;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * REST controller for the notification templates of the {@link FcmTemplateRegistry} and for sending notifications
+ * rendered from them. A template is registered once with its title, body, data, collapse key and platform
+ * overrides, and each send then carries only the token and the values of its placeholders. If a
+ * {@link FcmPayloadGuard} is configured, the payload size of the rendered notification is checked before it is sent.
+ *
+ * @author Wai Leong
+ */
+@Tag(name = "FCM Template", description = "FCM Template Api")
+@RestController
+public class FcmTemplateController {
+    private final FcmTemplateRegistry fcmTemplateRegistry;
+    private final FcmNotificationService fcmNotificationService;
+    private final FcmPayloadGuard fcmPayloadGuard;
+
+    /**
+     * Constructs an FcmTemplateController.
+     *
+     * @param fcmTemplateRegistry    the registry holding the templates
+     * @param fcmNotificationService the service used for sending FCM notifications
+     * @param fcmPayloadGuard        the guard checking the payload size, may be null
+     */
+    public FcmTemplateController(FcmTemplateRegistry fcmTemplateRegistry,
+                                 FcmNotificationService fcmNotificationService, FcmPayloadGuard fcmPayloadGuard) {
+        this.fcmTemplateRegistry = fcmTemplateRegistry;
+        this.fcmNotificationService = fcmNotificationService;
+        this.fcmPayloadGuard = fcmPayloadGuard;
+    }
+
+    /**
+     * Endpoint to list the notification templates.
+     *
+     * @return the placeholders of every template, keyed by template id
+     */
+    @Operation(summary = "Endpoint to list the notification templates.")
+    @GetMapping(value = "/templates", produces = {MediaType.APPLICATION_JSON_VALUE})
+    public Map<String, Set<String>> listTemplates() {
+        Map<String, Set<String>> variables = new LinkedHashMap<>();
+        fcmTemplateRegistry.templates().forEach((id, template) -> variables.put(id, template.getVariables()));
+        return variables;
+    }
+
+    /**
+     * Endpoint to read a notification template.
+     *
+     * @param template the id of the template
+     * @return the template
+     */
+    @Operation(summary = "Endpoint to read a notification template.")
+    @GetMapping(value = "/templates/{template}", produces = {MediaType.APPLICATION_JSON_VALUE})
+    public NotificationTemplate getTemplate(@PathVariable String template) {
+        FcmNotificationTemplate registered = fcmTemplateRegistry.get(template);
+        NotificationTemplate description = new NotificationTemplate();
+        description.setTitle(registered.getTitle());
+        description.setBody(registered.getBody());
+        description.setData(registered.getData());
+        description.setCollapseKey(registered.getCollapseKey());
+        description.setApns(registered.getApns());
+        description.setAndroid(registered.getAndroid());
+        return description;
+    }
+
+    /**
+     * Endpoint to register a notification template, replacing the template with the same id.
+     *
+     * @param template the id of the template
+     * @param request  the template
+     * @return {@code 201 Created} if the template is new, {@code 204 No Content} if it replaced one
+     */
+    @Operation(summary = "Endpoint to register a notification template.")
+    @PutMapping(value = "/templates/{template}", consumes = {MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Void> putTemplate(@PathVariable String template,
+                                            @Valid @RequestBody NotificationTemplate request) {
+        boolean replaced = fcmTemplateRegistry.register(template,
+                FcmNotificationTemplate.Builder.aFcmNotificationTemplate()
+                        .title(request.getTitle())
+                        .body(request.getBody())
+                        .data(request.getData())
+                        .collapseKey(request.getCollapseKey())
+                        .apns(request.getApns())
+                        .android(request.getAndroid())
+                        .build());
+        return replaced
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.status(HttpStatus.CREATED).build();
+    }
+
+    /**
+     * Endpoint to delete a notification template.
+     *
+     * @param template the id of the template
+     * @return {@code 204 No Content} if the template was deleted, {@code 404 Not Found} if it does not exist
+     */
+    @Operation(summary = "Endpoint to delete a notification template.")
+    @DeleteMapping(value = "/templates/{template}")
+    public ResponseEntity<Void> deleteTemplate(@PathVariable String template) {
+        return fcmTemplateRegistry.remove(template)
+                ? ResponseEntity.noContent().build()
+                : ResponseEntity.notFound().build();
+    }
+
+    /**
+     * Endpoint to send an FCM notification rendered from a notification template.
+     *
+     * @param template       the id of the template
+     * @param request        the request containing the token and the values of the placeholders
+     * @param priority       the dispatch priority of the notification
+     * @param idempotencyKey the key identifying the request across retries, may be null
+     * @param tenant         the tenant whose FCM project the notification is sent through, may be null
+     */
+    @Operation(summary = "Endpoint to send an FCM notification rendered from a notification template.")
+    @PostMapping(value = "/templates/{template}/send",
+            consumes = {MediaType.APPLICATION_JSON_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE})
+    public void sendTemplateNotification(
+            @PathVariable String template, @Valid @RequestBody TemplateNotificationRequest request,
+            @RequestHeader(name = FcmController.PRIORITY_HEADER, required = false) FcmPriority priority,
+            @RequestHeader(name = FcmController.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+            @RequestHeader(name = FcmController.TENANT_HEADER, required = false) String tenant) {
+        if (fcmPayloadGuard != null) {
+            FcmController.check(fcmPayloadGuard, FcmSendRequest.Builder.aFcmSendRequest()
+                    .message(fcmTemplateRegistry.get(template).builder(request.getVariables())
+                            .token(request.getToken())
+                            .build())
+                    .build());
+        }
+        fcmNotificationService.sendTemplateNotification(request.getToken(), template, request.getVariables(),
+                FcmController.options(priority, idempotencyKey, tenant));
+    }
+
+    /**
+     * Maps an unknown template to a {@code 404 Not Found} response.
+     *
+     * @param ex the failure raised by the registry
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmTemplateNotFoundException.class)
+    public ProblemDetail handleTemplateNotFound(FcmTemplateNotFoundException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.NOT_FOUND, ex.getMessage());
+    }
+
+    /**
+     * Maps a send missing the value of a placeholder, or a template missing its title or body or with a null data
+     * value, to a {@code 400 Bad Request} response.
+     *
+     * @param ex the failure raised while rendering or compiling the template
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler({FcmTemplateVariableException.class, FcmInvalidTemplateException.class})
+    public ProblemDetail handleInvalidTemplate(RuntimeException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+
+    /**
+     * Maps a rendered notification whose payload is too large to a {@code 413 Content Too Large} response.
+     *
+     * @param ex the rejection raised by the payload guard
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmPayloadTooLargeException.class)
+    public ProblemDetail handlePayloadTooLarge(FcmPayloadTooLargeException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.PAYLOAD_TOO_LARGE, ex.getMessage());
+    }
+
+    /**
+     * Maps a send routed to a tenant that is not configured to a {@code 400 Bad Request} response.
+     *
+     * @param ex the failure raised by the tenant registry
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmTenantNotFoundException.class)
+    public ProblemDetail handleTenantNotFound(FcmTenantNotFoundException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, ex.getMessage());
+    }
+
+    /**
+     * Maps a send rejected by the dispatcher to a {@code 429 Too Many Requests} response.
+     *
+     * @param ex the rejection raised by the dispatcher
+     * @return the problem detail describing the rejection
+     */
+    @ExceptionHandler(FcmDispatchRejectedException.class)
+    public ResponseEntity<ProblemDetail> handleDispatchRejected(FcmDispatchRejectedException ex) {
+        return FcmController.rejected(ex);
+    }
+
+    /**
+     * Maps a message that could not be written to the outbox to a {@code 503 Service Unavailable} response,
+     * as the message was not accepted and must be sent again.
+     *
+     * @param ex the failure raised by the outbox
+     * @return the problem detail describing the failure
+     */
+    @ExceptionHandler(FcmOutboxException.class)
+    public ProblemDetail handleOutboxFailure(FcmOutboxException ex) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage());
+    }
+}
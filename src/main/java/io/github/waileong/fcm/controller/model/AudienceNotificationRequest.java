@@ -0,0 +1,71 @@
+package io.github.waileong.fcm.controller.model;
+
+import jakarta.validation.constraints.NotBlank;
+
+import java.util.Map;
+
+/**
+ * Represents a request for sending a notification to every member of a named audience using Firebase Cloud
+ * Messaging (FCM). The audience is named in the request path; this class encapsulates the title, message,
+ * optional data and optional collapse key of the notification.
+ *
+ * @author Wai Leong
+ */
+public class AudienceNotificationRequest {
+
+    /**
+     * The title of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String title;
+
+    /**
+     * The message body of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String message;
+
+    /**
+     * The collapse key of the notification.
+     */
+    private String collapseKey;
+
+    /**
+     * Additional data to send along with the notification.
+     */
+    private Map<String, String> data;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getCollapseKey() {
+        return collapseKey;
+    }
+
+    public void setCollapseKey(String collapseKey) {
+        this.collapseKey = collapseKey;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, String> data) {
+        this.data = data;
+    }
+}
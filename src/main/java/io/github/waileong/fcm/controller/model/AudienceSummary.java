@@ -0,0 +1,43 @@
+package io.github.waileong.fcm.controller.model;
+
+/**
+ * Represents a named audience as reported by the audience endpoints: its name and its number of members.
+ *
+ * @author Wai Leong
+ */
+public class AudienceSummary {
+
+    /**
+     * The name of the audience.
+     */
+    private String audience;
+
+    /**
+     * The number of members of the audience.
+     */
+    private int size;
+
+    public AudienceSummary() {
+    }
+
+    public AudienceSummary(String audience, int size) {
+        this.audience = audience;
+        this.size = size;
+    }
+
+    public String getAudience() {
+        return audience;
+    }
+
+    public void setAudience(String audience) {
+        this.audience = audience;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+}
@@ -0,0 +1,63 @@
+package io.github.waileong.fcm.controller.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+
+/**
+ * Represents the outcome of one line of an NDJSON bulk upload.
+ * A line that was sent carries the {@link FcmSendResponse} of the send; a line that could not be parsed,
+ * validated or dispatched carries a description of why it was rejected instead.
+ *
+ * @author Wai Leong
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkLineResult {
+
+    /**
+     * The line number of the request within the upload, starting from 1.
+     */
+    private long line;
+
+    /**
+     * The response of the send, if the line was sent.
+     */
+    private FcmSendResponse response;
+
+    /**
+     * The reason the line was rejected, if it was not sent.
+     */
+    private String rejected;
+
+    public BulkLineResult() {
+    }
+
+    public BulkLineResult(long line, FcmSendResponse response, String rejected) {
+        this.line = line;
+        this.response = response;
+        this.rejected = rejected;
+    }
+
+    public long getLine() {
+        return line;
+    }
+
+    public void setLine(long line) {
+        this.line = line;
+    }
+
+    public FcmSendResponse getResponse() {
+        return response;
+    }
+
+    public void setResponse(FcmSendResponse response) {
+        this.response = response;
+    }
+
+    public String getRejected() {
+        return rejected;
+    }
+
+    public void setRejected(String rejected) {
+        this.rejected = rejected;
+    }
+}
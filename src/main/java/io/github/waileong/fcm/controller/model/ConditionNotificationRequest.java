@@ -0,0 +1,86 @@
+package io.github.waileong.fcm.controller.model;
+
+import jakarta.validation.constraints.NotBlank;
+
+import java.util.Map;
+
+/**
+ * Represents a request for sending a notification to the devices matching a condition over topics using Firebase
+ * Cloud Messaging (FCM). This class encapsulates the condition together with the title, message, optional data and
+ * optional collapse key of the notification.
+ *
+ * @author Wai Leong
+ */
+public class ConditionNotificationRequest {
+
+    /**
+     * The condition over topics selecting the devices, such as {@code 'sports' in topics && 'news' in topics}.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String condition;
+
+    /**
+     * The title of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String title;
+
+    /**
+     * The message body of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String message;
+
+    /**
+     * The collapse key of the notification.
+     */
+    private String collapseKey;
+
+    /**
+     * Additional data to send along with the notification.
+     */
+    private Map<String, String> data;
+
+    public String getCondition() {
+        return condition;
+    }
+
+    public void setCondition(String condition) {
+        this.condition = condition;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getCollapseKey() {
+        return collapseKey;
+    }
+
+    public void setCollapseKey(String collapseKey) {
+        this.collapseKey = collapseKey;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, String> data) {
+        this.data = data;
+    }
+}
@@ -0,0 +1,90 @@
+package io.github.waileong.fcm.controller.model;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents a request for sending one notification to many devices using Firebase Cloud Messaging (FCM).
+ * This class encapsulates a single notification payload, made of the title, message, optional data and
+ * optional collapse key, together with the list of device tokens the payload is sent to.
+ *
+ * @author Wai Leong
+ */
+public class MulticastNotificationRequest {
+
+    /**
+     * The tokens of the devices to which the notification will be sent.
+     * This field must not be empty, and no token may be blank.
+     */
+    @NotNull
+    @NotEmpty
+    private List<@NotBlank String> tokens;
+
+    /**
+     * The title of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String title;
+
+    /**
+     * The message body of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String message;
+
+    /**
+     * The collapse key of the notification.
+     */
+    private String collapseKey;
+
+    /**
+     * Additional data to send along with the notification.
+     */
+    private Map<String, String> data;
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    public void setTokens(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getCollapseKey() {
+        return collapseKey;
+    }
+
+    public void setCollapseKey(String collapseKey) {
+        this.collapseKey = collapseKey;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, String> data) {
+        this.data = data;
+    }
+}
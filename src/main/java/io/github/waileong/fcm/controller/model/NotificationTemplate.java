@@ -0,0 +1,98 @@
+package io.github.waileong.fcm.controller.model;
+
+import io.github.waileong.fcm.service.domain.FcmAndroid;
+import io.github.waileong.fcm.service.domain.FcmApns;
+import jakarta.validation.constraints.NotBlank;
+
+import java.util.Map;
+
+/**
+ * Represents a notification template registered with the endpoint. The title, the body, the data values and the
+ * collapse key may hold {@code {name}} placeholders, filled in from the variables of each send.
+ *
+ * @author Wai Leong
+ */
+public class NotificationTemplate {
+
+    /**
+     * The title of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String title;
+
+    /**
+     * The message body of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String body;
+
+    /**
+     * Additional data to send along with the notification.
+     */
+    private Map<String, String> data;
+
+    /**
+     * The collapse key of the notification.
+     */
+    private String collapseKey;
+
+    /**
+     * The APNs override, sent as it is in place of the one derived from the collapse key.
+     */
+    private FcmApns apns;
+
+    /**
+     * The Android override, sent as it is in place of the one derived from the collapse key.
+     */
+    private FcmAndroid android;
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, String> data) {
+        this.data = data;
+    }
+
+    public String getCollapseKey() {
+        return collapseKey;
+    }
+
+    public void setCollapseKey(String collapseKey) {
+        this.collapseKey = collapseKey;
+    }
+
+    public FcmApns getApns() {
+        return apns;
+    }
+
+    public void setApns(FcmApns apns) {
+        this.apns = apns;
+    }
+
+    public FcmAndroid getAndroid() {
+        return android;
+    }
+
+    public void setAndroid(FcmAndroid android) {
+        this.android = android;
+    }
+}
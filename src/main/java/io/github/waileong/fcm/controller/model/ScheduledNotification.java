@@ -0,0 +1,45 @@
+package io.github.waileong.fcm.controller.model;
+
+import java.time.Instant;
+
+/**
+ * Represents a scheduled notification as reported by the schedule endpoints: its id and the time it is due.
+ *
+ * @author Wai Leong
+ */
+public class ScheduledNotification {
+
+    /**
+     * The id of the scheduled notification, to cancel it with.
+     */
+    private long id;
+
+    /**
+     * The time the notification is sent at.
+     */
+    private Instant sendAt;
+
+    public ScheduledNotification() {
+    }
+
+    public ScheduledNotification(long id, Instant sendAt) {
+        this.id = id;
+        this.sendAt = sendAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public Instant getSendAt() {
+        return sendAt;
+    }
+
+    public void setSendAt(Instant sendAt) {
+        this.sendAt = sendAt;
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.waileong.fcm.controller.model;
+
+import jakarta.validation.constraints.NotBlank;
+
+import java.util.Map;
+
+/**
+ * Represents a request for sending a notification rendered from a registered template using Firebase Cloud
+ * Messaging (FCM). The template is named in the request path; this class encapsulates the token and the values of
+ * the placeholders of the template.
+ *
+ * @author Wai Leong
+ */
+public class TemplateNotificationRequest {
+
+    /**
+     * The token of the device to notify.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String token;
+
+    /**
+     * The values of the placeholders of the template.
+     */
+    private Map<String, String> variables;
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    public void setVariables(Map<String, String> variables) {
+        this.variables = variables;
+    }
+}
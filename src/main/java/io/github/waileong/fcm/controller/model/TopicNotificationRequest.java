@@ -0,0 +1,88 @@
+package io.github.waileong.fcm.controller.model;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+
+import java.util.Map;
+
+/**
+ * Represents a request for sending a notification to the devices subscribed to a topic using Firebase Cloud
+ * Messaging (FCM). This class encapsulates the topic together with the title, message, optional data and optional
+ * collapse key of the notification.
+ *
+ * @author Wai Leong
+ */
+public class TopicNotificationRequest {
+
+    /**
+     * The topic to which the notification will be sent, with or without the {@code /topics/} prefix.
+     * This field must be a valid topic name.
+     */
+    @NotBlank
+    @Pattern(regexp = "(/topics/)?[a-zA-Z0-9_.~%-]+")
+    private String topic;
+
+    /**
+     * The title of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String title;
+
+    /**
+     * The message body of the notification.
+     * This field must not be blank.
+     */
+    @NotBlank
+    private String message;
+
+    /**
+     * The collapse key of the notification.
+     */
+    private String collapseKey;
+
+    /**
+     * Additional data to send along with the notification.
+     */
+    private Map<String, String> data;
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public String getCollapseKey() {
+        return collapseKey;
+    }
+
+    public void setCollapseKey(String collapseKey) {
+        this.collapseKey = collapseKey;
+    }
+
+    public Map<String, String> getData() {
+        return data;
+    }
+
+    public void setData(Map<String, String> data) {
+        this.data = data;
+    }
+}
@@ -1,6 +1,9 @@
 package io.github.waileong.fcm.service;
 
 import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmAudienceResponse;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
 import io.github.waileong.fcm.service.model.FcmSendResponse;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
@@ -8,26 +11,65 @@ import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.validation.annotation.Validated;
 
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * Defines the contract for sending Firebase Cloud Messaging (FCM) notifications.
  * This service provides methods for sending various types of FCM notifications,
- * including simple notifications, notifications with data, and data-only messages.
+ * including simple notifications, notifications with data, data-only messages, notifications
+ * sent to many tokens at once, and notifications sent to a topic, a condition or a named audience.
  *
  * @author Wai Leong
  **/
 @Validated
 public interface FcmNotificationService {
 
+    /**
+     * Sends a synchronous complex FCM notification based on the provided request, with the default send options.
+     *
+     * @param request the FCM send request containing all necessary information for sending a notification
+     * @return an instance of FcmSendResponse indicating the result of the send operation
+     */
+    default FcmSendResponse sendSynchronousComplex(@Valid @NotNull FcmSendRequest request) {
+        return sendSynchronousComplex(request, FcmSendOptions.defaults());
+    }
+
     /**
      * Sends a synchronous complex FCM notification based on the provided request.
      *
      * @param request the FCM send request containing all necessary information for sending a notification
+     * @param options the options controlling how the notification is dispatched
      * @return an instance of FcmSendResponse indicating the result of the send operation
      */
-    FcmSendResponse sendSynchronousComplex(@Valid @NotNull FcmSendRequest request);
+    FcmSendResponse sendSynchronousComplex(@Valid @NotNull FcmSendRequest request, @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends a complex FCM notification based on the provided request.
+     *
+     * @param request the FCM send request containing all necessary information for sending a notification
+     * @param options the options controlling how the notification is dispatched
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    CompletableFuture<FcmSendResponse> sendComplex(@Valid @NotNull FcmSendRequest request,
+                                                   @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends a simple FCM notification consisting of a token, title, and message,
+     * with the default send options.
+     *
+     * @param token       the target device token to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param collapseKey the collapse key of the notification
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    default CompletableFuture<FcmSendResponse> sendSimpleNotification(
+            @NotBlank String token, @NotBlank String title, @NotBlank String message, String collapseKey) {
+        return sendSimpleNotification(token, title, message, collapseKey, FcmSendOptions.defaults());
+    }
 
     /**
      * Asynchronously sends a simple FCM notification consisting of a token, title, and message.
@@ -36,10 +78,28 @@ public interface FcmNotificationService {
      * @param title       the title of the notification
      * @param message     the message body of the notification
      * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
      * @return a CompletableFuture that will complete with the result of the send operation
      */
     CompletableFuture<FcmSendResponse> sendSimpleNotification(
-            @NotBlank String token, @NotBlank String title, @NotBlank String message, String collapseKey);
+            @NotBlank String token, @NotBlank String title, @NotBlank String message, String collapseKey,
+            @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends a simple FCM notification with additional data, with the default send options.
+     *
+     * @param token       the target device token to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        a map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    default CompletableFuture<FcmSendResponse> sendSimpleNotificationWithData(
+            @NotBlank String token, @NotBlank String title, @NotBlank String message,
+            @NotNull @NotEmpty Map<String, String> data, String collapseKey) {
+        return sendSimpleNotificationWithData(token, title, message, data, collapseKey, FcmSendOptions.defaults());
+    }
 
     /**
      * Asynchronously sends a simple FCM notification with additional data. The notification
@@ -50,21 +110,217 @@ public interface FcmNotificationService {
      * @param message     the message body of the notification
      * @param data        a map of key-value pairs representing the data to be sent with the notification
      * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
      * @return a CompletableFuture that will complete with the result of the send operation
      */
     CompletableFuture<FcmSendResponse> sendSimpleNotificationWithData(
             @NotBlank String token, @NotBlank String title, @NotBlank String message,
-            @NotNull @NotEmpty Map<String, String> data, String collapseKey);
+            @NotNull @NotEmpty Map<String, String> data, String collapseKey, @NotNull FcmSendOptions options);
 
     /**
-     * Asynchronously sends a data-only FCM message. This type of message contains no notification
-     * payload and is intended for data transmission to the target device.
+     * Asynchronously sends a data-only FCM message, with the default send options.
      *
      * @param token the target device token to which the data message will be sent
      * @param data  a map of key-value pairs representing the data to be sent
      * @return a CompletableFuture that will complete with the result of the send operation
      */
+    default CompletableFuture<FcmSendResponse> sendSimpleData(
+            @NotBlank String token, @NotNull @NotEmpty Map<String, String> data) {
+        return sendSimpleData(token, data, FcmSendOptions.defaults());
+    }
+
+    /**
+     * Asynchronously sends a data-only FCM message. This type of message contains no notification
+     * payload and is intended for data transmission to the target device.
+     *
+     * @param token   the target device token to which the data message will be sent
+     * @param data    a map of key-value pairs representing the data to be sent
+     * @param options the options controlling how the message is dispatched
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
     CompletableFuture<FcmSendResponse> sendSimpleData(
-            @NotBlank String token, @NotNull @NotEmpty Map<String, String> data);
+            @NotBlank String token, @NotNull @NotEmpty Map<String, String> data, @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends one FCM notification to many tokens, with the default send options.
+     *
+     * @param tokens      the target device tokens to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @return a CompletableFuture that will complete with the per-token results of the send operation
+     */
+    default CompletableFuture<FcmMulticastResponse> sendMulticastNotification(
+            @NotNull @NotEmpty List<@NotBlank String> tokens, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey) {
+        return sendMulticastNotification(tokens, title, message, data, collapseKey, FcmSendOptions.defaults());
+    }
+
+    /**
+     * Asynchronously sends one FCM notification to many tokens. The message is built once and sent to
+     * each token in parallel, with a bounded number of sends in flight.
+     *
+     * @param tokens      the target device tokens to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notifications are dispatched
+     * @return a CompletableFuture that will complete with the per-token results of the send operation
+     */
+    CompletableFuture<FcmMulticastResponse> sendMulticastNotification(
+            @NotNull @NotEmpty List<@NotBlank String> tokens, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey, @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends one FCM notification to many tokens, handing the result of each token to the consumer
+     * as soon as it is known instead of collecting them. The tokens are admitted, queued and sent exactly as by
+     * {@link #sendMulticastNotification(List, String, String, Map, String, FcmSendOptions)}, which is built on
+     * this method, except that the send is not deduplicated by its idempotency key, as the results handed out
+     * cannot be replayed. A token whose send fails before FCM answers gets a result carrying the error, and the
+     * other tokens are still sent. Cancelling the returned future stops the tokens not yet queued from being sent.
+     *
+     * @param tokens      the target device tokens to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notifications are dispatched
+     * @param onResponse  receives the index of each token with its result; invoked concurrently
+     * @return a CompletableFuture that will complete once the result of every token has been handed out
+     */
+    CompletableFuture<Void> fanOutMulticastNotification(
+            @NotNull @NotEmpty List<@NotBlank String> tokens, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey, @NotNull FcmSendOptions options,
+            @NotNull BiConsumer<Integer, FcmSendResponse> onResponse);
+
+    /**
+     * Asynchronously sends an FCM notification to the devices subscribed to a topic, with the default send options.
+     *
+     * @param topic       the topic to send to, with or without the {@code /topics/} prefix
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    default CompletableFuture<FcmSendResponse> sendTopicNotification(
+            @NotBlank String topic, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey) {
+        return sendTopicNotification(topic, title, message, data, collapseKey, FcmSendOptions.defaults());
+    }
+
+    /**
+     * Asynchronously sends an FCM notification to the devices subscribed to a topic. FCM fans the message out,
+     * so this costs a single call however many devices are subscribed.
+     *
+     * @param topic       the topic to send to, with or without the {@code /topics/} prefix
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    CompletableFuture<FcmSendResponse> sendTopicNotification(
+            @NotBlank String topic, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey, @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends an FCM notification to the devices matching a topic condition, with the default
+     * send options.
+     *
+     * @param condition   the condition over topics, such as {@code 'sports' in topics && 'news' in topics}
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    default CompletableFuture<FcmSendResponse> sendConditionNotification(
+            @NotBlank String condition, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey) {
+        return sendConditionNotification(condition, title, message, data, collapseKey, FcmSendOptions.defaults());
+    }
+
+    /**
+     * Asynchronously sends an FCM notification to the devices matching a topic condition.
+     *
+     * @param condition   the condition over topics, such as {@code 'sports' in topics && 'news' in topics}
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    CompletableFuture<FcmSendResponse> sendConditionNotification(
+            @NotBlank String condition, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey, @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends one FCM notification to every member of a named audience, with the default send options.
+     *
+     * @param audience    the name of the audience registered with this endpoint
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @return a CompletableFuture that will complete with the counts of the send operation
+     */
+    default CompletableFuture<FcmAudienceResponse> sendAudienceNotification(
+            @NotBlank String audience, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey) {
+        return sendAudienceNotification(audience, title, message, data, collapseKey, FcmSendOptions.defaults());
+    }
+
+    /**
+     * Asynchronously sends one FCM notification to every member of a named audience. The members are taken
+     * as they are when the send starts; the message is built once and sent to each token in parallel, with a
+     * bounded number of sends in flight.
+     *
+     * @param audience    the name of the audience registered with this endpoint
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notifications are dispatched
+     * @return a CompletableFuture that will complete with the counts of the send operation
+     * @throws io.github.waileong.fcm.service.audience.FcmAudienceNotFoundException if the audience is not registered
+     */
+    CompletableFuture<FcmAudienceResponse> sendAudienceNotification(
+            @NotBlank String audience, @NotBlank String title, @NotBlank String message,
+            Map<String, String> data, String collapseKey, @NotNull FcmSendOptions options);
+
+    /**
+     * Asynchronously sends an FCM notification rendered from a registered template, with the default send options.
+     *
+     * @param token     the target device token to which the notification will be sent
+     * @param template  the id of the template registered with this endpoint
+     * @param variables the values of the placeholders of the template
+     * @return a CompletableFuture that will complete with the result of the send operation
+     */
+    default CompletableFuture<FcmSendResponse> sendTemplateNotification(
+            @NotBlank String token, @NotBlank String template, Map<String, String> variables) {
+        return sendTemplateNotification(token, template, variables, FcmSendOptions.defaults());
+    }
+
+    /**
+     * Asynchronously sends an FCM notification rendered from a registered template. Only the placeholders of the
+     * template are filled in; the parts of the message without placeholders are shared by every message rendered
+     * from the template.
+     *
+     * @param token     the target device token to which the notification will be sent
+     * @param template  the id of the template registered with this endpoint
+     * @param variables the values of the placeholders of the template
+     * @param options   the options controlling how the notification is dispatched
+     * @return a CompletableFuture that will complete with the result of the send operation
+     * @throws io.github.waileong.fcm.service.template.FcmTemplateNotFoundException if the template is not registered
+     * @throws io.github.waileong.fcm.service.template.FcmTemplateVariableException if a placeholder has no value
+     */
+    CompletableFuture<FcmSendResponse> sendTemplateNotification(
+            @NotBlank String token, @NotBlank String template, Map<String, String> variables,
+            @NotNull FcmSendOptions options);
 
 }
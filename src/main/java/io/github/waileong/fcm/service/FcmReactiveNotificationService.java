@@ -0,0 +1,118 @@
+package io.github.waileong.fcm.service;
+
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Defines the reactive contract for sending Firebase Cloud Messaging (FCM) notifications, for the WebFlux variant
+ * of the endpoint. The sends are the same as those of {@link FcmNotificationService}, but are lazy: nothing is sent
+ * until the returned publisher is subscribed to, and each publisher completes with the result of the send, without
+ * blocking a thread while it waits for FCM.
+ *
+ * @author Wai Leong
+ */
+public interface FcmReactiveNotificationService {
+
+    /**
+     * Sends a complex FCM notification based on the provided request.
+     *
+     * @param request the FCM send request containing all necessary information for sending a notification
+     * @param options the options controlling how the notification is dispatched
+     * @return a Mono emitting the result of the send operation
+     */
+    Mono<FcmSendResponse> sendComplex(FcmSendRequest request, FcmSendOptions options);
+
+    /**
+     * Sends a simple FCM notification consisting of a token, title, and message.
+     *
+     * @param token       the target device token to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
+     * @return a Mono emitting the result of the send operation
+     */
+    Mono<FcmSendResponse> sendSimpleNotification(String token, String title, String message, String collapseKey,
+                                                 FcmSendOptions options);
+
+    /**
+     * Sends a simple FCM notification with additional data.
+     *
+     * @param token       the target device token to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        a map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
+     * @return a Mono emitting the result of the send operation
+     */
+    Mono<FcmSendResponse> sendSimpleNotificationWithData(String token, String title, String message,
+                                                         Map<String, String> data, String collapseKey,
+                                                         FcmSendOptions options);
+
+    /**
+     * Sends a data-only FCM message.
+     *
+     * @param token   the target device token to which the data message will be sent
+     * @param data    a map of key-value pairs representing the data to be sent
+     * @param options the options controlling how the message is dispatched
+     * @return a Mono emitting the result of the send operation
+     */
+    Mono<FcmSendResponse> sendSimpleData(String token, Map<String, String> data, FcmSendOptions options);
+
+    /**
+     * Sends one FCM notification to many tokens, the same way as the servlet multicast. The message is built once
+     * and sent to each token with a bounded number of sends in flight, and the result of each token is emitted as
+     * soon as it and the results of the tokens before it are known, so the results are in the order of the tokens.
+     * A token whose send fails before FCM answers gets a result carrying the error, and the other tokens are still
+     * sent. A send with an idempotency key is deduplicated as a whole, and its results are emitted once all of them
+     * are known.
+     *
+     * @param tokens      the target device tokens to which the notification will be sent
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notifications are dispatched
+     * @return a Flux emitting the result of every token, in the order of the tokens
+     */
+    Flux<FcmSendResponse> sendMulticastNotification(List<String> tokens, String title, String message,
+                                                    Map<String, String> data, String collapseKey,
+                                                    FcmSendOptions options);
+
+    /**
+     * Sends an FCM notification to the devices subscribed to a topic.
+     *
+     * @param topic       the topic to send to, with or without the {@code /topics/} prefix
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
+     * @return a Mono emitting the result of the send operation
+     */
+    Mono<FcmSendResponse> sendTopicNotification(String topic, String title, String message,
+                                                Map<String, String> data, String collapseKey,
+                                                FcmSendOptions options);
+
+    /**
+     * Sends an FCM notification to the devices matching a topic condition.
+     *
+     * @param condition   the condition over topics, such as {@code 'sports' in topics && 'news' in topics}
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        an optional map of key-value pairs representing the data to be sent with the notification
+     * @param collapseKey the collapse key of the notification
+     * @param options     the options controlling how the notification is dispatched
+     * @return a Mono emitting the result of the send operation
+     */
+    Mono<FcmSendResponse> sendConditionNotification(String condition, String title, String message,
+                                                    Map<String, String> data, String collapseKey,
+                                                    FcmSendOptions options);
+}
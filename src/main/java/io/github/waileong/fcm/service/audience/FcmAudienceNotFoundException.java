@@ -0,0 +1,18 @@
+package io.github.waileong.fcm.service.audience;
+
+/**
+ * Thrown when a named audience is not registered in the {@link FcmAudienceRegistry}, or audiences are disabled.
+ *
+ * @author Wai Leong
+ */
+public class FcmAudienceNotFoundException extends RuntimeException {
+
+    /**
+     * Constructs a new exception for the audience.
+     *
+     * @param audience the name of the audience
+     */
+    public FcmAudienceNotFoundException(String audience) {
+        super("FCM audience not found: " + audience);
+    }
+}
@@ -0,0 +1,397 @@
+package io.github.waileong.fcm.service.audience;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A registry of named audiences, each a set of registration tokens kept by this endpoint, so that a campaign
+ * names its audience instead of shipping every token with every send.
+ * <p>
+ * Tokens are interned in a {@link TokenDictionary} and an audience holds its members as a sorted array of token
+ * ids, four bytes per member however long the tokens are. Audiences are immutable once published: every change
+ * builds a new array, merging or subtracting the sorted ids in one pass, and swaps it in, so a send walks a
+ * consistent snapshot without locking while the audience is being updated. The tokens of an upload are interned
+ * before the audience is locked, so a slow upload never holds up other changes to the same audience.
+ * <p>
+ * If a snapshot file is given, the audiences are loaded from it on construction and written to it periodically
+ * and on close, in a compact binary form holding each token once and the members as delta-encoded ids. Tokens no
+ * longer in any audience are left out of the snapshot, so they are dropped from the dictionary on the next start.
+ *
+ * @author Wai Leong
+ */
+public class FcmAudienceRegistry implements MeterBinder, AutoCloseable {
+    private static final int MAGIC = 0x46434D41;
+    private static final int VERSION = 1;
+    private static final int[] EMPTY = new int[0];
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final ConcurrentMap<String, int[]> audiences = new ConcurrentHashMap<>();
+    private final Path snapshot;
+    private final TokenDictionary dictionary;
+    private final ScheduledExecutorService snapshotTimer;
+
+    /**
+     * Constructs a FcmAudienceRegistry.
+     *
+     * @param snapshot         the file the audiences are saved to and loaded from, or null to keep them in memory only
+     * @param snapshotInterval the interval between two saves of the snapshot
+     */
+    public FcmAudienceRegistry(Path snapshot, Duration snapshotInterval) {
+        this.snapshot = snapshot;
+        if (snapshot == null) {
+            this.dictionary = new TokenDictionary(1024);
+            this.snapshotTimer = null;
+            return;
+        }
+        this.dictionary = load();
+        this.snapshotTimer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-audience-snapshot")
+                .daemon(true)
+                .factory());
+        long interval = snapshotInterval.toMillis();
+        this.snapshotTimer.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Replaces the members of an audience, creating it if it does not exist.
+     *
+     * @param name   the name of the audience
+     * @param tokens the registration tokens of the members, duplicates are ignored
+     * @return the number of members of the audience
+     */
+    public int replace(String name, Iterator<String> tokens) {
+        int[] ids = intern(tokens);
+        audiences.put(name, ids);
+        return ids.length;
+    }
+
+    /**
+     * Adds members to an audience, creating it if it does not exist.
+     *
+     * @param name   the name of the audience
+     * @param tokens the registration tokens to add, duplicates and existing members are ignored
+     * @return the number of members of the audience
+     */
+    public int add(String name, Iterator<String> tokens) {
+        int[] ids = intern(tokens);
+        return audiences.merge(name, ids, FcmAudienceRegistry::union).length;
+    }
+
+    /**
+     * Removes members from an audience.
+     *
+     * @param name   the name of the audience
+     * @param tokens the registration tokens to remove, tokens that are not members are ignored
+     * @return the number of members of the audience
+     * @throws FcmAudienceNotFoundException if the audience does not exist
+     */
+    public int remove(String name, Iterator<String> tokens) {
+        int[] ids = lookup(tokens);
+        int[] members = audiences.computeIfPresent(name, (key, current) -> difference(current, ids));
+        if (members == null) {
+            throw new FcmAudienceNotFoundException(name);
+        }
+        return members.length;
+    }
+
+    /**
+     * Deletes an audience.
+     *
+     * @param name the name of the audience
+     * @return {@code true} if the audience existed
+     */
+    public boolean delete(String name) {
+        return audiences.remove(name) != null;
+    }
+
+    /**
+     * Returns the current members of an audience. The members do not change once returned, however the audience
+     * is updated afterwards.
+     *
+     * @param name the name of the audience
+     * @return the members of the audience
+     * @throws FcmAudienceNotFoundException if the audience does not exist
+     */
+    public Members members(String name) {
+        int[] ids = audiences.get(name);
+        if (ids == null) {
+            throw new FcmAudienceNotFoundException(name);
+        }
+        return new Members(dictionary, ids);
+    }
+
+    /**
+     * Returns the number of members of every audience.
+     *
+     * @return the audience sizes, keyed and ordered by audience name
+     */
+    public Map<String, Integer> sizes() {
+        Map<String, Integer> sizes = new TreeMap<>();
+        audiences.forEach((name, ids) -> sizes.put(name, ids.length));
+        return sizes;
+    }
+
+    /**
+     * Writes the audiences to the snapshot file, replacing it atomically. Does nothing without a snapshot.
+     */
+    public synchronized void save() {
+        if (snapshot == null) {
+            return;
+        }
+        Map<String, int[]> current = Map.copyOf(audiences);
+        BitSet referenced = new BitSet(dictionary.size());
+        current.values().forEach(ids -> Arrays.stream(ids).forEach(referenced::set));
+        int[] renumbered = new int[referenced.length()];
+        try {
+            Path parent = snapshot.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, snapshot.getFileName().toString(), ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(referenced.cardinality());
+                    int next = 0;
+                    for (int id = referenced.nextSetBit(0); id >= 0; id = referenced.nextSetBit(id + 1)) {
+                        renumbered[id] = next++;
+                        out.writeUTF(dictionary.token(id));
+                    }
+                    out.writeInt(current.size());
+                    for (Map.Entry<String, int[]> audience : current.entrySet()) {
+                        out.writeUTF(audience.getKey());
+                        int[] ids = audience.getValue();
+                        out.writeInt(ids.length);
+                        int previous = -1;
+                        for (int id : ids) {
+                            writeVarInt(out, renumbered[id] - previous);
+                            previous = renumbered[id];
+                        }
+                    }
+                }
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to save the FCM audience snapshot to {}", snapshot, ex);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.audience.count", audiences, Map::size)
+                .description("Named audiences registered")
+                .register(registry);
+        Gauge.builder("fcm.audience.members", audiences,
+                        map -> map.values().stream().mapToLong(ids -> ids.length).sum())
+                .description("Members of all named audiences")
+                .register(registry);
+        Gauge.builder("fcm.audience.tokens", dictionary, TokenDictionary::size)
+                .description("Distinct registration tokens held by the audience registry")
+                .register(registry);
+    }
+
+    /**
+     * Stops the periodic snapshot and writes a final one.
+     */
+    @Override
+    public void close() {
+        if (snapshotTimer != null) {
+            snapshotTimer.shutdownNow();
+            save();
+        }
+    }
+
+    private int[] intern(Iterator<String> tokens) {
+        int[] ids = new int[1024];
+        int size = 0;
+        while (tokens.hasNext()) {
+            String token = tokens.next();
+            if (token == null || token.isBlank()) {
+                continue;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = dictionary.intern(token.strip());
+        }
+        return sortedUnique(ids, size);
+    }
+
+    private int[] lookup(Iterator<String> tokens) {
+        int[] ids = new int[1024];
+        int size = 0;
+        while (tokens.hasNext()) {
+            String token = tokens.next();
+            int id = token == null ? -1 : dictionary.find(token.strip());
+            if (id < 0) {
+                continue;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+        return sortedUnique(ids, size);
+    }
+
+    private TokenDictionary load() {
+        if (!Files.exists(snapshot)) {
+            return new TokenDictionary(1024);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not an FCM audience snapshot");
+            }
+            int tokenCount = in.readInt();
+            TokenDictionary loaded = new TokenDictionary(tokenCount);
+            for (int i = 0; i < tokenCount; i++) {
+                loaded.intern(in.readUTF());
+            }
+            int audienceCount = in.readInt();
+            for (int i = 0; i < audienceCount; i++) {
+                String name = in.readUTF();
+                int[] ids = new int[in.readInt()];
+                int previous = -1;
+                for (int j = 0; j < ids.length; j++) {
+                    previous += readVarInt(in);
+                    ids[j] = previous;
+                }
+                audiences.put(name, ids);
+            }
+            logger.info("Loaded {} FCM audiences with {} tokens from {}", audienceCount, tokenCount, snapshot);
+            return loaded;
+        } catch (IOException ex) {
+            audiences.clear();
+            logger.warn("Failed to load the FCM audience snapshot from {}, starting empty", snapshot, ex);
+            return new TokenDictionary(1024);
+        }
+    }
+
+    private static int[] sortedUnique(int[] ids, int size) {
+        if (size == 0) {
+            return EMPTY;
+        }
+        Arrays.sort(ids, 0, size);
+        int unique = 1;
+        for (int i = 1; i < size; i++) {
+            if (ids[i] != ids[unique - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, unique);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] merged = new int[a.length + b.length];
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                merged[size++] = a[i++];
+            } else if (a[i] > b[j]) {
+                merged[size++] = b[j++];
+            } else {
+                merged[size++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            merged[size++] = a[i++];
+        }
+        while (j < b.length) {
+            merged[size++] = b[j++];
+        }
+        return size == merged.length ? merged : Arrays.copyOf(merged, size);
+    }
+
+    private static int[] difference(int[] a, int[] b) {
+        int[] remaining = new int[a.length];
+        int j = 0;
+        int size = 0;
+        for (int id : a) {
+            while (j < b.length && b[j] < id) {
+                j++;
+            }
+            if (j == b.length || b[j] != id) {
+                remaining[size++] = id;
+            }
+        }
+        return size == remaining.length ? a : Arrays.copyOf(remaining, size);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in FCM audience snapshot");
+    }
+
+    /**
+     * A snapshot of the members of an audience, in token id order.
+     */
+    public static final class Members {
+        private final TokenDictionary dictionary;
+        private final int[] ids;
+
+        private Members(TokenDictionary dictionary, int[] ids) {
+            this.dictionary = dictionary;
+            this.ids = ids;
+        }
+
+        /**
+         * Returns the number of members.
+         *
+         * @return the audience size
+         */
+        public int size() {
+            return ids.length;
+        }
+
+        /**
+         * Returns the registration token of a member.
+         *
+         * @param index the index of the member, from 0 to {@link #size()} exclusive
+         * @return the registration token
+         */
+        public String token(int index) {
+            return dictionary.token(ids[index]);
+        }
+    }
+}
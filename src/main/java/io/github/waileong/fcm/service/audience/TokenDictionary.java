@@ -0,0 +1,120 @@
+package io.github.waileong.fcm.service.audience;
+
+import java.util.Arrays;
+
+/**
+ * Assigns each registration token a dense int id, so that audiences can hold their members as sorted
+ * {@code int} arrays instead of sets of strings. Every token is stored once however many audiences it belongs to.
+ * <p>
+ * The ids are indexed by an open addressing hash table of plain {@code int}s, which costs about eight bytes per
+ * token on top of the token itself. Writes are serialized; {@link #token(int)} takes no lock, and sees every id
+ * handed out before the audience holding it was published.
+ *
+ * @author Wai Leong
+ */
+final class TokenDictionary {
+    private static final int EMPTY = 0;
+    private volatile String[] tokens;
+    private int[] index;
+    private volatile int size;
+
+    /**
+     * Constructs an empty TokenDictionary.
+     *
+     * @param expectedSize the number of tokens expected, used to size the tables
+     */
+    TokenDictionary(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        this.tokens = new String[capacity];
+        this.index = new int[tableSize(capacity)];
+    }
+
+    /**
+     * Returns the id of the token, assigning a new one if the token is not known yet.
+     *
+     * @param token the registration token
+     * @return the id of the token
+     */
+    synchronized int intern(String token) {
+        int slot = slot(index, token);
+        if (index[slot] != EMPTY) {
+            return index[slot] - 1;
+        }
+        int id = size;
+        String[] current = tokens;
+        if (id == current.length) {
+            current = Arrays.copyOf(current, id * 2);
+            tokens = current;
+        }
+        current[id] = token;
+        index[slot] = id + 1;
+        size = id + 1;
+        if ((long) size * 2 > index.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the token without assigning one.
+     *
+     * @param token the registration token
+     * @return the id of the token, or -1 if the token is not known
+     */
+    synchronized int find(String token) {
+        int slot = slot(index, token);
+        return index[slot] - 1;
+    }
+
+    /**
+     * Returns the token of an id handed out by this dictionary.
+     *
+     * @param id the id of the token
+     * @return the registration token
+     */
+    String token(int id) {
+        return tokens[id];
+    }
+
+    /**
+     * Returns the number of tokens held.
+     *
+     * @return the dictionary size
+     */
+    int size() {
+        return size;
+    }
+
+    private int slot(int[] table, String token) {
+        int mask = table.length - 1;
+        int slot = mix(token.hashCode()) & mask;
+        String[] current = tokens;
+        while (table[slot] != EMPTY && !current[table[slot] - 1].equals(token)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] table = new int[index.length * 2];
+        int mask = table.length - 1;
+        String[] current = tokens;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(current[id].hashCode()) & mask;
+            while (table[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+        index = table;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSize(int capacity) {
+        return Integer.highestOneBit(Math.max(8, capacity * 2 - 1)) << 1;
+    }
+}
@@ -0,0 +1,23 @@
+package io.github.waileong.fcm.service.deadletter;
+
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+
+import java.time.Instant;
+
+/**
+ * A send held in the {@link FcmDeadLetterStore} because FCM answered it with an error once its retries were
+ * exhausted.
+ *
+ * @param id       the id of the dead letter, increasing with the time it was stored
+ * @param time     when the send failed
+ * @param status   the canonical error status FCM answered with, such as {@code UNAVAILABLE}
+ * @param code     the HTTP status code FCM answered with, or 0 if unknown
+ * @param priority the dispatch priority the send was accepted with
+ * @param tenant   the tenant whose FCM project the send went through, or null for the default project
+ * @param request  the request that failed
+ * @author Wai Leong
+ */
+public record FcmDeadLetter(long id, Instant time, String status, int code, FcmPriority priority, String tenant,
+                            FcmSendRequest request) {
+}
@@ -0,0 +1,19 @@
+package io.github.waileong.fcm.service.deadletter;
+
+/**
+ * Thrown when the {@link FcmDeadLetterStore} cannot be opened or read.
+ *
+ * @author Wai Leong
+ */
+public class FcmDeadLetterException extends RuntimeException {
+
+    /**
+     * Constructs a new exception with the specified detail message and cause.
+     *
+     * @param message the detail message
+     * @param cause   the cause of the failure
+     */
+    public FcmDeadLetterException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,301 @@
+package io.github.waileong.fcm.service.deadletter;
+
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.dispatch.FcmOutboundSender;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.github.waileong.fcm.service.tenant.FcmTenantRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the dead letters of the {@link FcmDeadLetterStore} at a given rate, once the cause of their failure has
+ * cleared. The dead letters are fed through the {@link FcmDispatcher} in their original priority lanes, waiting for
+ * room rather than being rejected, and sent through the sender of their tenant, like the messages replayed from the
+ * outbox. A replayed dead letter is removed from the store once its send has completed; if FCM answers it with an
+ * error again, it is stored again as a new dead letter, which the running replay does not pick up.
+ * Dead letters of a tenant no longer configured are skipped and stay in the store.
+ * <p>
+ * One replay runs at a time. Its progress is reported by {@link #getProgress()} and by metrics.
+ *
+ * @author Wai Leong
+ */
+public class FcmDeadLetterReplayer implements MeterBinder {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmDeadLetterStore fcmDeadLetterStore;
+    private final FcmDispatcher fcmDispatcher;
+    private final FcmOutboundSender fcmOutboundSender;
+    private final FcmTenantRegistry fcmTenantRegistry;
+    private final int maxConcurrency;
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile Replay replay;
+
+    /**
+     * Constructs a FcmDeadLetterReplayer.
+     *
+     * @param fcmDeadLetterStore the store holding the dead letters
+     * @param fcmDispatcher      the dispatcher the replayed sends are queued on
+     * @param fcmOutboundSender  the sender performing the outbound calls to the default FCM project
+     * @param fcmTenantRegistry  the tenants the dead letters of a tenant are sent through, may be null
+     * @param maxConcurrency     the maximum number of replayed sends queued or in flight per priority
+     */
+    public FcmDeadLetterReplayer(FcmDeadLetterStore fcmDeadLetterStore, FcmDispatcher fcmDispatcher,
+                                 FcmOutboundSender fcmOutboundSender, FcmTenantRegistry fcmTenantRegistry,
+                                 int maxConcurrency) {
+        this.fcmDeadLetterStore = fcmDeadLetterStore;
+        this.fcmDispatcher = fcmDispatcher;
+        this.fcmOutboundSender = fcmOutboundSender;
+        this.fcmTenantRegistry = fcmTenantRegistry;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Starts replaying the dead letters matching the filter, oldest first. Returns immediately; the sends complete
+     * in the background.
+     *
+     * @param filter the filter the replayed dead letters must match
+     * @param rate   the maximum number of dead letters replayed per second
+     * @return the progress of the replay just started
+     * @throws IllegalArgumentException if the rate is not positive
+     * @throws IllegalStateException    if a replay is already running
+     */
+    public synchronized Progress replay(FcmDeadLetterStore.Filter filter, double rate) {
+        if (!(rate > 0)) {
+            throw new IllegalArgumentException("rate must be positive");
+        }
+        Replay running = replay;
+        if (running != null && running.finishedAt == null) {
+            throw new IllegalStateException("A replay of FCM dead letters is already running");
+        }
+        Replay started = new Replay(filter, rate, fcmDeadLetterStore.count(filter), fcmDeadLetterStore.getLastId());
+        replay = started;
+        logger.info("Replaying {} FCM dead letters matching {} at {} per second", started.total, filter, rate);
+        List<CompletableFuture<Void>> lanes = new ArrayList<>();
+        try {
+            for (FcmPriority priority : FcmPriority.values()) {
+                lanes.add(fcmDispatcher.fanOut(priority, new Letters(started, priority), maxConcurrency,
+                        letter -> sender(letter).sendWithRetry(letter.request()),
+                        (letter, response) -> completed(started, letter, response)));
+            }
+        } catch (RuntimeException ex) {
+            started.cancelled = true;
+            lanes.add(CompletableFuture.failedFuture(ex));
+        }
+        CompletableFuture.allOf(lanes.toArray(CompletableFuture[]::new))
+                .whenComplete((unused, throwable) -> finish(started, throwable));
+        return started.progress();
+    }
+
+    /**
+     * Stops the running replay. The sends already dispatched complete; the remaining dead letters stay in the store.
+     *
+     * @return true if a replay was running
+     */
+    public boolean cancel() {
+        Replay running = replay;
+        if (running == null || running.finishedAt != null) {
+            return false;
+        }
+        running.cancelled = true;
+        return true;
+    }
+
+    /**
+     * Returns the progress of the running replay, or of the last one if none is running.
+     *
+     * @return the progress, or null if no replay was ever started
+     */
+    public Progress getProgress() {
+        Replay current = replay;
+        return current == null ? null : current.progress();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fcm.deadletter.replay.sent", sent, LongAdder::sum)
+                .description("FCM dead letters replayed successfully")
+                .register(registry);
+        FunctionCounter.builder("fcm.deadletter.replay.failed", failed, LongAdder::sum)
+                .description("FCM dead letters replayed and answered with an error again")
+                .register(registry);
+        Gauge.builder("fcm.deadletter.replay.remaining", this, FcmDeadLetterReplayer::getRemaining)
+                .description("FCM dead letters left to replay by the running replay")
+                .register(registry);
+    }
+
+    private long getRemaining() {
+        Replay current = replay;
+        return current == null || current.finishedAt != null ? 0 : current.progress().remaining();
+    }
+
+    private FcmOutboundSender sender(FcmDeadLetter letter) {
+        return letter.tenant() == null ? fcmOutboundSender : fcmTenantRegistry.get(letter.tenant()).getSender();
+    }
+
+    private void completed(Replay replay, FcmDeadLetter letter, FcmSendResponse response) {
+        fcmDeadLetterStore.remove(letter.id());
+        if (response.getError() == null) {
+            replay.sent.increment();
+            sent.increment();
+        } else {
+            fcmDeadLetterStore.append(letter.request(), letter.priority(), letter.tenant(), response.getError());
+            replay.failed.increment();
+            failed.increment();
+        }
+    }
+
+    private void finish(Replay replay, Throwable throwable) {
+        if (throwable != null) {
+            replay.error = throwable.toString();
+        }
+        replay.finishedAt = Instant.now();
+        Progress progress = replay.progress();
+        if (throwable == null) {
+            logger.info("Replay of FCM dead letters {}: {} sent, {} failed again, {} skipped", progress.state(),
+                    progress.sent(), progress.failed(), progress.skipped());
+        } else {
+            logger.warn("Replay of FCM dead letters stopped after {} sent and {} failed again; the rest is kept",
+                    progress.sent(), progress.failed(), throwable);
+        }
+    }
+
+    /**
+     * The state of a replay.
+     */
+    public enum State {
+        RUNNING, COMPLETED, CANCELLED, FAILED
+    }
+
+    /**
+     * The progress of a replay.
+     *
+     * @param state      the state of the replay
+     * @param filter     the filter the replayed dead letters match
+     * @param rate       the maximum number of dead letters replayed per second
+     * @param total      the number of matching dead letters when the replay started
+     * @param sent       the dead letters replayed successfully
+     * @param failed     the dead letters answered with an error again, and stored again
+     * @param skipped    the dead letters of a tenant no longer configured, left in the store
+     * @param remaining  the dead letters left to replay, if the replay is running
+     * @param startedAt  when the replay started
+     * @param finishedAt when the replay finished, or null if it is running
+     * @param error      the failure that stopped the replay, or null
+     */
+    public record Progress(State state, FcmDeadLetterStore.Filter filter, double rate, long total, long sent,
+                           long failed, long skipped, long remaining, Instant startedAt, Instant finishedAt,
+                           String error) {
+    }
+
+    private static final class Replay {
+        private final FcmDeadLetterStore.Filter filter;
+        private final double rate;
+        private final long total;
+        private final long lastId;
+        private final long intervalNanos;
+        private final Instant startedAt = Instant.now();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder skipped = new LongAdder();
+        private long nextPermit = System.nanoTime();
+        private volatile boolean cancelled;
+        private volatile Instant finishedAt;
+        private volatile String error;
+
+        private Replay(FcmDeadLetterStore.Filter filter, double rate, long total, long lastId) {
+            this.filter = filter;
+            this.rate = rate;
+            this.total = total;
+            this.lastId = lastId;
+            this.intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        }
+
+        /**
+         * Waits for the next slot of the rate, shared by the lanes of the replay.
+         */
+        private void pace() {
+            long wait;
+            synchronized (this) {
+                long now = System.nanoTime();
+                nextPermit = Math.max(nextPermit, now) + intervalNanos;
+                wait = nextPermit - intervalNanos - now;
+            }
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+
+        private Progress progress() {
+            long done = sent.sum() + failed.sum() + skipped.sum();
+            State state = finishedAt == null ? State.RUNNING
+                    : error != null ? State.FAILED
+                    : cancelled ? State.CANCELLED
+                    : State.COMPLETED;
+            return new Progress(state, filter, rate, total, sent.sum(), failed.sum(), skipped.sum(),
+                    finishedAt == null ? Math.max(0, total - done) : 0, startedAt, finishedAt, error);
+        }
+    }
+
+    /**
+     * The dead letters of one priority lane of a replay, read lazily from the store and handed out at the rate of
+     * the replay. The iteration stops at the dead letters stored after the replay started, so that the sends it
+     * fails again are not replayed in a loop.
+     */
+    private final class Letters implements Iterator<FcmDeadLetter> {
+        private final Replay replay;
+        private final FcmPriority priority;
+        private final Iterator<FcmDeadLetter> source;
+        private FcmDeadLetter next;
+
+        private Letters(Replay replay, FcmPriority priority) {
+            this.replay = replay;
+            this.priority = priority;
+            this.source = fcmDeadLetterStore.iterator(replay.filter);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && !replay.cancelled && source.hasNext()) {
+                FcmDeadLetter letter = source.next();
+                if (letter.id() > replay.lastId) {
+                    return false;
+                }
+                if (letter.priority() != priority) {
+                    continue;
+                }
+                if (letter.tenant() != null
+                        && (fcmTenantRegistry == null || !fcmTenantRegistry.contains(letter.tenant()))) {
+                    replay.skipped.increment();
+                    continue;
+                }
+                next = letter;
+            }
+            return next != null && !replay.cancelled;
+        }
+
+        @Override
+        public FcmDeadLetter next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            replay.pace();
+            FcmDeadLetter letter = next;
+            next = null;
+            return letter;
+        }
+    }
+}
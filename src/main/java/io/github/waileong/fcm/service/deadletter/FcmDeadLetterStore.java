@@ -0,0 +1,710 @@
+package io.github.waileong.fcm.service.deadletter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only store on local disk of the sends FCM answered with an error once their retries were exhausted, so
+ * that they can be inspected and replayed after an outage instead of being dug out of the logs.
+ * <p>
+ * The store is a directory of numbered segment files. Every failed send is appended as a record holding its error,
+ * priority, tenant and serialized request, and a removal record is appended once it has been replayed or purged.
+ * Records are framed with their length and a CRC32C checksum, so that a record torn by a crash is cut off on
+ * recovery. Records are written without forcing them to disk: they survive a crash of the process, but not of the
+ * machine, which is enough for a diagnostic store and keeps the failure path cheap during an outage.
+ * <p>
+ * Only an index is held in memory: the ids of the dead letters ordered by id, and by error status. Ids are derived
+ * from the time a send failed, a thousand per millisecond, so a time range is an id range of both indexes, and the
+ * requests are only read from disk when listed or replayed. Segments are deleted from the oldest onwards once all
+ * their dead letters are removed, once they are older than the retention, or while the store is over its size.
+ * <p>
+ * Sends to registration tokens FCM reports as invalid are not stored: they are held by the invalid token cache,
+ * and resending them cannot succeed.
+ *
+ * @author Wai Leong
+ */
+public class FcmDeadLetterStore implements MeterBinder, AutoCloseable {
+    private static final byte DEAD = 1;
+    private static final byte REMOVED = 2;
+    private static final int TENANT_FLAG = 0x40;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int BODY_PREFIX_SIZE = 1 + Long.BYTES;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final long IDS_PER_MILLI = 1000;
+    private static final long CLEAN_INTERVAL_MILLIS = Duration.ofMinutes(1).toMillis();
+    private static final String SEGMENT_SUFFIX = ".dlq";
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final Path directory;
+    private final long segmentSize;
+    private final long maxSize;
+    private final long retentionMillis;
+    private final ObjectWriter requestWriter;
+    private final ObjectReader requestReader;
+    private final ConcurrentNavigableMap<Long, Letter> letters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, ConcurrentSkipListSet<Long>> byStatus = new ConcurrentHashMap<>();
+    private final NavigableMap<Long, Segment> segments = new TreeMap<>();
+    private final LongAdder stored = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private final ScheduledThreadPoolExecutor cleaner;
+    private Segment active;
+    private long lastId;
+    private long size;
+    private boolean closed;
+
+    /**
+     * Constructs a FcmDeadLetterStore, recovering the dead letters left in the directory by a previous run.
+     *
+     * @param directory    the directory holding the segments, created if missing
+     * @param segmentSize  the size in bytes at which the active segment is sealed
+     * @param maxSize      the size in bytes above which the oldest segments are deleted
+     * @param retention    how long a dead letter is kept
+     * @param objectMapper the object mapper used to serialize the requests
+     * @throws FcmDeadLetterException if the directory cannot be read or the active segment cannot be created
+     */
+    public FcmDeadLetterStore(Path directory, long segmentSize, long maxSize, Duration retention,
+                              ObjectMapper objectMapper) {
+        if (segmentSize <= 0 || maxSize < segmentSize) {
+            throw new IllegalArgumentException("segmentSize must be positive and maxSize at least segmentSize");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSize = maxSize;
+        this.retentionMillis = retention.toMillis();
+        this.requestWriter = objectMapper.writerFor(FcmSendRequest.class);
+        this.requestReader = objectMapper.readerFor(FcmSendRequest.class);
+        try {
+            Files.createDirectories(directory);
+            recover();
+            this.active = openSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        } catch (IOException ex) {
+            throw new FcmDeadLetterException("Failed to open the FCM dead-letter store in " + directory, ex);
+        }
+        if (!letters.isEmpty()) {
+            logger.info("Recovered {} FCM dead letters from {}", letters.size(), directory);
+        }
+        this.cleaner = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-dead-letter")
+                .daemon(true)
+                .factory());
+        this.cleaner.scheduleWithFixedDelay(this::clean, CLEAN_INTERVAL_MILLIS, CLEAN_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stores a send that FCM answered with an error. The failure is logged rather than thrown if the send cannot
+     * be stored, so that the caller always gets the result of its send.
+     *
+     * @param request  the request that failed
+     * @param priority the dispatch priority the send was accepted with
+     * @param tenant   the tenant whose FCM project the send went through, or null for the default project
+     * @param error    the error FCM answered with
+     * @return true if the send was stored, false if it was skipped or could not be written
+     */
+    public boolean append(FcmSendRequest request, FcmPriority priority, String tenant, FcmError error) {
+        if (FcmErrors.isInvalidToken(error)) {
+            skipped.increment();
+            return false;
+        }
+        String status = FcmErrors.status(error).intern();
+        int code = FcmErrors.code(error);
+        byte[] payload;
+        try {
+            payload = requestWriter.writeValueAsBytes(request);
+        } catch (JsonProcessingException ex) {
+            logger.warn("Failed to serialize the FCM message for the dead-letter store", ex);
+            return false;
+        }
+        synchronized (this) {
+            if (closed) {
+                logger.warn("FCM dead-letter store is closed, dropping a send failed with {}", status);
+                return false;
+            }
+            long id = Math.max(lastId + 1, System.currentTimeMillis() * IDS_PER_MILLI);
+            ByteBuffer record = deadRecord(id, priority, tenant, status, code, payload);
+            Segment segment = active;
+            long position = segment.size;
+            try {
+                write(segment, record);
+            } catch (IOException ex) {
+                logger.error("Failed to write to FCM dead-letter segment {}", segment.path, ex);
+                discardTail(segment, position);
+                return false;
+            }
+            lastId = id;
+            index(new Letter(id, status, code, priority, tenant, segment,
+                    position + record.limit() - payload.length, payload.length));
+            rollIfFull();
+        }
+        stored.increment();
+        return true;
+    }
+
+    /**
+     * Reads a dead letter.
+     *
+     * @param id the id of the dead letter
+     * @return the dead letter, or null if it is unknown or has been removed
+     */
+    public FcmDeadLetter get(long id) {
+        Letter letter = letters.get(id);
+        return letter == null ? null : read(letter);
+    }
+
+    /**
+     * Lists the dead letters matching the filter, oldest first.
+     *
+     * @param filter the filter the dead letters must match
+     * @param limit  the maximum number of dead letters listed
+     * @return the matching dead letters
+     */
+    public List<FcmDeadLetter> find(Filter filter, int limit) {
+        return stream(filter).limit(limit).toList();
+    }
+
+    /**
+     * Returns the dead letters matching the filter, oldest first, read from disk lazily as the iterator advances.
+     * Dead letters stored or removed meanwhile may or may not be seen.
+     *
+     * @param filter the filter the dead letters must match
+     * @return an iterator over the matching dead letters
+     */
+    public Iterator<FcmDeadLetter> iterator(Filter filter) {
+        return stream(filter).iterator();
+    }
+
+    /**
+     * Counts the dead letters matching the filter, without reading them from disk.
+     *
+     * @param filter the filter the dead letters must match
+     * @return the number of matching dead letters
+     */
+    public long count(Filter filter) {
+        return matching(filter).count();
+    }
+
+    /**
+     * Counts the dead letters by the error status FCM answered them with.
+     *
+     * @return the number of dead letters of each error status, sorted by status
+     */
+    public Map<String, Integer> countByStatus() {
+        return byStatus.entrySet().stream()
+                .filter(entry -> !entry.getValue().isEmpty())
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().size(),
+                        Integer::sum, TreeMap::new));
+    }
+
+    /**
+     * Removes a dead letter, once it has been replayed or is no longer wanted.
+     *
+     * @param id the id of the dead letter
+     * @return true if the dead letter was removed, false if it was unknown
+     */
+    public synchronized boolean remove(long id) {
+        Letter letter = letters.remove(id);
+        if (letter == null) {
+            return false;
+        }
+        unindex(letter);
+        if (!closed) {
+            Segment segment = active;
+            long position = segment.size;
+            try {
+                write(segment, removedRecord(id));
+            } catch (IOException ex) {
+                logger.warn("Failed to write the removal of FCM dead letter {}, it will be recovered on restart",
+                        id, ex);
+                discardTail(segment, position);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes the dead letters matching the filter.
+     *
+     * @param filter the filter the dead letters must match
+     * @return the number of dead letters removed
+     */
+    public int remove(Filter filter) {
+        int removed = 0;
+        for (Iterator<Letter> iterator = matching(filter).iterator(); iterator.hasNext(); ) {
+            if (remove(iterator.next().id)) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the id of the latest dead letter stored, so that a replay can stop before the sends it fails again.
+     *
+     * @return the latest id, or 0 if none was ever stored
+     */
+    public synchronized long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * Returns the number of dead letters held.
+     *
+     * @return the store size
+     */
+    public int getSize() {
+        return letters.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.deadletter.size", this, FcmDeadLetterStore::getSize)
+                .description("FCM dead letters held")
+                .register(registry);
+        Gauge.builder("fcm.deadletter.disk.size", this, FcmDeadLetterStore::getDiskSize)
+                .description("Bytes on disk of the FCM dead-letter segments")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("fcm.deadletter.stored", stored, LongAdder::sum)
+                .description("Failed FCM sends stored as dead letters")
+                .register(registry);
+        FunctionCounter.builder("fcm.deadletter.skipped", skipped, LongAdder::sum)
+                .description("Failed FCM sends not stored because their token is invalid")
+                .register(registry);
+        FunctionCounter.builder("fcm.deadletter.expired", expired, LongAdder::sum)
+                .description("FCM dead letters deleted past their retention or over the size of the store")
+                .register(registry);
+    }
+
+    /**
+     * Stops the cleaner and closes the segments. Dead letters stored afterwards are dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cleaner.shutdownNow();
+        for (Segment segment : segments.values()) {
+            try {
+                if (segment == active) {
+                    segment.channel.force(false);
+                }
+                segment.channel.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to close FCM dead-letter segment {}", segment.path, ex);
+            }
+        }
+    }
+
+    private synchronized long getDiskSize() {
+        return size;
+    }
+
+    private Stream<FcmDeadLetter> stream(Filter filter) {
+        return matching(filter).map(this::read).filter(Objects::nonNull);
+    }
+
+    private Stream<Letter> matching(Filter filter) {
+        long from = filter.from() == null ? Long.MIN_VALUE : toId(filter.from());
+        long to = filter.to() == null ? Long.MAX_VALUE : toId(filter.to()) + IDS_PER_MILLI - 1;
+        Iterator<Long> ids;
+        if (filter.status() == null) {
+            ids = letters.subMap(from, true, to, true).keySet().iterator();
+        } else {
+            ConcurrentSkipListSet<Long> statusIds = byStatus.get(filter.status());
+            ids = statusIds == null ? Collections.emptyIterator() : statusIds.subSet(from, true, to, true).iterator();
+        }
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(ids, Spliterator.ORDERED), false)
+                .map(letters::get)
+                .filter(Objects::nonNull)
+                .filter(letter -> filter.tenant() == null || filter.tenant().equals(letter.tenant));
+    }
+
+    private FcmDeadLetter read(Letter letter) {
+        ByteBuffer payload = ByteBuffer.allocate(letter.length);
+        try {
+            readFully(letter.segment.channel, payload, letter.offset);
+            FcmSendRequest request = requestReader.readValue(payload.array());
+            return new FcmDeadLetter(letter.id, Instant.ofEpochMilli(letter.id / IDS_PER_MILLI), letter.status,
+                    letter.code, letter.priority, letter.tenant, request);
+        } catch (IOException ex) {
+            if (letters.containsKey(letter.id)) {
+                logger.warn("Failed to read FCM dead letter {} from {}", letter.id, letter.segment.path, ex);
+            }
+            return null;
+        }
+    }
+
+    private void index(Letter letter) {
+        letters.put(letter.id, letter);
+        byStatus.computeIfAbsent(letter.status, status -> new ConcurrentSkipListSet<>()).add(letter.id);
+        Segment segment = letter.segment;
+        segment.live++;
+        if (segment.firstId == 0) {
+            segment.firstId = letter.id;
+        }
+        segment.lastId = letter.id;
+    }
+
+    private void unindex(Letter letter) {
+        ConcurrentSkipListSet<Long> statusIds = byStatus.get(letter.status);
+        if (statusIds != null) {
+            statusIds.remove(letter.id);
+        }
+        letter.segment.live--;
+    }
+
+    /**
+     * Deletes sealed segments from the oldest onwards while they hold no dead letter, are past the retention or
+     * the store is over its size. Segments are only ever deleted oldest first, so a removal record is never lost
+     * while the dead letter it refers to is still on disk. An active segment holding dead letters past the
+     * retention is sealed first, so that a quiet store does not keep them forever.
+     */
+    private synchronized void clean() {
+        if (closed) {
+            return;
+        }
+        long horizon = toId(Instant.ofEpochMilli(System.currentTimeMillis() - retentionMillis));
+        if (active.live > 0 && active.firstId < horizon) {
+            try {
+                roll();
+            } catch (IOException ex) {
+                logger.error("Failed to start a new FCM dead-letter segment, keeping {}", active.path, ex);
+            }
+        }
+        for (Iterator<Segment> iterator = segments.values().iterator(); iterator.hasNext(); ) {
+            Segment segment = iterator.next();
+            if (segment == active
+                    || (segment.live > 0 && segment.lastId >= horizon && size <= maxSize)) {
+                break;
+            }
+            if (segment.live > 0) {
+                int dropped = 0;
+                for (Letter letter : letters.subMap(segment.firstId, true, segment.lastId, true).values()) {
+                    if (letter.segment == segment && letters.remove(letter.id, letter)) {
+                        unindex(letter);
+                        dropped++;
+                    }
+                }
+                expired.add(dropped);
+                logger.info("Deleted {} FCM dead letters past their retention or over the size of the store",
+                        dropped);
+            }
+            try {
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+            } catch (IOException ex) {
+                logger.warn("Failed to delete FCM dead-letter segment {}", segment.path, ex);
+                break;
+            }
+            size -= segment.size;
+            iterator.remove();
+        }
+    }
+
+    private void rollIfFull() {
+        if (active.size < segmentSize) {
+            return;
+        }
+        try {
+            roll();
+        } catch (IOException ex) {
+            logger.error("Failed to start a new FCM dead-letter segment, keeping {}", active.path, ex);
+            return;
+        }
+        if (size > maxSize) {
+            clean();
+        }
+    }
+
+    private void roll() throws IOException {
+        Segment next = openSegment(active.index + 1);
+        active.channel.force(false);
+        active = next;
+    }
+
+    private void write(Segment segment, ByteBuffer record) throws IOException {
+        long position = segment.size;
+        int length = record.remaining();
+        while (record.hasRemaining()) {
+            segment.channel.write(record, position + record.position());
+        }
+        segment.size += length;
+        size += length;
+    }
+
+    private void discardTail(Segment segment, long position) {
+        try {
+            segment.channel.truncate(position);
+        } catch (IOException ex) {
+            logger.warn("Failed to truncate FCM dead-letter segment {}, starting a new segment", segment.path, ex);
+            try {
+                roll();
+            } catch (IOException rollException) {
+                logger.error("Failed to start a new FCM dead-letter segment", rollException);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long index;
+            try {
+                index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException ex) {
+                logger.warn("Ignoring unexpected file {} in the FCM dead-letter store", file);
+                continue;
+            }
+            Segment segment = new Segment(index, file,
+                    FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            segments.put(index, segment);
+            long end = scan(segment);
+            if (end < segment.channel.size()) {
+                logger.warn("Cutting off a torn record at {} of FCM dead-letter segment {}", end, file);
+                segment.channel.truncate(end);
+                segment.channel.force(true);
+            }
+            segment.size = end;
+            size += end;
+        }
+    }
+
+    /**
+     * Reads the records of a segment in order into the index, stopping at the first incomplete or corrupt record.
+     *
+     * @return the position after the last valid record
+     */
+    private long scan(Segment segment) throws IOException {
+        FileChannel channel = segment.channel;
+        long end = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32C crc = new CRC32C();
+        while (position + HEADER_SIZE <= end) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < BODY_PREFIX_SIZE || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > end) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(channel, body, position + HEADER_SIZE);
+            body.flip();
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte type = body.get();
+            long id = body.getLong();
+            lastId = Math.max(lastId, id);
+            if (type == DEAD) {
+                int flags = body.get();
+                int ordinal = flags & ~TENANT_FLAG;
+                FcmPriority[] priorities = FcmPriority.values();
+                FcmPriority priority = ordinal >= 0 && ordinal < priorities.length
+                        ? priorities[ordinal] : FcmPriority.NORMAL;
+                String tenant = (flags & TENANT_FLAG) != 0 ? string(body) : null;
+                String status = string(body).intern();
+                int code = body.getInt();
+                index(new Letter(id, status, code, priority, tenant, segment,
+                        position + HEADER_SIZE + body.position(), body.remaining()));
+            } else if (type == REMOVED) {
+                Letter letter = letters.remove(id);
+                if (letter != null) {
+                    unindex(letter);
+                }
+            }
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * Encodes a dead letter. The body starts with the priority ordinal; if the send had a tenant, the ordinal carries
+     * {@link #TENANT_FLAG} and is followed by the tenant name. The error status and code follow, and the serialized
+     * request takes the rest of the record, so it can be read back without decoding the rest.
+     */
+    private static ByteBuffer deadRecord(long id, FcmPriority priority, String tenant, String status, int code,
+                                         byte[] payload) {
+        byte[] tenantName = tenant == null ? null : bytes(tenant);
+        byte[] statusName = bytes(status);
+        int length = BODY_PREFIX_SIZE + 1 + (tenantName == null ? 0 : Short.BYTES + tenantName.length)
+                + Short.BYTES + statusName.length + Integer.BYTES + payload.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.position(HEADER_SIZE);
+        record.put(DEAD).putLong(id);
+        if (tenantName == null) {
+            record.put((byte) priority.ordinal());
+        } else {
+            record.put((byte) (priority.ordinal() | TENANT_FLAG)).putShort((short) tenantName.length).put(tenantName);
+        }
+        record.putShort((short) statusName.length).put(statusName).putInt(code).put(payload);
+        return seal(record, length);
+    }
+
+    private static ByteBuffer removedRecord(long id) {
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + BODY_PREFIX_SIZE);
+        record.position(HEADER_SIZE);
+        record.put(REMOVED).putLong(id);
+        return seal(record, BODY_PREFIX_SIZE);
+    }
+
+    private static ByteBuffer seal(ByteBuffer record, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length).putInt(Integer.BYTES, (int) crc.getValue());
+        return record.flip();
+    }
+
+    private static byte[] bytes(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Value too long for the FCM dead-letter store: " + value);
+        }
+        return bytes;
+    }
+
+    private static String string(ByteBuffer body) {
+        byte[] bytes = new byte[body.getShort() & 0xFFFF];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long toId(Instant instant) {
+        long millis;
+        try {
+            millis = instant.toEpochMilli();
+        } catch (ArithmeticException ex) {
+            millis = instant.isBefore(Instant.EPOCH) ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return Math.clamp(millis, Long.MIN_VALUE / IDS_PER_MILLI, Long.MAX_VALUE / IDS_PER_MILLI) * IDS_PER_MILLI;
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+        Segment segment = new Segment(index, path, FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        segments.put(index, segment);
+        return segment;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of FCM dead-letter segment");
+            }
+        }
+    }
+
+    /**
+     * Selects dead letters. Every criterion is optional.
+     *
+     * @param status the error status the dead letters failed with, or null for any
+     * @param tenant the tenant the dead letters were sent for, or null for any
+     * @param from   the earliest time the dead letters failed at, inclusive, or null for no bound
+     * @param to     the latest time the dead letters failed at, inclusive, or null for no bound
+     */
+    public record Filter(String status, String tenant, Instant from, Instant to) {
+
+        /**
+         * A filter matching every dead letter.
+         */
+        public static final Filter ALL = new Filter(null, null, null, null);
+    }
+
+    /**
+     * The index entry of a dead letter: everything but the request, which stays on disk at {@code offset}.
+     */
+    private static final class Letter {
+        private final long id;
+        private final String status;
+        private final int code;
+        private final FcmPriority priority;
+        private final String tenant;
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+
+        private Letter(long id, String status, int code, FcmPriority priority, String tenant, Segment segment,
+                       long offset, int length) {
+            this.id = id;
+            this.status = status;
+            this.code = code;
+            this.priority = priority;
+            this.tenant = tenant;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+        private final long index;
+        private final Path path;
+        private final FileChannel channel;
+        private long size;
+        private int live;
+        private long firstId;
+        private long lastId;
+
+        private Segment(long index, Path path, FileChannel channel) {
+            this.index = index;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
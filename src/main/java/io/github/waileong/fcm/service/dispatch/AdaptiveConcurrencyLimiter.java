@@ -0,0 +1,200 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An AIMD (additive increase, multiplicative decrease) concurrency limiter for outbound FCM sends.
+ * The limit grows by roughly one for every window of successful sends and is cut by the backoff ratio
+ * when FCM throttles, at most once per cooldown so that a burst of throttled responses to the same window
+ * counts as one congestion signal. A {@code Retry-After} delay closes the window entirely until it expires,
+ * after which the limit probes back up from its reduced value.
+ *
+ * @author Wai Leong
+ */
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long cooldownNanos;
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final String name;
+    private volatile double limit;
+    private volatile int inFlight;
+    private long lastDecreaseNanos;
+    private long pausedUntilNanos;
+    private boolean paused;
+
+    /**
+     * Constructs an AdaptiveConcurrencyLimiter.
+     *
+     * @param name         the name reported in the {@code limiter} tag of the metrics
+     * @param initialLimit the initial concurrency limit
+     * @param minLimit     the lowest the limit may be cut to
+     * @param maxLimit     the highest the limit may grow to
+     * @param backoffRatio the factor the limit is multiplied by on throttling, between 0 and 1
+     * @param cooldown     the minimum time between two decreases of the limit
+     */
+    public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit,
+                                      double backoffRatio, Duration cooldown) {
+        if (minLimit <= 0 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < minLimit <= maxLimit");
+        }
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("backoffRatio must be between 0 and 1");
+        }
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.cooldownNanos = cooldown.toNanos();
+        this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+        this.lastDecreaseNanos = System.nanoTime() - cooldownNanos;
+    }
+
+    /**
+     * Waits until a send may start, that is until the number of sends in flight is below the current limit
+     * and no {@code Retry-After} pause is in effect.
+     *
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                if (paused) {
+                    long remaining = pausedUntilNanos - System.nanoTime();
+                    if (remaining > 0) {
+                        changed.awaitNanos(remaining);
+                        continue;
+                    }
+                    paused = false;
+                }
+                if (inFlight < (int) limit) {
+                    inFlight++;
+                    return;
+                }
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a successful send, releasing its slot and growing the limit by {@code 1 / limit}.
+     */
+    public void onSuccess() {
+        lock.lock();
+        try {
+            inFlight--;
+            if (limit < maxLimit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a send throttled by FCM, releasing its slot, cutting the limit and pausing new sends
+     * for the requested delay.
+     *
+     * @param retryAfter the delay requested by FCM, or {@link Duration#ZERO} if none
+     */
+    public void onThrottled(Duration retryAfter) {
+        throttledCount.incrementAndGet();
+        lock.lock();
+        try {
+            inFlight--;
+            long now = System.nanoTime();
+            if (now - lastDecreaseNanos >= cooldownNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = now;
+            }
+            if (!retryAfter.isZero() && !retryAfter.isNegative()) {
+                long until = now + retryAfter.toNanos();
+                if (!paused || until - pausedUntilNanos > 0) {
+                    pausedUntilNanos = until;
+                    paused = true;
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a send that failed for a reason unrelated to load, releasing its slot without changing the limit.
+     */
+    public void onIgnored() {
+        lock.lock();
+        try {
+            inFlight--;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current concurrency limit.
+     *
+     * @return the current limit
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Returns the number of sends currently holding a slot.
+     *
+     * @return the in-flight count
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the time left of the current {@code Retry-After} pause.
+     *
+     * @param unit the unit of the returned value
+     * @return the time left, or {@code 0} if no pause is in effect
+     */
+    public long getPauseRemaining(TimeUnit unit) {
+        lock.lock();
+        try {
+            return paused ? Math.max(0, unit.convert(pausedUntilNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.limiter.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current concurrency limit of outbound FCM sends")
+                .tag("limiter", name)
+                .register(registry);
+        Gauge.builder("fcm.limiter.in.flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Outbound FCM sends holding a limiter slot")
+                .tag("limiter", name)
+                .register(registry);
+        FunctionCounter.builder("fcm.limiter.throttled", throttledCount, AtomicLong::get)
+                .description("Outbound FCM sends throttled by FCM")
+                .tag("limiter", name)
+                .register(registry);
+    }
+}
@@ -0,0 +1,253 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides from live send path statistics whether the instance should shed traffic to healthier replicas, before
+ * its latency collapses. Four signals are evaluated every interval:
+ * <ul>
+ *     <li>the share of the dispatch slots in flight, {@link FcmDispatcher#getInFlight()} over its bound;</li>
+ *     <li>the fill of the fullest dispatch lane, its depth over its capacity;</li>
+ *     <li>an exponentially weighted moving average of the latency of the calls to FCM;</li>
+ *     <li>an exponentially weighted moving average of the share of calls that failed, were throttled or were
+ *     answered with a server error. Errors about the message or its token are the caller's and do not count.</li>
+ * </ul>
+ * The {@link FcmOutboundSender} only adds each call to two adders, so the hot path never contends on the averages;
+ * the averages are folded in by the evaluation thread once per interval. An interval without any completed call
+ * decays the averages towards zero, so that an instance out of service recovers once its backlog has cleared
+ * instead of waiting forever for traffic it no longer receives.
+ * <p>
+ * The monitor starts shedding once any signal reaches its high threshold, and stops once every signal has stayed
+ * below its low threshold for {@code recoveryIntervals} evaluations in a row. The gap between the thresholds
+ * and the recovery delay keep the instance from flapping in and out of the load balancer.
+ *
+ * @author Wai Leong
+ */
+public class FcmBackpressureMonitor implements MeterBinder, AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmDispatcher dispatcher;
+    private final Thresholds high;
+    private final Thresholds low;
+    private final double smoothing;
+    private final int recoveryIntervals;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder transitions = new LongAdder();
+    private final ScheduledExecutorService timer;
+    private volatile Signals signals = new Signals(0, 0, 0, 0);
+    private volatile boolean shedding;
+    private volatile String reason;
+    private int healthyIntervals;
+
+    /**
+     * Constructs a FcmBackpressureMonitor and starts evaluating the signals.
+     *
+     * @param dispatcher        the dispatcher whose in-flight count and lane depths are watched
+     * @param high              the thresholds at which shedding starts
+     * @param low               the thresholds every signal must stay below for shedding to stop
+     * @param smoothing         the weight of the latest interval in the moving averages, between 0 and 1
+     * @param recoveryIntervals the number of healthy evaluations in a row needed to stop shedding
+     * @param interval          the interval between two evaluations
+     */
+    public FcmBackpressureMonitor(FcmDispatcher dispatcher, Thresholds high, Thresholds low, double smoothing,
+                                  int recoveryIntervals, Duration interval) {
+        if (smoothing <= 0 || smoothing > 1 || recoveryIntervals <= 0) {
+            throw new IllegalArgumentException("smoothing must be in (0, 1] and recoveryIntervals positive");
+        }
+        this.dispatcher = dispatcher;
+        this.high = high;
+        this.low = low;
+        this.smoothing = smoothing;
+        this.recoveryIntervals = recoveryIntervals;
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-backpressure")
+                .daemon(true)
+                .factory());
+        long intervalMillis = interval.toMillis();
+        this.timer.scheduleAtFixedRate(this::evaluate, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Records a call that FCM answered, successfully or with an error.
+     *
+     * @param start the {@link System#nanoTime()} the call started at
+     * @param error the error FCM answered with, or null on success
+     */
+    public void onAnswer(long start, FcmError error) {
+        latencyNanos.add(System.nanoTime() - start);
+        calls.increment();
+        if (error != null && (FcmErrors.isThrottled(error) || FcmErrors.code(error) >= 500)) {
+            failures.increment();
+        }
+    }
+
+    /**
+     * Records a call that failed without an answer from FCM.
+     *
+     * @param start the {@link System#nanoTime()} the call started at
+     */
+    public void onFailure(long start) {
+        latencyNanos.add(System.nanoTime() - start);
+        calls.increment();
+        failures.increment();
+    }
+
+    /**
+     * Returns whether the instance should shed traffic.
+     *
+     * @return true while a signal has not recovered from crossing its high threshold
+     */
+    public boolean isShedding() {
+        return shedding;
+    }
+
+    /**
+     * Returns the signal that started the current shedding.
+     *
+     * @return a description of the signal and its value, or null if the instance is not shedding
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * Returns the signals of the latest evaluation.
+     *
+     * @return the latest signals
+     */
+    public Signals getSignals() {
+        return signals;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.backpressure.shedding", this, monitor -> monitor.shedding ? 1 : 0)
+                .description("Whether the instance reports itself out of service to shed traffic")
+                .register(registry);
+        FunctionCounter.builder("fcm.backpressure.transitions", transitions, LongAdder::sum)
+                .description("Times the instance started or stopped shedding traffic")
+                .register(registry);
+        TimeGauge.builder("fcm.backpressure.latency", this, TimeUnit.NANOSECONDS,
+                        monitor -> monitor.signals.latencyNanos())
+                .description("Moving average of the latency of the calls to FCM")
+                .register(registry);
+        Gauge.builder("fcm.backpressure.error.ratio", this, monitor -> monitor.signals.errorRatio())
+                .description("Moving average of the share of calls to FCM that failed or were throttled")
+                .register(registry);
+    }
+
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    private void evaluate() {
+        try {
+            long count = calls.sumThenReset();
+            long nanos = latencyNanos.sumThenReset();
+            long failed = failures.sumThenReset();
+            Signals previous = signals;
+            double latency = previous.latencyNanos() * (1 - smoothing);
+            double errorRatio = previous.errorRatio() * (1 - smoothing);
+            if (count > 0) {
+                latency += smoothing * nanos / count;
+                errorRatio += smoothing * failed / count;
+            }
+            double queueFill = 0;
+            for (FcmPriority priority : FcmPriority.values()) {
+                queueFill = Math.max(queueFill,
+                        (double) dispatcher.getQueueDepth(priority) / dispatcher.getQueueCapacity(priority));
+            }
+            Signals current = new Signals((double) dispatcher.getInFlight() / dispatcher.getMaxInFlight(), queueFill,
+                    latency, errorRatio);
+            signals = current;
+            update(current);
+        } catch (RuntimeException ex) {
+            logger.warn("Failed to evaluate the FCM backpressure signals", ex);
+        }
+    }
+
+    private void update(Signals current) {
+        if (!shedding) {
+            String crossed = current.crossed(high);
+            if (crossed != null) {
+                reason = crossed;
+                shedding = true;
+                healthyIntervals = 0;
+                transitions.increment();
+                logger.warn("Shedding traffic, {} reached its threshold", crossed);
+            }
+            return;
+        }
+        if (current.crossed(low) != null) {
+            healthyIntervals = 0;
+            return;
+        }
+        if (++healthyIntervals >= recoveryIntervals) {
+            logger.info("Accepting traffic again, {} has recovered", reason);
+            shedding = false;
+            reason = null;
+            transitions.increment();
+        }
+    }
+
+    /**
+     * The values of the signals at one evaluation.
+     *
+     * @param inFlightRatio the share of the dispatch slots in flight, between 0 and 1
+     * @param queueFill     the fill of the fullest dispatch lane, between 0 and 1
+     * @param latencyNanos  the moving average of the latency of the calls to FCM, in nanoseconds
+     * @param errorRatio    the moving average of the share of calls that failed or were throttled, between 0 and 1
+     */
+    public record Signals(double inFlightRatio, double queueFill, double latencyNanos, double errorRatio) {
+
+        /**
+         * Returns the first signal at or above its threshold.
+         *
+         * @param thresholds the thresholds to compare against
+         * @return a description of the signal and its value, or null if every signal is below its threshold
+         */
+        String crossed(Thresholds thresholds) {
+            if (inFlightRatio >= thresholds.inFlightRatio()) {
+                return String.format("in-flight ratio %.2f", inFlightRatio);
+            }
+            if (queueFill >= thresholds.queueFill()) {
+                return String.format("queue fill %.2f", queueFill);
+            }
+            if (latencyNanos >= thresholds.latency().toNanos()) {
+                return "FCM latency " + Duration.ofNanos((long) latencyNanos).toMillis() + " ms";
+            }
+            if (errorRatio >= thresholds.errorRatio()) {
+                return String.format("FCM error ratio %.2f", errorRatio);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The thresholds of the signals.
+     *
+     * @param inFlightRatio the share of the dispatch slots in flight
+     * @param queueFill     the fill of the fullest dispatch lane
+     * @param latency       the moving average of the latency of the calls to FCM
+     * @param errorRatio    the moving average of the share of calls that failed or were throttled
+     */
+    public record Thresholds(double inFlightRatio, double queueFill, Duration latency, double errorRatio) {
+    }
+}
@@ -0,0 +1,189 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Holds messages with a collapse key for a short window before they are dispatched, so that a newer message
+ * to the same target with the same collapse key replaces the one still waiting instead of both being sent.
+ * FCM would only show the newer one anyway, as collapse keys mean "newer replaces older", so every replaced
+ * message is a call to FCM saved.
+ * <p>
+ * The window starts with the first message for a (target, collapse key) pair; when it closes, the newest message
+ * is handed to the {@link FcmDispatcher} at the priority it was sent with. Every caller of the window is answered
+ * with the result of that send. Messages are therefore admitted by the dispatcher when the window closes, and a
+ * rejection then fails the futures instead of being thrown to the caller. Once {@code maxPending} windows are
+ * open, further messages skip coalescing and are dispatched straight away, so memory stays bounded.
+ *
+ * @author Wai Leong
+ */
+public class FcmCoalescer implements MeterBinder, AutoCloseable {
+    private static final Runnable NOTHING = () -> {
+    };
+    private final FcmDispatcher dispatcher;
+    private final Function<FcmSendRequest, CompletableFuture<FcmSendResponse>> sender;
+    private final long windowNanos;
+    private final int maxPending;
+    private final ConcurrentMap<Key, Window> windows = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * Constructs a FcmCoalescer.
+     *
+     * @param dispatcher the dispatcher the coalesced sends are queued on
+     * @param sender     performs the send of a message, including retries
+     * @param window     how long a message waits for a newer one before it is dispatched
+     * @param maxPending the maximum number of windows open at the same time
+     */
+    public FcmCoalescer(FcmDispatcher dispatcher, Function<FcmSendRequest, CompletableFuture<FcmSendResponse>> sender,
+                        Duration window, int maxPending) {
+        if (window.isNegative() || window.isZero()) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.dispatcher = dispatcher;
+        this.sender = sender;
+        this.windowNanos = window.toNanos();
+        this.maxPending = maxPending;
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-coalescer")
+                .daemon(true)
+                .factory());
+    }
+
+    /**
+     * Submits a message with a collapse key. If a message with the same target and collapse key is still waiting,
+     * it is replaced by this one and its {@code onSuperseded} callback is run.
+     *
+     * @param priority      the dispatch priority of the message
+     * @param target        the token, topic or condition the message is sent to
+     * @param collapseKey   the collapse key of the message
+     * @param request       the message
+     * @param onSuperseded  run if the message is replaced by a newer one before it is sent, may be null
+     * @param awaitCapacity {@code true} to wait for room in a full lane when too many windows are open
+     * @return a CompletableFuture that completes with the result of the send of the newest message of the window
+     * @throws FcmDispatchRejectedException if too many windows are open and the dispatcher rejects the message
+     */
+    public CompletableFuture<FcmSendResponse> submit(FcmPriority priority, String target, String collapseKey,
+                                                     FcmSendRequest request, Runnable onSuperseded,
+                                                     boolean awaitCapacity) {
+        Key key = new Key(target, collapseKey);
+        if (windows.size() >= maxPending && !windows.containsKey(key)) {
+            bypassed.increment();
+            return dispatcher.submit(priority, () -> sender.apply(request), awaitCapacity);
+        }
+        Runnable[] replaced = new Runnable[1];
+        boolean[] opened = new boolean[1];
+        Window window = windows.compute(key, (k, existing) -> {
+            if (existing == null) {
+                opened[0] = true;
+                return new Window(priority, request, onSuperseded);
+            }
+            replaced[0] = existing.onSuperseded == null ? NOTHING : existing.onSuperseded;
+            existing.priority = priority;
+            existing.request = request;
+            existing.onSuperseded = onSuperseded;
+            return existing;
+        });
+        if (opened[0]) {
+            timer.schedule(() -> flush(key, window), windowNanos, TimeUnit.NANOSECONDS);
+        }
+        if (replaced[0] != null) {
+            superseded.increment();
+            replaced[0].run();
+        }
+        return window.result.copy();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fcm.coalesce.superseded", superseded, LongAdder::sum)
+                .description("Messages replaced by a newer message with the same collapse key before being sent")
+                .register(registry);
+        FunctionCounter.builder("fcm.coalesce.flushed", flushed, LongAdder::sum)
+                .description("Coalescing windows closed and dispatched")
+                .register(registry);
+        FunctionCounter.builder("fcm.coalesce.bypassed", bypassed, LongAdder::sum)
+                .description("Messages dispatched without coalescing because too many windows were open")
+                .register(registry);
+        Gauge.builder("fcm.coalesce.pending", windows, Map::size)
+                .description("Coalescing windows open")
+                .register(registry);
+    }
+
+    /**
+     * Stops the timer and dispatches every open window straight away.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (Map.Entry<Key, Window> entry : new ArrayList<>(windows.entrySet())) {
+            flush(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void flush(Key key, Window window) {
+        if (!windows.remove(key, window)) {
+            return;
+        }
+        flushed.increment();
+        FcmSendRequest request = window.request;
+        try {
+            dispatcher.submit(window.priority, () -> sender.apply(request))
+                    .whenComplete((response, throwable) -> {
+                        if (throwable == null) {
+                            window.result.complete(response);
+                        } else {
+                            window.result.completeExceptionally(throwable);
+                        }
+                    });
+        } catch (RuntimeException ex) {
+            window.result.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * The pair a window is keyed by.
+     *
+     * @param target      the token, topic or condition
+     * @param collapseKey the collapse key
+     */
+    private record Key(String target, String collapseKey) {
+    }
+
+    /**
+     * An open window: the newest message and the future all of its callers wait on. The fields are written under
+     * the map's lock for the key and read after the window is removed from the map under the same lock.
+     */
+    private static final class Window {
+        private final CompletableFuture<FcmSendResponse> result = new CompletableFuture<>();
+        private FcmPriority priority;
+        private FcmSendRequest request;
+        private Runnable onSuperseded;
+
+        private Window(FcmPriority priority, FcmSendRequest request, Runnable onSuperseded) {
+            this.priority = priority;
+            this.request = request;
+            this.onSuperseded = onSuperseded;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import java.time.Duration;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a send cannot be accepted by the {@link FcmDispatcher} because its capacity is exhausted.
+ * Callers are expected to retry later, after the suggested delay if one is given.
+ *
+ * @author Wai Leong
+ */
+public class FcmDispatchRejectedException extends RejectedExecutionException {
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a new exception with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public FcmDispatchRejectedException(String message) {
+        this(message, Duration.ZERO);
+    }
+
+    /**
+     * Constructs a new exception with the specified detail message and suggested retry delay.
+     *
+     * @param message    the detail message
+     * @param retryAfter how long the caller should wait before retrying
+     */
+    public FcmDispatchRejectedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Returns how long the caller should wait before retrying.
+     *
+     * @return the suggested retry delay, or {@link Duration#ZERO} if none
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,455 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Dispatches outbound FCM sends onto an {@link Executor} so that callers are released as soon as
+ * a send is accepted, rather than when FCM answers.
+ * <p>
+ * Accepted sends wait in a bounded queue per {@link FcmPriority}. A single drain thread moves them onto the
+ * executor, at most {@code maxInFlight} at a time, choosing between the non-empty lanes by smooth weighted
+ * round robin so that a busy normal lane cannot starve the high lane and vice versa. When a lane is full the
+ * send is rejected straight away with a {@link FcmDispatchRejectedException}, carrying the lane's suggested
+ * retry delay, instead of holding the caller's thread.
+ *
+ * @author Wai Leong
+ */
+public class FcmDispatcher implements MeterBinder, AutoCloseable {
+    private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30);
+    private static final long FAN_OUT_OFFER_MILLIS = 100;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final Executor executor;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final Map<FcmPriority, Lane> lanes = new EnumMap<>(FcmPriority.class);
+    private final Semaphore queued = new Semaphore(0);
+    private final Thread drainer;
+    private final CountDownLatch drained = new CountDownLatch(1);
+    private volatile boolean closed;
+
+    /**
+     * Constructs a FcmDispatcher.
+     *
+     * @param executor     the executor used to run the sends
+     * @param maxInFlight  the maximum number of sends in flight at the same time
+     * @param laneSettings the queue settings of every priority lane
+     */
+    public FcmDispatcher(Executor executor, int maxInFlight, Map<FcmPriority, LaneSettings> laneSettings) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        for (FcmPriority priority : FcmPriority.values()) {
+            LaneSettings settings = laneSettings.get(priority);
+            if (settings == null) {
+                throw new IllegalArgumentException("No lane settings for priority " + priority);
+            }
+            lanes.put(priority, new Lane(priority, settings));
+        }
+        this.executor = executor;
+        this.permits = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.drainer = Thread.ofPlatform()
+                .name("fcm-dispatch-drain")
+                .daemon(true)
+                .start(this::drain);
+    }
+
+    /**
+     * Queues a send in the lane of the given priority. The in-flight slot is held from the moment the send
+     * leaves the queue until the returned future completes, including any retries.
+     *
+     * @param priority the priority lane to queue the send in
+     * @param task     the send to perform, returning a future of its eventual result
+     * @param <T>      the result type of the send
+     * @return a CompletableFuture that completes with the result of the send
+     * @throws FcmDispatchRejectedException if the lane is full or the dispatcher is closed
+     */
+    public <T> CompletableFuture<T> submit(FcmPriority priority, Supplier<CompletableFuture<T>> task) {
+        return submit(priority, task, false);
+    }
+
+    /**
+     * Queues a send in the lane of the given priority, like {@link #submit(FcmPriority, Supplier)}, optionally
+     * waiting for room in the lane rather than being rejected when it is full, as a fan-out does. The caller then
+     * blocks until the drainer has made room or the dispatcher is closed.
+     *
+     * @param priority      the priority lane to queue the send in
+     * @param task          the send to perform, returning a future of its eventual result
+     * @param awaitCapacity {@code true} to wait for room in a full lane, {@code false} to be rejected
+     * @param <T>           the result type of the send
+     * @return a CompletableFuture that completes with the result of the send
+     * @throws FcmDispatchRejectedException if the lane is full and the caller does not wait, if the dispatcher is
+     *                                      closed, or if the caller is interrupted while waiting
+     */
+    public <T> CompletableFuture<T> submit(FcmPriority priority, Supplier<CompletableFuture<T>> task,
+                                           boolean awaitCapacity) {
+        Lane lane = lanes.get(priority);
+        if (closed) {
+            throw new FcmDispatchRejectedException("FCM dispatcher is shutting down", lane.settings.retryAfter());
+        }
+        Job<T> job = new Job<>(lane, task);
+        if (awaitCapacity) {
+            try {
+                offerAwaiting(lane, job);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new FcmDispatchRejectedException("Interrupted while waiting for room in the " + priority
+                        + " FCM dispatch lane", lane.settings.retryAfter());
+            }
+        } else if (!lane.queue.offer(job)) {
+            lane.rejected.increment();
+            throw new FcmDispatchRejectedException("The " + priority + " FCM dispatch lane is full ("
+                    + lane.settings.capacity() + ")", lane.settings.retryAfter());
+        }
+        enqueued(lane, job);
+        return job.result;
+    }
+
+    /**
+     * Fans a send out over many items in parallel, with at most {@code maxConcurrency} of them queued or in flight.
+     * The items are pulled lazily from the iterator on a virtual thread of the fan-out's own, never on the dispatch
+     * executor, so the caller is released immediately and a fan-out waiting for room cannot hold a thread the
+     * queued sends need to run on.
+     * Unlike {@link #submit(FcmPriority, Supplier)}, the fan-out waits for room in its lane rather than being
+     * rejected, until the dispatcher is closed, and it shares the lane and the in-flight bound with single sends.
+     *
+     * @param priority       the priority lane to queue the sends in
+     * @param items          the items to send to
+     * @param maxConcurrency the maximum number of sends of this fan-out queued or in flight at the same time
+     * @param task           the send to perform for each item, returning a future of its eventual result
+     * @param resultConsumer receives each item with its result; invoked concurrently from dispatch threads
+     * @param <I>            the item type
+     * @param <T>            the result type of the send
+     * @return a CompletableFuture that completes once every item has been sent and consumed
+     */
+    public <I, T> CompletableFuture<Void> fanOut(FcmPriority priority, Iterator<I> items, int maxConcurrency,
+                                                 Function<? super I, CompletableFuture<T>> task,
+                                                 BiConsumer<? super I, ? super T> resultConsumer) {
+        if (maxConcurrency <= 0) {
+            throw new IllegalArgumentException("maxConcurrency must be positive");
+        }
+        Lane lane = lanes.get(priority);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Runnable driver = () -> {
+            Semaphore window = new Semaphore(maxConcurrency);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            try {
+                while (items.hasNext() && failure.get() == null) {
+                    if (closed) {
+                        throw new FcmDispatchRejectedException("FCM dispatcher is shutting down");
+                    }
+                    I item = items.next();
+                    window.acquire();
+                    Job<T> job = new Job<>(lane, () -> task.apply(item));
+                    job.result.whenComplete((t, throwable) -> {
+                        try {
+                            if (throwable == null) {
+                                resultConsumer.accept(item, t);
+                            } else {
+                                failure.compareAndSet(null, throwable);
+                            }
+                        } finally {
+                            window.release();
+                        }
+                    });
+                    offerAwaiting(lane, job);
+                    enqueued(lane, job);
+                }
+                window.acquire(maxConcurrency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                failure.compareAndSet(null, ex);
+            } catch (RuntimeException ex) {
+                failure.compareAndSet(null, ex);
+            }
+            Throwable throwable = failure.get();
+            if (throwable == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(throwable);
+            }
+        };
+        Thread.ofVirtual().name("fcm-dispatch-fan-out").start(driver);
+        return done;
+    }
+
+    /**
+     * Returns the number of sends currently in flight.
+     *
+     * @return the in-flight count
+     */
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Returns the number of sends waiting in the lane of the given priority.
+     *
+     * @param priority the priority lane
+     * @return the queue depth of the lane
+     */
+    public int getQueueDepth(FcmPriority priority) {
+        return lanes.get(priority).queue.size();
+    }
+
+    /**
+     * Returns the maximum number of sends that may wait in the lane of the given priority.
+     *
+     * @param priority the priority lane
+     * @return the capacity of the lane
+     */
+    public int getQueueCapacity(FcmPriority priority) {
+        return lanes.get(priority).settings.capacity();
+    }
+
+    /**
+     * Returns the executor the sends run on.
+     *
+     * @return the dispatch executor
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Returns the maximum number of sends that may be in flight.
+     *
+     * @return the in-flight bound
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.dispatch.in.flight", this, FcmDispatcher::getInFlight)
+                .description("FCM sends dispatched and not yet completed")
+                .register(registry);
+        for (Lane lane : lanes.values()) {
+            String priority = lane.priority.name().toLowerCase();
+            Gauge.builder("fcm.dispatch.queue.depth", lane.queue, BlockingQueue::size)
+                    .description("FCM sends waiting in a dispatch lane")
+                    .tag("priority", priority)
+                    .register(registry);
+            Gauge.builder("fcm.dispatch.queue.capacity", lane.settings, LaneSettings::capacity)
+                    .description("Capacity of a dispatch lane")
+                    .tag("priority", priority)
+                    .register(registry);
+            FunctionCounter.builder("fcm.dispatch.rejected", lane.rejected, LongAdder::sum)
+                    .description("FCM sends rejected because their dispatch lane was full")
+                    .tag("priority", priority)
+                    .register(registry);
+            FunctionTimer.builder("fcm.dispatch.queue.wait", lane,
+                            l -> l.waitCount.sum(), l -> l.waitNanos.sum(), TimeUnit.NANOSECONDS)
+                    .description("Time FCM sends waited in a dispatch lane")
+                    .tag("priority", priority)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Stops accepting sends, waits for the queued sends to be dispatched, then shuts down the executor
+     * if it is an {@link ExecutorService} owned by this dispatcher, waiting for the sends in flight to complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // wakes the drainer if it waits for a send, so that it notices the lanes are empty
+        queued.release();
+        try {
+            if (!drained.await(CLOSE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                logger.warn("FCM dispatch lanes not drained within {}, failing the sends left", CLOSE_TIMEOUT);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        drainer.interrupt();
+        for (Lane lane : lanes.values()) {
+            Job<?> job;
+            while ((job = lane.queue.poll()) != null) {
+                job.result.completeExceptionally(new FcmDispatchRejectedException("FCM dispatcher is shut down"));
+            }
+        }
+        if (executor instanceof ExecutorService executorService) {
+            executorService.close();
+        }
+    }
+
+    /**
+     * Offers a job to its lane, waiting for room as long as the dispatcher is open. A job the dispatcher was closed
+     * on while waiting is failed and rejected.
+     */
+    private void offerAwaiting(Lane lane, Job<?> job) throws InterruptedException {
+        while (!lane.queue.offer(job, FAN_OUT_OFFER_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                FcmDispatchRejectedException ex = new FcmDispatchRejectedException("FCM dispatcher is shutting down");
+                job.result.completeExceptionally(ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Makes a job offered to its lane available to the drainer. The job is withdrawn and rejected if the
+     * dispatcher was closed meanwhile, as the drainer may have stopped before seeing it; a job the drainer or
+     * {@link #close()} took first is started or failed by them instead.
+     */
+    private void enqueued(Lane lane, Job<?> job) {
+        if (closed && lane.queue.remove(job)) {
+            FcmDispatchRejectedException ex = new FcmDispatchRejectedException("FCM dispatcher is shutting down",
+                    lane.settings.retryAfter());
+            job.result.completeExceptionally(ex);
+            throw ex;
+        }
+        queued.release();
+    }
+
+    private boolean lanesEmpty() {
+        for (Lane lane : lanes.values()) {
+            if (!lane.queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                if (closed && lanesEmpty()) {
+                    drained.countDown();
+                    return;
+                }
+                permits.acquire();
+                queued.acquire();
+                Job<?> job = nextJob();
+                if (job == null) {
+                    permits.release();
+                    continue;
+                }
+                job.start();
+            }
+        } catch (InterruptedException ex) {
+            logger.debug("FCM dispatch drain thread stopped");
+        }
+    }
+
+    /**
+     * Picks the next job by smooth weighted round robin over the non-empty lanes: every non-empty lane earns
+     * its weight, the richest lane is served and pays back the total weight earned in the round.
+     */
+    private Job<?> nextJob() {
+        Lane selected = null;
+        int total = 0;
+        for (Lane lane : lanes.values()) {
+            if (lane.queue.isEmpty()) {
+                continue;
+            }
+            lane.currentWeight += lane.settings.weight();
+            total += lane.settings.weight();
+            if (selected == null || lane.currentWeight > selected.currentWeight) {
+                selected = lane;
+            }
+        }
+        if (selected == null) {
+            return null;
+        }
+        selected.currentWeight -= total;
+        return selected.queue.poll();
+    }
+
+    /**
+     * The queue settings of one priority lane.
+     *
+     * @param capacity   the maximum number of sends waiting in the lane
+     * @param weight     the share of dispatch slots the lane gets when other lanes are busy too
+     * @param retryAfter the retry delay suggested to callers rejected because the lane is full
+     */
+    public record LaneSettings(int capacity, int weight, Duration retryAfter) {
+    }
+
+    private static final class Lane {
+        private final FcmPriority priority;
+        private final LaneSettings settings;
+        private final BlockingQueue<Job<?>> queue;
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder waitCount = new LongAdder();
+        private final LongAdder waitNanos = new LongAdder();
+        private int currentWeight;
+
+        private Lane(FcmPriority priority, LaneSettings settings) {
+            if (settings.capacity() <= 0 || settings.weight() <= 0) {
+                throw new IllegalArgumentException("Lane capacity and weight must be positive");
+            }
+            this.priority = priority;
+            this.settings = settings;
+            this.queue = new ArrayBlockingQueue<>(settings.capacity());
+        }
+    }
+
+    private final class Job<T> {
+        private final Lane lane;
+        private final Supplier<CompletableFuture<T>> task;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedNanos = System.nanoTime();
+
+        private Job(Lane lane, Supplier<CompletableFuture<T>> task) {
+            this.lane = lane;
+            this.task = task;
+        }
+
+        private void start() {
+            lane.waitCount.increment();
+            lane.waitNanos.add(System.nanoTime() - enqueuedNanos);
+            try {
+                executor.execute(this::run);
+            } catch (RejectedExecutionException ex) {
+                permits.release();
+                result.completeExceptionally(new FcmDispatchRejectedException(
+                        "FCM dispatch executor rejected the send: " + ex.getMessage()));
+            }
+        }
+
+        private void run() {
+            try {
+                task.get().whenComplete((t, throwable) -> {
+                    permits.release();
+                    if (throwable == null) {
+                        result.complete(t);
+                    } else {
+                        result.completeExceptionally(throwable);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                permits.release();
+                result.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the sends to the same token in the order they were submitted, while sends to different tokens still run in
+ * parallel on the {@link FcmDispatcher}. Without it, a later message to a device can overtake an earlier one,
+ * such as "order shipped" arriving before "order confirmed".
+ * <p>
+ * Tokens are hashed to one of a fixed number of shards, each with its own lock, holding a chain per token that
+ * has a send in flight. The first send to a token is queued on the dispatcher straight away; a send to a token
+ * that already has one in flight waits in the token's chain and is queued once the previous send has completed,
+ * retries included. A chain only serializes its own token, so a hot token never holds up the other tokens of its
+ * shard and no stealing or rebalancing between shards is needed: the shards only spread the locking. A chain
+ * holds at most {@code maxQueuedPerToken} waiting sends, further sends to the token are rejected.
+ * <p>
+ * A send that waited in a chain is admitted by the dispatcher when its turn comes, so a rejection by a full lane
+ * then fails its future instead of being thrown to the caller. A failed send does not stop the sends after it.
+ *
+ * @author Wai Leong
+ */
+public class FcmOrderedDispatcher implements MeterBinder {
+    private final FcmDispatcher dispatcher;
+    private final Shard[] shards;
+    private final int maxQueuedPerToken;
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructs a FcmOrderedDispatcher.
+     *
+     * @param dispatcher        the dispatcher the sends are queued on
+     * @param shards            the number of shards the tokens are spread over, rounded up to a power of two
+     * @param maxQueuedPerToken the maximum number of sends waiting behind the send in flight to the same token
+     */
+    public FcmOrderedDispatcher(FcmDispatcher dispatcher, int shards, int maxQueuedPerToken) {
+        if (shards <= 0 || maxQueuedPerToken <= 0) {
+            throw new IllegalArgumentException("shards and maxQueuedPerToken must be positive");
+        }
+        this.dispatcher = dispatcher;
+        int size = Integer.highestOneBit(shards);
+        this.shards = new Shard[size < shards ? size << 1 : size];
+        for (int i = 0; i < this.shards.length; i++) {
+            this.shards[i] = new Shard();
+        }
+        this.maxQueuedPerToken = maxQueuedPerToken;
+    }
+
+    /**
+     * Queues a send to a token on the dispatcher once every send submitted earlier to the same token has completed.
+     *
+     * @param priority the priority lane to queue the send in
+     * @param token    the token, topic or condition the send is ordered by
+     * @param task     the send to perform, returning a future of its eventual result
+     * @param <T>      the result type of the send
+     * @return a CompletableFuture that completes with the result of the send
+     * @throws FcmDispatchRejectedException if the send is queued straight away and its lane is full, or if too many
+     *                                      sends to the token are waiting
+     */
+    public <T> CompletableFuture<T> submit(FcmPriority priority, String token, Supplier<CompletableFuture<T>> task) {
+        return submit(priority, token, task, false);
+    }
+
+    /**
+     * Queues a send to a token like {@link #submit(FcmPriority, String, Supplier)}, optionally waiting for room in
+     * the lane when the send is queued straight away. A send waiting behind an earlier one is queued from that
+     * send's completion and is never made to wait, as that would hold up the thread completing it.
+     *
+     * @param priority      the priority lane to queue the send in
+     * @param token         the token, topic or condition the send is ordered by
+     * @param task          the send to perform, returning a future of its eventual result
+     * @param awaitCapacity {@code true} to wait for room in a full lane when queued straight away
+     * @param <T>           the result type of the send
+     * @return a CompletableFuture that completes with the result of the send
+     * @throws FcmDispatchRejectedException if the send is queued straight away and its lane is full and the caller
+     *                                      does not wait, or if too many sends to the token are waiting
+     */
+    public <T> CompletableFuture<T> submit(FcmPriority priority, String token, Supplier<CompletableFuture<T>> task,
+                                           boolean awaitCapacity) {
+        Shard shard = shards[mix(token.hashCode()) & (shards.length - 1)];
+        Chain chain;
+        synchronized (shard) {
+            chain = shard.chains.get(token);
+            if (chain != null) {
+                if (chain.waiting.size() >= maxQueuedPerToken) {
+                    rejected.increment();
+                    throw new FcmDispatchRejectedException("Too many FCM sends waiting for the same token ("
+                            + maxQueuedPerToken + ")");
+                }
+                Pending<T> pending = new Pending<>(priority, task);
+                chain.waiting.add(pending);
+                shard.waiting++;
+                return pending.result;
+            }
+            chain = new Chain();
+            shard.chains.put(token, chain);
+        }
+        CompletableFuture<T> result;
+        try {
+            result = dispatcher.submit(priority, task, awaitCapacity);
+        } catch (RuntimeException ex) {
+            advance(shard, token, chain);
+            throw ex;
+        }
+        Chain started = chain;
+        result.whenComplete((t, throwable) -> advance(shard, token, started));
+        return result;
+    }
+
+    /**
+     * Returns the number of sends waiting behind an earlier send to the same token, over all shards.
+     *
+     * @return the waiting count
+     */
+    public int getWaiting() {
+        int waiting = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                waiting += shard.waiting;
+            }
+        }
+        return waiting;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fcm.ordering.rejected", rejected, LongAdder::sum)
+                .description("FCM sends rejected because too many sends to the same token were waiting")
+                .register(registry);
+        for (int i = 0; i < shards.length; i++) {
+            Shard shard = shards[i];
+            String tag = Integer.toString(i);
+            Gauge.builder("fcm.ordering.waiting", shard, Shard::waiting)
+                    .description("FCM sends waiting behind an earlier send to the same token")
+                    .tag("shard", tag)
+                    .register(registry);
+            Gauge.builder("fcm.ordering.tokens", shard, Shard::tokens)
+                    .description("Tokens with an FCM send in flight")
+                    .tag("shard", tag)
+                    .register(registry);
+            TimeGauge.builder("fcm.ordering.lag", shard, TimeUnit.NANOSECONDS, Shard::lagNanos)
+                    .description("Age of the oldest FCM send waiting behind an earlier send to the same token")
+                    .tag("shard", tag)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Queues the next waiting send of the chain, or removes the chain if none is waiting. Sends that are rejected,
+     * or that complete before their callback is registered, are followed in the loop rather than by recursion.
+     */
+    private void advance(Shard shard, String token, Chain chain) {
+        while (true) {
+            Pending<?> next;
+            synchronized (shard) {
+                next = chain.waiting.poll();
+                if (next == null) {
+                    shard.chains.remove(token);
+                    return;
+                }
+                shard.waiting--;
+            }
+            CompletableFuture<?> result = next.start();
+            if (!result.isDone()) {
+                result.whenComplete((t, throwable) -> advance(shard, token, chain));
+                return;
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * The chains of the tokens hashed to one shard. All access is synchronized on the shard.
+     */
+    private static final class Shard {
+        private final Map<String, Chain> chains = new HashMap<>();
+        private int waiting;
+
+        private synchronized int waiting() {
+            return waiting;
+        }
+
+        private synchronized int tokens() {
+            return chains.size();
+        }
+
+        private synchronized double lagNanos() {
+            if (waiting == 0) {
+                return 0;
+            }
+            long now = System.nanoTime();
+            long oldest = now;
+            for (Chain chain : chains.values()) {
+                Pending<?> head = chain.waiting.peek();
+                if (head != null && head.enqueuedNanos - oldest < 0) {
+                    oldest = head.enqueuedNanos;
+                }
+            }
+            return now - oldest;
+        }
+    }
+
+    /**
+     * The sends waiting behind the send in flight to one token.
+     */
+    private static final class Chain {
+        private final ArrayDeque<Pending<?>> waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * A send waiting for its turn.
+     */
+    private final class Pending<T> {
+        private final FcmPriority priority;
+        private final Supplier<CompletableFuture<T>> task;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final long enqueuedNanos = System.nanoTime();
+
+        private Pending(FcmPriority priority, Supplier<CompletableFuture<T>> task) {
+            this.priority = priority;
+            this.task = task;
+        }
+
+        private CompletableFuture<T> start() {
+            try {
+                dispatcher.submit(priority, task).whenComplete((t, throwable) -> {
+                    if (throwable == null) {
+                        result.complete(t);
+                    } else {
+                        result.completeExceptionally(throwable);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                result.completeExceptionally(ex);
+            }
+            return result;
+        }
+    }
+}
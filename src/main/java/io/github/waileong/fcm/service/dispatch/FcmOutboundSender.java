@@ -0,0 +1,235 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.exception.FcmRestClientException;
+import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.github.waileong.fcm.service.token.FcmInvalidTokenCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Performs the outbound call to FCM through the configured {@link FcmService}.
+ * Each call holds a slot of the {@link AdaptiveConcurrencyLimiter}, if one is configured, and reports its
+ * outcome back to the limiter so that the in-flight window narrows when FCM throttles and widens again
+ * once the throttling clears. Failed calls are retried as decided by the {@link FcmRetryPolicy}, if one is
+ * configured, with the retries waiting on the {@link FcmRetryScheduler} rather than on a thread.
+ * Sends to tokens held by the {@link FcmInvalidTokenCache}, if one is configured, are answered with the error
+ * FCM reported for the token earlier, without a call; tokens FCM reports as invalid are added to the cache.
+ * Every call is recorded by the {@link FcmSendMetrics} and reported to the {@link FcmBackpressureMonitor}, if
+ * configured.
+ *
+ * @author Wai Leong
+ */
+public class FcmOutboundSender {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmService fcmService;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final FcmRetryPolicy retryPolicy;
+    private final FcmRetryScheduler retryScheduler;
+    private final FcmInvalidTokenCache invalidTokenCache;
+    private final FcmSendMetrics metrics;
+    private final FcmBackpressureMonitor backpressureMonitor;
+
+    /**
+     * Constructs a FcmOutboundSender.
+     *
+     * @param fcmService          the FcmService used to send the messages
+     * @param limiter             the limiter bounding concurrent sends, or null to send without a limit
+     * @param retryPolicy         the policy deciding on retries, or null to never retry
+     * @param retryScheduler      the scheduler running delayed retries, required if a retry policy is given
+     * @param invalidTokenCache   the cache of tokens known to be invalid, or null to always call FCM
+     * @param metrics             the metrics recording each call, or null not to record them
+     * @param backpressureMonitor the monitor each call is reported to, or null not to report them
+     */
+    public FcmOutboundSender(FcmService fcmService, AdaptiveConcurrencyLimiter limiter,
+                             FcmRetryPolicy retryPolicy, FcmRetryScheduler retryScheduler,
+                             FcmInvalidTokenCache invalidTokenCache, FcmSendMetrics metrics,
+                             FcmBackpressureMonitor backpressureMonitor) {
+        if (retryPolicy != null && retryScheduler == null) {
+            throw new IllegalArgumentException("A retry scheduler is required with a retry policy");
+        }
+        this.fcmService = fcmService;
+        this.limiter = limiter;
+        this.retryPolicy = retryPolicy;
+        this.retryScheduler = retryScheduler;
+        this.invalidTokenCache = invalidTokenCache;
+        this.metrics = metrics;
+        this.backpressureMonitor = backpressureMonitor;
+    }
+
+    /**
+     * Sends the request to FCM, retrying failed attempts as decided by the retry policy.
+     * The first attempt runs on the calling thread; retries run on the dispatch executor once their delay expires.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @return a CompletableFuture that completes with the result of the last attempt
+     */
+    public CompletableFuture<FcmSendResponse> sendWithRetry(FcmSendRequest fcmSendRequest) {
+        FcmSendResponse known = knownInvalid(fcmSendRequest);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        if (metrics != null) {
+            metrics.onPayload(fcmSendRequest);
+        }
+        if (retryPolicy != null) {
+            retryPolicy.onFirstAttempt();
+        }
+        return attempt(fcmSendRequest, 1);
+    }
+
+    private CompletableFuture<FcmSendResponse> attempt(FcmSendRequest fcmSendRequest, int attempt) {
+        Outcome outcome = call(fcmSendRequest);
+        FcmSendResponse response = outcome.response();
+        if (retryPolicy == null || response.getError() == null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        Duration delay = retryPolicy.nextDelay(response.getError(), attempt, outcome.retryAfter());
+        if (delay == null) {
+            return CompletableFuture.completedFuture(response);
+        }
+        logger.debug("Retrying FCM send after {} ms, attempt {} failed with {}",
+                delay.toMillis(), attempt, FcmErrors.status(response.getError()));
+        return retryScheduler.schedule(() -> attempt(fcmSendRequest, attempt + 1), delay);
+    }
+
+    /**
+     * Sends the request to FCM once, waiting for a limiter slot first.
+     * This method encapsulates the try-catch logic for {@link FcmRestClientException}
+     * and constructs the appropriate {@link FcmSendResponse} based on the outcome.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @return an {@link FcmSendResponse} indicating the result of the send operation
+     * @throws FcmDispatchRejectedException if the thread is interrupted while waiting for a limiter slot
+     */
+    public FcmSendResponse send(FcmSendRequest fcmSendRequest) {
+        FcmSendResponse known = knownInvalid(fcmSendRequest);
+        if (known != null) {
+            return known;
+        }
+        if (metrics != null) {
+            metrics.onPayload(fcmSendRequest);
+        }
+        return call(fcmSendRequest).response();
+    }
+
+    /**
+     * Returns the cache of tokens known to be invalid that this sender consults and fills.
+     *
+     * @return the invalid token cache, or null if the sender always calls FCM
+     */
+    public FcmInvalidTokenCache getInvalidTokenCache() {
+        return invalidTokenCache;
+    }
+
+    /**
+     * Answers the request from the invalid token cache, if its token is known to be invalid.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @return the response carrying the error FCM reported for the token, or null if the request must be sent
+     */
+    private FcmSendResponse knownInvalid(FcmSendRequest fcmSendRequest) {
+        String token = token(fcmSendRequest);
+        if (invalidTokenCache == null || token == null) {
+            return null;
+        }
+        FcmError error = invalidTokenCache.get(token);
+        return error == null ? null : FcmSendResponse.Builder.aFcmSendResponse()
+                .error(error)
+                .build();
+    }
+
+    private static String token(FcmSendRequest fcmSendRequest) {
+        FcmMessage message = fcmSendRequest.getMessage();
+        return message == null ? null : message.getToken();
+    }
+
+    private Outcome call(FcmSendRequest fcmSendRequest) {
+        if (limiter == null) {
+            return doSend(fcmSendRequest);
+        }
+        try {
+            limiter.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new FcmDispatchRejectedException("Interrupted while waiting for an FCM limiter slot");
+        }
+        Outcome outcome;
+        try {
+            outcome = doSend(fcmSendRequest);
+        } catch (RuntimeException e) {
+            limiter.onIgnored();
+            throw e;
+        }
+        if (outcome.response().getError() == null) {
+            limiter.onSuccess();
+        } else if (FcmErrors.isThrottled(outcome.response().getError())) {
+            limiter.onThrottled(outcome.retryAfter());
+        } else {
+            limiter.onIgnored();
+        }
+        return outcome;
+    }
+
+    private Outcome doSend(FcmSendRequest fcmSendRequest) {
+        if (metrics == null && backpressureMonitor == null) {
+            return doCall(fcmSendRequest);
+        }
+        long start = metrics != null ? metrics.onCall() : System.nanoTime();
+        Outcome outcome;
+        try {
+            outcome = doCall(fcmSendRequest);
+        } catch (RuntimeException e) {
+            if (metrics != null) {
+                metrics.onFailure(start);
+            }
+            if (backpressureMonitor != null) {
+                backpressureMonitor.onFailure(start);
+            }
+            throw e;
+        }
+        if (metrics != null) {
+            metrics.onAnswer(start, outcome.response().getError());
+        }
+        if (backpressureMonitor != null) {
+            backpressureMonitor.onAnswer(start, outcome.response().getError());
+        }
+        return outcome;
+    }
+
+    private Outcome doCall(FcmSendRequest fcmSendRequest) {
+        try {
+            FcmMessage fcmMessage = fcmService.send(fcmSendRequest);
+            return new Outcome(FcmSendResponse.Builder.aFcmSendResponse()
+                    .message(fcmMessage)
+                    .build(), Duration.ZERO);
+        } catch (FcmRestClientException e) {
+            logger.warn("Failed to send FCM message", e);
+            if (invalidTokenCache != null && FcmErrors.isInvalidToken(e.getError())) {
+                String token = token(fcmSendRequest);
+                if (token != null) {
+                    invalidTokenCache.put(token, e.getError());
+                }
+            }
+            return new Outcome(FcmSendResponse.Builder.aFcmSendResponse()
+                    .error(e.getError())
+                    .build(), FcmErrors.retryAfter(e));
+        }
+    }
+
+    /**
+     * The outcome of one attempt.
+     *
+     * @param response   the response of the attempt
+     * @param retryAfter the delay requested by FCM, or {@link Duration#ZERO} if none
+     */
+    private record Outcome(FcmSendResponse response, Duration retryAfter) {
+    }
+}
@@ -0,0 +1,115 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides whether, and after how long, a failed FCM send is retried.
+ * Retries are configured per FCM error status, each with its own attempt limit and exponential backoff,
+ * and the delay is drawn with full jitter between zero and the backoff so that retries of a failed burst
+ * spread out. A {@code Retry-After} requested by FCM is honoured as a lower bound on the delay.
+ * <p>
+ * Retries are further capped by a budget: every first attempt deposits {@code budgetRatio} of a token,
+ * every retry withdraws a whole token, and a retry without a token available is not performed.
+ * Retries therefore stay within a fixed fraction of live traffic, however many sends fail.
+ *
+ * @author Wai Leong
+ */
+public class FcmRetryPolicy implements MeterBinder {
+    private static final long MILLI_TOKENS = 1000;
+    private final Map<String, Rule> rules;
+    private final long depositMilliTokens;
+    private final long maxMilliTokens;
+    private final AtomicLong budget;
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong budgetExhausted = new AtomicLong();
+
+    /**
+     * Constructs a FcmRetryPolicy.
+     *
+     * @param rules       the retry rules, keyed by FCM error status such as {@code UNAVAILABLE}
+     * @param budgetRatio the fraction of first attempts that may be retried, such as {@code 0.1}
+     * @param maxBudget   the maximum number of retry tokens that may be saved up
+     */
+    public FcmRetryPolicy(Map<String, Rule> rules, double budgetRatio, int maxBudget) {
+        this.rules = Map.copyOf(rules);
+        this.depositMilliTokens = Math.round(budgetRatio * MILLI_TOKENS);
+        this.maxMilliTokens = maxBudget * MILLI_TOKENS;
+        this.budget = new AtomicLong(maxMilliTokens);
+    }
+
+    /**
+     * Records a first attempt, depositing its share of the retry budget.
+     */
+    public void onFirstAttempt() {
+        budget.getAndUpdate(tokens -> Math.min(maxMilliTokens, tokens + depositMilliTokens));
+    }
+
+    /**
+     * Returns the delay before the next attempt of a failed send, withdrawing a token from the retry budget.
+     *
+     * @param error      the error of the failed attempt
+     * @param attempt    the number of the failed attempt, starting from 1
+     * @param retryAfter the delay requested by FCM, or {@link Duration#ZERO} if none
+     * @return the delay before the next attempt, or null if the send is not retried
+     */
+    public Duration nextDelay(FcmError error, int attempt, Duration retryAfter) {
+        Rule rule = rules.get(FcmErrors.status(error));
+        if (rule == null || attempt >= rule.maxAttempts()) {
+            return null;
+        }
+        if (!withdraw()) {
+            budgetExhausted.incrementAndGet();
+            return null;
+        }
+        retries.incrementAndGet();
+        long backoff = Math.min(rule.maxBackoff().toMillis(),
+                rule.initialBackoff().toMillis() << Math.min(attempt - 1, 30));
+        long jittered = ThreadLocalRandom.current().nextLong(backoff + 1);
+        return Duration.ofMillis(Math.max(jittered, retryAfter.toMillis()));
+    }
+
+    private boolean withdraw() {
+        while (true) {
+            long tokens = budget.get();
+            if (tokens < MILLI_TOKENS) {
+                return false;
+            }
+            if (budget.compareAndSet(tokens, tokens - MILLI_TOKENS)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fcm.retry.attempts", retries, AtomicLong::get)
+                .description("Retries of failed FCM sends")
+                .register(registry);
+        FunctionCounter.builder("fcm.retry.budget.exhausted", budgetExhausted, AtomicLong::get)
+                .description("Retryable FCM sends not retried because the retry budget was exhausted")
+                .register(registry);
+        Gauge.builder("fcm.retry.budget", budget, tokens -> (double) tokens.get() / MILLI_TOKENS)
+                .description("Retry tokens available")
+                .register(registry);
+    }
+
+    /**
+     * The retry rule for one FCM error status.
+     *
+     * @param maxAttempts    the maximum number of attempts, including the first
+     * @param initialBackoff the backoff before the first retry, doubled for every further retry
+     * @param maxBackoff     the upper bound of the backoff
+     */
+    public record Rule(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+    }
+}
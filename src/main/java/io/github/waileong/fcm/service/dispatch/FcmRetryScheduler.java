@@ -0,0 +1,96 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Schedules delayed attempts of FCM sends on a single timer thread.
+ * Waiting retries hold no thread beyond their scheduled entry; when the delay expires the attempt is handed to the
+ * dispatch executor, so the timer thread itself never blocks on FCM. A send queued through the {@link FcmDispatcher}
+ * keeps its in-flight slot while its retries wait, as its future only completes with the last attempt.
+ *
+ * @author Wai Leong
+ */
+public class FcmRetryScheduler implements AutoCloseable {
+    private final ScheduledThreadPoolExecutor timer;
+    private final Executor executor;
+    private final Set<CompletableFuture<?>> waiting = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructs a FcmRetryScheduler.
+     *
+     * @param executor the executor the delayed attempts run on
+     */
+    public FcmRetryScheduler(Executor executor) {
+        this.executor = executor;
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-retry-timer")
+                .daemon(true)
+                .factory());
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Runs the attempt on the dispatch executor once the delay has expired.
+     *
+     * @param attempt the attempt to run, returning a future of its eventual result
+     * @param delay   the delay before the attempt
+     * @param <T>     the result type of the attempt
+     * @return a CompletableFuture that completes with the result of the attempt
+     */
+    public <T> CompletableFuture<T> schedule(Supplier<CompletableFuture<T>> attempt, Duration delay) {
+        CompletableFuture<CompletableFuture<T>> scheduled = new CompletableFuture<>();
+        waiting.add(scheduled);
+        try {
+            timer.schedule(() -> {
+                waiting.remove(scheduled);
+                try {
+                    executor.execute(() -> {
+                        try {
+                            scheduled.complete(attempt.get());
+                        } catch (RuntimeException ex) {
+                            scheduled.completeExceptionally(ex);
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    scheduled.completeExceptionally(ex);
+                }
+            }, delay.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ex) {
+            waiting.remove(scheduled);
+            scheduled.completeExceptionally(new FcmDispatchRejectedException("FCM retry scheduler is shut down"));
+        }
+        return scheduled.thenCompose(Function.identity());
+    }
+
+    /**
+     * Returns the number of attempts waiting for their delay to expire.
+     *
+     * @return the number of pending attempts
+     */
+    public int getPending() {
+        return timer.getQueue().size();
+    }
+
+    /**
+     * Stops the timer. Attempts still waiting for their delay are not run; their futures are completed exceptionally
+     * with a {@link FcmDispatchRejectedException}, so the sends they belong to still complete and release their
+     * dispatch slots.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        for (CompletableFuture<?> scheduled : waiting) {
+            waiting.remove(scheduled);
+            scheduled.completeExceptionally(new FcmDispatchRejectedException("FCM retry scheduler is shut down"));
+        }
+    }
+}
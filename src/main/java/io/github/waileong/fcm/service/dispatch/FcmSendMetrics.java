@@ -0,0 +1,122 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.payload.FcmPayloadEstimator;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records Micrometer metrics of the individual calls to FCM made by the {@link FcmOutboundSender}:
+ * <ul>
+ *     <li>{@code fcm.send.attempt}, a timer with a percentile histogram of each call, tagged with the
+ *     {@code outcome} ({@code success}, {@code error} or {@code failure}) and the FCM {@code error} status;</li>
+ *     <li>{@code fcm.send.in.flight}, a gauge of the calls waiting for FCM;</li>
+ *     <li>{@code fcm.send.payload.size}, a distribution of the size of the payload delivered to the devices, in
+ *     bytes.</li>
+ * </ul>
+ * Every metric is tagged with the {@code tenant} whose FCM project is called, {@code default} for the project of
+ * {@code fcm.credential}. The payload size is estimated by the {@link FcmPayloadEstimator}, the same way the payload
+ * guard measures it, so the message is not serialized a second time.
+ *
+ * @author Wai Leong
+ */
+public class FcmSendMetrics {
+    /**
+     * The tenant tag of the calls to the default FCM project.
+     */
+    public static final String DEFAULT_TENANT = "default";
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Tags tenantTags;
+    private final Meter.MeterProvider<Timer> attempts;
+    private final DistributionSummary payloadSize;
+
+    /**
+     * Constructs a FcmSendMetrics for the default FCM project.
+     *
+     * @param registry    the registry the metrics are registered with
+     * @param payloadSize whether the payload size is recorded
+     */
+    public FcmSendMetrics(MeterRegistry registry, boolean payloadSize) {
+        this(registry, payloadSize, DEFAULT_TENANT);
+    }
+
+    /**
+     * Constructs a FcmSendMetrics for the FCM project of a tenant.
+     *
+     * @param registry    the registry the metrics are registered with
+     * @param payloadSize whether the payload size is recorded
+     * @param tenant      the tenant the metrics are tagged with
+     */
+    public FcmSendMetrics(MeterRegistry registry, boolean payloadSize, String tenant) {
+        this.tenantTags = Tags.of("tenant", tenant);
+        this.attempts = Timer.builder("fcm.send.attempt")
+                .description("Calls to FCM")
+                .publishPercentileHistogram()
+                .withRegistry(registry);
+        this.payloadSize = !payloadSize ? null : DistributionSummary.builder("fcm.send.payload.size")
+                .description("Estimated size of the payload of the messages sent to FCM")
+                .baseUnit("bytes")
+                .tags(tenantTags)
+                .publishPercentileHistogram()
+                .register(registry);
+        Gauge.builder("fcm.send.in.flight", inFlight, AtomicInteger::get)
+                .description("Calls to FCM waiting for an answer")
+                .tags(tenantTags)
+                .register(registry);
+    }
+
+    /**
+     * Marks the start of a call to FCM.
+     *
+     * @return the start time, to be passed to {@link #onAnswer(long, FcmError)} or {@link #onFailure(long)}
+     */
+    public long onCall() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records a call that FCM answered, successfully or with an error.
+     *
+     * @param start the start time returned by {@link #onCall()}
+     * @param error the error FCM answered with, or null on success
+     */
+    public void onAnswer(long start, FcmError error) {
+        inFlight.decrementAndGet();
+        attempts.withTags(tenantTags.and(error == null
+                        ? Tags.of("outcome", "success", "error", "none")
+                        : Tags.of("outcome", "error", "error", FcmErrors.status(error))))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a call that failed without an answer from FCM.
+     *
+     * @param start the start time returned by {@link #onCall()}
+     */
+    public void onFailure(long start) {
+        inFlight.decrementAndGet();
+        attempts.withTags(tenantTags.and("outcome", "failure", "error", "none"))
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records the estimated payload size of a message about to be sent.
+     *
+     * @param request the request about to be sent
+     */
+    public void onPayload(FcmSendRequest request) {
+        if (payloadSize != null) {
+            payloadSize.record(FcmPayloadEstimator.estimate(request.getMessage()));
+        }
+    }
+}
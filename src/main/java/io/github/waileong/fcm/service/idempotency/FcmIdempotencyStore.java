@@ -0,0 +1,259 @@
+package io.github.waileong.fcm.service.idempotency;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A bounded, time-windowed store of idempotency keys, so that a request retried by its producer is answered
+ * without being sent to FCM again.
+ * <p>
+ * Keys are remembered as 64-bit fingerprints in open addressing {@code long} tables, split over 64 shards with a
+ * lock each, so a lookup hashes the key once and probes a few adjacent slots under an uncontended lock. Each shard
+ * keeps two generations: a key is remembered for at least one window and at most two, after which the older
+ * generation is cleared and reused. A generation that fills up before its window has elapsed is rotated early,
+ * so memory stays fixed whatever the traffic, at the cost of a shorter window under bursts. Each generation is a
+ * table of 8-byte slots kept at most three quarters full and rounded up to a power of two, so the keys take
+ * 16 bytes times the next power of two of {@code maxKeys} / 0.75, which is 16 MiB, about 34 bytes per key, for
+ * 500000 keys. The chance of two distinct keys sharing a fingerprint is negligible at millions of keys.
+ * <p>
+ * The futures of the most recent requests are kept as well, up to {@code maxResults}, so a duplicate of one of them
+ * is answered with the original result, waiting for it if the original is still in flight. An older duplicate is
+ * acknowledged with a {@code null} result. A request whose send fails or is rejected is forgotten, so that its
+ * retry goes through.
+ *
+ * @author Wai Leong
+ */
+public class FcmIdempotencyStore implements MeterBinder {
+    private static final int SHARDS = 64;
+    private static final long EMPTY = 0;
+    private static final long RELEASED = 1;
+    private final Shard[] shards = new Shard[SHARDS];
+    private final long windowNanos;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder earlyRotations = new LongAdder();
+
+    /**
+     * Constructs a FcmIdempotencyStore.
+     *
+     * @param window     how long a key is remembered at least, unless {@code maxKeys} is reached first
+     * @param maxKeys    the number of keys remembered per window
+     * @param maxResults the number of most recent results kept to answer duplicates with
+     */
+    public FcmIdempotencyStore(Duration window, int maxKeys, int maxResults) {
+        if (maxKeys <= 0 || maxResults < 0) {
+            throw new IllegalArgumentException("maxKeys must be positive and maxResults not negative");
+        }
+        this.windowNanos = window.toNanos();
+        int keysPerShard = Math.max(16, (maxKeys + SHARDS - 1) / SHARDS);
+        int resultsPerShard = (maxResults + SHARDS - 1) / SHARDS;
+        long now = System.nanoTime();
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(keysPerShard, resultsPerShard, now);
+        }
+    }
+
+    /**
+     * Runs the send unless a request with the same key has been seen within the window.
+     *
+     * @param key  the idempotency key, scoped by the caller to the operation it identifies
+     * @param send performs the send, called at most once per key and window
+     * @param <T>  the type of the result
+     * @return the result of the send, or of the original request if this is a duplicate, or a future completed
+     * with {@code null} if this is a duplicate whose original result is no longer kept
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> deduplicate(String key, Supplier<CompletableFuture<T>> send) {
+        long fingerprint = fingerprint(key);
+        Shard shard = shards[(int) (fingerprint >>> 58)];
+        CompletableFuture<Object> placeholder = new CompletableFuture<>();
+        CompletableFuture<Object> original = null;
+        boolean duplicate;
+        synchronized (shard) {
+            shard.rotate(System.nanoTime());
+            duplicate = shard.contains(fingerprint);
+            if (duplicate) {
+                original = shard.results.get(fingerprint);
+            } else {
+                shard.add(fingerprint);
+                shard.results.put(fingerprint, placeholder);
+            }
+        }
+        if (duplicate) {
+            duplicates.increment();
+            return original == null ? CompletableFuture.completedFuture(null) : (CompletableFuture<T>) original.copy();
+        }
+        accepted.increment();
+        CompletableFuture<T> result;
+        try {
+            result = send.get();
+        } catch (RuntimeException ex) {
+            release(shard, fingerprint);
+            placeholder.completeExceptionally(ex);
+            throw ex;
+        }
+        result.whenComplete((response, throwable) -> {
+            if (throwable == null) {
+                placeholder.complete(response);
+            } else {
+                release(shard, fingerprint);
+                placeholder.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("fcm.idempotency.requests", accepted, LongAdder::sum)
+                .description("Requests with an idempotency key")
+                .tag("result", "new")
+                .register(registry);
+        FunctionCounter.builder("fcm.idempotency.requests", duplicates, LongAdder::sum)
+                .description("Requests with an idempotency key")
+                .tag("result", "duplicate")
+                .register(registry);
+        FunctionCounter.builder("fcm.idempotency.early.rotations", earlyRotations, LongAdder::sum)
+                .description("Generations rotated before the end of the window because they were full")
+                .register(registry);
+        Gauge.builder("fcm.idempotency.keys", this, FcmIdempotencyStore::size)
+                .description("Idempotency keys remembered")
+                .register(registry);
+    }
+
+    private long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                size += shard.currentSize + shard.previousSize;
+            }
+        }
+        return size;
+    }
+
+    private void release(Shard shard, long fingerprint) {
+        synchronized (shard) {
+            shard.release(fingerprint);
+            shard.results.remove(fingerprint);
+        }
+    }
+
+    /**
+     * Hashes the key to 64 bits with FNV-1a over its chars followed by the MurmurHash3 finalizer, avoiding the
+     * two values that mark empty and released slots.
+     */
+    private static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY || hash == RELEASED ? hash + 2 : hash;
+    }
+
+    /**
+     * The keys and recent results of one shard. All access is synchronized on the shard.
+     */
+    private final class Shard {
+        private final int capacity;
+        private final Map<Long, CompletableFuture<Object>> results;
+        private long[] current;
+        private long[] previous;
+        private int currentSize;
+        private int previousSize;
+        private long generationStart;
+
+        private Shard(int keys, int maxResults, long now) {
+            int tableSize = Integer.highestOneBit(Math.max(16, keys * 4 / 3) - 1) << 1;
+            this.capacity = tableSize * 3 / 4;
+            this.current = new long[tableSize];
+            this.previous = new long[tableSize];
+            this.generationStart = now;
+            this.results = new LinkedHashMap<>(Math.min(maxResults, 1024) * 2) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<Object>> eldest) {
+                    return size() > maxResults;
+                }
+            };
+        }
+
+        private void rotate(long now) {
+            long elapsed = now - generationStart;
+            if (elapsed < windowNanos) {
+                return;
+            }
+            swap();
+            if (elapsed >= 2 * windowNanos) {
+                swap();
+            }
+            generationStart = now;
+        }
+
+        private boolean contains(long fingerprint) {
+            return indexOf(current, fingerprint) >= 0 || indexOf(previous, fingerprint) >= 0;
+        }
+
+        private void add(long fingerprint) {
+            if (currentSize >= capacity) {
+                earlyRotations.increment();
+                swap();
+                generationStart = System.nanoTime();
+            }
+            int mask = current.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (current[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            current[slot] = fingerprint;
+            currentSize++;
+        }
+
+        private void release(long fingerprint) {
+            int index = indexOf(current, fingerprint);
+            if (index >= 0) {
+                current[index] = RELEASED;
+                return;
+            }
+            index = indexOf(previous, fingerprint);
+            if (index >= 0) {
+                previous[index] = RELEASED;
+            }
+        }
+
+        private void swap() {
+            long[] cleared = previous;
+            Arrays.fill(cleared, EMPTY);
+            previous = current;
+            previousSize = currentSize;
+            current = cleared;
+            currentSize = 0;
+        }
+
+        private static int indexOf(long[] table, long fingerprint) {
+            int mask = table.length - 1;
+            int slot = (int) fingerprint & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == fingerprint) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+    }
+}
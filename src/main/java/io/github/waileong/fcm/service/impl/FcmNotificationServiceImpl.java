@@ -2,127 +2,652 @@ package io.github.waileong.fcm.service.impl;
 
 import io.github.waileong.fcm.exception.FcmRestClientException;
 import io.github.waileong.fcm.service.FcmNotificationService;
-import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.audience.FcmAudienceNotFoundException;
+import io.github.waileong.fcm.service.audience.FcmAudienceRegistry;
+import io.github.waileong.fcm.service.deadletter.FcmDeadLetterStore;
+import io.github.waileong.fcm.service.dispatch.FcmCoalescer;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.dispatch.FcmOrderedDispatcher;
+import io.github.waileong.fcm.service.dispatch.FcmOutboundSender;
 import io.github.waileong.fcm.service.domain.*;
+import io.github.waileong.fcm.service.idempotency.FcmIdempotencyStore;
+import io.github.waileong.fcm.service.model.FcmAudienceResponse;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.outbox.FcmOutbox;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
 import io.github.waileong.fcm.service.model.FcmSendResponse;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import io.github.waileong.fcm.service.payload.FcmPayloadTooLargeException;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import io.github.waileong.fcm.service.template.FcmNotificationTemplate;
+import io.github.waileong.fcm.service.template.FcmTemplateNotFoundException;
+import io.github.waileong.fcm.service.template.FcmTemplateRegistry;
+import io.github.waileong.fcm.service.tenant.FcmTenant;
+import io.github.waileong.fcm.service.tenant.FcmTenantNotFoundException;
+import io.github.waileong.fcm.service.tenant.FcmTenantRegistry;
 import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 /**
  * Implements the {@link FcmNotificationService}, providing concrete methods to send
  * Firebase Cloud Messaging (FCM) notifications synchronously and asynchronously.
- * This implementation utilizes an {@link FcmService} to actually perform the sending of messages.
+ * This implementation utilizes an {@link FcmOutboundSender} to actually perform the sending of messages,
+ * and a {@link FcmDispatcher} to run the asynchronous sends off the caller's thread. If a {@link FcmOutbox} is
+ * configured, every message accepted by an asynchronous single-target send is made durable before the caller is
+ * released and acknowledged once its send has settled: it succeeded, FCM answered with a permanent error, or FCM
+ * still answered with a transient error after the retries and the send was stored in the dead-letter store. A send
+ * left with a transient error and not stored stays in the outbox and is replayed on the next start. If a {@link FcmAudienceRegistry} is configured,
+ * notifications can be sent to the named audiences it holds. If a {@link FcmCoalescer} is configured, single-target
+ * sends with a collapse key go through its coalescing window, so a newer message replaces one still waiting.
+ * If a {@link FcmIdempotencyStore} is configured, a send whose options carry an idempotency key already seen is
+ * answered with the original result instead of being sent again. If a {@link FcmOrderedDispatcher} is configured,
+ * single-target sends without a collapse key reach FCM in the order they were made for each target.
+ * If a {@link FcmTenantRegistry} is configured, a send whose options name a tenant goes through the sender and
+ * bulkhead of that tenant instead of the default FCM project; such sends are not coalesced, as the coalescing window
+ * sends through the default project. If a {@link FcmDeadLetterStore} is configured, a send FCM still answers with an
+ * error once its retries are exhausted is stored there for inspection and replay; coalesced sends are not, as they
+ * carry a state a newer message supersedes, which a replay after an outage would resend stale.
+ * If a {@link FcmTemplateRegistry} is configured, notifications can be rendered from the templates it holds.
+ * A multicast is admitted once as a whole and fanned out over its tokens without going through the outbox, the
+ * coalescer or the ordered dispatcher; the servlet and the reactive multicasts share that fan-out.
  *
  * @author Wai Leong
  */
 @RegisterReflectionForBinding({FcmSendRequest.class, FcmMessage.class, FcmError.class, FcmErrorResponse.class})
 public class FcmNotificationServiceImpl implements FcmNotificationService {
-    private final Logger logger = LoggerFactory.getLogger(this.getClass());
-    private final FcmService fcmService;
+    private static final String TOPIC_PREFIX = "/topics/";
+    private static final String SEND = "send";
+    private static final String MULTICAST = "multicast";
+    private static final String AUDIENCE = "audience";
+    private final FcmOutboundSender fcmOutboundSender;
+    private final FcmDispatcher fcmDispatcher;
+    private final FcmOutbox fcmOutbox;
+    private final FcmAudienceRegistry fcmAudienceRegistry;
+    private final FcmCoalescer fcmCoalescer;
+    private final FcmOrderedDispatcher fcmOrderedDispatcher;
+    private final FcmIdempotencyStore fcmIdempotencyStore;
+    private final FcmTenantRegistry fcmTenantRegistry;
+    private final FcmDeadLetterStore fcmDeadLetterStore;
+    private final FcmTemplateRegistry fcmTemplateRegistry;
+    private final int multicastConcurrency;
+    private final int audienceConcurrency;
 
     @Autowired
-    public FcmNotificationServiceImpl(FcmService fcmService) {
-        this.fcmService = fcmService;
+    public FcmNotificationServiceImpl(FcmOutboundSender fcmOutboundSender, FcmDispatcher fcmDispatcher,
+                                      FcmOutbox fcmOutbox, FcmAudienceRegistry fcmAudienceRegistry,
+                                      FcmCoalescer fcmCoalescer, FcmOrderedDispatcher fcmOrderedDispatcher,
+                                      FcmIdempotencyStore fcmIdempotencyStore, FcmTenantRegistry fcmTenantRegistry,
+                                      FcmDeadLetterStore fcmDeadLetterStore,
+                                      FcmTemplateRegistry fcmTemplateRegistry, int multicastConcurrency,
+                                      int audienceConcurrency) {
+        this.fcmOutboundSender = fcmOutboundSender;
+        this.fcmDispatcher = fcmDispatcher;
+        this.fcmOutbox = fcmOutbox;
+        this.fcmAudienceRegistry = fcmAudienceRegistry;
+        this.fcmCoalescer = fcmCoalescer;
+        this.fcmOrderedDispatcher = fcmOrderedDispatcher;
+        this.fcmIdempotencyStore = fcmIdempotencyStore;
+        this.fcmTenantRegistry = fcmTenantRegistry;
+        this.fcmDeadLetterStore = fcmDeadLetterStore;
+        this.fcmTemplateRegistry = fcmTemplateRegistry;
+        this.multicastConcurrency = multicastConcurrency;
+        this.audienceConcurrency = audienceConcurrency;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public FcmSendResponse sendSynchronousComplex(FcmSendRequest request) {
-        return sendFcm(request);
+    public FcmSendResponse sendSynchronousComplex(FcmSendRequest request, FcmSendOptions options) {
+        return deduplicate(SEND, options, () -> admit(options, 1, sender -> sendFcm(request, options, sender))).join();
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public CompletableFuture<FcmSendResponse> sendSimpleNotification(String token, String title, String message, String collapseKey) {
+    public CompletableFuture<FcmSendResponse> sendComplex(FcmSendRequest request, FcmSendOptions options) {
+        return dispatchFcm(request, options, target(request.getMessage()), null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendSimpleNotification(String token, String title, String message, String collapseKey, FcmSendOptions options) {
         FcmMessage.Builder builder = getFcmMessageBuilder(token, title, message, collapseKey);
-        return CompletableFuture.completedFuture(sendFcm(
-                FcmSendRequest.Builder.aFcmSendRequest()
-                        .message(builder.build())
-                        .build()));
+        return dispatchFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                .message(builder.build())
+                .build(), options, token, collapseKey);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public CompletableFuture<FcmSendResponse> sendSimpleNotificationWithData(String token, String title, String message, Map<String, String> data, String collapseKey) {
+    public CompletableFuture<FcmSendResponse> sendSimpleNotificationWithData(String token, String title, String message, Map<String, String> data, String collapseKey, FcmSendOptions options) {
         FcmMessage.Builder builder = getFcmMessageBuilder(token, title, message, collapseKey);
         builder.data(data);
-        return CompletableFuture.completedFuture(sendFcm(
-                FcmSendRequest.Builder.aFcmSendRequest()
-                        .message(builder.build())
-                        .build()));
+        return dispatchFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                .message(builder.build())
+                .build(), options, token, collapseKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendSimpleData(String token, Map<String, String> data, FcmSendOptions options) {
+        return dispatchFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                .message(FcmMessage.Builder.aFcmMessage()
+                        .token(token)
+                        .data(data)
+                        .build())
+                .build(), options, token, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmMulticastResponse> sendMulticastNotification(List<String> tokens, String title, String message, Map<String, String> data, String collapseKey, FcmSendOptions options) {
+        List<String> targets = List.copyOf(tokens);
+        AtomicReferenceArray<FcmSendResponse> responses = new AtomicReferenceArray<>(targets.size());
+        AtomicInteger successCount = new AtomicInteger();
+        return deduplicate(MULTICAST, options, () -> multicast(targets, title, message, data, collapseKey, options,
+                (index, response) -> {
+                    responses.set(index, response);
+                    if (response.getError() == null) {
+                        successCount.incrementAndGet();
+                    }
+                })
+                .thenApply(unused -> {
+                    FcmSendResponse[] ordered = new FcmSendResponse[targets.size()];
+                    for (int i = 0; i < ordered.length; i++) {
+                        ordered[i] = responses.get(i);
+                    }
+                    return FcmMulticastResponse.Builder.aFcmMulticastResponse()
+                            .successCount(successCount.get())
+                            .failureCount(ordered.length - successCount.get())
+                            .responses(Arrays.asList(ordered))
+                            .build();
+                }));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> fanOutMulticastNotification(List<String> tokens, String title, String message, Map<String, String> data, String collapseKey, FcmSendOptions options, BiConsumer<Integer, FcmSendResponse> onResponse) {
+        return multicast(List.copyOf(tokens), title, message, data, collapseKey, options, onResponse);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendTopicNotification(String topic, String title, String message, Map<String, String> data, String collapseKey, FcmSendOptions options) {
+        String name = topic.startsWith(TOPIC_PREFIX) ? topic.substring(TOPIC_PREFIX.length()) : topic;
+        return dispatchFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                .message(getMessageTemplate(title, message, data, collapseKey).builder()
+                        .topic(name)
+                        .build())
+                .build(), options, TOPIC_PREFIX + name, collapseKey);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendConditionNotification(String condition, String title, String message, Map<String, String> data, String collapseKey, FcmSendOptions options) {
+        return dispatchFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                .message(getMessageTemplate(title, message, data, collapseKey).builder()
+                        .condition(condition)
+                        .build())
+                .build(), options, condition, collapseKey);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public CompletableFuture<FcmSendResponse> sendSimpleData(String token, Map<String, String> data) {
-        return CompletableFuture.completedFuture(sendFcm(
-                FcmSendRequest.Builder.aFcmSendRequest()
-                        .message(FcmMessage.Builder.aFcmMessage()
-                                .token(token)
-                                .data(data)
-                                .build())
-                        .build()));
-    }
-
-    private FcmMessage.Builder getFcmMessageBuilder(String token, String title, String message, String collapseKey) {
-        FcmMessage.Builder builder = FcmMessage.Builder.aFcmMessage()
-                .token(token)
-                .notification(FcmNotification.Builder.aFcmNotification()
-                        .title(title)
-                        .body(message)
-                        .build());
-
-        if (!isBlank(collapseKey)) {
-            Map<String, String> apnsHeaders = new HashMap<>();
-            apnsHeaders.put("apns-collapse-id", collapseKey);
-            builder.apns(FcmApns.Builder.aFcmApns()
-                    .headers(apnsHeaders)
-                    .build());
-            builder.android(FcmAndroid.Builder.aFcmAndroid()
-                    .collapseKey(collapseKey)
-                    .notification(FcmAndroidNotification.Builder.aFcmAndroidNotification()
-                            .tag(collapseKey)
-                            .build())
-                    .build());
-        }
-        return builder;
-    }
-
-    /**
-     * Helper method to send FCM messages using the configured {@link FcmService}.
-     * This method encapsulates the try-catch logic for {@link FcmRestClientException}
-     * and constructs the appropriate {@link FcmSendResponse} based on the outcome.
+    public CompletableFuture<FcmAudienceResponse> sendAudienceNotification(String audience, String title, String message, Map<String, String> data, String collapseKey, FcmSendOptions options) {
+        if (fcmAudienceRegistry == null) {
+            throw new FcmAudienceNotFoundException(audience);
+        }
+        FcmAudienceRegistry.Members members = fcmAudienceRegistry.members(audience);
+        MessageTemplate template = getMessageTemplate(title, message, data, collapseKey);
+        AtomicInteger successCount = new AtomicInteger();
+        ConcurrentMap<String, AtomicInteger> errors = new ConcurrentHashMap<>();
+        return deduplicate(AUDIENCE, options, () -> admit(options, members.size(), sender -> fcmDispatcher.fanOut(
+                        options.getPriority(),
+                        IntStream.range(0, members.size()).iterator(), audienceConcurrency,
+                        index -> sendFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                                .message(template.builder(members.token(index)).build())
+                                .build(), options, sender),
+                        (index, response) -> {
+                            if (response.getError() == null) {
+                                successCount.incrementAndGet();
+                            } else {
+                                errors.computeIfAbsent(FcmErrors.status(response.getError()), status -> new AtomicInteger())
+                                        .incrementAndGet();
+                            }
+                        })
+                .thenApply(unused -> {
+                    Map<String, Integer> errorCounts = new TreeMap<>();
+                    errors.forEach((status, count) -> errorCounts.put(status, count.get()));
+                    return FcmAudienceResponse.Builder.aFcmAudienceResponse()
+                            .audience(audience)
+                            .size(members.size())
+                            .successCount(successCount.get())
+                            .failureCount(members.size() - successCount.get())
+                            .errors(errorCounts)
+                            .build();
+                })));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<FcmSendResponse> sendTemplateNotification(String token, String template, Map<String, String> variables, FcmSendOptions options) {
+        if (fcmTemplateRegistry == null) {
+            throw new FcmTemplateNotFoundException(template);
+        }
+        FcmNotificationTemplate compiled = fcmTemplateRegistry.get(template);
+        return dispatchFcm(FcmSendRequest.Builder.aFcmSendRequest()
+                .message(compiled.builder(variables)
+                        .token(token)
+                        .build())
+                .build(), options, token, compiled.collapseKey(variables));
+    }
+
+    /**
+     * Builds the message of a notification to a single token. Package-private so that it can be benchmarked.
+     *
+     * @param token       the token of the device to notify
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param collapseKey the collapse key of the notification, may be blank
+     * @return the message builder
+     */
+    FcmMessage.Builder getFcmMessageBuilder(String token, String title, String message, String collapseKey) {
+        return getMessageTemplate(title, message, null, collapseKey).builder(token);
+    }
+
+    /**
+     * Fans a notification out over the tokens through the {@link FcmDispatcher}, admitting the whole batch through
+     * the bulkhead of its tenant once. The sends bypass the outbox, the coalescer and the ordered dispatcher, and
+     * the send to a token that fails before FCM answers yields a result carrying the error. No further token is
+     * queued once the returned future is done, so cancelling it stops the fan-out.
+     *
+     * @param targets     the tokens to send to
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        the data to be sent with the notification, may be null
+     * @param collapseKey the collapse key of the notification, may be blank
+     * @param options     the options controlling how the notifications are dispatched
+     * @param onResponse  receives the index of each token with its result
+     * @return a CompletableFuture that completes once every result has been handed out
+     */
+    private CompletableFuture<Void> multicast(List<String> targets, String title, String message,
+                                              Map<String, String> data, String collapseKey, FcmSendOptions options,
+                                              BiConsumer<Integer, FcmSendResponse> onResponse) {
+        MessageTemplate template = getMessageTemplate(title, message, data, collapseKey);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        PrimitiveIterator.OfInt indices = IntStream.range(0, targets.size()).iterator();
+        Iterator<Integer> items = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !result.isDone() && indices.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                return indices.next();
+            }
+        };
+        admit(options, targets.size(), sender -> fcmDispatcher.fanOut(options.getPriority(), items,
+                multicastConcurrency,
+                index -> sendToken(FcmSendRequest.Builder.aFcmSendRequest()
+                        .message(template.builder(targets.get(index)).build())
+                        .build(), options, sender),
+                onResponse))
+                .whenComplete((unused, throwable) -> {
+                    if (throwable == null) {
+                        result.complete(null);
+                    } else {
+                        result.completeExceptionally(throwable);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * Sends the message to one token of a multicast, turning a failure before FCM answers into the result of that
+     * token, so that it does not end the multicast.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @param options        the options naming the tenant, if any
+     * @param sender         the sender of the project the request is sent through
+     * @return a CompletableFuture that completes with the result of the token
+     */
+    private CompletableFuture<FcmSendResponse> sendToken(FcmSendRequest fcmSendRequest, FcmSendOptions options,
+                                                         FcmOutboundSender sender) {
+        try {
+            return sendFcm(fcmSendRequest, options, sender).exceptionally(FcmNotificationServiceImpl::failed);
+        } catch (RuntimeException ex) {
+            return CompletableFuture.completedFuture(failed(ex));
+        }
+    }
+
+    /**
+     * Turns the failure of a send into a response carrying an error: the error of an
+     * {@link FcmRestClientException} as it is, a rejection as {@code RESOURCE_EXHAUSTED}, an oversized payload as
+     * {@code INVALID_ARGUMENT} and anything else as {@code INTERNAL}.
+     */
+    private static FcmSendResponse failed(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        FcmError error;
+        if (cause instanceof FcmRestClientException restClientException) {
+            error = restClientException.getError();
+        } else if (cause instanceof FcmDispatchRejectedException) {
+            error = error(429, "RESOURCE_EXHAUSTED", cause);
+        } else if (cause instanceof FcmPayloadTooLargeException) {
+            error = error(400, "INVALID_ARGUMENT", cause);
+        } else {
+            error = error(500, "INTERNAL", cause);
+        }
+        return FcmSendResponse.Builder.aFcmSendResponse()
+                .error(error)
+                .build();
+    }
+
+    private static FcmError error(int code, String status, Throwable cause) {
+        return FcmError.Builder.aFcmError()
+                .code(code)
+                .status(status)
+                .message(String.valueOf(cause.getMessage()))
+                .build();
+    }
+
+    /**
+     * Returns the token, topic or condition a message is sent to.
+     *
+     * @param message the message
+     * @return the target of the message, or null if it has none
+     */
+    private static String target(FcmMessage message) {
+        if (message == null) {
+            return null;
+        }
+        if (message.getToken() != null) {
+            return message.getToken();
+        }
+        return message.getTopic() != null ? message.getTopic() : message.getCondition();
+    }
+
+    /**
+     * Builds the token independent parts of a notification once, so that they can be shared by every
+     * message sent from the same payload.
+     *
+     * @param title       the title of the notification
+     * @param message     the message body of the notification
+     * @param data        the data to be sent with the notification, may be null
+     * @param collapseKey the collapse key of the notification, may be blank
+     * @return the message template
+     */
+    private MessageTemplate getMessageTemplate(String title, String message, Map<String, String> data, String collapseKey) {
+        FcmNotification notification = FcmNotification.Builder.aFcmNotification()
+                .title(title)
+                .body(message)
+                .build();
+        if (isBlank(collapseKey)) {
+            return new MessageTemplate(notification, data, null, null);
+        }
+        return new MessageTemplate(notification, data, FcmNotificationTemplate.collapseApns(collapseKey),
+                FcmNotificationTemplate.collapseAndroid(collapseKey));
+    }
+
+    /**
+     * Hands the request to the {@link FcmDispatcher}, returning once the send has been accepted, unless it is a
+     * duplicate of a request with the same idempotency key.
      *
      * @param fcmSendRequest the request information for sending an FCM message
-     * @return an {@link FcmSendResponse} indicating the result of the send operation
+     * @param options        the options controlling how the request is dispatched
+     * @param target         the token, topic or condition the request is sent to, may be null
+     * @param collapseKey    the collapse key of the request, may be blank
+     * @return a CompletableFuture that completes with the result of the send operation
      */
-    private FcmSendResponse sendFcm(FcmSendRequest fcmSendRequest) {
+    private CompletableFuture<FcmSendResponse> dispatchFcm(FcmSendRequest fcmSendRequest, FcmSendOptions options,
+                                                           String target, String collapseKey) {
+        return deduplicate(SEND, options, () -> admit(options, 1,
+                sender -> enqueue(fcmSendRequest, options, sender, target, collapseKey)));
+    }
+
+    /**
+     * Queues the request for sending. A request with a collapse key goes through the {@link FcmCoalescer} first, if there is one.
+     * With an outbox, the request is written to the outbox first and acknowledged once its send has settled or a
+     * newer request has replaced it; a request rejected by the dispatcher is acknowledged straight away, as the
+     * caller is told to retry.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @param options        the options controlling how the request is dispatched
+     * @param sender         the sender of the project the request is sent through
+     * @param target         the token, topic or condition the request is sent to, may be null
+     * @param collapseKey    the collapse key of the request, may be blank
+     * @return a CompletableFuture that completes with the result of the send operation
+     */
+    private CompletableFuture<FcmSendResponse> enqueue(FcmSendRequest fcmSendRequest, FcmSendOptions options,
+                                                       FcmOutboundSender sender, String target,
+                                                       String collapseKey) {
+        if (fcmOutbox == null) {
+            return submit(fcmSendRequest, options, sender, target, collapseKey, null);
+        }
+        long id = fcmOutbox.append(fcmSendRequest, options.getPriority(), options.getTenant());
+        Runnable ack = () -> fcmOutbox.ack(id);
         try {
-            FcmMessage fcmMessage = fcmService.send(fcmSendRequest);
-            return FcmSendResponse.Builder.aFcmSendResponse()
-                    .message(fcmMessage)
-                    .build();
-        } catch (FcmRestClientException e) {
-            logger.warn("Failed to send FCM message", e);
-            return FcmSendResponse.Builder.aFcmSendResponse()
-                    .error(e.getError())
-                    .build();
+            return submit(fcmSendRequest, options, sender, target, collapseKey, ack);
+        } catch (RuntimeException ex) {
+            fcmOutbox.ack(id);
+            throw ex;
+        }
+    }
+
+    /**
+     * Sends a request recovered from the outbox through the sender of its tenant, storing it in the
+     * {@link FcmDeadLetterStore} like a live send if FCM still answers with an error after the retries. The send is
+     * not queued; the caller is expected to run it from the {@link FcmDispatcher}.
+     *
+     * @param fcmSendRequest the request recovered from the outbox
+     * @param priority       the dispatch priority the request was accepted with
+     * @param tenant         the tenant the request was accepted for, or null for the default project
+     * @param onSettled      run once the send has settled and the request may be acknowledged
+     * @return a CompletableFuture that completes with the {@link FcmSendResponse} of the last attempt
+     * @throws FcmTenantNotFoundException if the tenant is not configured
+     */
+    public CompletableFuture<FcmSendResponse> resend(FcmSendRequest fcmSendRequest, FcmPriority priority,
+                                                     String tenant, Runnable onSettled) {
+        FcmSendOptions options = FcmSendOptions.Builder.aFcmSendOptions()
+                .priority(priority)
+                .tenant(tenant)
+                .build();
+        FcmOutboundSender sender = tenant == null ? fcmOutboundSender : fcmTenantRegistry.get(tenant).getSender();
+        return sendFcm(fcmSendRequest, options, sender, onSettled);
+    }
+
+    /**
+     * Runs the send through the {@link FcmIdempotencyStore} if the options carry an idempotency key and there is
+     * one, so that a retry of the same request is answered without sending it again. Keys are scoped to the kind
+     * of operation, as the result of a multicast cannot answer a single send.
+     *
+     * @param operation the kind of operation the key is scoped to
+     * @param options   the options carrying the idempotency key
+     * @param send      performs the send
+     * @param <T>       the type of the result
+     * @return the result of the send, or of the original request if this is a duplicate
+     */
+    private <T> CompletableFuture<T> deduplicate(String operation, FcmSendOptions options,
+                                                 Supplier<CompletableFuture<T>> send) {
+        if (fcmIdempotencyStore == null || options.getIdempotencyKey() == null) {
+            return send.get();
+        }
+        String scope = options.getTenant() == null ? operation : operation + '@' + options.getTenant();
+        return fcmIdempotencyStore.deduplicate(scope + ':' + options.getIdempotencyKey(), send);
+    }
+
+    /**
+     * Runs the send through the bulkhead of the tenant named by the options, if any, so that a noisy tenant is
+     * rejected once it has too many sends pending instead of crowding out the other tenants. The tenant is looked
+     * up once, and the send is given the sender of its project.
+     *
+     * @param options  the options naming the tenant
+     * @param messages the number of messages the send is made of
+     * @param send     performs the send with the given sender
+     * @param <T>      the type of the result
+     * @return the result of the send
+     * @throws FcmTenantNotFoundException if the tenant is not configured
+     */
+    private <T> CompletableFuture<T> admit(FcmSendOptions options, int messages,
+                                           Function<FcmOutboundSender, CompletableFuture<T>> send) {
+        if (options.getTenant() == null) {
+            return send.apply(fcmOutboundSender);
+        }
+        FcmTenant tenant = fcmTenantRegistry.get(options.getTenant());
+        return tenant.admit(messages, () -> send.apply(tenant.getSender()));
+    }
+
+    /**
+     * Submits the request to the {@link FcmCoalescer} if it has a collapse key, no tenant and there is one, or
+     * else to the {@link FcmOrderedDispatcher} if there is one, or else straight to the {@link FcmDispatcher}.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @param options        the options controlling how the request is dispatched
+     * @param sender         the sender of the project the request is sent through
+     * @param target         the token, topic or condition the request is sent to, may be null
+     * @param collapseKey    the collapse key of the request, may be blank
+     * @param onSettled      run once the send has settled, or if a newer request replaces this one before it is
+     *                       sent, may be null
+     * @return a CompletableFuture that completes with the result of the send operation
+     */
+    private CompletableFuture<FcmSendResponse> submit(FcmSendRequest fcmSendRequest, FcmSendOptions options,
+                                                      FcmOutboundSender sender, String target, String collapseKey,
+                                                      Runnable onSettled) {
+        if (fcmCoalescer != null && !isBlank(collapseKey) && options.getTenant() == null) {
+            CompletableFuture<FcmSendResponse> result = fcmCoalescer.submit(options.getPriority(), target,
+                    collapseKey, fcmSendRequest, onSettled, options.isAwaitCapacity());
+            if (onSettled != null) {
+                result.thenAccept(response -> {
+                    if (!FcmErrors.isTransient(response.getError())) {
+                        onSettled.run();
+                    }
+                });
+            }
+            return result;
+        }
+        if (fcmOrderedDispatcher != null && target != null) {
+            return fcmOrderedDispatcher.submit(options.getPriority(), target,
+                    () -> sendFcm(fcmSendRequest, options, sender, onSettled), options.isAwaitCapacity());
+        }
+        return fcmDispatcher.submit(options.getPriority(), () -> sendFcm(fcmSendRequest, options, sender, onSettled),
+                options.isAwaitCapacity());
+    }
+
+    /**
+     * Helper method to send FCM messages using the given {@link FcmOutboundSender}, the configured one or the
+     * sender of the tenant named by the options, including any retries of failed attempts. A send still failed
+     * after its retries is stored in the {@link FcmDeadLetterStore}, if there is one.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @param options        the options naming the tenant, if any
+     * @param sender         the sender of the project the request is sent through
+     * @return a CompletableFuture that completes with the {@link FcmSendResponse} of the last attempt
+     */
+    private CompletableFuture<FcmSendResponse> sendFcm(FcmSendRequest fcmSendRequest, FcmSendOptions options,
+                                                       FcmOutboundSender sender) {
+        return sendFcm(fcmSendRequest, options, sender, null);
+    }
+
+    /**
+     * Sends the request like {@link #sendFcm(FcmSendRequest, FcmSendOptions, FcmOutboundSender)}, then runs the
+     * callback once the send has settled: it succeeded, FCM answered with a permanent error, or the error is
+     * transient and the request was stored in the {@link FcmDeadLetterStore}. A send failed unexpectedly, or left
+     * with a transient error and not stored, has not settled.
+     *
+     * @param fcmSendRequest the request information for sending an FCM message
+     * @param options        the options naming the tenant, if any
+     * @param sender         the sender of the project the request is sent through
+     * @param onSettled      run once the send has settled, may be null
+     * @return a CompletableFuture that completes with the {@link FcmSendResponse} of the last attempt
+     */
+    private CompletableFuture<FcmSendResponse> sendFcm(FcmSendRequest fcmSendRequest, FcmSendOptions options,
+                                                       FcmOutboundSender sender, Runnable onSettled) {
+        CompletableFuture<FcmSendResponse> result = sender.sendWithRetry(fcmSendRequest);
+        if (fcmDeadLetterStore == null && onSettled == null) {
+            return result;
+        }
+        return result.whenComplete((response, throwable) -> {
+            if (response == null) {
+                return;
+            }
+            FcmError error = response.getError();
+            boolean stored = error != null && fcmDeadLetterStore != null
+                    && fcmDeadLetterStore.append(fcmSendRequest, options.getPriority(), options.getTenant(), error);
+            if (onSettled != null && (stored || !FcmErrors.isTransient(error))) {
+                onSettled.run();
+            }
+        });
+    }
+
+    /**
+     * The target independent parts of a notification message. The parts are never modified once built,
+     * so one template can be shared by the messages to every token of a multicast or an audience.
+     *
+     * @param notification the notification payload
+     * @param data         the data payload, may be null
+     * @param apns         the APNs overrides, may be null
+     * @param android      the Android overrides, may be null
+     */
+    private record MessageTemplate(FcmNotification notification, Map<String, String> data,
+                                   FcmApns apns, FcmAndroid android) {
+
+        FcmMessage.Builder builder(String token) {
+            return builder().token(token);
+        }
+
+        FcmMessage.Builder builder() {
+            FcmMessage.Builder builder = FcmMessage.Builder.aFcmMessage()
+                    .notification(notification);
+            if (data != null) {
+                builder.data(data);
+            }
+            if (apns != null) {
+                builder.apns(apns);
+            }
+            if (android != null) {
+                builder.android(android);
+            }
+            return builder;
         }
     }
 }
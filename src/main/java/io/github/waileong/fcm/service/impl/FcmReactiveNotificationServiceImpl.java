@@ -0,0 +1,175 @@
+package io.github.waileong.fcm.service.impl;
+
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.FcmReactiveNotificationService;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmMulticastResponse;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
+import io.github.waileong.fcm.service.model.FcmSendResponse;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Implements the {@link FcmReactiveNotificationService} on top of the {@link FcmNotificationService}, so that the
+ * reactive variant of the endpoint goes through the same dispatcher, outbox, idempotency store and outbound sender
+ * as the servlet one. Each send is started when its publisher is subscribed to, and its publisher completes from
+ * the future of the send, so no thread waits for FCM. The part of a send that runs before it is queued, such as the
+ * idempotency lookup, the tenant admission and the write to the outbox, which waits for the disk, runs on the
+ * bounded elastic scheduler rather than on the event loop. The outbound calls themselves keep running on the
+ * dispatch executor, as the FCM client is blocking.
+ * <p>
+ * A multicast goes through {@link FcmNotificationService#fanOutMulticastNotification}, the fan-out the servlet
+ * multicast is built on, so both are admitted, queued and sent the same way; the results are emitted in the order
+ * of the tokens as they become known. A multicast with an idempotency key goes through
+ * {@link FcmNotificationService#sendMulticastNotification} instead, so that a retry is answered with the original
+ * results, which are then emitted at once.
+ *
+ * @author Wai Leong
+ */
+@RegisterReflectionForBinding({FcmSendResponse.class, FcmMulticastResponse.class})
+public class FcmReactiveNotificationServiceImpl implements FcmReactiveNotificationService {
+    private final FcmNotificationService fcmNotificationService;
+
+    /**
+     * Constructs a FcmReactiveNotificationServiceImpl.
+     *
+     * @param fcmNotificationService the service the sends are made through
+     */
+    public FcmReactiveNotificationServiceImpl(FcmNotificationService fcmNotificationService) {
+        this.fcmNotificationService = fcmNotificationService;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<FcmSendResponse> sendComplex(FcmSendRequest request, FcmSendOptions options) {
+        return send(() -> fcmNotificationService.sendComplex(request, options));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<FcmSendResponse> sendSimpleNotification(String token, String title, String message,
+                                                        String collapseKey, FcmSendOptions options) {
+        return send(() -> fcmNotificationService.sendSimpleNotification(token, title, message,
+                collapseKey, options));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<FcmSendResponse> sendSimpleNotificationWithData(String token, String title, String message,
+                                                                Map<String, String> data, String collapseKey,
+                                                                FcmSendOptions options) {
+        return send(() -> fcmNotificationService.sendSimpleNotificationWithData(token, title, message,
+                data, collapseKey, options));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<FcmSendResponse> sendSimpleData(String token, Map<String, String> data, FcmSendOptions options) {
+        return send(() -> fcmNotificationService.sendSimpleData(token, data, options));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flux<FcmSendResponse> sendMulticastNotification(List<String> tokens, String title, String message,
+                                                           Map<String, String> data, String collapseKey,
+                                                           FcmSendOptions options) {
+        List<String> targets = List.copyOf(tokens);
+        if (options.getIdempotencyKey() != null) {
+            return send(() -> fcmNotificationService.sendMulticastNotification(targets, title, message, data,
+                    collapseKey, options))
+                    .flatMapIterable(FcmMulticastResponse::getResponses);
+        }
+        return Flux.<FcmSendResponse>create(sink -> {
+            InOrder inOrder = new InOrder(targets.size(), sink);
+            CompletableFuture<Void> sent;
+            try {
+                sent = fcmNotificationService.fanOutMulticastNotification(targets, title, message, data,
+                        collapseKey, options, inOrder::accept);
+            } catch (RuntimeException ex) {
+                sink.error(ex);
+                return;
+            }
+            sink.onCancel(() -> sent.cancel(false));
+            sent.whenComplete((unused, throwable) -> {
+                if (throwable == null) {
+                    sink.complete();
+                } else {
+                    sink.error(throwable instanceof CompletionException && throwable.getCause() != null
+                            ? throwable.getCause() : throwable);
+                }
+            });
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<FcmSendResponse> sendTopicNotification(String topic, String title, String message,
+                                                       Map<String, String> data, String collapseKey,
+                                                       FcmSendOptions options) {
+        return send(() -> fcmNotificationService.sendTopicNotification(topic, title, message, data,
+                collapseKey, options));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Mono<FcmSendResponse> sendConditionNotification(String condition, String title, String message,
+                                                           Map<String, String> data, String collapseKey,
+                                                           FcmSendOptions options) {
+        return send(() -> fcmNotificationService.sendConditionNotification(condition, title, message,
+                data, collapseKey, options));
+    }
+
+    /**
+     * Starts the send on the bounded elastic scheduler when subscribed to, as the part of it that runs before it is
+     * queued may block, and completes from its future.
+     */
+    private static <T> Mono<T> send(Supplier<CompletableFuture<T>> send) {
+        return Mono.fromFuture(send).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Emits the results of a multicast in the order of the tokens, holding back the results that arrive before
+     * those of the tokens ahead of them, and releasing each one as it is emitted.
+     */
+    private static final class InOrder {
+        private final FcmSendResponse[] pending;
+        private final FluxSink<FcmSendResponse> sink;
+        private int next;
+
+        private InOrder(int size, FluxSink<FcmSendResponse> sink) {
+            this.pending = new FcmSendResponse[size];
+            this.sink = sink;
+        }
+
+        private synchronized void accept(Integer index, FcmSendResponse response) {
+            pending[index] = response;
+            while (next < pending.length && pending[next] != null) {
+                sink.next(pending[next]);
+                pending[next++] = null;
+            }
+        }
+    }
+}
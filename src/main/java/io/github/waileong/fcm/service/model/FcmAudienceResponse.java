@@ -0,0 +1,221 @@
+package io.github.waileong.fcm.service.model;
+
+import java.util.Map;
+
+/**
+ * Represents the response from sending one Firebase Cloud Messaging (FCM) notification to a named audience.
+ * As an audience may hold millions of tokens, this class carries the counts of the fan-out and the number of
+ * failures per FCM error status rather than a response per token.
+ *
+ * @author Wai Leong
+ **/
+public class FcmAudienceResponse {
+    /**
+     * The name of the audience the notification was sent to.
+     */
+    private String audience;
+
+    /**
+     * The number of members of the audience when the send started.
+     */
+    private int size;
+
+    /**
+     * The number of tokens the notification was sent to successfully.
+     */
+    private int successCount;
+
+    /**
+     * The number of tokens the notification could not be sent to.
+     */
+    private int failureCount;
+
+    /**
+     * The number of failures per FCM error status.
+     */
+    private Map<String, Integer> errors;
+
+    /**
+     * Gets the name of the audience the notification was sent to.
+     *
+     * @return the audience name
+     */
+    public String getAudience() {
+        return audience;
+    }
+
+    /**
+     * Sets the name of the audience the notification was sent to.
+     *
+     * @param audience the audience name to set
+     */
+    public void setAudience(String audience) {
+        this.audience = audience;
+    }
+
+    /**
+     * Gets the number of members of the audience when the send started.
+     *
+     * @return the audience size
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Sets the number of members of the audience when the send started.
+     *
+     * @param size the audience size to set
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Gets the number of tokens the notification was sent to successfully.
+     *
+     * @return the success count
+     */
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * Sets the number of tokens the notification was sent to successfully.
+     *
+     * @param successCount the success count to set
+     */
+    public void setSuccessCount(int successCount) {
+        this.successCount = successCount;
+    }
+
+    /**
+     * Gets the number of tokens the notification could not be sent to.
+     *
+     * @return the failure count
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Sets the number of tokens the notification could not be sent to.
+     *
+     * @param failureCount the failure count to set
+     */
+    public void setFailureCount(int failureCount) {
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * Gets the number of failures per FCM error status.
+     *
+     * @return the failure counts, keyed by error status
+     */
+    public Map<String, Integer> getErrors() {
+        return errors;
+    }
+
+    /**
+     * Sets the number of failures per FCM error status.
+     *
+     * @param errors the failure counts to set
+     */
+    public void setErrors(Map<String, Integer> errors) {
+        this.errors = errors;
+    }
+
+    /**
+     * The builder class for {@link FcmAudienceResponse}. Provides a fluent API for constructing
+     * an instance of {@link FcmAudienceResponse}.
+     */
+    public static final class Builder {
+        private String audience;
+        private int size;
+        private int successCount;
+        private int failureCount;
+        private Map<String, Integer> errors;
+
+        private Builder() {
+        }
+
+        /**
+         * Creates a new instance of the builder for {@link FcmAudienceResponse}.
+         *
+         * @return a new instance of {@link Builder}
+         */
+        public static Builder aFcmAudienceResponse() {
+            return new Builder();
+        }
+
+        /**
+         * Sets the audience name for the {@link FcmAudienceResponse} being built.
+         *
+         * @param audience the audience name
+         * @return the builder instance
+         */
+        public Builder audience(String audience) {
+            this.audience = audience;
+            return this;
+        }
+
+        /**
+         * Sets the audience size for the {@link FcmAudienceResponse} being built.
+         *
+         * @param size the audience size
+         * @return the builder instance
+         */
+        public Builder size(int size) {
+            this.size = size;
+            return this;
+        }
+
+        /**
+         * Sets the success count for the {@link FcmAudienceResponse} being built.
+         *
+         * @param successCount the success count
+         * @return the builder instance
+         */
+        public Builder successCount(int successCount) {
+            this.successCount = successCount;
+            return this;
+        }
+
+        /**
+         * Sets the failure count for the {@link FcmAudienceResponse} being built.
+         *
+         * @param failureCount the failure count
+         * @return the builder instance
+         */
+        public Builder failureCount(int failureCount) {
+            this.failureCount = failureCount;
+            return this;
+        }
+
+        /**
+         * Sets the failure counts per error status for the {@link FcmAudienceResponse} being built.
+         *
+         * @param errors the failure counts, keyed by error status
+         * @return the builder instance
+         */
+        public Builder errors(Map<String, Integer> errors) {
+            this.errors = errors;
+            return this;
+        }
+
+        /**
+         * Constructs the {@link FcmAudienceResponse} with the current builder settings.
+         *
+         * @return the newly constructed {@link FcmAudienceResponse}
+         */
+        public FcmAudienceResponse build() {
+            FcmAudienceResponse fcmAudienceResponse = new FcmAudienceResponse();
+            fcmAudienceResponse.setAudience(audience);
+            fcmAudienceResponse.setSize(size);
+            fcmAudienceResponse.setSuccessCount(successCount);
+            fcmAudienceResponse.setFailureCount(failureCount);
+            fcmAudienceResponse.setErrors(errors);
+            return fcmAudienceResponse;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package io.github.waileong.fcm.service.model;
+
+import java.util.List;
+
+/**
+ * Represents the response from sending one Firebase Cloud Messaging (FCM) notification to many tokens.
+ * This class carries the success and failure counts of the fan-out, along with the per-token responses
+ * in the same order as the tokens of the request.
+ *
+ * @author Wai Leong
+ **/
+public class FcmMulticastResponse {
+    /**
+     * The number of tokens the notification was sent to successfully.
+     */
+    private int successCount;
+
+    /**
+     * The number of tokens the notification could not be sent to.
+     */
+    private int failureCount;
+
+    /**
+     * The per-token responses, in the same order as the tokens of the request.
+     */
+    private List<FcmSendResponse> responses;
+
+    /**
+     * Gets the number of tokens the notification was sent to successfully.
+     *
+     * @return the success count
+     */
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * Sets the number of tokens the notification was sent to successfully.
+     *
+     * @param successCount the success count to set
+     */
+    public void setSuccessCount(int successCount) {
+        this.successCount = successCount;
+    }
+
+    /**
+     * Gets the number of tokens the notification could not be sent to.
+     *
+     * @return the failure count
+     */
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    /**
+     * Sets the number of tokens the notification could not be sent to.
+     *
+     * @param failureCount the failure count to set
+     */
+    public void setFailureCount(int failureCount) {
+        this.failureCount = failureCount;
+    }
+
+    /**
+     * Gets the per-token responses, in the same order as the tokens of the request.
+     *
+     * @return the per-token responses
+     */
+    public List<FcmSendResponse> getResponses() {
+        return responses;
+    }
+
+    /**
+     * Sets the per-token responses.
+     *
+     * @param responses the per-token responses to set
+     */
+    public void setResponses(List<FcmSendResponse> responses) {
+        this.responses = responses;
+    }
+
+    /**
+     * The builder class for {@link FcmMulticastResponse}. Provides a fluent API for constructing
+     * an instance of {@link FcmMulticastResponse}.
+     */
+    public static final class Builder {
+        private int successCount;
+        private int failureCount;
+        private List<FcmSendResponse> responses;
+
+        private Builder() {
+        }
+
+        /**
+         * Creates a new instance of the builder for {@link FcmMulticastResponse}.
+         *
+         * @return a new instance of {@link Builder}
+         */
+        public static Builder aFcmMulticastResponse() {
+            return new Builder();
+        }
+
+        /**
+         * Sets the success count for the {@link FcmMulticastResponse} being built.
+         *
+         * @param successCount the success count
+         * @return the builder instance
+         */
+        public Builder successCount(int successCount) {
+            this.successCount = successCount;
+            return this;
+        }
+
+        /**
+         * Sets the failure count for the {@link FcmMulticastResponse} being built.
+         *
+         * @param failureCount the failure count
+         * @return the builder instance
+         */
+        public Builder failureCount(int failureCount) {
+            this.failureCount = failureCount;
+            return this;
+        }
+
+        /**
+         * Sets the per-token responses for the {@link FcmMulticastResponse} being built.
+         *
+         * @param responses the per-token responses
+         * @return the builder instance
+         */
+        public Builder responses(List<FcmSendResponse> responses) {
+            this.responses = responses;
+            return this;
+        }
+
+        /**
+         * Constructs the {@link FcmMulticastResponse} with the current builder settings.
+         *
+         * @return the newly constructed {@link FcmMulticastResponse}
+         */
+        public FcmMulticastResponse build() {
+            FcmMulticastResponse fcmMulticastResponse = new FcmMulticastResponse();
+            fcmMulticastResponse.setSuccessCount(successCount);
+            fcmMulticastResponse.setFailureCount(failureCount);
+            fcmMulticastResponse.setResponses(responses);
+            return fcmMulticastResponse;
+        }
+    }
+}
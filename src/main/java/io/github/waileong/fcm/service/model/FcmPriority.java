@@ -0,0 +1,18 @@
+package io.github.waileong.fcm.service.model;
+
+/**
+ * The dispatch priority of a notification. Each priority is queued in its own lane, so that transactional
+ * messages are not held up behind a marketing blast.
+ *
+ * @author Wai Leong
+ */
+public enum FcmPriority {
+    /**
+     * For transactional messages such as one-time passwords and security alerts.
+     */
+    HIGH,
+    /**
+     * For everything else, such as marketing campaigns.
+     */
+    NORMAL
+}
@@ -0,0 +1,160 @@
+package io.github.waileong.fcm.service.model;
+
+/**
+ * Options that control how a notification is dispatched, as opposed to what is sent.
+ * Instances are immutable; use {@link Builder} to create one, or {@link #defaults()} for the default options.
+ *
+ * @author Wai Leong
+ */
+public final class FcmSendOptions {
+    private static final FcmSendOptions DEFAULTS = Builder.aFcmSendOptions().build();
+
+    /**
+     * The dispatch priority of the notification.
+     */
+    private final FcmPriority priority;
+
+    /**
+     * The key identifying the request across retries by its producer, so that a retry is not sent again.
+     */
+    private final String idempotencyKey;
+
+    /**
+     * The tenant whose FCM project the notification is sent through.
+     */
+    private final String tenant;
+
+    /**
+     * Whether the caller waits for room in the dispatch lane instead of being rejected when the lane is full.
+     */
+    private final boolean awaitCapacity;
+
+    private FcmSendOptions(Builder builder) {
+        this.priority = builder.priority;
+        this.idempotencyKey = builder.idempotencyKey;
+        this.tenant = builder.tenant;
+        this.awaitCapacity = builder.awaitCapacity;
+    }
+
+    /**
+     * Returns the default options: normal priority, without an idempotency key, through the default FCM project.
+     *
+     * @return the default options
+     */
+    public static FcmSendOptions defaults() {
+        return DEFAULTS;
+    }
+
+    /**
+     * Gets the dispatch priority of the notification.
+     *
+     * @return the dispatch priority
+     */
+    public FcmPriority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Gets the key identifying the request across retries by its producer.
+     *
+     * @return the idempotency key, or null if the request has none
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    /**
+     * Gets the tenant whose FCM project the notification is sent through.
+     *
+     * @return the tenant, or null for the default FCM project
+     */
+    public String getTenant() {
+        return tenant;
+    }
+
+    /**
+     * Gets whether the caller waits for room in the dispatch lane instead of being rejected when the lane is full.
+     *
+     * @return {@code true} if the caller waits for room
+     */
+    public boolean isAwaitCapacity() {
+        return awaitCapacity;
+    }
+
+    /**
+     * The builder class for {@link FcmSendOptions}. Provides a fluent API for constructing
+     * an instance of {@link FcmSendOptions}.
+     */
+    public static final class Builder {
+        private FcmPriority priority = FcmPriority.NORMAL;
+        private String idempotencyKey;
+        private String tenant;
+        private boolean awaitCapacity;
+
+        private Builder() {
+        }
+
+        /**
+         * Creates a new instance of the builder for {@link FcmSendOptions}.
+         *
+         * @return a new instance of {@link Builder}
+         */
+        public static Builder aFcmSendOptions() {
+            return new Builder();
+        }
+
+        /**
+         * Sets the dispatch priority for the {@link FcmSendOptions} being built.
+         *
+         * @param priority the dispatch priority, null for {@link FcmPriority#NORMAL}
+         * @return the builder instance
+         */
+        public Builder priority(FcmPriority priority) {
+            this.priority = priority == null ? FcmPriority.NORMAL : priority;
+            return this;
+        }
+
+        /**
+         * Sets the idempotency key for the {@link FcmSendOptions} being built.
+         *
+         * @param idempotencyKey the key identifying the request across retries, null or blank for none
+         * @return the builder instance
+         */
+        public Builder idempotencyKey(String idempotencyKey) {
+            this.idempotencyKey = idempotencyKey == null || idempotencyKey.isBlank() ? null : idempotencyKey;
+            return this;
+        }
+
+        /**
+         * Sets the tenant for the {@link FcmSendOptions} being built.
+         *
+         * @param tenant the tenant whose FCM project the notification is sent through, null or blank for the
+         *               default FCM project
+         * @return the builder instance
+         */
+        public Builder tenant(String tenant) {
+            this.tenant = tenant == null || tenant.isBlank() ? null : tenant;
+            return this;
+        }
+
+        /**
+         * Sets whether the caller waits for room in the dispatch lane for the {@link FcmSendOptions} being built.
+         *
+         * @param awaitCapacity {@code true} to wait for room in a full lane, {@code false} to be rejected
+         * @return the builder instance
+         */
+        public Builder awaitCapacity(boolean awaitCapacity) {
+            this.awaitCapacity = awaitCapacity;
+            return this;
+        }
+
+        /**
+         * Constructs the {@link FcmSendOptions} with the current builder settings.
+         *
+         * @return the newly constructed {@link FcmSendOptions}
+         */
+        public FcmSendOptions build() {
+            return new FcmSendOptions(this);
+        }
+    }
+}
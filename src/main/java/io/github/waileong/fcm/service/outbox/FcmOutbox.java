@@ -0,0 +1,650 @@
+package io.github.waileong.fcm.service.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * A durable, append-only outbox of accepted FCM messages on local disk, giving at-least-once delivery
+ * across restarts without an external broker.
+ * <p>
+ * The outbox is a directory of numbered segment files. Every message is appended as a record before the
+ * caller is released, and an acknowledgement record is appended once its send has completed. A single writer
+ * thread drains all pending records into one gathering {@link FileChannel} write and one
+ * {@link FileChannel#force(boolean) force} (group commit), so the cost of the sync is shared by every
+ * message accepted meanwhile. Records are framed with their length and a CRC32C checksum, so that a record
+ * torn by a crash is detected and cut off on recovery.
+ * <p>
+ * On startup the segments are scanned, and the messages without an acknowledgement are handed out once by
+ * {@link #takeRecovered()} for replay. In the background, sealed segments are deleted from the oldest onwards
+ * once all their messages are acknowledged; a sealed segment with only a few messages left has them copied
+ * into the active segment first, so that one slow message does not pin a whole segment on disk.
+ *
+ * @author Wai Leong
+ */
+public class FcmOutbox implements MeterBinder, AutoCloseable {
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+    private static final int TENANT_FLAG = 0x40;
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int BODY_PREFIX_SIZE = 1 + Long.BYTES;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final String SEGMENT_SUFFIX = ".log";
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final Path directory;
+    private final long segmentSize;
+    private final int maxBatch;
+    private final long compactIntervalNanos;
+    private final double compactThreshold;
+    private final ObjectWriter requestWriter;
+    private final ObjectReader requestReader;
+    private final BlockingQueue<Command> commands = new LinkedBlockingQueue<>();
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<Long, Segment> live = new ConcurrentHashMap<>();
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder compacted = new LongAdder();
+    private final Command stop = new Command((byte) 0, 0, null, null);
+    private final Thread writer;
+    private List<FcmOutboxEntry> recovered;
+    private Segment active;
+    private boolean closed;
+
+    /**
+     * Constructs a FcmOutbox, recovering the messages left unacknowledged in the directory by a previous run.
+     *
+     * @param directory        the directory holding the segments, created if missing
+     * @param segmentSize      the size in bytes at which the active segment is sealed
+     * @param maxBatch         the maximum number of records written in one group commit
+     * @param compactInterval  the interval between two compaction runs
+     * @param compactThreshold the ratio of unacknowledged messages below which a sealed segment is compacted
+     * @param objectMapper     the object mapper used to serialize the messages
+     * @throws FcmOutboxException if the directory cannot be read or the active segment cannot be created
+     */
+    public FcmOutbox(Path directory, long segmentSize, int maxBatch, Duration compactInterval,
+                     double compactThreshold, ObjectMapper objectMapper) {
+        if (segmentSize <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("segmentSize and maxBatch must be positive");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxBatch = maxBatch;
+        this.compactIntervalNanos = compactInterval.toNanos();
+        this.compactThreshold = compactThreshold;
+        this.requestWriter = objectMapper.writerFor(FcmSendRequest.class);
+        this.requestReader = objectMapper.readerFor(FcmSendRequest.class);
+        try {
+            Files.createDirectories(directory);
+            this.recovered = recover();
+            this.active = openSegment(segments.isEmpty() ? 1 : segments.lastKey() + 1);
+        } catch (IOException ex) {
+            throw new FcmOutboxException("Failed to open the FCM outbox in " + directory, ex);
+        }
+        if (!recovered.isEmpty()) {
+            logger.info("Recovered {} unacknowledged FCM messages from the outbox in {}", recovered.size(), directory);
+        }
+        this.writer = Thread.ofPlatform()
+                .name("fcm-outbox-writer")
+                .daemon(true)
+                .start(this::write);
+    }
+
+    /**
+     * Appends the message to the outbox, returning once it has been forced to disk.
+     *
+     * @param request  the request to send
+     * @param priority the dispatch priority the message was accepted with
+     * @param tenant   the tenant whose FCM project the message is sent through, or null for the default project
+     * @return the outbox id of the message, to be passed to {@link #ack(long)} once its send has completed
+     * @throws FcmOutboxException if the message cannot be written or the outbox is closed
+     */
+    public long append(FcmSendRequest request, FcmPriority priority, String tenant) {
+        byte[] payload;
+        try {
+            payload = requestWriter.writeValueAsBytes(request);
+        } catch (JsonProcessingException ex) {
+            throw new FcmOutboxException("Failed to serialize the FCM message for the outbox", ex);
+        }
+        long id = nextId.getAndIncrement();
+        Command command = new Command(APPEND, id, record(APPEND, id, priority, tenant, payload), new CompletableFuture<>());
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new FcmOutboxException("FCM outbox is closed");
+            }
+            commands.add(command);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        try {
+            command.durable.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof FcmOutboxException outboxException) {
+                throw outboxException;
+            }
+            throw new FcmOutboxException("Failed to write the FCM message to the outbox", ex.getCause());
+        }
+        return id;
+    }
+
+    /**
+     * Acknowledges that the send of the message has completed, so that it is not replayed.
+     * The acknowledgement is written with the next group commit; unknown ids are ignored.
+     *
+     * @param id the outbox id returned by {@link #append(FcmSendRequest, FcmPriority, String)}
+     */
+    public void ack(long id) {
+        Segment segment = live.remove(id);
+        if (segment == null) {
+            return;
+        }
+        segment.live.decrementAndGet();
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                logger.debug("FCM outbox is closed, message {} will be replayed", id);
+                return;
+            }
+            commands.add(new Command(ACK, id, record(ACK, id, null, null, null), null));
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Hands out the messages recovered on startup. The messages are handed out only once; each of them
+     * must be acknowledged once its replayed send has completed.
+     *
+     * @return the recovered messages, in the order they were accepted
+     */
+    public synchronized List<FcmOutboxEntry> takeRecovered() {
+        List<FcmOutboxEntry> entries = recovered;
+        recovered = List.of();
+        return entries;
+    }
+
+    /**
+     * Returns the number of messages in the outbox that have not been acknowledged.
+     *
+     * @return the pending count
+     */
+    public int getPending() {
+        return live.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.outbox.pending", this, FcmOutbox::getPending)
+                .description("FCM messages in the outbox that have not been acknowledged")
+                .register(registry);
+        Gauge.builder("fcm.outbox.segments", segments, Map::size)
+                .description("Segment files of the FCM outbox")
+                .register(registry);
+        FunctionCounter.builder("fcm.outbox.appended", appended, LongAdder::sum)
+                .description("FCM messages appended to the outbox")
+                .register(registry);
+        FunctionCounter.builder("fcm.outbox.commits", commits, LongAdder::sum)
+                .description("Group commits of the FCM outbox")
+                .register(registry);
+        FunctionCounter.builder("fcm.outbox.compacted", compacted, LongAdder::sum)
+                .description("FCM messages copied forward by outbox compaction")
+                .register(registry);
+    }
+
+    /**
+     * Stops accepting messages, writes the records already accepted and closes the active segment.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        commands.add(stop);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Command command;
+        while ((command = commands.poll()) != null) {
+            if (command.durable != null) {
+                command.durable.completeExceptionally(new FcmOutboxException("FCM outbox is closed"));
+            }
+        }
+        try {
+            active.channel.force(false);
+            active.channel.close();
+        } catch (IOException ex) {
+            logger.warn("Failed to close FCM outbox segment {}", active.path, ex);
+        }
+    }
+
+    private void write() {
+        List<Command> batch = new ArrayList<>(maxBatch);
+        long nextCompaction = System.nanoTime() + compactIntervalNanos;
+        boolean stopped = false;
+        while (!stopped) {
+            Command first;
+            try {
+                first = commands.poll(Math.max(0, nextCompaction - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                break;
+            }
+            if (first != null) {
+                batch.add(first);
+                commands.drainTo(batch, maxBatch - 1);
+                stopped = batch.remove(stop);
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+                batch.clear();
+            }
+            if (!stopped && System.nanoTime() - nextCompaction >= 0) {
+                compact();
+                nextCompaction = System.nanoTime() + compactIntervalNanos;
+            }
+        }
+    }
+
+    /**
+     * Writes the batch to the active segment with one gathering write, and forces it to disk if it holds
+     * any message. Acknowledgements alone are not forced: losing one to a crash only causes a duplicate send.
+     */
+    private void commit(List<Command> batch) {
+        Segment segment = active;
+        long start = segment.size;
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long length = 0;
+        int appends = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            Command command = batch.get(i);
+            buffers[i] = command.record;
+            length += command.record.remaining();
+            if (command.type == APPEND) {
+                live.put(command.id, segment);
+                segment.live.incrementAndGet();
+                segment.entries++;
+                appends++;
+            }
+        }
+        try {
+            writeFully(segment.channel, buffers, length);
+            if (appends > 0) {
+                segment.channel.force(false);
+            }
+            segment.size += length;
+        } catch (IOException ex) {
+            logger.error("Failed to write to FCM outbox segment {}", segment.path, ex);
+            for (Command command : batch) {
+                if (command.type == APPEND) {
+                    if (live.remove(command.id, segment)) {
+                        segment.live.decrementAndGet();
+                    }
+                    segment.entries--;
+                    command.durable.completeExceptionally(
+                            new FcmOutboxException("Failed to write the FCM message to the outbox", ex));
+                }
+            }
+            discardTail(segment, start);
+            return;
+        }
+        commits.increment();
+        appended.add(appends);
+        for (Command command : batch) {
+            if (command.durable != null) {
+                command.durable.complete(null);
+            }
+        }
+        rollIfFull();
+    }
+
+    /**
+     * Cuts off a partially written batch, so that later records are not hidden behind it on recovery.
+     * If the segment cannot be cut, a new segment is started instead.
+     */
+    private void discardTail(Segment segment, long start) {
+        try {
+            segment.channel.truncate(start);
+            segment.channel.position(start);
+        } catch (IOException ex) {
+            logger.warn("Failed to truncate FCM outbox segment {}, starting a new segment", segment.path, ex);
+            try {
+                roll();
+            } catch (IOException rollException) {
+                logger.error("Failed to start a new FCM outbox segment", rollException);
+            }
+        }
+    }
+
+    private void rollIfFull() {
+        if (active.size < segmentSize) {
+            return;
+        }
+        try {
+            roll();
+        } catch (IOException ex) {
+            logger.error("Failed to start a new FCM outbox segment, keeping {}", active.path, ex);
+        }
+    }
+
+    private void roll() throws IOException {
+        Segment next = openSegment(active.index + 1);
+        Segment sealed = active;
+        active = next;
+        try {
+            sealed.channel.force(false);
+            sealed.channel.close();
+        } finally {
+            sealed.channel = null;
+        }
+    }
+
+    /**
+     * Deletes sealed segments from the oldest onwards while all their messages are acknowledged, copying the
+     * remaining messages of sparse segments forward first. Segments are only ever deleted oldest first, so an
+     * acknowledgement is never lost while the message it refers to is still on disk.
+     */
+    private void compact() {
+        for (Segment segment : segments.values()) {
+            if (segment == active) {
+                break;
+            }
+            int remaining = segment.live.get();
+            if (remaining > 0) {
+                if (segment.entries > 0 && (double) remaining / segment.entries >= compactThreshold) {
+                    break;
+                }
+                if (!copyForward(segment)) {
+                    break;
+                }
+            }
+            try {
+                Files.deleteIfExists(segment.path);
+                segments.remove(segment.index);
+            } catch (IOException ex) {
+                logger.warn("Failed to delete FCM outbox segment {}", segment.path, ex);
+                break;
+            }
+        }
+    }
+
+    private boolean copyForward(Segment segment) {
+        List<ByteBuffer> records = new ArrayList<>();
+        List<Long> ids = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            scan(channel, (type, id, record, payload) -> {
+                if (type == APPEND && live.get(id) == segment) {
+                    records.add(record);
+                    ids.add(id);
+                }
+            });
+            Segment target = active;
+            long length = records.stream().mapToLong(ByteBuffer::remaining).sum();
+            long start = target.size;
+            try {
+                writeFully(target.channel, records.toArray(ByteBuffer[]::new), length);
+                target.channel.force(false);
+                target.size += length;
+            } catch (IOException ex) {
+                discardTail(target, start);
+                throw ex;
+            }
+            for (Long id : ids) {
+                target.entries++;
+                if (live.replace(id, segment, target)) {
+                    segment.live.decrementAndGet();
+                    target.live.incrementAndGet();
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to compact FCM outbox segment {}", segment.path, ex);
+            return false;
+        }
+        compacted.add(ids.size());
+        logger.debug("Copied {} unacknowledged FCM messages forward from outbox segment {}", ids.size(), segment.path);
+        rollIfFull();
+        return segment.live.get() == 0;
+    }
+
+    private List<FcmOutboxEntry> recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        Map<Long, FcmOutboxEntry> entries = new LinkedHashMap<>();
+        Map<Long, Segment> owners = new ConcurrentHashMap<>();
+        long maxId = 0;
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long index;
+            try {
+                index = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            } catch (NumberFormatException ex) {
+                logger.warn("Ignoring unexpected file {} in the FCM outbox", file);
+                continue;
+            }
+            Segment segment = new Segment(index, file);
+            segments.put(index, segment);
+            AtomicLong segmentMaxId = new AtomicLong(maxId);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = scan(channel, (type, id, record, payload) -> {
+                    segmentMaxId.accumulateAndGet(id, Math::max);
+                    if (type == ACK) {
+                        entries.remove(id);
+                        owners.remove(id);
+                        return;
+                    }
+                    FcmOutboxEntry entry = decode(id, payload);
+                    if (entry != null) {
+                        segment.entries++;
+                        entries.put(id, entry);
+                        owners.put(id, segment);
+                    }
+                });
+                if (end < channel.size()) {
+                    logger.warn("Cutting off a torn record at {} of FCM outbox segment {}", end, file);
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+                segment.size = end;
+            }
+            maxId = segmentMaxId.get();
+        }
+        owners.forEach((id, segment) -> {
+            live.put(id, segment);
+            segment.live.incrementAndGet();
+        });
+        nextId.set(maxId + 1);
+        return List.copyOf(entries.values());
+    }
+
+    /**
+     * Reads the records of a segment in order, stopping at the first incomplete or corrupt record.
+     *
+     * @return the position after the last valid record
+     */
+    private long scan(FileChannel channel, RecordVisitor visitor) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32C crc = new CRC32C();
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < BODY_PREFIX_SIZE || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+            readFully(channel, record, position);
+            record.flip();
+            ByteBuffer body = record.duplicate().position(HEADER_SIZE);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            byte type = body.get();
+            long id = body.getLong();
+            visitor.visit(type, id, record, body);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    private FcmOutboxEntry decode(long id, ByteBuffer payload) {
+        int flags = payload.get();
+        int ordinal = flags & ~TENANT_FLAG;
+        FcmPriority[] priorities = FcmPriority.values();
+        FcmPriority priority = ordinal >= 0 && ordinal < priorities.length ? priorities[ordinal] : FcmPriority.NORMAL;
+        try {
+            String tenant = null;
+            if ((flags & TENANT_FLAG) != 0) {
+                byte[] name = new byte[payload.getShort() & 0xFFFF];
+                payload.get(name);
+                tenant = new String(name, StandardCharsets.UTF_8);
+            }
+            FcmSendRequest request = requestReader.readValue(
+                    payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+            return new FcmOutboxEntry(id, priority, tenant, request);
+        } catch (IOException ex) {
+            logger.warn("Dropping FCM outbox message {} that cannot be read", id, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a record. The body of an append record starts with the priority ordinal; if the message has a tenant,
+     * the ordinal carries {@link #TENANT_FLAG} and is followed by the length and UTF-8 bytes of the tenant name, so
+     * records written without a tenant keep their original layout.
+     */
+    private static ByteBuffer record(byte type, long id, FcmPriority priority, String tenant, byte[] payload) {
+        byte[] name = tenant == null ? null : tenant.getBytes(StandardCharsets.UTF_8);
+        if (name != null && name.length > 0xFFFF) {
+            throw new FcmOutboxException("FCM tenant name too long for the outbox: " + tenant);
+        }
+        int length = BODY_PREFIX_SIZE + (payload == null ? 0 : 1 + payload.length)
+                + (name == null ? 0 : Short.BYTES + name.length);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + length);
+        record.position(HEADER_SIZE);
+        record.put(type).putLong(id);
+        if (payload != null) {
+            if (name == null) {
+                record.put((byte) priority.ordinal());
+            } else {
+                record.put((byte) (priority.ordinal() | TENANT_FLAG)).putShort((short) name.length).put(name);
+            }
+            record.put(payload);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), HEADER_SIZE, length);
+        record.putInt(0, length).putInt(Integer.BYTES, (int) crc.getValue());
+        return record.flip();
+    }
+
+    private Segment openSegment(long index) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", index, SEGMENT_SUFFIX));
+        Segment segment = new Segment(index, path);
+        segment.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        segments.put(index, segment);
+        return segment;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer[] buffers, long length) throws IOException {
+        long written = 0;
+        while (written < length) {
+            written += channel.write(buffers);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of FCM outbox segment");
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(byte type, long id, ByteBuffer record, ByteBuffer payload);
+    }
+
+    private static final class Segment {
+        private final long index;
+        private final Path path;
+        private final AtomicInteger live = new AtomicInteger();
+        private volatile FileChannel channel;
+        private int entries;
+        private long size;
+
+        private Segment(long index, Path path) {
+            this.index = index;
+            this.path = path;
+        }
+    }
+
+    private static final class Command {
+        private final byte type;
+        private final long id;
+        private final ByteBuffer record;
+        private final CompletableFuture<Void> durable;
+
+        private Command(byte type, long id, ByteBuffer record, CompletableFuture<Void> durable) {
+            this.type = type;
+            this.id = id;
+            this.record = record;
+            this.durable = durable;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.waileong.fcm.service.outbox;
+
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+
+/**
+ * A message held in the {@link FcmOutbox} whose send has not been acknowledged.
+ *
+ * @param id       the outbox id of the message, used to acknowledge it
+ * @param priority the dispatch priority the message was accepted with
+ * @param tenant   the tenant whose FCM project the message is sent through, or null for the default project
+ * @param request  the request to send
+ * @author Wai Leong
+ */
+public record FcmOutboxEntry(long id, FcmPriority priority, String tenant, FcmSendRequest request) {
+}
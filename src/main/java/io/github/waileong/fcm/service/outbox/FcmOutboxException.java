@@ -0,0 +1,28 @@
+package io.github.waileong.fcm.service.outbox;
+
+/**
+ * Thrown when a message cannot be made durable in the {@link FcmOutbox}, so the send was not accepted.
+ *
+ * @author Wai Leong
+ */
+public class FcmOutboxException extends RuntimeException {
+
+    /**
+     * Constructs a new exception with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public FcmOutboxException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs a new exception with the specified detail message and cause.
+     *
+     * @param message the detail message
+     * @param cause   the cause of the failure
+     */
+    public FcmOutboxException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
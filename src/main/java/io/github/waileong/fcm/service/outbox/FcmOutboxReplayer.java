@@ -0,0 +1,97 @@
+package io.github.waileong.fcm.service.outbox;
+
+import io.github.waileong.fcm.service.dispatch.FcmDispatcher;
+import io.github.waileong.fcm.service.impl.FcmNotificationServiceImpl;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.tenant.FcmTenantRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Replays the messages recovered by the {@link FcmOutbox} once the application is ready.
+ * The messages are fed through the {@link FcmDispatcher} in their original priority lanes, waiting for room
+ * rather than being rejected, so a large backlog does not crowd out live traffic. The sends go through
+ * {@link FcmNotificationServiceImpl#resend}, so a message FCM still answers with an error after the retries reaches
+ * the dead-letter store like a live send. Each message is acknowledged once its send has settled, as for a live
+ * send; messages whose send fails unexpectedly, or is left with a transient error and not stored as a dead letter,
+ * stay in the outbox for the next start. Messages accepted for a tenant are sent through the sender of the tenant;
+ * those of a tenant no longer configured stay in the outbox as well.
+ *
+ * @author Wai Leong
+ */
+public class FcmOutboxReplayer implements ApplicationListener<ApplicationReadyEvent> {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmOutbox fcmOutbox;
+    private final FcmDispatcher fcmDispatcher;
+    private final FcmNotificationServiceImpl fcmNotificationService;
+    private final FcmTenantRegistry fcmTenantRegistry;
+    private final int maxConcurrency;
+
+    /**
+     * Constructs a FcmOutboxReplayer.
+     *
+     * @param fcmOutbox              the outbox holding the recovered messages
+     * @param fcmDispatcher          the dispatcher the replayed sends are queued on
+     * @param fcmNotificationService the service the replayed sends are made through
+     * @param fcmTenantRegistry      the tenants the messages accepted for a tenant are sent through, may be null
+     * @param maxConcurrency         the maximum number of replayed sends queued or in flight per priority
+     */
+    public FcmOutboxReplayer(FcmOutbox fcmOutbox, FcmDispatcher fcmDispatcher,
+                             FcmNotificationServiceImpl fcmNotificationService, FcmTenantRegistry fcmTenantRegistry,
+                             int maxConcurrency) {
+        this.fcmOutbox = fcmOutbox;
+        this.fcmDispatcher = fcmDispatcher;
+        this.fcmNotificationService = fcmNotificationService;
+        this.fcmTenantRegistry = fcmTenantRegistry;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        replay();
+    }
+
+    /**
+     * Queues the recovered messages for sending. Returns immediately; the sends complete in the background.
+     */
+    public void replay() {
+        List<FcmOutboxEntry> entries = new ArrayList<>();
+        for (FcmOutboxEntry entry : fcmOutbox.takeRecovered()) {
+            if (entry.tenant() == null || (fcmTenantRegistry != null && fcmTenantRegistry.contains(entry.tenant()))) {
+                entries.add(entry);
+            } else {
+                logger.warn("Keeping FCM outbox message {} of unknown tenant {} for the next start",
+                        entry.id(), entry.tenant());
+            }
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        Map<FcmPriority, List<FcmOutboxEntry>> byPriority = entries.stream()
+                .collect(Collectors.groupingBy(FcmOutboxEntry::priority));
+        logger.info("Replaying {} FCM messages from the outbox", entries.size());
+        byPriority.forEach((priority, lane) -> {
+            AtomicInteger completed = new AtomicInteger();
+            fcmDispatcher.fanOut(priority, lane.iterator(), maxConcurrency,
+                            entry -> fcmNotificationService.resend(entry.request(), entry.priority(),
+                                    entry.tenant(), () -> fcmOutbox.ack(entry.id())),
+                            (entry, response) -> completed.incrementAndGet())
+                    .whenComplete((unused, throwable) -> {
+                        if (throwable == null) {
+                            logger.info("Replayed {} {} priority FCM messages from the outbox", completed.get(), priority);
+                        } else {
+                            logger.warn("Replay of {} priority FCM messages stopped after {} of {}; the rest is kept for the next start",
+                                    priority, completed.get(), lane.size(), throwable);
+                        }
+                    });
+        });
+    }
+}
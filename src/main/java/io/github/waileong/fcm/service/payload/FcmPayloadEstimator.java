@@ -0,0 +1,138 @@
+package io.github.waileong.fcm.service.payload;
+
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmNotification;
+
+import java.util.Map;
+
+/**
+ * Helper methods for estimating the size of the payload FCM delivers to a device, which FCM caps at 4096 bytes.
+ * The payload is the JSON of the notification title and body and of the data map; the estimate counts the UTF-8
+ * bytes of that JSON, escapes included, by walking the strings once, without serializing or allocating anything.
+ *
+ * @author Wai Leong
+ */
+public final class FcmPayloadEstimator {
+    private static final String ELLIPSIS = "...";
+    private static final int OBJECT = 2;
+    private static final int NOTIFICATION = "\"notification\":".length() + OBJECT;
+    private static final int TITLE = "\"title\":".length();
+    private static final int BODY = "\"body\":".length();
+    private static final int DATA = "\"data\":".length() + OBJECT;
+    private static final int COLON = 1;
+    private static final int COMMA = 1;
+
+    private FcmPayloadEstimator() {
+    }
+
+    /**
+     * Estimates the payload size of a message.
+     *
+     * @param message the FCM message, may be null
+     * @return the estimated payload size in bytes
+     */
+    public static int estimate(FcmMessage message) {
+        if (message == null) {
+            return OBJECT;
+        }
+        FcmNotification notification = message.getNotification();
+        return notification == null
+                ? estimate(null, null, message.getData())
+                : estimate(notification.getTitle(), notification.getBody(), message.getData());
+    }
+
+    /**
+     * Estimates the payload size of a notification with data.
+     *
+     * @param title the notification title, may be null
+     * @param body  the notification body, may be null
+     * @param data  the data payload, may be null
+     * @return the estimated payload size in bytes
+     */
+    public static int estimate(String title, String body, Map<String, String> data) {
+        int size = OBJECT;
+        if (title != null || body != null) {
+            size += NOTIFICATION;
+            if (title != null) {
+                size += TITLE + jsonLength(title);
+            }
+            if (body != null) {
+                size += (title != null ? COMMA : 0) + BODY + jsonLength(body);
+            }
+        }
+        if (data != null && !data.isEmpty()) {
+            size += (size > OBJECT ? COMMA : 0) + DATA + data.size() * COLON + (data.size() - 1) * COMMA;
+            for (Map.Entry<String, String> entry : data.entrySet()) {
+                size += jsonLength(entry.getKey()) + jsonLength(entry.getValue());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of UTF-8 bytes of the value as a JSON string, quotes and escapes included.
+     *
+     * @param value the string, may be null
+     * @return the encoded length in bytes, 4 for {@code null}
+     */
+    public static int jsonLength(String value) {
+        if (value == null) {
+            return 4;
+        }
+        int length = 2;
+        for (int i = 0; i < value.length(); i++) {
+            length += charLength(value.charAt(i));
+        }
+        return length;
+    }
+
+    /**
+     * Shortens the value so that, with an ellipsis appended, it encodes to at most the given number of bytes as a
+     * JSON string, quotes excluded. Surrogate pairs are never split.
+     *
+     * @param value    the string to shorten
+     * @param maxBytes the maximum encoded length in bytes
+     * @return the shortened string, or null if not even the ellipsis fits
+     */
+    public static String truncate(String value, int maxBytes) {
+        int budget = maxBytes - ELLIPSIS.length();
+        if (budget < 0) {
+            return null;
+        }
+        int end = 0;
+        while (end < value.length()) {
+            char c = value.charAt(end);
+            int width = Character.isHighSurrogate(c) && end + 1 < value.length() ? 2 : 1;
+            int bytes = charLength(c) + (width == 2 ? charLength(value.charAt(end + 1)) : 0);
+            if (bytes > budget) {
+                break;
+            }
+            budget -= bytes;
+            end += width;
+        }
+        return value.substring(0, end) + ELLIPSIS;
+    }
+
+    /**
+     * Returns the bytes a character takes in a JSON string. A surrogate pair takes four bytes, counted on its high
+     * surrogate.
+     */
+    private static int charLength(char c) {
+        if (c < 0x20) {
+            return c == '\b' || c == '\f' || c == '\n' || c == '\r' || c == '\t' ? 2 : 6;
+        }
+        if (c == '"' || c == '\\') {
+            return 2;
+        }
+        if (c < 0x80) {
+            return 1;
+        }
+        if (c < 0x800) {
+            return 2;
+        }
+        if (Character.isHighSurrogate(c)) {
+            return 4;
+        }
+        return Character.isLowSurrogate(c) ? 0 : 3;
+    }
+}
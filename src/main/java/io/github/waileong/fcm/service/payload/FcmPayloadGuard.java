@@ -0,0 +1,106 @@
+package io.github.waileong.fcm.service.payload;
+
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks the payload size of messages before they are sent, so that a message FCM would reject as too large costs
+ * no call. The size is computed by the {@link FcmPayloadEstimator}. An oversized message is rejected with a
+ * {@link FcmPayloadTooLargeException}, or, under the {@link Policy#TRUNCATE} policy, has its notification body
+ * shortened to fit; the title and the data are never changed, so a message that does not fit without its body is
+ * rejected either way.
+ *
+ * @author Wai Leong
+ */
+public class FcmPayloadGuard implements MeterBinder {
+    private final int maxSize;
+    private final Policy policy;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+
+    /**
+     * Constructs a FcmPayloadGuard.
+     *
+     * @param maxSize the maximum payload size in bytes
+     * @param policy  what is done with an oversized notification
+     */
+    public FcmPayloadGuard(int maxSize, Policy policy) {
+        this.maxSize = maxSize;
+        this.policy = policy;
+    }
+
+    /**
+     * Checks the payload size of a notification, shortening its body if the policy allows.
+     *
+     * @param title the notification title, may be null
+     * @param body  the notification body, may be null
+     * @param data  the data payload, may be null
+     * @return the body to send, shortened if it was truncated
+     * @throws FcmPayloadTooLargeException if the payload is too large and cannot be truncated to fit
+     */
+    public String fit(String title, String body, Map<String, String> data) {
+        int size = FcmPayloadEstimator.estimate(title, body, data);
+        if (size <= maxSize) {
+            return body;
+        }
+        if (policy == Policy.TRUNCATE && body != null) {
+            int bodyBytes = FcmPayloadEstimator.jsonLength(body) - 2;
+            String shortened = FcmPayloadEstimator.truncate(body, bodyBytes - (size - maxSize));
+            if (shortened != null) {
+                truncated.increment();
+                return shortened;
+            }
+        }
+        rejected.increment();
+        throw new FcmPayloadTooLargeException(size, maxSize);
+    }
+
+    /**
+     * Checks the payload size of a request. Requests are never truncated, as they may carry platform overrides
+     * derived from the notification.
+     *
+     * @param request the request to check
+     * @throws FcmPayloadTooLargeException if the payload is too large
+     */
+    public void check(FcmSendRequest request) {
+        int size = FcmPayloadEstimator.estimate(request.getMessage());
+        if (size > maxSize) {
+            rejected.increment();
+            throw new FcmPayloadTooLargeException(size, maxSize);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerCounter(registry, "rejected", rejected);
+        registerCounter(registry, "truncated", truncated);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String action, LongAdder adder) {
+        FunctionCounter.builder("fcm.payload.oversized", adder, LongAdder::sum)
+                .description("Oversized FCM messages caught before the call to FCM")
+                .tag("action", action)
+                .register(registry);
+    }
+
+    /**
+     * What is done with an oversized notification.
+     */
+    public enum Policy {
+
+        /**
+         * The notification is rejected.
+         */
+        REJECT,
+
+        /**
+         * The notification body is shortened to fit, with an ellipsis.
+         */
+        TRUNCATE
+    }
+}
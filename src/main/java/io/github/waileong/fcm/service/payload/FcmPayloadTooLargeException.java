@@ -0,0 +1,41 @@
+package io.github.waileong.fcm.service.payload;
+
+/**
+ * Thrown when the payload of a message is larger than FCM accepts, so it is not sent.
+ *
+ * @author Wai Leong
+ */
+public class FcmPayloadTooLargeException extends RuntimeException {
+    private final int size;
+    private final int maxSize;
+
+    /**
+     * Constructs a new exception for a payload of the given size.
+     *
+     * @param size    the estimated payload size in bytes
+     * @param maxSize the maximum payload size in bytes
+     */
+    public FcmPayloadTooLargeException(int size, int maxSize) {
+        super("FCM payload of about " + size + " bytes exceeds the limit of " + maxSize + " bytes");
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the estimated payload size.
+     *
+     * @return the size in bytes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the maximum payload size.
+     *
+     * @return the limit in bytes
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
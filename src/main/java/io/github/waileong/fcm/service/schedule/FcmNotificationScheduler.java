@@ -0,0 +1,390 @@
+package io.github.waileong.fcm.service.schedule;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds notifications to be sent at a later time, such as reminders or messages deferred out of quiet hours, and
+ * hands each one to {@link FcmNotificationService#sendComplex(FcmSendRequest, FcmSendOptions)} once it is due, so
+ * that it goes through the normal send path without anything being polled from a database.
+ * <p>
+ * The notifications wait in a {@link TimingWheel}, which adds, cancels and expires a notification in constant
+ * time however many are pending. A notification is held as its serialized request, which is more compact than
+ * the request object and is what the snapshot holds anyway. A timer thread advances the wheel every tick and hands
+ * the due notifications to an executor, as a send may block on the outbox. A due notification rejected by a full
+ * dispatch lane is put back on the wheel until the suggested retry delay has passed.
+ * <p>
+ * If a snapshot file is given, the pending notifications are loaded from it on construction and written to it
+ * periodically and on close. Notifications that fell due while the application was down are sent straight away.
+ * Notifications scheduled after the last snapshot are lost if the application stops without closing the
+ * scheduler, and notifications sent after it are sent again.
+ *
+ * @author Wai Leong
+ */
+public class FcmNotificationScheduler implements MeterBinder, AutoCloseable {
+    private static final int MAGIC = 0x46434D53;
+    private static final int VERSION = 2;
+    private static final long MIN_RETRY_MILLIS = 1000;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmNotificationService fcmNotificationService;
+    private final Executor executor;
+    private final ObjectWriter requestWriter;
+    private final ObjectReader requestReader;
+    private final int maxPending;
+    private final Path snapshot;
+    private final Object snapshotLock = new Object();
+    private final TimingWheel wheel;
+    private final Map<Long, TimingWheel.Entry> entries = new HashMap<>();
+    private final ScheduledExecutorService timer;
+    private final ScheduledExecutorService snapshotTimer;
+    private final LongAdder scheduled = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder deferred = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder latenessNanos = new LongAdder();
+    private long nextId = 1;
+
+    /**
+     * Constructs a FcmNotificationScheduler, loading the pending notifications from the snapshot if there is one.
+     *
+     * @param fcmNotificationService the service the due notifications are sent with
+     * @param executor               the executor the due notifications are handed to
+     * @param objectMapper           the object mapper used to serialize the requests
+     * @param tick                   the resolution of the due times
+     * @param maxPending             the maximum number of notifications pending at the same time
+     * @param snapshot               the file the pending notifications are saved to and loaded from, or null to
+     *                               keep them in memory only
+     * @param snapshotInterval       the interval between two saves of the snapshot
+     */
+    public FcmNotificationScheduler(FcmNotificationService fcmNotificationService, Executor executor,
+                                    ObjectMapper objectMapper, Duration tick, int maxPending, Path snapshot,
+                                    Duration snapshotInterval) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        this.fcmNotificationService = fcmNotificationService;
+        this.executor = executor;
+        this.requestWriter = objectMapper.writerFor(FcmSendRequest.class);
+        this.requestReader = objectMapper.readerFor(FcmSendRequest.class);
+        this.maxPending = maxPending;
+        this.snapshot = snapshot;
+        this.wheel = new TimingWheel(tick.toMillis(), System.currentTimeMillis());
+        List<TimingWheel.Entry> due = snapshot == null ? List.of() : load();
+        due.forEach(this::fire);
+        this.timer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-scheduler")
+                .daemon(true)
+                .factory());
+        long tickMillis = tick.toMillis();
+        this.timer.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+        if (snapshot == null) {
+            this.snapshotTimer = null;
+            return;
+        }
+        this.snapshotTimer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-schedule-snapshot")
+                .daemon(true)
+                .factory());
+        long interval = snapshotInterval.toMillis();
+        this.snapshotTimer.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Schedules a notification to be sent at the given time, or straight away if the time has passed.
+     *
+     * @param request the FCM send request to send
+     * @param sendAt  the time the notification is to be sent at
+     * @param options the options the notification is sent with once it is due
+     * @return the id of the scheduled notification, to cancel it with
+     * @throws IllegalArgumentException     if the time is too far in the future
+     * @throws FcmDispatchRejectedException if too many notifications are pending
+     */
+    public long schedule(FcmSendRequest request, Instant sendAt, FcmSendOptions options) {
+        byte[] payload;
+        try {
+            payload = requestWriter.writeValueAsBytes(request);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Failed to serialize the FCM send request", ex);
+        }
+        TimingWheel.Entry entry;
+        boolean added;
+        synchronized (this) {
+            if (sendAt.toEpochMilli() > wheel.horizonMillis()) {
+                throw new IllegalArgumentException("Cannot schedule an FCM notification later than "
+                        + Instant.ofEpochMilli(wheel.horizonMillis()));
+            }
+            if (entries.size() >= maxPending) {
+                throw new FcmDispatchRejectedException("Too many scheduled FCM notifications pending ("
+                        + maxPending + ")");
+            }
+            entry = new TimingWheel.Entry(nextId++, sendAt.toEpochMilli(), options.getPriority(),
+                    options.getIdempotencyKey(), options.getTenant(), payload);
+            added = wheel.add(entry);
+            if (added) {
+                entries.put(entry.id, entry);
+            }
+        }
+        scheduled.increment();
+        if (!added) {
+            fire(entry);
+        }
+        return entry.id;
+    }
+
+    /**
+     * Cancels a scheduled notification that is not due yet.
+     *
+     * @param id the id of the scheduled notification
+     * @return true if the notification was cancelled, false if it is unknown or has already been sent
+     */
+    public boolean cancel(long id) {
+        synchronized (this) {
+            TimingWheel.Entry entry = entries.remove(id);
+            if (entry == null) {
+                return false;
+            }
+            wheel.remove(entry);
+        }
+        cancelled.increment();
+        return true;
+    }
+
+    /**
+     * Returns the number of notifications pending.
+     *
+     * @return the pending count
+     */
+    public synchronized int getPending() {
+        return wheel.size();
+    }
+
+    /**
+     * Writes the pending notifications to the snapshot file, replacing it atomically. Does nothing without a
+     * snapshot. The notifications are copied under the lock and written without it.
+     */
+    public void save() {
+        if (snapshot == null) {
+            return;
+        }
+        List<TimingWheel.Entry> pending;
+        synchronized (this) {
+            pending = new ArrayList<>(wheel.size());
+            wheel.forEach(pending::add);
+        }
+        synchronized (snapshotLock) {
+            try {
+                Path parent = snapshot.toAbsolutePath().getParent();
+                Files.createDirectories(parent);
+                Path temp = Files.createTempFile(parent, snapshot.getFileName().toString(), ".tmp");
+                try {
+                    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+                        out.writeInt(MAGIC);
+                        out.writeInt(VERSION);
+                        out.writeInt(pending.size());
+                        for (TimingWheel.Entry entry : pending) {
+                            out.writeLong(entry.id);
+                            out.writeLong(entry.dueMillis);
+                            out.writeByte(entry.priority.ordinal());
+                            out.writeBoolean(entry.idempotencyKey != null);
+                            if (entry.idempotencyKey != null) {
+                                out.writeUTF(entry.idempotencyKey);
+                            }
+                            out.writeBoolean(entry.tenant != null);
+                            if (entry.tenant != null) {
+                                out.writeUTF(entry.tenant);
+                            }
+                            out.writeInt(entry.payload.length);
+                            out.write(entry.payload);
+                        }
+                    }
+                    Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException ex) {
+                logger.warn("Failed to save the FCM schedule snapshot to {}", snapshot, ex);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.schedule.pending", this, FcmNotificationScheduler::getPending)
+                .description("Scheduled FCM notifications not yet due")
+                .register(registry);
+        FunctionCounter.builder("fcm.schedule.scheduled", scheduled, LongAdder::sum)
+                .description("FCM notifications scheduled")
+                .register(registry);
+        FunctionCounter.builder("fcm.schedule.cancelled", cancelled, LongAdder::sum)
+                .description("Scheduled FCM notifications cancelled before they were due")
+                .register(registry);
+        FunctionCounter.builder("fcm.schedule.deferred", deferred, LongAdder::sum)
+                .description("Due FCM notifications put back because the dispatcher rejected them")
+                .register(registry);
+        FunctionCounter.builder("fcm.schedule.failed", failed, LongAdder::sum)
+                .description("Due FCM notifications dropped because they could not be sent")
+                .register(registry);
+        FunctionTimer.builder("fcm.schedule.lateness", this, s -> s.fired.sum(), s -> s.latenessNanos.sum(),
+                        TimeUnit.NANOSECONDS)
+                .description("Time from the due time of scheduled FCM notifications to their hand-off for sending")
+                .register(registry);
+    }
+
+    /**
+     * Stops the timer and writes a final snapshot. Notifications still pending are kept in the snapshot, or lost
+     * without one.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        if (snapshotTimer != null) {
+            snapshotTimer.shutdownNow();
+            save();
+        }
+    }
+
+    private void advance() {
+        List<TimingWheel.Entry> due = new ArrayList<>();
+        synchronized (this) {
+            wheel.advance(System.currentTimeMillis(), entry -> {
+                entries.remove(entry.id);
+                due.add(entry);
+            });
+        }
+        due.forEach(this::fire);
+    }
+
+    private void fire(TimingWheel.Entry entry) {
+        try {
+            executor.execute(() -> send(entry));
+        } catch (RejectedExecutionException ex) {
+            defer(entry, MIN_RETRY_MILLIS);
+        }
+    }
+
+    private void send(TimingWheel.Entry entry) {
+        fired.increment();
+        latenessNanos.add(TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - entry.dueMillis)));
+        FcmSendRequest request;
+        try {
+            request = requestReader.readValue(entry.payload);
+        } catch (IOException ex) {
+            failed.increment();
+            logger.warn("Dropping scheduled FCM notification {} that cannot be read", entry.id, ex);
+            return;
+        }
+        FcmSendOptions options = FcmSendOptions.Builder.aFcmSendOptions()
+                .priority(entry.priority)
+                .idempotencyKey(entry.idempotencyKey)
+                .tenant(entry.tenant)
+                .build();
+        try {
+            fcmNotificationService.sendComplex(request, options).whenComplete((response, throwable) -> {
+                if (throwable != null) {
+                    logger.warn("Scheduled FCM notification {} did not complete", entry.id, throwable);
+                }
+            });
+        } catch (FcmDispatchRejectedException ex) {
+            defer(entry, Math.max(MIN_RETRY_MILLIS, ex.getRetryAfter().toMillis()));
+        } catch (RuntimeException ex) {
+            failed.increment();
+            logger.warn("Dropping scheduled FCM notification {} that could not be sent", entry.id, ex);
+        }
+    }
+
+    /**
+     * Puts a due notification back on the wheel, under the same id, to be sent again after the delay.
+     */
+    private void defer(TimingWheel.Entry entry, long delayMillis) {
+        deferred.increment();
+        TimingWheel.Entry retry = new TimingWheel.Entry(entry.id, System.currentTimeMillis() + delayMillis,
+                entry.priority, entry.idempotencyKey, entry.tenant, entry.payload);
+        synchronized (this) {
+            wheel.add(retry);
+            entries.put(retry.id, retry);
+        }
+    }
+
+    /**
+     * Reads the snapshot into the wheel, returning the notifications that fell due while the application was down.
+     */
+    private List<TimingWheel.Entry> load() {
+        List<TimingWheel.Entry> due = new ArrayList<>();
+        if (!Files.exists(snapshot)) {
+            return due;
+        }
+        FcmPriority[] priorities = FcmPriority.values();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot), 1 << 16))) {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not an FCM schedule snapshot");
+            }
+            int count = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    long id = in.readLong();
+                    long dueMillis = in.readLong();
+                    FcmPriority priority = priorities[in.readByte()];
+                    String idempotencyKey = in.readBoolean() ? in.readUTF() : null;
+                    String tenant = version >= 2 && in.readBoolean() ? in.readUTF() : null;
+                    byte[] payload = new byte[in.readInt()];
+                    in.readFully(payload);
+                    TimingWheel.Entry entry = new TimingWheel.Entry(id, dueMillis, priority, idempotencyKey, tenant,
+                            payload);
+                    if (wheel.add(entry)) {
+                        entries.put(id, entry);
+                    } else {
+                        due.add(entry);
+                    }
+                    nextId = Math.max(nextId, id + 1);
+                }
+            }
+            logger.info("Loaded {} scheduled FCM notifications from {}, {} of them overdue", count, snapshot,
+                    due.size());
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Failed to load the FCM schedule snapshot from {}, starting empty", snapshot, ex);
+            synchronized (this) {
+                entries.values().forEach(wheel::remove);
+                entries.clear();
+            }
+            due.clear();
+        }
+        return due;
+    }
+}
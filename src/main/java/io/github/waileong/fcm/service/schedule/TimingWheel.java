@@ -0,0 +1,213 @@
+package io.github.waileong.fcm.service.schedule;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel holding the scheduled notifications until they are due.
+ * <p>
+ * Time is cut into ticks of a fixed length, and four wheels of 256 buckets each cover 256, 256^2, 256^3 and 256^4
+ * ticks. An entry goes into the finest wheel whose range reaches its due tick, in the bucket of that tick, so
+ * adding and removing an entry is a constant time link into a doubly linked bucket list, whatever the number of
+ * entries held. Every tick expires the bucket of the finest wheel; whenever a wheel completes a turn, the next
+ * bucket of the wheel above is cascaded, its entries moving down to a finer wheel. An entry is therefore moved at
+ * most three times before it expires, and the buckets hold no per-entry objects besides the entries themselves.
+ * <p>
+ * The wheel is not thread safe; the {@link FcmNotificationScheduler} serializes all access.
+ *
+ * @author Wai Leong
+ */
+final class TimingWheel {
+    private static final int BITS = 8;
+    private static final int SIZE = 1 << BITS;
+    private static final int MASK = SIZE - 1;
+    private static final int LEVELS = 4;
+    private final Entry[][] buckets = new Entry[LEVELS][SIZE];
+    private final long tickMillis;
+    private long tick;
+    private int size;
+
+    /**
+     * Constructs an empty TimingWheel.
+     *
+     * @param tickMillis the length of a tick in milliseconds, the resolution of the due times
+     * @param nowMillis  the current time in milliseconds since the epoch
+     */
+    TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.tick = nowMillis / tickMillis;
+    }
+
+    /**
+     * Adds an entry to the wheel, unless it is already due.
+     *
+     * @param entry the entry to add
+     * @return true if the entry was added, false if its due time has passed and it must be sent straight away
+     * @throws IllegalArgumentException if the due time is beyond the range of the wheel
+     */
+    boolean add(Entry entry) {
+        long due = dueTick(entry);
+        if (due < tick) {
+            return false;
+        }
+        place(entry, due);
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes an entry held by the wheel.
+     *
+     * @param entry the entry to remove
+     */
+    void remove(Entry entry) {
+        unlink(entry);
+        size--;
+    }
+
+    /**
+     * Advances the wheel to the current time, handing every entry that has become due to the consumer in due
+     * order, tick by tick.
+     *
+     * @param nowMillis the current time in milliseconds since the epoch
+     * @param expired   receives the entries that have become due, already removed from the wheel
+     */
+    void advance(long nowMillis, Consumer<Entry> expired) {
+        long target = nowMillis / tickMillis;
+        while (tick <= target) {
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (BITS * level)) - 1)) == 0) {
+                    cascade(level, (int) (tick >>> (BITS * level)) & MASK);
+                }
+            }
+            Entry entry = buckets[0][(int) tick & MASK];
+            buckets[0][(int) tick & MASK] = null;
+            while (entry != null) {
+                Entry next = entry.next;
+                entry.next = null;
+                entry.previous = null;
+                entry.level = -1;
+                size--;
+                expired.accept(entry);
+                entry = next;
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * Hands every entry held to the consumer, in no particular order.
+     *
+     * @param consumer receives the entries
+     */
+    void forEach(Consumer<Entry> consumer) {
+        for (Entry[] wheel : buckets) {
+            for (Entry head : wheel) {
+                for (Entry entry = head; entry != null; entry = entry.next) {
+                    consumer.accept(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries held.
+     *
+     * @return the wheel size
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the furthest due time, in milliseconds since the epoch, an entry added now can have.
+     *
+     * @return the horizon of the wheel
+     */
+    long horizonMillis() {
+        int shift = BITS * (LEVELS - 1);
+        return (((tick >>> shift) + MASK) << shift) * tickMillis;
+    }
+
+    private void cascade(int level, int index) {
+        Entry entry = buckets[level][index];
+        buckets[level][index] = null;
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+            entry.previous = null;
+            place(entry, dueTick(entry));
+            entry = next;
+        }
+    }
+
+    /**
+     * Links the entry into the finest wheel whose range, counted in whole turns of the wheel below, reaches the
+     * due tick. The bucket of the due tick in that wheel is then reached before the wheel has turned once more.
+     */
+    private void place(Entry entry, long due) {
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = BITS * level;
+            if ((due >>> shift) - (tick >>> shift) < SIZE) {
+                int index = (int) (due >>> shift) & MASK;
+                Entry head = buckets[level][index];
+                entry.next = head;
+                if (head != null) {
+                    head.previous = entry;
+                }
+                buckets[level][index] = entry;
+                entry.level = level;
+                entry.index = index;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Scheduled time is beyond the range of the timing wheel");
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.previous == null) {
+            buckets[entry.level][entry.index] = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.previous = entry.previous;
+        }
+        entry.next = null;
+        entry.previous = null;
+        entry.level = -1;
+    }
+
+    private long dueTick(Entry entry) {
+        return Math.ceilDiv(entry.dueMillis, tickMillis);
+    }
+
+    /**
+     * A scheduled notification: the serialized request and the options to send it with, linked into its bucket.
+     */
+    static final class Entry {
+        final long id;
+        final long dueMillis;
+        final FcmPriority priority;
+        final String idempotencyKey;
+        final String tenant;
+        final byte[] payload;
+        private Entry previous;
+        private Entry next;
+        private int level = -1;
+        private int index;
+
+        Entry(long id, long dueMillis, FcmPriority priority, String idempotencyKey, String tenant, byte[] payload) {
+            this.id = id;
+            this.dueMillis = dueMillis;
+            this.priority = priority;
+            this.idempotencyKey = idempotencyKey;
+            this.tenant = tenant;
+            this.payload = payload;
+        }
+    }
+}
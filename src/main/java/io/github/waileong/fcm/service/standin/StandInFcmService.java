@@ -0,0 +1,127 @@
+package io.github.waileong.fcm.service.standin;
+
+import io.github.waileong.fcm.exception.FcmRestClientException;
+import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local stand-in for FCM that answers every send after a simulated round trip, with a configurable share of
+ * errors, so that the endpoint can be load tested without reaching Google.
+ * <p>
+ * The round trip time follows a log-normal distribution fitted to the configured median and 99th percentile,
+ * which matches the long tail of real network calls better than a fixed or uniform delay. Injected errors are
+ * raised as {@link FcmRestClientException} carrying the same {@link FcmError} and HTTP status as FCM would,
+ * including a {@code Retry-After} header on throttling errors, so the limiter, retry policy and token cache react
+ * exactly as they do in production.
+ *
+ * @author Wai Leong
+ */
+public class StandInFcmService implements FcmService {
+    private static final double Z_99 = 2.3263478740408408;
+    private static final FcmMessage RESPONSE = FcmMessage.Builder.aFcmMessage().build();
+    private final double medianNanos;
+    private final double sigma;
+    private final Map<Fault, Double> errorRates = new EnumMap<>(Fault.class);
+    private final Duration retryAfter;
+
+    /**
+     * Constructs a StandInFcmService.
+     *
+     * @param latencyMedian the median simulated round trip time
+     * @param latencyP99    the 99th percentile of the simulated round trip time, not below the median
+     * @param errorRates    the fraction of calls answered with each error, keyed by fault name
+     * @param retryAfter    the {@code Retry-After} sent with throttling errors, zero for none
+     */
+    public StandInFcmService(Duration latencyMedian, Duration latencyP99, Map<String, Double> errorRates,
+                             Duration retryAfter) {
+        if (latencyP99.compareTo(latencyMedian) < 0) {
+            throw new IllegalArgumentException("latencyP99 must not be below latencyMedian");
+        }
+        this.medianNanos = latencyMedian.toNanos();
+        this.sigma = medianNanos == 0 ? 0 : Math.log((double) latencyP99.toNanos() / medianNanos) / Z_99;
+        double total = 0;
+        for (Map.Entry<String, Double> entry : errorRates.entrySet()) {
+            Fault fault = Fault.valueOf(entry.getKey().toUpperCase(Locale.ROOT));
+            double rate = entry.getValue() == null ? 0 : entry.getValue();
+            if (rate < 0) {
+                throw new IllegalArgumentException("Error rate of " + fault + " must not be negative");
+            }
+            this.errorRates.put(fault, rate);
+            total += rate;
+        }
+        if (total > 1) {
+            throw new IllegalArgumentException("Error rates must not add up to more than 1");
+        }
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public FcmMessage send(FcmSendRequest fcmSendRequest) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latency = (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+        if (latency > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latency);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        double draw = random.nextDouble();
+        for (Map.Entry<Fault, Double> entry : errorRates.entrySet()) {
+            draw -= entry.getValue();
+            if (draw < 0) {
+                throw entry.getKey().raise(retryAfter);
+            }
+        }
+        return RESPONSE;
+    }
+
+    /**
+     * The errors the stand-in can inject, with the HTTP status and canonical error status FCM answers them with.
+     */
+    enum Fault {
+        UNREGISTERED(404, "NOT_FOUND", "Requested entity was not found.", false),
+        QUOTA_EXCEEDED(429, "RESOURCE_EXHAUSTED", "Quota exceeded for sending messages.", true),
+        UNAVAILABLE(503, "UNAVAILABLE", "The service is currently unavailable.", true);
+
+        private final int code;
+        private final String status;
+        private final String message;
+        private final boolean throttling;
+
+        Fault(int code, String status, String message, boolean throttling) {
+            this.code = code;
+            this.status = status;
+            this.message = message;
+            this.throttling = throttling;
+        }
+
+        FcmRestClientException raise(Duration retryAfter) {
+            HttpHeaders headers = new HttpHeaders();
+            if (throttling && !retryAfter.isZero()) {
+                headers.set(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter.toSeconds()));
+            }
+            FcmError error = FcmError.Builder.aFcmError()
+                    .code(code)
+                    .status(status)
+                    .message(message)
+                    .build();
+            RestClientResponseException response = new RestClientResponseException(message,
+                    HttpStatusCode.valueOf(code), status, headers, null, StandardCharsets.UTF_8);
+            return new FcmRestClientException(error, response);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package io.github.waileong.fcm.service.support;
+
+import io.github.waileong.fcm.exception.FcmRestClientException;
+import io.github.waileong.fcm.service.domain.FcmError;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Helper methods for classifying the {@link FcmError} returned by FCM.
+ * FCM reports the canonical error status (such as {@code UNAVAILABLE} or {@code RESOURCE_EXHAUSTED})
+ * together with the HTTP status code, and these helpers normalise both into the checks the send path needs.
+ *
+ * @author Wai Leong
+ */
+public final class FcmErrors {
+
+    private FcmErrors() {
+    }
+
+    /**
+     * Returns the canonical error status of the error, such as {@code UNAVAILABLE}.
+     *
+     * @param error the FCM error, may be null
+     * @return the error status, or {@code UNKNOWN} if the error carries none
+     */
+    public static String status(FcmError error) {
+        if (error == null || error.getStatus() == null) {
+            return "UNKNOWN";
+        }
+        return error.getStatus();
+    }
+
+    /**
+     * Returns the HTTP status code of the error.
+     *
+     * @param error the FCM error, may be null
+     * @return the HTTP status code, or {@code 0} if the error carries none
+     */
+    public static int code(FcmError error) {
+        if (error == null) {
+            return 0;
+        }
+        Integer code = error.getCode();
+        return code == null ? 0 : code;
+    }
+
+    /**
+     * Returns whether the error means FCM is throttling the sender, either because the quota is exceeded
+     * ({@code 429 RESOURCE_EXHAUSTED}) or because the service is overloaded ({@code 503 UNAVAILABLE}).
+     *
+     * @param error the FCM error, may be null
+     * @return {@code true} if the error is a throttling error
+     */
+    public static boolean isThrottled(FcmError error) {
+        int code = code(error);
+        if (code == 429 || code == 503) {
+            return true;
+        }
+        String status = status(error);
+        return "RESOURCE_EXHAUSTED".equals(status) || "QUOTA_EXCEEDED".equals(status) || "UNAVAILABLE".equals(status);
+    }
+
+    /**
+     * Returns whether the error may clear by itself, so that the same message may be sent successfully later:
+     * throttling, an internal error or the unavailability of FCM, or an error FCM reports without a status. Errors
+     * about the message or its token, such as {@code INVALID_ARGUMENT} or {@code UNREGISTERED}, are permanent.
+     *
+     * @param error the FCM error, may be null
+     * @return {@code true} if the error is transient
+     */
+    public static boolean isTransient(FcmError error) {
+        if (error == null) {
+            return false;
+        }
+        if (isThrottled(error) || code(error) >= 500) {
+            return true;
+        }
+        String status = status(error);
+        return "INTERNAL".equals(status) || "UNKNOWN".equals(status);
+    }
+
+    /**
+     * Returns whether the error means the registration token the message was sent to is no longer usable,
+     * either because the app instance was unregistered ({@code 404 UNREGISTERED}) or because the token is not
+     * a valid registration token ({@code 400 INVALID_ARGUMENT} naming the token, as opposed to a bad payload).
+     *
+     * @param error the FCM error, may be null
+     * @return {@code true} if further sends to the same token are bound to fail
+     */
+    public static boolean isInvalidToken(FcmError error) {
+        if (error == null) {
+            return false;
+        }
+        String status = status(error);
+        if ("UNREGISTERED".equals(status) || "NOT_FOUND".equals(status) || code(error) == 404) {
+            return true;
+        }
+        String message = error.getMessage();
+        return "INVALID_ARGUMENT".equals(status) && message != null
+                && message.toLowerCase(Locale.ROOT).contains("registration token");
+    }
+
+    /**
+     * Returns the delay requested by the {@code Retry-After} header of the HTTP response behind the exception,
+     * given either in seconds or as an HTTP date.
+     *
+     * @param ex the exception raised by the send
+     * @return the requested delay, or {@link Duration#ZERO} if the response carries no usable header
+     */
+    public static Duration retryAfter(FcmRestClientException ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestClientResponseException responseException) {
+                HttpHeaders headers = responseException.getResponseHeaders();
+                return headers == null ? Duration.ZERO : parseRetryAfter(headers.getFirst(HttpHeaders.RETRY_AFTER));
+            }
+        }
+        return Duration.ZERO;
+    }
+
+    static Duration parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return Duration.ZERO;
+        }
+        try {
+            return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException ignored) {
+            // not delta-seconds, try the HTTP-date form below
+        }
+        try {
+            Duration delay = Duration.between(ZonedDateTime.now(),
+                    ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+            return delay.isNegative() ? Duration.ZERO : delay;
+        } catch (DateTimeParseException ignored) {
+            return Duration.ZERO;
+        }
+    }
+}
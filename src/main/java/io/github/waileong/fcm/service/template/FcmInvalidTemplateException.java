@@ -0,0 +1,19 @@
+package io.github.waileong.fcm.service.template;
+
+/**
+ * Thrown when a notification template cannot be compiled, because it misses its title or body or a value of its
+ * data is null.
+ *
+ * @author Wai Leong
+ */
+public class FcmInvalidTemplateException extends IllegalArgumentException {
+
+    /**
+     * Constructs a new exception with the specified detail message.
+     *
+     * @param message the detail message
+     */
+    public FcmInvalidTemplateException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,332 @@
+package io.github.waileong.fcm.service.template;
+
+import io.github.waileong.fcm.service.domain.FcmAndroid;
+import io.github.waileong.fcm.service.domain.FcmAndroidNotification;
+import io.github.waileong.fcm.service.domain.FcmApns;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmNotification;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A notification skeleton registered once and sent many times with a small map of variables. The title, the body,
+ * the values of the data and the collapse key are {@link FcmTemplateText texts} with {@code {name}} placeholders,
+ * compiled when the template is built. Every part that has no placeholder is built once and shared by every
+ * message rendered from the template: the notification if neither the title nor the body has one, the data map if
+ * none of its values has one, and the APNs and Android collapse overrides if the collapse key has none.
+ * <p>
+ * APNs and Android overrides given with the template are sent as they are, and take the place of the overrides
+ * derived from the collapse key for their platform.
+ * Instances are immutable; use {@link Builder} to create one.
+ *
+ * @author Wai Leong
+ */
+public final class FcmNotificationTemplate {
+    private static final String APNS_COLLAPSE_ID = "apns-collapse-id";
+    private final FcmTemplateText title;
+    private final FcmTemplateText body;
+    private final Map<String, FcmTemplateText> dataTexts;
+    private final FcmTemplateText collapseKey;
+    private final FcmApns apns;
+    private final FcmAndroid android;
+    private final FcmNotification notification;
+    private final Map<String, String> data;
+    private final FcmApns collapseApns;
+    private final FcmAndroid collapseAndroid;
+    private final Set<String> variables;
+
+    private FcmNotificationTemplate(Builder builder) {
+        this.title = FcmTemplateText.compile(builder.title);
+        this.body = FcmTemplateText.compile(builder.body);
+        this.collapseKey = builder.collapseKey == null || builder.collapseKey.isBlank()
+                ? null : FcmTemplateText.compile(builder.collapseKey);
+        this.apns = builder.apns;
+        this.android = builder.android;
+        Map<String, FcmTemplateText> texts = new LinkedHashMap<>();
+        boolean constantData = true;
+        if (builder.data != null) {
+            for (Map.Entry<String, String> entry : builder.data.entrySet()) {
+                FcmTemplateText text = FcmTemplateText.compile(entry.getValue());
+                texts.put(entry.getKey(), text);
+                constantData &= text.isConstant();
+            }
+        }
+        this.dataTexts = builder.data == null ? null : texts;
+        this.data = builder.data == null || !constantData ? null : Map.copyOf(builder.data);
+        this.notification = title.isConstant() && body.isConstant() ? notification(title.getText(), body.getText())
+                : null;
+        boolean constantKey = collapseKey != null && collapseKey.isConstant();
+        this.collapseApns = constantKey ? collapseApns(collapseKey.getText()) : null;
+        this.collapseAndroid = constantKey ? collapseAndroid(collapseKey.getText()) : null;
+        Set<String> names = new LinkedHashSet<>(title.getVariables());
+        names.addAll(body.getVariables());
+        texts.values().forEach(text -> names.addAll(text.getVariables()));
+        if (collapseKey != null) {
+            names.addAll(collapseKey.getVariables());
+        }
+        this.variables = Set.copyOf(names);
+    }
+
+    /**
+     * Builds the APNs override collapsing the notifications with the same key.
+     *
+     * @param collapseKey the collapse key
+     * @return the APNs override
+     */
+    public static FcmApns collapseApns(String collapseKey) {
+        return FcmApns.Builder.aFcmApns()
+                .headers(Map.of(APNS_COLLAPSE_ID, collapseKey))
+                .build();
+    }
+
+    /**
+     * Builds the Android override collapsing the notifications with the same key, both while they wait in FCM and
+     * once they are shown on the device.
+     *
+     * @param collapseKey the collapse key
+     * @return the Android override
+     */
+    public static FcmAndroid collapseAndroid(String collapseKey) {
+        return FcmAndroid.Builder.aFcmAndroid()
+                .collapseKey(collapseKey)
+                .notification(FcmAndroidNotification.Builder.aFcmAndroidNotification()
+                        .tag(collapseKey)
+                        .build())
+                .build();
+    }
+
+    /**
+     * Renders a message from the template, without a target.
+     *
+     * @param variables the values of the placeholders, may be null if the template has none
+     * @return the message builder, to which the caller adds the target
+     * @throws FcmTemplateVariableException if a placeholder has no value
+     */
+    public FcmMessage.Builder builder(Map<String, String> variables) {
+        FcmMessage.Builder builder = FcmMessage.Builder.aFcmMessage()
+                .notification(notification != null ? notification
+                        : notification(title.render(variables), body.render(variables)));
+        if (dataTexts != null) {
+            builder.data(data != null ? data : renderData(variables));
+        }
+        String key = collapseKey == null || collapseKey.isConstant() ? null : collapseKey.render(variables);
+        FcmApns apnsOverride = apns != null ? apns : key != null ? collapseApns(key) : collapseApns;
+        if (apnsOverride != null) {
+            builder.apns(apnsOverride);
+        }
+        FcmAndroid androidOverride = android != null ? android : key != null ? collapseAndroid(key) : collapseAndroid;
+        if (androidOverride != null) {
+            builder.android(androidOverride);
+        }
+        return builder;
+    }
+
+    /**
+     * Renders the collapse key of a message from the template.
+     *
+     * @param variables the values of the placeholders, may be null if the template has none
+     * @return the collapse key, or null if the template has none
+     * @throws FcmTemplateVariableException if a placeholder has no value
+     */
+    public String collapseKey(Map<String, String> variables) {
+        return collapseKey == null ? null : collapseKey.render(variables);
+    }
+
+    /**
+     * Gets the names of the placeholders of the template.
+     *
+     * @return the names of the placeholders
+     */
+    public Set<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Gets the title of the template, with its placeholders.
+     *
+     * @return the title
+     */
+    public String getTitle() {
+        return title.getText();
+    }
+
+    /**
+     * Gets the body of the template, with its placeholders.
+     *
+     * @return the body
+     */
+    public String getBody() {
+        return body.getText();
+    }
+
+    /**
+     * Gets the data of the template, with the placeholders of its values.
+     *
+     * @return the data, or null if the template has none
+     */
+    public Map<String, String> getData() {
+        if (dataTexts == null) {
+            return null;
+        }
+        Map<String, String> texts = new LinkedHashMap<>();
+        dataTexts.forEach((key, text) -> texts.put(key, text.getText()));
+        return texts;
+    }
+
+    /**
+     * Gets the collapse key of the template, with its placeholders.
+     *
+     * @return the collapse key, or null if the template has none
+     */
+    public String getCollapseKey() {
+        return collapseKey == null ? null : collapseKey.getText();
+    }
+
+    /**
+     * Gets the APNs override of the template.
+     *
+     * @return the APNs override, or null if the template has none
+     */
+    public FcmApns getApns() {
+        return apns;
+    }
+
+    /**
+     * Gets the Android override of the template.
+     *
+     * @return the Android override, or null if the template has none
+     */
+    public FcmAndroid getAndroid() {
+        return android;
+    }
+
+    private Map<String, String> renderData(Map<String, String> variables) {
+        Map<String, String> rendered = HashMap.newHashMap(dataTexts.size());
+        dataTexts.forEach((key, text) -> rendered.put(key, text.render(variables)));
+        return rendered;
+    }
+
+    private static FcmNotification notification(String title, String body) {
+        return FcmNotification.Builder.aFcmNotification()
+                .title(title)
+                .body(body)
+                .build();
+    }
+
+    /**
+     * The builder class for {@link FcmNotificationTemplate}. Provides a fluent API for constructing
+     * an instance of {@link FcmNotificationTemplate}.
+     */
+    public static final class Builder {
+        private String title;
+        private String body;
+        private Map<String, String> data;
+        private String collapseKey;
+        private FcmApns apns;
+        private FcmAndroid android;
+
+        private Builder() {
+        }
+
+        /**
+         * Creates a new instance of the builder for {@link FcmNotificationTemplate}.
+         *
+         * @return a new instance of {@link Builder}
+         */
+        public static Builder aFcmNotificationTemplate() {
+            return new Builder();
+        }
+
+        /**
+         * Sets the title for the {@link FcmNotificationTemplate} being built.
+         *
+         * @param title the title of the notification, with {@code {name}} placeholders
+         * @return the builder instance
+         */
+        public Builder title(String title) {
+            this.title = title;
+            return this;
+        }
+
+        /**
+         * Sets the body for the {@link FcmNotificationTemplate} being built.
+         *
+         * @param body the message body of the notification, with {@code {name}} placeholders
+         * @return the builder instance
+         */
+        public Builder body(String body) {
+            this.body = body;
+            return this;
+        }
+
+        /**
+         * Sets the data for the {@link FcmNotificationTemplate} being built.
+         *
+         * @param data the data sent with the notification, whose values may have {@code {name}} placeholders but
+         *             must not be null, may be null
+         * @return the builder instance
+         */
+        public Builder data(Map<String, String> data) {
+            this.data = data;
+            return this;
+        }
+
+        /**
+         * Sets the collapse key for the {@link FcmNotificationTemplate} being built.
+         *
+         * @param collapseKey the collapse key of the notification, with {@code {name}} placeholders, null or blank
+         *                    for none
+         * @return the builder instance
+         */
+        public Builder collapseKey(String collapseKey) {
+            this.collapseKey = collapseKey;
+            return this;
+        }
+
+        /**
+         * Sets the APNs override for the {@link FcmNotificationTemplate} being built.
+         *
+         * @param apns the APNs override sent as it is, may be null
+         * @return the builder instance
+         */
+        public Builder apns(FcmApns apns) {
+            this.apns = apns;
+            return this;
+        }
+
+        /**
+         * Sets the Android override for the {@link FcmNotificationTemplate} being built.
+         *
+         * @param android the Android override sent as it is, may be null
+         * @return the builder instance
+         */
+        public Builder android(FcmAndroid android) {
+            this.android = android;
+            return this;
+        }
+
+        /**
+         * Compiles the {@link FcmNotificationTemplate} with the current builder settings.
+         *
+         * @return the newly constructed {@link FcmNotificationTemplate}
+         * @throws FcmInvalidTemplateException if the title or the body is missing, or a value of the data is null
+         */
+        public FcmNotificationTemplate build() {
+            if (title == null || title.isBlank() || body == null || body.isBlank()) {
+                throw new FcmInvalidTemplateException("An FCM template needs a title and a body");
+            }
+            if (data != null) {
+                data.forEach((key, value) -> {
+                    if (value == null) {
+                        throw new FcmInvalidTemplateException("The FCM template data " + key + " has no value");
+                    }
+                });
+            }
+            return new FcmNotificationTemplate(this);
+        }
+    }
+}
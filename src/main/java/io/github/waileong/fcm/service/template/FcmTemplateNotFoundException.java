@@ -0,0 +1,19 @@
+package io.github.waileong.fcm.service.template;
+
+/**
+ * Thrown when a notification template is not registered in the {@link FcmTemplateRegistry}, or templates are
+ * disabled.
+ *
+ * @author Wai Leong
+ */
+public class FcmTemplateNotFoundException extends RuntimeException {
+
+    /**
+     * Constructs a new exception for the template.
+     *
+     * @param template the id of the template
+     */
+    public FcmTemplateNotFoundException(String template) {
+        super("FCM template not found: " + template);
+    }
+}
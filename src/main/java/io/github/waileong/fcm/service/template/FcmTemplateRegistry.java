@@ -0,0 +1,74 @@
+package io.github.waileong.fcm.service.template;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A registry of notification templates by id, so that a producer sending the same notification thousands of
+ * times names its template and passes the few variables that change, instead of the full title, body and
+ * overrides with every send. Templates are compiled when they are registered, and replaced as a whole, so a send
+ * renders from a consistent template without locking while it is being replaced.
+ *
+ * @author Wai Leong
+ */
+public class FcmTemplateRegistry implements MeterBinder {
+    private final ConcurrentMap<String, FcmNotificationTemplate> templates = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a template, replacing the template with the same id.
+     *
+     * @param id       the id of the template
+     * @param template the template
+     * @return true if a template with the same id was replaced
+     */
+    public boolean register(String id, FcmNotificationTemplate template) {
+        return templates.put(id, template) != null;
+    }
+
+    /**
+     * Returns a template.
+     *
+     * @param id the id of the template
+     * @return the template
+     * @throws FcmTemplateNotFoundException if the template is not registered
+     */
+    public FcmNotificationTemplate get(String id) {
+        FcmNotificationTemplate template = templates.get(id);
+        if (template == null) {
+            throw new FcmTemplateNotFoundException(id);
+        }
+        return template;
+    }
+
+    /**
+     * Removes a template.
+     *
+     * @param id the id of the template
+     * @return true if the template was registered
+     */
+    public boolean remove(String id) {
+        return templates.remove(id) != null;
+    }
+
+    /**
+     * Returns the registered templates.
+     *
+     * @return the templates, sorted by id
+     */
+    public Map<String, FcmNotificationTemplate> templates() {
+        return new TreeMap<>(templates);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.template.count", templates, Map::size)
+                .description("FCM notification templates registered")
+                .register(registry);
+    }
+}
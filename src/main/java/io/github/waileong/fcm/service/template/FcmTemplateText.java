@@ -0,0 +1,143 @@
+package io.github.waileong.fcm.service.template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A text with {@code {name}} placeholders, split once into its literal parts and variable names so that rendering
+ * it is a single pass appending to a buffer of the exact length. A text without placeholders renders to itself
+ * without allocating. A brace not followed by a valid name and a closing brace is kept as a literal.
+ * Instances are immutable and can be shared by every thread.
+ *
+ * @author Wai Leong
+ */
+public final class FcmTemplateText {
+    private final String text;
+    private final String[] literals;
+    private final String[] names;
+    private final int literalLength;
+
+    private FcmTemplateText(String text, String[] literals, String[] names) {
+        this.text = text;
+        this.literals = literals;
+        this.names = names;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compiles a text.
+     *
+     * @param text the text, may be null
+     * @return the compiled text, or null if the text is null
+     */
+    public static FcmTemplateText compile(String text) {
+        if (text == null) {
+            return null;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int start = 0;
+        int open = text.indexOf('{');
+        while (open >= 0) {
+            int close = text.indexOf('}', open + 1);
+            if (close < 0) {
+                break;
+            }
+            int nested = text.lastIndexOf('{', close);
+            if (nested > open) {
+                open = nested;
+            }
+            if (isName(text, open + 1, close)) {
+                literals.add(text.substring(start, open));
+                names.add(text.substring(open + 1, close));
+                start = close + 1;
+            }
+            open = text.indexOf('{', close + 1);
+        }
+        literals.add(text.substring(start));
+        return new FcmTemplateText(text, literals.toArray(String[]::new), names.toArray(String[]::new));
+    }
+
+    /**
+     * Renders the text with the given variables.
+     *
+     * @param variables the values of the placeholders, may be null if the text has none
+     * @return the rendered text
+     * @throws FcmTemplateVariableException if a placeholder has no value
+     */
+    public String render(Map<String, String> variables) {
+        if (names.length == 0) {
+            return text;
+        }
+        String[] values = new String[names.length];
+        int length = literalLength;
+        for (int i = 0; i < names.length; i++) {
+            String value = variables == null ? null : variables.get(names[i]);
+            if (value == null) {
+                throw new FcmTemplateVariableException(names[i]);
+            }
+            values[i] = value;
+            length += value.length();
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < names.length; i++) {
+            builder.append(literals[i]).append(values[i]);
+        }
+        return builder.append(literals[names.length]).toString();
+    }
+
+    /**
+     * Returns whether the text has no placeholders, so that it renders to itself.
+     *
+     * @return true if the text has no placeholders
+     */
+    public boolean isConstant() {
+        return names.length == 0;
+    }
+
+    /**
+     * Returns the names of the placeholders, in the order they first appear.
+     *
+     * @return the names of the placeholders
+     */
+    public Set<String> getVariables() {
+        Set<String> variables = new LinkedHashSet<>();
+        Collections.addAll(variables, names);
+        return variables;
+    }
+
+    /**
+     * Returns the text as it was compiled.
+     *
+     * @return the text with its placeholders
+     */
+    public String getText() {
+        return text;
+    }
+
+    private static boolean isName(String text, int from, int to) {
+        if (from == to) {
+            return false;
+        }
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,18 @@
+package io.github.waileong.fcm.service.template;
+
+/**
+ * Thrown when a notification is rendered from a template without a value for one of its placeholders.
+ *
+ * @author Wai Leong
+ */
+public class FcmTemplateVariableException extends RuntimeException {
+
+    /**
+     * Constructs a new exception for the variable.
+     *
+     * @param variable the name of the placeholder without a value
+     */
+    public FcmTemplateVariableException(String variable) {
+        super("Missing value for FCM template variable: " + variable);
+    }
+}
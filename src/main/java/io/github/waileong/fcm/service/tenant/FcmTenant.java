@@ -0,0 +1,133 @@
+package io.github.waileong.fcm.service.tenant;
+
+import io.github.waileong.fcm.service.dispatch.FcmDispatchRejectedException;
+import io.github.waileong.fcm.service.dispatch.FcmOutboundSender;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A tenant of the endpoint: an FCM project with its own {@link FcmOutboundSender}, and so its own FcmService,
+ * OAuth token, concurrency limiter and metrics, behind a bulkhead.
+ * <p>
+ * The sender is created on first use, so the credentials of a tenant are only loaded once it is sent to. The
+ * bulkhead bounds the sends of the tenant queued or in flight at the same time: once it is full, further sends of
+ * the tenant are rejected straight away, so a noisy tenant fills neither the shared dispatch lanes nor the
+ * executor, and the other tenants keep their share.
+ *
+ * @author Wai Leong
+ */
+public class FcmTenant {
+    private final String name;
+    private final Supplier<FcmOutboundSender> senderFactory;
+    private final int maxPending;
+    private final Duration retryAfter;
+    private final Semaphore bulkhead;
+    private final LongAdder rejected = new LongAdder();
+    private volatile FcmOutboundSender sender;
+
+    /**
+     * Constructs a FcmTenant.
+     *
+     * @param name          the name of the tenant
+     * @param senderFactory creates the sender of the tenant, called once on first use
+     * @param maxPending    the maximum number of sends of the tenant queued or in flight at the same time
+     * @param retryAfter    the {@code Retry-After} suggested to callers rejected because the bulkhead is full
+     */
+    public FcmTenant(String name, Supplier<FcmOutboundSender> senderFactory, int maxPending, Duration retryAfter) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        this.name = name;
+        this.senderFactory = senderFactory;
+        this.maxPending = maxPending;
+        this.retryAfter = retryAfter;
+        this.bulkhead = new Semaphore(maxPending);
+    }
+
+    /**
+     * Runs the send if the bulkhead of the tenant has room for it, holding its permits until the send completes.
+     * A send of many messages, such as a multicast, takes a permit per message, up to the size of the bulkhead.
+     *
+     * @param messages the number of messages the send is made of
+     * @param send     performs the send
+     * @param <T>      the type of the result
+     * @return the result of the send
+     * @throws FcmDispatchRejectedException if the bulkhead of the tenant is full
+     */
+    public <T> CompletableFuture<T> admit(int messages, Supplier<CompletableFuture<T>> send) {
+        int permits = Math.max(1, Math.min(messages, maxPending));
+        if (!bulkhead.tryAcquire(permits)) {
+            rejected.increment();
+            throw new FcmDispatchRejectedException("Too many FCM sends pending for tenant " + name
+                    + " (" + maxPending + ")", retryAfter);
+        }
+        CompletableFuture<T> result;
+        try {
+            result = send.get();
+        } catch (RuntimeException ex) {
+            bulkhead.release(permits);
+            throw ex;
+        }
+        result.whenComplete((t, throwable) -> bulkhead.release(permits));
+        return result;
+    }
+
+    /**
+     * Returns the sender of the tenant, creating it on first use.
+     *
+     * @return the sender performing the outbound calls to the FCM project of the tenant
+     */
+    public FcmOutboundSender getSender() {
+        FcmOutboundSender current = sender;
+        if (current == null) {
+            synchronized (this) {
+                current = sender;
+                if (current == null) {
+                    current = senderFactory.get();
+                    sender = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the name of the tenant.
+     *
+     * @return the tenant name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of sends of the tenant queued or in flight.
+     *
+     * @return the pending count
+     */
+    public int getPending() {
+        return maxPending - bulkhead.availablePermits();
+    }
+
+    /**
+     * Returns the number of sends of the tenant rejected because the bulkhead was full.
+     *
+     * @return the rejected count
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns whether the sender of the tenant has been created.
+     *
+     * @return true once the tenant has been sent to
+     */
+    public boolean isInitialized() {
+        return sender != null;
+    }
+}
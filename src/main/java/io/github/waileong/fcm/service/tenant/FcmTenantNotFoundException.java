@@ -0,0 +1,18 @@
+package io.github.waileong.fcm.service.tenant;
+
+/**
+ * Thrown when a notification is routed to a tenant that is not configured in the {@link FcmTenantRegistry}.
+ *
+ * @author Wai Leong
+ */
+public class FcmTenantNotFoundException extends RuntimeException {
+
+    /**
+     * Constructs a new exception for the tenant.
+     *
+     * @param tenant the name of the tenant
+     */
+    public FcmTenantNotFoundException(String tenant) {
+        super("FCM tenant not found: " + tenant);
+    }
+}
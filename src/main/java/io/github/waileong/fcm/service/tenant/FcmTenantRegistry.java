@@ -0,0 +1,83 @@
+package io.github.waileong.fcm.service.tenant;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The tenants notifications can be routed to, each an FCM project besides the default one of
+ * {@code fcm.credential}. The set of tenants is fixed at startup; their senders are created on first use.
+ * <p>
+ * Registers, tagged with the {@code tenant}:
+ * <ul>
+ *     <li>{@code fcm.tenant.pending}, a gauge of the sends queued or in flight;</li>
+ *     <li>{@code fcm.tenant.rejected}, a counter of the sends rejected because the bulkhead was full;</li>
+ *     <li>{@code fcm.tenant.initialized}, a gauge that is 1 once the credentials of the tenant are loaded.</li>
+ * </ul>
+ *
+ * @author Wai Leong
+ */
+public class FcmTenantRegistry implements MeterBinder {
+    private final Map<String, FcmTenant> tenants = new LinkedHashMap<>();
+
+    /**
+     * Constructs a FcmTenantRegistry.
+     *
+     * @param tenants the tenants, with distinct names
+     */
+    public FcmTenantRegistry(Collection<FcmTenant> tenants) {
+        for (FcmTenant tenant : tenants) {
+            if (this.tenants.putIfAbsent(tenant.getName(), tenant) != null) {
+                throw new IllegalArgumentException("Duplicate FCM tenant " + tenant.getName());
+            }
+        }
+    }
+
+    /**
+     * Returns the tenant with the given name.
+     *
+     * @param name the name of the tenant
+     * @return the tenant
+     * @throws FcmTenantNotFoundException if no tenant has the name
+     */
+    public FcmTenant get(String name) {
+        FcmTenant tenant = tenants.get(name);
+        if (tenant == null) {
+            throw new FcmTenantNotFoundException(name);
+        }
+        return tenant;
+    }
+
+    /**
+     * Returns whether a tenant has the given name.
+     *
+     * @param name the name of the tenant
+     * @return true if the tenant is configured
+     */
+    public boolean contains(String name) {
+        return tenants.containsKey(name);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (FcmTenant tenant : tenants.values()) {
+            Gauge.builder("fcm.tenant.pending", tenant, FcmTenant::getPending)
+                    .description("FCM sends of the tenant queued or in flight")
+                    .tag("tenant", tenant.getName())
+                    .register(registry);
+            FunctionCounter.builder("fcm.tenant.rejected", tenant, FcmTenant::getRejected)
+                    .description("FCM sends of the tenant rejected because its bulkhead was full")
+                    .tag("tenant", tenant.getName())
+                    .register(registry);
+            Gauge.builder("fcm.tenant.initialized", tenant, t -> t.isInitialized() ? 1 : 0)
+                    .description("Whether the credentials of the tenant are loaded")
+                    .tag("tenant", tenant.getName())
+                    .register(registry);
+        }
+    }
+}
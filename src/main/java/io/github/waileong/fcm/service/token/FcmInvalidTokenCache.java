@@ -0,0 +1,325 @@
+package io.github.waileong.fcm.service.token;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.waileong.fcm.service.dispatch.FcmSendMetrics;
+import io.github.waileong.fcm.service.domain.FcmError;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of registration tokens that FCM has reported as unregistered or invalid, so that further
+ * sends to them can be answered locally instead of costing another round trip.
+ * <p>
+ * Entries expire after a fixed time to live. When the cache is full, expired entries are dropped first and then
+ * arbitrary entries until a tenth of the room is free again, so the cost of eviction is spread over many puts.
+ * If a snapshot file is given, the cache is loaded from it on construction and written to it periodically and
+ * on close, so that a restart does not relearn every dead token from FCM. Each FCM project has its own cache, and
+ * its metrics are tagged with the {@code tenant} it serves, {@code default} for the project of
+ * {@code fcm.credential}.
+ *
+ * @author Wai Leong
+ */
+@RegisterReflectionForBinding({FcmInvalidTokenCache.Snapshot.class, FcmInvalidTokenCache.SnapshotEntry.class})
+public class FcmInvalidTokenCache implements MeterBinder, AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Path snapshot;
+    private final ObjectWriter snapshotWriter;
+    private final ObjectReader snapshotReader;
+    private final ScheduledExecutorService snapshotTimer;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Tags tenantTags;
+
+    /**
+     * Constructs a FcmInvalidTokenCache for the default FCM project.
+     *
+     * @param maxSize          the maximum number of tokens held
+     * @param ttl              how long a token is held after FCM reported it
+     * @param snapshot         the file the cache is saved to and loaded from, or null to keep it in memory only
+     * @param snapshotInterval the interval between two saves of the snapshot
+     * @param objectMapper     the object mapper used to read and write the snapshot
+     */
+    public FcmInvalidTokenCache(int maxSize, Duration ttl, Path snapshot, Duration snapshotInterval,
+                                ObjectMapper objectMapper) {
+        this(maxSize, ttl, snapshot, snapshotInterval, objectMapper, FcmSendMetrics.DEFAULT_TENANT);
+    }
+
+    /**
+     * Constructs a FcmInvalidTokenCache for the FCM project of a tenant.
+     *
+     * @param maxSize          the maximum number of tokens held
+     * @param ttl              how long a token is held after FCM reported it
+     * @param snapshot         the file the cache is saved to and loaded from, or null to keep it in memory only
+     * @param snapshotInterval the interval between two saves of the snapshot
+     * @param objectMapper     the object mapper used to read and write the snapshot
+     * @param tenant           the tenant the metrics are tagged with
+     */
+    public FcmInvalidTokenCache(int maxSize, Duration ttl, Path snapshot, Duration snapshotInterval,
+                                ObjectMapper objectMapper, String tenant) {
+        this.tenantTags = Tags.of("tenant", tenant);
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlMillis = ttl.toMillis();
+        this.snapshot = snapshot;
+        this.snapshotWriter = objectMapper.writerFor(Snapshot.class);
+        this.snapshotReader = objectMapper.readerFor(Snapshot.class);
+        if (snapshot == null) {
+            this.snapshotTimer = null;
+            return;
+        }
+        load();
+        this.snapshotTimer = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform()
+                .name("fcm-token-cache-snapshot")
+                .daemon(true)
+                .factory());
+        long interval = snapshotInterval.toMillis();
+        this.snapshotTimer.scheduleWithFixedDelay(this::save, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the error FCM reported for the token, if the token is known to be invalid.
+     *
+     * @param token the registration token
+     * @return the reported error, or null if the token is not known to be invalid
+     */
+    public FcmError get(String token) {
+        Entry entry = entries.get(token);
+        if (entry != null) {
+            if (entry.expiresAt() > System.currentTimeMillis()) {
+                hits.increment();
+                return entry.error();
+            }
+            entries.remove(token, entry);
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Returns the entry of the token without counting a lookup, for inspection.
+     *
+     * @param token the registration token
+     * @return the unexpired entry, or null if the token is not known to be invalid
+     */
+    public Entry entry(String token) {
+        Entry entry = entries.get(token);
+        return entry == null || entry.expiresAt() <= System.currentTimeMillis() ? null : entry;
+    }
+
+    /**
+     * Records that FCM reported the token as invalid.
+     *
+     * @param token the registration token
+     * @param error the error reported by FCM
+     */
+    public void put(String token, FcmError error) {
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+        entries.put(token, new Entry(error, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Forgets the token, for instance because the device registered it again.
+     *
+     * @param token the registration token
+     * @return {@code true} if the token was held
+     */
+    public boolean remove(String token) {
+        return entries.remove(token) != null;
+    }
+
+    /**
+     * Forgets every token.
+     *
+     * @return the number of tokens forgotten
+     */
+    public int purge() {
+        int size = entries.size();
+        entries.clear();
+        return size;
+    }
+
+    /**
+     * Returns the tokens currently held, with the error FCM reported for each and when it expires.
+     *
+     * @return the unexpired entries, keyed by token
+     */
+    public Map<String, Entry> export() {
+        long now = System.currentTimeMillis();
+        Map<String, Entry> export = new HashMap<>();
+        entries.forEach((token, entry) -> {
+            if (entry.expiresAt() > now) {
+                export.put(token, entry);
+            }
+        });
+        return export;
+    }
+
+    /**
+     * Returns the number of tokens currently held, including expired ones not yet dropped.
+     *
+     * @return the cache size
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the unexpired entries to the snapshot file, replacing it atomically. Does nothing without a snapshot.
+     */
+    public void save() {
+        if (snapshot == null) {
+            return;
+        }
+        try {
+            Path parent = snapshot.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = Files.createTempFile(parent, snapshot.getFileName().toString(), ".tmp");
+            try {
+                List<SnapshotEntry> tokens = new ArrayList<>(entries.size());
+                export().forEach((token, entry) -> tokens.add(new SnapshotEntry(token, entry.error(), entry.expiresAt())));
+                snapshotWriter.writeValue(temp.toFile(), new Snapshot(tokens));
+                Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ex) {
+            logger.warn("Failed to save the invalid FCM token snapshot to {}", snapshot, ex);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("fcm.token.cache.size", this, FcmInvalidTokenCache::size)
+                .description("Registration tokens known to be invalid")
+                .tags(tenantTags)
+                .register(registry);
+        FunctionCounter.builder("fcm.token.cache.requests", hits, LongAdder::sum)
+                .description("Lookups of the invalid token cache")
+                .tags(tenantTags)
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("fcm.token.cache.requests", misses, LongAdder::sum)
+                .description("Lookups of the invalid token cache")
+                .tags(tenantTags)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("fcm.token.cache.evictions", evictions, LongAdder::sum)
+                .description("Invalid tokens evicted before expiry because the cache was full")
+                .tags(tenantTags)
+                .register(registry);
+    }
+
+    /**
+     * Stops the periodic snapshot and writes a final one.
+     */
+    @Override
+    public void close() {
+        if (snapshotTimer != null) {
+            snapshotTimer.shutdownNow();
+            save();
+        }
+    }
+
+    private void load() {
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        try {
+            Snapshot loaded = snapshotReader.readValue(snapshot.toFile());
+            long now = System.currentTimeMillis();
+            for (SnapshotEntry entry : loaded.tokens()) {
+                if (entry.expiresAt() > now && entries.size() < maxSize) {
+                    entries.put(entry.token(), new Entry(entry.error(), entry.expiresAt()));
+                }
+            }
+            logger.info("Loaded {} invalid FCM tokens from {}", entries.size(), snapshot);
+        } catch (IOException ex) {
+            logger.warn("Failed to load the invalid FCM token snapshot from {}, starting empty", snapshot, ex);
+        }
+    }
+
+    /**
+     * Drops expired entries, then arbitrary entries until a tenth of the cache is free.
+     * Only one thread evicts at a time; the others carry on and may overshoot the bound briefly.
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> entry.expiresAt() <= now);
+            int target = maxSize - Math.max(1, maxSize / 10);
+            Iterator<String> tokens = entries.keySet().iterator();
+            while (entries.size() > target && tokens.hasNext()) {
+                tokens.next();
+                tokens.remove();
+                evictions.increment();
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * A token known to be invalid.
+     *
+     * @param error     the error FCM reported for the token
+     * @param expiresAt when the entry expires, in milliseconds since the epoch
+     */
+    public record Entry(FcmError error, long expiresAt) {
+    }
+
+    /**
+     * The on-disk form of the cache.
+     *
+     * @param tokens the unexpired entries
+     */
+    record Snapshot(List<SnapshotEntry> tokens) {
+    }
+
+    /**
+     * The on-disk form of one entry.
+     *
+     * @param token     the registration token
+     * @param error     the error FCM reported for the token
+     * @param expiresAt when the entry expires, in milliseconds since the epoch
+     */
+    record SnapshotEntry(String token, FcmError error, long expiresAt) {
+    }
+}
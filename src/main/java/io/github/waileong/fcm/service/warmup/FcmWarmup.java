@@ -0,0 +1,198 @@
+package io.github.waileong.fcm.service.warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.github.waileong.fcm.exception.FcmRestClientException;
+import io.github.waileong.fcm.service.FcmService;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmNotification;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.support.FcmErrors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms up the send path once the application has started, so that the first real sends after a start or a deploy
+ * do not pay for it:
+ * <ol>
+ *     <li>one message is sent to a token that does not exist, which makes the {@link FcmService} sign its JWT,
+ *     exchange it for an OAuth access token and open a first TLS connection to FCM;</li>
+ *     <li>{@code connections} such messages are then sent at the same time, so that as many connections are
+ *     opened and kept alive by the HTTP client;</li>
+ *     <li>a sample {@link FcmSendRequest} is serialized and read back {@code serializationIterations} times, so
+ *     that Jackson has built its serializers and the JIT has compiled them.</li>
+ * </ol>
+ * FCM answers the messages with an error, as the token does not exist; only a failure to reach FCM, or an
+ * authentication or permission error, fails the warmup. The messages go straight to the {@link FcmService}, bypassing the dispatcher, the
+ * invalid token cache and the metrics, so the warmup shows up in none of them.
+ * <p>
+ * The warmup runs on its own thread, and is complete once it has run or once {@code timeout} has elapsed since it
+ * started, whichever comes first, so that a slow or unreachable FCM delays readiness by at most the timeout.
+ *
+ * @author Wai Leong
+ */
+public class FcmWarmup implements ApplicationListener<ApplicationStartedEvent> {
+    private static final String WARMUP_TOKEN = "fcm-endpoint-warmup";
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final FcmService fcmService;
+    private final ObjectWriter requestWriter;
+    private final ObjectReader requestReader;
+    private final int connections;
+    private final int serializationIterations;
+    private final long timeoutNanos;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile long startNanos;
+    private volatile long durationNanos = -1;
+    private volatile String error;
+
+    /**
+     * Constructs a FcmWarmup.
+     *
+     * @param fcmService              the FcmService to warm up
+     * @param objectMapper            the object mapper the requests are serialized with
+     * @param connections             the number of connections to FCM to open at the same time
+     * @param serializationIterations the number of times the sample request is serialized and read back
+     * @param timeout                 how long the warmup may delay readiness at most
+     */
+    public FcmWarmup(FcmService fcmService, ObjectMapper objectMapper, int connections, int serializationIterations,
+                     Duration timeout) {
+        if (connections < 0 || serializationIterations < 0) {
+            throw new IllegalArgumentException("connections and serializationIterations must not be negative");
+        }
+        this.fcmService = fcmService;
+        this.requestWriter = objectMapper.writerFor(FcmSendRequest.class);
+        this.requestReader = objectMapper.readerFor(FcmSendRequest.class);
+        this.connections = connections;
+        this.serializationIterations = serializationIterations;
+        this.timeoutNanos = timeout.toNanos();
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationStartedEvent event) {
+        start();
+    }
+
+    /**
+     * Starts the warmup on its own thread, unless it has already been started. Returns immediately.
+     */
+    public synchronized void start() {
+        if (startNanos != 0) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        Thread.ofPlatform()
+                .name("fcm-warmup")
+                .daemon(true)
+                .start(this::run);
+    }
+
+    /**
+     * Returns whether the warmup is complete, either because it has run or because the timeout has elapsed.
+     *
+     * @return true once the warmup no longer holds readiness back
+     */
+    public boolean isComplete() {
+        long start = startNanos;
+        return done.isDone() || (start != 0 && System.nanoTime() - start >= timeoutNanos);
+    }
+
+    /**
+     * Returns whether the warmup has run to its end, successfully or not.
+     *
+     * @return true once the warmup has finished
+     */
+    public boolean isFinished() {
+        return done.isDone();
+    }
+
+    /**
+     * Returns how long the warmup took.
+     *
+     * @return the duration of the warmup, or null if it has not finished
+     */
+    public Duration getDuration() {
+        long duration = durationNanos;
+        return duration < 0 ? null : Duration.ofNanos(duration);
+    }
+
+    /**
+     * Returns why the warmup failed.
+     *
+     * @return the failure of the warmup, or null if it succeeded or has not finished
+     */
+    public String getError() {
+        return error;
+    }
+
+    private void run() {
+        try {
+            FcmSendRequest request = FcmSendRequest.Builder.aFcmSendRequest()
+                    .message(FcmMessage.Builder.aFcmMessage()
+                            .token(WARMUP_TOKEN)
+                            .notification(FcmNotification.Builder.aFcmNotification()
+                                    .title("warmup")
+                                    .body("warmup")
+                                    .build())
+                            .data(Map.of("warmup", "true"))
+                            .build())
+                    .build();
+            send(request);
+            openConnections(request);
+            for (int i = 0; i < serializationIterations; i++) {
+                requestReader.readValue(requestWriter.writeValueAsBytes(request));
+            }
+            logger.info("FCM send path warmed up in {} ms", elapsedMillis());
+        } catch (IOException | RuntimeException ex) {
+            error = String.valueOf(ex.getMessage());
+            logger.warn("FCM warmup failed after {} ms, the first sends may be slow", elapsedMillis(), ex);
+        } finally {
+            durationNanos = System.nanoTime() - startNanos;
+            done.complete(null);
+        }
+    }
+
+    private void openConnections(FcmSendRequest request) {
+        if (connections == 0) {
+            return;
+        }
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<Void>> sends = new ArrayList<>(connections);
+            for (int i = 0; i < connections; i++) {
+                sends.add(CompletableFuture.runAsync(() -> send(request), executor));
+            }
+            CompletableFuture.allOf(sends.toArray(CompletableFuture[]::new)).join();
+        }
+    }
+
+    /**
+     * Sends the message to FCM. An error FCM answers with is expected, as the token does not exist, unless it
+     * means the credentials are wrong.
+     */
+    private void send(FcmSendRequest request) {
+        try {
+            fcmService.send(request);
+        } catch (FcmRestClientException ex) {
+            int code = FcmErrors.code(ex.getError());
+            if (code == 401 || code == 403) {
+                throw ex;
+            }
+            logger.debug("FCM answered the warmup message with {}", FcmErrors.status(ex.getError()));
+        }
+    }
+
+    private long elapsedMillis() {
+        return Duration.ofNanos(System.nanoTime() - startNanos).toMillis();
+    }
+}
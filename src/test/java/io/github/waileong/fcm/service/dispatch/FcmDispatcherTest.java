@@ -0,0 +1,139 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the {@link FcmDispatcher}, in particular that a send accepted while the dispatcher is closing is either
+ * run or failed, and never left pending, and that a send waiting for room in a full lane is released by the room
+ * being made or by the dispatcher being closed.
+ *
+ * @author Wai Leong
+ */
+class FcmDispatcherTest {
+
+    @RepeatedTest(20)
+    void settlesEverySendAcceptedWhileClosing() throws Exception {
+        FcmDispatcher dispatcher = dispatcher(4, 16);
+        Queue<CompletableFuture<Integer>> accepted = new ConcurrentLinkedQueue<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Thread> submitters = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            FcmPriority priority = i % 2 == 0 ? FcmPriority.HIGH : FcmPriority.NORMAL;
+            boolean awaitCapacity = i == 3;
+            submitters.add(Thread.ofPlatform().start(() -> {
+                for (int n = 0; !stop.get(); n++) {
+                    int value = n;
+                    try {
+                        accepted.add(dispatcher.submit(priority, () -> CompletableFuture.completedFuture(value),
+                                awaitCapacity));
+                    } catch (FcmDispatchRejectedException ex) {
+                        Thread.onSpinWait();
+                    }
+                }
+            }));
+        }
+        await(() -> accepted.size() > 100);
+
+        dispatcher.close();
+        stop.set(true);
+        for (Thread submitter : submitters) {
+            assertThat(submitter.join(Duration.ofSeconds(10))).isTrue();
+        }
+
+        int succeeded = 0;
+        for (CompletableFuture<Integer> result : accepted) {
+            Throwable failure = result.handle((value, throwable) -> throwable).get(10, TimeUnit.SECONDS);
+            if (failure == null) {
+                succeeded++;
+            } else {
+                assertThat(unwrap(failure)).isInstanceOf(FcmDispatchRejectedException.class);
+            }
+        }
+        assertThat(succeeded).isPositive();
+    }
+
+    @Test
+    void waitsForRoomInAFullLaneWhenAsked() throws Exception {
+        FcmDispatcher dispatcher = dispatcher(1, 1);
+        CompletableFuture<Integer> held = new CompletableFuture<>();
+        CompletableFuture<Integer> first = dispatcher.submit(FcmPriority.NORMAL, () -> held);
+        await(() -> dispatcher.getInFlight() == 1);
+        CompletableFuture<Integer> second = dispatcher.submit(FcmPriority.NORMAL,
+                () -> CompletableFuture.completedFuture(2));
+
+        assertThatThrownBy(() -> dispatcher.submit(FcmPriority.NORMAL, () -> CompletableFuture.completedFuture(3)))
+                .isInstanceOf(FcmDispatchRejectedException.class);
+        CompletableFuture<CompletableFuture<Integer>> third = CompletableFuture.supplyAsync(() ->
+                dispatcher.submit(FcmPriority.NORMAL, () -> CompletableFuture.completedFuture(3), true));
+        Thread.sleep(200);
+        assertThat(third.isDone()).isFalse();
+
+        held.complete(1);
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(1);
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+        assertThat(third.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS)).isEqualTo(3);
+        dispatcher.close();
+    }
+
+    @Test
+    void rejectsASendWaitingForRoomOnceClosed() throws Exception {
+        FcmDispatcher dispatcher = dispatcher(1, 1);
+        CompletableFuture<Integer> held = new CompletableFuture<>();
+        dispatcher.submit(FcmPriority.NORMAL, () -> held);
+        await(() -> dispatcher.getInFlight() == 1);
+        CompletableFuture<Integer> queued = dispatcher.submit(FcmPriority.NORMAL,
+                () -> CompletableFuture.completedFuture(2));
+        CompletableFuture<CompletableFuture<Integer>> waiting = CompletableFuture.supplyAsync(() ->
+                dispatcher.submit(FcmPriority.NORMAL, () -> CompletableFuture.completedFuture(3), true));
+        Thread.sleep(200);
+
+        Thread closer = Thread.ofPlatform().start(dispatcher::close);
+
+        Throwable failure = waiting.handle((result, throwable) -> throwable).get(5, TimeUnit.SECONDS);
+        assertThat(unwrap(failure)).isInstanceOf(FcmDispatchRejectedException.class);
+        held.complete(1);
+        assertThat(closer.join(Duration.ofSeconds(10))).isTrue();
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo(2);
+        assertThatThrownBy(() -> dispatcher.submit(FcmPriority.HIGH, () -> CompletableFuture.completedFuture(4)))
+                .isInstanceOf(FcmDispatchRejectedException.class);
+    }
+
+    private static FcmDispatcher dispatcher(int maxInFlight, int capacity) {
+        FcmDispatcher.LaneSettings settings = new FcmDispatcher.LaneSettings(capacity, 1, Duration.ofSeconds(1));
+        return new FcmDispatcher(Executors.newVirtualThreadPerTaskExecutor(), maxInFlight,
+                Map.of(FcmPriority.HIGH, settings, FcmPriority.NORMAL, settings));
+    }
+
+    private static Throwable unwrap(Throwable throwable) {
+        return throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).as("condition not met within 5s").isNegative();
+            Thread.sleep(1);
+        }
+    }
+}
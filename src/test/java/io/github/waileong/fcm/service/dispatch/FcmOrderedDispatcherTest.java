@@ -0,0 +1,160 @@
+package io.github.waileong.fcm.service.dispatch;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the hand-off along the chain of a token in the {@link FcmOrderedDispatcher}: a send only starts once the
+ * previous send to its token has completed, whether that send succeeded or failed, while other tokens are not
+ * held up.
+ *
+ * @author Wai Leong
+ */
+class FcmOrderedDispatcherTest {
+    private final BlockingQueue<String> started = new LinkedBlockingQueue<>();
+    private final List<CompletableFuture<String>> sends = new ArrayList<>();
+    private FcmDispatcher dispatcher;
+    private FcmOrderedDispatcher ordered;
+
+    @BeforeEach
+    void setUp() {
+        FcmDispatcher.LaneSettings settings = new FcmDispatcher.LaneSettings(64, 1, Duration.ofSeconds(1));
+        dispatcher = new FcmDispatcher(Executors.newVirtualThreadPerTaskExecutor(), 16,
+                Map.of(FcmPriority.HIGH, settings, FcmPriority.NORMAL, settings));
+        ordered = new FcmOrderedDispatcher(dispatcher, 4, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        sends.forEach(send -> send.complete("done"));
+        dispatcher.close();
+    }
+
+    @Test
+    void startsEachSendOnceThePreviousSendToTheTokenHasCompleted() throws Exception {
+        CompletableFuture<String> first = ordered.submit(FcmPriority.NORMAL, "a", send("a1"));
+        CompletableFuture<String> second = ordered.submit(FcmPriority.NORMAL, "a", send("a2"));
+        CompletableFuture<String> third = ordered.submit(FcmPriority.HIGH, "a", send("a3"));
+
+        assertThat(nextStarted()).isEqualTo("a1");
+        assertThat(started.poll(200, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(ordered.getWaiting()).isEqualTo(2);
+
+        complete(0, "r1");
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("r1");
+        assertThat(nextStarted()).isEqualTo("a2");
+        assertThat(started.poll(200, TimeUnit.MILLISECONDS)).isNull();
+
+        complete(1, "r2");
+        assertThat(nextStarted()).isEqualTo("a3");
+        complete(2, "r3");
+
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("r2");
+        assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo("r3");
+        assertThat(ordered.getWaiting()).isZero();
+    }
+
+    @Test
+    void handsOffAfterAFailedSend() throws Exception {
+        CompletableFuture<String> first = ordered.submit(FcmPriority.NORMAL, "a", send("a1"));
+        CompletableFuture<String> second = ordered.submit(FcmPriority.NORMAL, "a", send("a2"));
+        assertThat(nextStarted()).isEqualTo("a1");
+
+        sends.get(0).completeExceptionally(new IllegalStateException("boom"));
+
+        assertThat(nextStarted()).isEqualTo("a2");
+        complete(1, "r2");
+        assertThat(first.isCompletedExceptionally()).isTrue();
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("r2");
+    }
+
+    @Test
+    void handsOffAfterASendThrowing() throws Exception {
+        CompletableFuture<String> first = ordered.submit(FcmPriority.NORMAL, "a", send("a1"));
+        CompletableFuture<String> failing = ordered.submit(FcmPriority.NORMAL, "a", () -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<String> third = ordered.submit(FcmPriority.NORMAL, "a", send("a3"));
+        assertThat(nextStarted()).isEqualTo("a1");
+
+        complete(0, "r1");
+
+        assertThat(nextStarted()).isEqualTo("a3");
+        complete(1, "r3");
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("r1");
+        assertThat(failing.handle((result, throwable) -> throwable).get(5, TimeUnit.SECONDS))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo("r3");
+    }
+
+    @Test
+    void doesNotHoldUpOtherTokens() throws Exception {
+        ordered.submit(FcmPriority.NORMAL, "a", send("a1"));
+        ordered.submit(FcmPriority.NORMAL, "a", send("a2"));
+        assertThat(nextStarted()).isEqualTo("a1");
+
+        CompletableFuture<String> other = ordered.submit(FcmPriority.NORMAL, "b", send("b1"));
+
+        assertThat(nextStarted()).isEqualTo("b1");
+        complete(2, "rb");
+        assertThat(other.get(5, TimeUnit.SECONDS)).isEqualTo("rb");
+        assertThat(started.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void rejectsSendsBeyondTheChainLimitUntilItDrains() throws Exception {
+        ordered.submit(FcmPriority.NORMAL, "a", send("a1"));
+        ordered.submit(FcmPriority.NORMAL, "a", send("a2"));
+        ordered.submit(FcmPriority.NORMAL, "a", send("a3"));
+
+        assertThatThrownBy(() -> ordered.submit(FcmPriority.NORMAL, "a", send("a4")))
+                .isInstanceOf(FcmDispatchRejectedException.class);
+
+        assertThat(nextStarted()).isEqualTo("a1");
+        complete(0, "r1");
+        assertThat(nextStarted()).isEqualTo("a2");
+        complete(1, "r2");
+        assertThat(nextStarted()).isEqualTo("a3");
+        CompletableFuture<String> last = sends.get(2);
+        complete(2, "r3");
+        last.get(5, TimeUnit.SECONDS);
+
+        ordered.submit(FcmPriority.NORMAL, "a", send("a5"));
+        assertThat(nextStarted()).isEqualTo("a5");
+    }
+
+    private Supplier<CompletableFuture<String>> send(String name) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        sends.add(result);
+        return () -> {
+            started.add(name);
+            return result;
+        };
+    }
+
+    private void complete(int index, String value) {
+        sends.get(index).complete(value);
+    }
+
+    private String nextStarted() throws InterruptedException {
+        String name = started.poll(5, TimeUnit.SECONDS);
+        assertThat(name).as("a send started within 5s").isNotNull();
+        return name;
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.waileong.fcm.service.outbox;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmNotification;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the recovery of the {@link FcmOutbox} from a segment whose last record was torn by a crash, and the
+ * compaction of its sealed segments.
+ *
+ * @author Wai Leong
+ */
+class FcmOutboxTest {
+    private static final long SEGMENT_SIZE = 1024 * 1024;
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recoversTheUnacknowledgedMessagesAndCutsOffATornTail() throws Exception {
+        FcmOutbox outbox = open(Duration.ofHours(1));
+        long first = outbox.append(request("t1"), FcmPriority.HIGH, null);
+        long second = outbox.append(request("t2"), FcmPriority.NORMAL, "acme");
+        long third = outbox.append(request("t3"), FcmPriority.NORMAL, null);
+        outbox.ack(third);
+        outbox.close();
+
+        Path segment = segments().get(0);
+        long intact = Files.size(segment);
+        ByteBuffer torn = ByteBuffer.allocate(Integer.BYTES * 2 + 10).putInt(100).putInt(0x1234);
+        Files.write(segment, torn.array(), StandardOpenOption.APPEND);
+
+        outbox = open(Duration.ofHours(1));
+        List<FcmOutboxEntry> recovered = outbox.takeRecovered();
+
+        assertThat(Files.size(segment)).isEqualTo(intact);
+        assertThat(recovered).extracting(FcmOutboxEntry::id).containsExactly(first, second);
+        assertThat(recovered.get(0).priority()).isEqualTo(FcmPriority.HIGH);
+        assertThat(recovered.get(0).tenant()).isNull();
+        assertThat(recovered.get(0).request().getMessage().getToken()).isEqualTo("t1");
+        assertThat(recovered.get(1).priority()).isEqualTo(FcmPriority.NORMAL);
+        assertThat(recovered.get(1).tenant()).isEqualTo("acme");
+        assertThat(recovered.get(1).request().getMessage().getToken()).isEqualTo("t2");
+        assertThat(outbox.takeRecovered()).isEmpty();
+
+        long fourth = outbox.append(request("t4"), FcmPriority.NORMAL, null);
+        outbox.close();
+
+        assertThat(fourth).isGreaterThan(third);
+        outbox = open(Duration.ofHours(1));
+        assertThat(outbox.takeRecovered()).extracting(FcmOutboxEntry::id).containsExactly(first, second, fourth);
+        outbox.close();
+    }
+
+    @Test
+    void copiesSparseSegmentsForwardAndDeletesAcknowledgedOnes() throws Exception {
+        FcmOutbox outbox = open(Duration.ofHours(1));
+        for (int i = 0; i < 3; i++) {
+            outbox.ack(outbox.append(request("acked" + i), FcmPriority.NORMAL, null));
+        }
+        long pending = outbox.append(request("pending"), FcmPriority.HIGH, "acme");
+        outbox.close();
+        Path sparse = segments().get(0);
+
+        outbox = open(Duration.ofMillis(10));
+        assertThat(outbox.takeRecovered()).extracting(FcmOutboxEntry::id).containsExactly(pending);
+        await(() -> !Files.exists(sparse));
+        outbox.close();
+
+        outbox = open(Duration.ofMillis(10));
+        List<FcmOutboxEntry> recovered = outbox.takeRecovered();
+        assertThat(recovered).extracting(FcmOutboxEntry::id).containsExactly(pending);
+        assertThat(recovered.get(0).priority()).isEqualTo(FcmPriority.HIGH);
+        assertThat(recovered.get(0).tenant()).isEqualTo("acme");
+        assertThat(recovered.get(0).request().getMessage().getToken()).isEqualTo("pending");
+
+        outbox.ack(pending);
+        await(() -> segments().size() == 1);
+        outbox.close();
+
+        outbox = open(Duration.ofHours(1));
+        assertThat(outbox.takeRecovered()).isEmpty();
+        assertThat(outbox.getPending()).isZero();
+        outbox.close();
+    }
+
+    private FcmOutbox open(Duration compactInterval) {
+        return new FcmOutbox(directory, SEGMENT_SIZE, 64, compactInterval, 0.5, objectMapper);
+    }
+
+    private List<Path> segments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static FcmSendRequest request(String token) {
+        return FcmSendRequest.Builder.aFcmSendRequest()
+                .message(FcmMessage.Builder.aFcmMessage()
+                        .token(token)
+                        .notification(FcmNotification.Builder.aFcmNotification()
+                                .title("Title")
+                                .body("Body")
+                                .build())
+                        .build())
+                .build();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).as("condition not met within 5s").isNegative();
+            Thread.sleep(10);
+        }
+    }
+}
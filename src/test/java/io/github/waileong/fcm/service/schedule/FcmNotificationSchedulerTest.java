@@ -0,0 +1,163 @@
+package io.github.waileong.fcm.service.schedule;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.waileong.fcm.service.FcmNotificationService;
+import io.github.waileong.fcm.service.domain.FcmMessage;
+import io.github.waileong.fcm.service.domain.FcmNotification;
+import io.github.waileong.fcm.service.domain.FcmSendRequest;
+import io.github.waileong.fcm.service.model.FcmPriority;
+import io.github.waileong.fcm.service.model.FcmSendOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the snapshot of the {@link FcmNotificationScheduler}, in particular that a snapshot written in the first
+ * version of the format, before notifications had a tenant, is still loaded and is rewritten in the current one.
+ *
+ * @author Wai Leong
+ */
+class FcmNotificationSchedulerTest {
+    private static final int MAGIC = 0x46434D53;
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void migratesAVersionOneSnapshot() throws Exception {
+        Path snapshot = directory.resolve("schedule.bin");
+        long now = System.currentTimeMillis();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshot))) {
+            out.writeInt(MAGIC);
+            out.writeInt(1);
+            out.writeInt(3);
+            writeVersionOne(out, 7, now + Duration.ofHours(1).toMillis(), FcmPriority.HIGH, "k7", request("t7"));
+            writeVersionOne(out, 9, now + Duration.ofHours(2).toMillis(), FcmPriority.NORMAL, null, request("t9"));
+            writeVersionOne(out, 4, now - Duration.ofMinutes(1).toMillis(), FcmPriority.HIGH, "k4", request("t4"));
+        }
+        FcmNotificationService service = service();
+
+        FcmNotificationScheduler scheduler = open(service, snapshot);
+
+        ArgumentCaptor<FcmSendRequest> request = ArgumentCaptor.forClass(FcmSendRequest.class);
+        ArgumentCaptor<FcmSendOptions> options = ArgumentCaptor.forClass(FcmSendOptions.class);
+        verify(service).sendComplex(request.capture(), options.capture());
+        assertThat(request.getValue().getMessage().getToken()).isEqualTo("t4");
+        assertThat(options.getValue().getPriority()).isEqualTo(FcmPriority.HIGH);
+        assertThat(options.getValue().getIdempotencyKey()).isEqualTo("k4");
+        assertThat(options.getValue().getTenant()).isNull();
+        assertThat(scheduler.getPending()).isEqualTo(2);
+        scheduler.close();
+
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshot))) {
+            assertThat(in.readInt()).isEqualTo(MAGIC);
+            assertThat(in.readInt()).isEqualTo(2);
+            assertThat(in.readInt()).isEqualTo(2);
+        }
+        FcmNotificationService reloadedService = service();
+        FcmNotificationScheduler reloaded = open(reloadedService, snapshot);
+        assertThat(reloaded.getPending()).isEqualTo(2);
+        assertThat(reloaded.schedule(request("t10"), Instant.ofEpochMilli(now).plus(Duration.ofHours(3)),
+                FcmSendOptions.defaults())).isEqualTo(10);
+        assertThat(reloaded.cancel(7)).isTrue();
+        assertThat(reloaded.cancel(9)).isTrue();
+        assertThat(reloaded.cancel(4)).isFalse();
+        verify(reloadedService, never()).sendComplex(any(), any());
+        reloaded.close();
+    }
+
+    @Test
+    void keepsTheTenantOfANotificationAcrossASnapshot() throws Exception {
+        Path snapshot = directory.resolve("schedule.bin");
+        FcmNotificationScheduler scheduler = open(service(), snapshot);
+        Instant sendAt = Instant.now().plusMillis(1000);
+        scheduler.schedule(request("t1"), sendAt, FcmSendOptions.Builder.aFcmSendOptions()
+                .priority(FcmPriority.HIGH)
+                .idempotencyKey("k1")
+                .tenant("acme")
+                .build());
+        scheduler.close();
+        Thread.sleep(Math.max(0, Duration.between(Instant.now(), sendAt).toMillis() + 300));
+        FcmNotificationService service = service();
+
+        FcmNotificationScheduler reloaded = open(service, snapshot);
+
+        ArgumentCaptor<FcmSendOptions> options = ArgumentCaptor.forClass(FcmSendOptions.class);
+        verify(service).sendComplex(any(), options.capture());
+        assertThat(options.getValue().getPriority()).isEqualTo(FcmPriority.HIGH);
+        assertThat(options.getValue().getIdempotencyKey()).isEqualTo("k1");
+        assertThat(options.getValue().getTenant()).isEqualTo("acme");
+        assertThat(reloaded.getPending()).isZero();
+        reloaded.close();
+    }
+
+    @Test
+    void startsEmptyFromASnapshotOfAnUnknownVersion() throws Exception {
+        Path snapshot = directory.resolve("schedule.bin");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(snapshot))) {
+            out.writeInt(MAGIC);
+            out.writeInt(3);
+            out.writeInt(0);
+        }
+
+        FcmNotificationScheduler scheduler = open(service(), snapshot);
+
+        assertThat(scheduler.getPending()).isZero();
+        scheduler.close();
+    }
+
+    private FcmNotificationScheduler open(FcmNotificationService service, Path snapshot) {
+        return new FcmNotificationScheduler(service, Runnable::run, objectMapper, Duration.ofMillis(100), 100,
+                snapshot, Duration.ofHours(1));
+    }
+
+    private void writeVersionOne(DataOutputStream out, long id, long dueMillis, FcmPriority priority,
+                                 String idempotencyKey, FcmSendRequest request) throws IOException {
+        byte[] payload = objectMapper.writeValueAsBytes(request);
+        out.writeLong(id);
+        out.writeLong(dueMillis);
+        out.writeByte(priority.ordinal());
+        out.writeBoolean(idempotencyKey != null);
+        if (idempotencyKey != null) {
+            out.writeUTF(idempotencyKey);
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    private static FcmNotificationService service() {
+        FcmNotificationService service = mock(FcmNotificationService.class);
+        when(service.sendComplex(any(), any())).thenReturn(new CompletableFuture<>());
+        return service;
+    }
+
+    private static FcmSendRequest request(String token) {
+        return FcmSendRequest.Builder.aFcmSendRequest()
+                .message(FcmMessage.Builder.aFcmMessage()
+                        .token(token)
+                        .notification(FcmNotification.Builder.aFcmNotification()
+                                .title("Title")
+                                .body("Body")
+                                .build())
+                        .build())
+                .build();
+    }
+}
@@ -0,0 +1,108 @@
+package io.github.waileong.fcm.service.schedule;
+
+import io.github.waileong.fcm.service.model.FcmPriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the {@link TimingWheel}, in particular entries cascaded down from a coarser wheel when a finer wheel
+ * completes a turn, which must expire on their due tick rather than a turn early or late.
+ *
+ * @author Wai Leong
+ */
+class TimingWheelTest {
+    private static final long LEVEL_1 = 1L << 8;
+    private static final long LEVEL_2 = 1L << 16;
+    private static final long LEVEL_3 = 1L << 24;
+
+    @Test
+    void expiresEntriesDueAroundLevelBoundariesOnTheirTick() {
+        long[] starts = {0, 1, LEVEL_1 - 1, LEVEL_1 + 7, LEVEL_2 - 1, LEVEL_2 + LEVEL_1 + 3};
+        long[] offsets = {0, 1, LEVEL_1 - 1, LEVEL_1, LEVEL_1 + 1, 2 * LEVEL_1, LEVEL_2 - 1, LEVEL_2, LEVEL_2 + 1,
+                3 * LEVEL_2 + LEVEL_1 + 1, LEVEL_3 - 1, LEVEL_3, LEVEL_3 + 1};
+        for (long start : starts) {
+            for (long offset : offsets) {
+                long due = start + offset;
+                TimingWheel wheel = new TimingWheel(1, start);
+                assertThat(wheel.add(entry(1, due))).isTrue();
+
+                List<TimingWheel.Entry> expired = new ArrayList<>();
+                wheel.advance(due - 1, expired::add);
+                assertThat(expired).as("due %d from %d, before its tick", due, start).isEmpty();
+                assertThat(wheel.size()).isEqualTo(1);
+
+                wheel.advance(due, expired::add);
+                assertThat(expired).as("due %d from %d, on its tick", due, start).hasSize(1);
+                assertThat(wheel.size()).isZero();
+            }
+        }
+    }
+
+    @Test
+    void expiresEntriesInDueOrderWhateverTheSteps() {
+        Random random = new Random(42);
+        long start = LEVEL_2 - 300;
+        TimingWheel wheel = new TimingWheel(1, start);
+        for (int i = 0; i < 5000; i++) {
+            long offset = switch (i % 3) {
+                case 0 -> random.nextInt((int) LEVEL_1);
+                case 1 -> random.nextInt((int) LEVEL_2);
+                default -> random.nextInt((int) (4 * LEVEL_2));
+            };
+            wheel.add(entry(i, start + offset));
+        }
+
+        List<TimingWheel.Entry> expired = new ArrayList<>();
+        long now = start;
+        while (wheel.size() > 0) {
+            now += 1 + random.nextInt(700);
+            int from = expired.size();
+            wheel.advance(now, expired::add);
+            for (TimingWheel.Entry entry : expired.subList(from, expired.size())) {
+                assertThat(entry.dueMillis).isLessThanOrEqualTo(now);
+            }
+            long reached = now;
+            wheel.forEach(entry -> assertThat(entry.dueMillis).isGreaterThan(reached));
+        }
+
+        assertThat(expired).hasSize(5000);
+        for (int i = 1; i < expired.size(); i++) {
+            assertThat(expired.get(i).dueMillis).isGreaterThanOrEqualTo(expired.get(i - 1).dueMillis);
+        }
+    }
+
+    @Test
+    void removesAnEntryAfterItWasCascaded() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        TimingWheel.Entry cascaded = entry(1, LEVEL_1 + 40);
+        TimingWheel.Entry neighbour = entry(2, LEVEL_1 + 40);
+        wheel.add(cascaded);
+        wheel.add(neighbour);
+
+        List<TimingWheel.Entry> expired = new ArrayList<>();
+        wheel.advance(LEVEL_1, expired::add);
+        wheel.remove(cascaded);
+        wheel.advance(LEVEL_1 + 40, expired::add);
+
+        assertThat(expired).containsExactly(neighbour);
+        assertThat(wheel.size()).isZero();
+    }
+
+    @Test
+    void rejectsEntriesAlreadyDue() {
+        TimingWheel wheel = new TimingWheel(10, 1000);
+
+        assertThat(wheel.add(entry(1, 990))).isFalse();
+        assertThat(wheel.add(entry(2, 1000))).isTrue();
+        assertThat(wheel.size()).isEqualTo(1);
+    }
+
+    private static TimingWheel.Entry entry(long id, long dueMillis) {
+        return new TimingWheel.Entry(id, dueMillis, FcmPriority.NORMAL, null, null, new byte[0]);
+    }
+}